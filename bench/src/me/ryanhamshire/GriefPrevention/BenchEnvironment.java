@@ -0,0 +1,270 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.File;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+//stands in for the server, so the data store and claims can run in a benchmark without Minecraft
+//worlds, players and the server are proxies which answer the few calls GriefPrevention makes and return defaults for everything else
+class BenchEnvironment 
+{
+	//claims are laid out on a grid, at most one per cell, so the space between them is known to be unclaimed
+	final static int CELL_SIZE = 128;
+	final static int MAX_CLAIM_WIDTH = 100;
+	final static int MAX_CLAIM_OFFSET = 16;
+	
+	//a plugin instance which was never loaded by a server, see start()
+	static class BenchPlugin extends GriefPrevention
+	{
+		BenchPlugin(Server server)
+		{
+			this.initialize(null, server, new PluginDescriptionFile("GriefPrevention", "bench", GriefPrevention.class.getName()), new File(DataStore.dataLayerFolderPath), null, BenchPlugin.class.getClassLoader());
+		}
+	}
+	
+	//sets up GriefPrevention.instance with default settings, for a server with these worlds and nobody online
+	static GriefPrevention start(World... worlds)
+	{
+		return BenchEnvironment.start(new HashMap<String, Player>(), worlds);
+	}
+	
+	//sets up GriefPrevention.instance with default settings, for a server with these worlds and these players online
+	//the map is used as it is, so players can come and go.  scheduled tasks never run, and registered listeners are never called
+	static GriefPrevention start(final Map<String, Player> onlinePlayers, World... worlds)
+	{
+		final List<World> worldList = Arrays.asList(worlds);
+		final Logger logger = Logger.getLogger("GriefPrevention Bench");
+		final BukkitScheduler scheduler = BenchEnvironment.proxy(BukkitScheduler.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+		final PluginManager pluginManager = BenchEnvironment.proxy(PluginManager.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+		Server server = BenchEnvironment.proxy(Server.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getWorlds")) return worldList;
+				if(name.equals("getWorld"))
+				{
+					for(int i = 0; i < worldList.size(); i++)
+					{
+						if(worldList.get(i).getName().equals(args[0])) return worldList.get(i);
+					}
+					return null;
+				}
+				if(name.equals("getOnlinePlayers")) return onlinePlayers.values().toArray(new Player [onlinePlayers.size()]);
+				if(name.equals("getPlayer") || name.equals("getPlayerExact")) return onlinePlayers.get(args[0]);
+				if(name.equals("getOfflinePlayer")) return BenchEnvironment.offlinePlayer((String)args[0], onlinePlayers);
+				if(name.equals("getScheduler")) return scheduler;
+				if(name.equals("getPluginManager")) return pluginManager;
+				if(name.equals("getLogger")) return logger;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+		
+		GriefPrevention plugin = new BenchPlugin(server);
+		plugin.config_claims_enabledWorlds = new ArrayList<World>(worldList);
+		plugin.config_claims_enabledCreativeWorlds = new ArrayList<World>();
+		plugin.config_claims_maxDepth = 0;
+		plugin.config_claims_minSize = 10;
+		plugin.config_claims_initialBlocks = 100;
+		plugin.config_playerDataCacheSize = 1000;
+		GriefPrevention.instance = plugin;
+		return plugin;
+	}
+	
+	//makes an offline player, who is online while he's in the map of online players
+	static OfflinePlayer offlinePlayer(final String playerName, final Map<String, Player> onlinePlayers)
+	{
+		return BenchEnvironment.proxy(OfflinePlayer.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getName")) return playerName;
+				if(name.equals("getPlayer")) return onlinePlayers.get(playerName);
+				if(name.equals("isOnline")) return onlinePlayers.containsKey(playerName);
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	//makes a world which only knows its name
+	static World world(final String worldName)
+	{
+		return BenchEnvironment.proxy(World.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getName")) return worldName;
+				if(name.equals("getEnvironment")) return World.Environment.NORMAL;
+				if(name.equals("getMaxHeight")) return 256;
+				if(name.equals("getSeaLevel")) return 64;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	//makes a player without any permissions, standing somewhere in a world with nothing in his hand
+	static Player player(String playerName, World world)
+	{
+		return BenchEnvironment.player(playerName, world, Material.AIR);
+	}
+	
+	//makes a player without any permissions, standing somewhere in a world and holding something
+	static Player player(final String playerName, final World world, final Material itemInHand)
+	{
+		return BenchEnvironment.proxy(Player.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getName")) return playerName;
+				if(name.equals("getWorld")) return world;
+				if(name.equals("getLocation")) return new Location(world, 0, 64, 0);
+				if(name.equals("isOnline")) return true;
+				if(name.equals("getItemInHand")) return new ItemStack(itemInHand);
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	//makes a data store holding some claims, without reading or writing any files, see MemoryStorage
+	static DataStore startDataStore(GriefPrevention plugin, List<Claim> claims) throws Exception
+	{
+		plugin.dataStore = new DataStore(new MemoryStorage(claims));
+		return plugin.dataStore;
+	}
+	
+	//builds top level claims on a grid of cells centered on 0,0, with random sizes, numbered from 1
+	//every subdivisionInterval'th claim (if that's more than zero) gets a subdivision in its lesser corner
+	static ArrayList<Claim> makeClaims(World world, int count, int subdivisionInterval, long seed)
+	{
+		Random random = new Random(seed);
+		int gridSize = (int)Math.ceil(Math.sqrt(count));
+		long nextID = 1;
+		
+		ArrayList<Claim> claims = new ArrayList<Claim>(count);
+		for(int i = 0; i < count; i++)
+		{
+			int lesserX = BenchEnvironment.getCellCorner(i % gridSize, gridSize) + random.nextInt(MAX_CLAIM_OFFSET);
+			int lesserZ = BenchEnvironment.getCellCorner(i / gridSize, gridSize) + random.nextInt(MAX_CLAIM_OFFSET);
+			int width = 10 + random.nextInt(MAX_CLAIM_WIDTH - 10);
+			Claim claim = BenchEnvironment.makeClaim(world, lesserX, lesserZ, lesserX + width - 1, lesserZ + width - 1, "player" + (i % 500));
+			claim.id = nextID++;
+			
+			if(subdivisionInterval > 0 && i % subdivisionInterval == 0)
+			{
+				Claim subdivision = BenchEnvironment.makeClaim(world, lesserX, lesserZ, lesserX + width / 2, lesserZ + width / 2, "player" + (i % 500));
+				subdivision.id = nextID++;
+				subdivision.parent = claim;
+				claim.children.add(subdivision);
+			}
+			
+			claims.add(claim);
+		}
+		
+		return claims;
+	}
+	
+	//gets the lesser X or Z of a grid cell
+	static int getCellCorner(int cell, int gridSize)
+	{
+		return (cell - gridSize / 2) * CELL_SIZE;
+	}
+	
+	//makes a claim reaching from bedrock up, without any permissions
+	static Claim makeClaim(World world, int lesserX, int lesserZ, int greaterX, int greaterZ, String ownerName)
+	{
+		return new Claim(world, lesserX, 0, lesserZ, greaterX, 0, greaterZ, ownerName, new String [] {}, new String [] {}, new String [] {}, new String [] {});
+	}
+	
+	//deletes a folder and everything in it, so a benchmark can start from an empty data folder
+	static void deleteFolder(File folder)
+	{
+		File [] files = folder.listFiles();
+		if(files != null)
+		{
+			for(int i = 0; i < files.length; i++)
+			{
+				if(files[i].isDirectory())
+				{
+					BenchEnvironment.deleteFolder(files[i]);
+				}
+				else
+				{
+					files[i].delete();
+				}
+			}
+		}
+		
+		folder.delete();
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <T> T proxy(Class<T> type, InvocationHandler handler)
+	{
+		return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?> [] { type }, handler);
+	}
+	
+	//what a proxy answers for calls it doesn't know about: identity for Object's methods, zero, FALSE or NULL for the rest
+	static Object defaultValue(Object proxy, Method method, Object [] args)
+	{
+		String name = method.getName();
+		if(name.equals("equals")) return proxy == args[0];
+		if(name.equals("hashCode")) return System.identityHashCode(proxy);
+		if(name.equals("toString")) return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+		
+		Class<?> returnType = method.getReturnType();
+		if(!returnType.isPrimitive() || returnType == void.class) return null;
+		if(returnType == boolean.class) return false;
+		if(returnType == char.class) return (char)0;
+		if(returnType == byte.class) return (byte)0;
+		if(returnType == short.class) return (short)0;
+		if(returnType == int.class) return 0;
+		if(returnType == long.class) return 0L;
+		if(returnType == float.class) return 0f;
+		return 0d;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+//checks on a single claim: Claim.contains(), Claim.overlaps() and Claim.allowBuild() for the owner, a trusted player and a stranger
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClaimCheckBenchmark 
+{
+	private Claim claim;
+	private Claim subdivision;
+	private Claim overlappingClaim;
+	private Claim separateClaim;
+	
+	private Location inside;
+	private Location insideSubdivision;
+	private Location outside;
+	
+	private Player owner;
+	private Player trustedPlayer;
+	private Player stranger;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		World world = BenchEnvironment.world("world");
+		GriefPrevention plugin = BenchEnvironment.start(world);
+		
+		//a claim with a subdivision and a few trusted players, in a data store by itself
+		this.claim = BenchEnvironment.makeClaim(world, 0, 0, 99, 99, "owner");
+		this.claim.id = 1L;
+		this.subdivision = BenchEnvironment.makeClaim(world, 0, 0, 19, 19, "owner");
+		this.subdivision.id = 2L;
+		this.subdivision.parent = this.claim;
+		this.claim.children.add(this.subdivision);
+		for(int i = 0; i < 10; i++)
+		{
+			this.claim.setPermission("builder" + i, ClaimPermission.Build);
+		}
+		BenchEnvironment.startDataStore(plugin, new ArrayList<Claim>(Arrays.asList(this.claim)));
+		
+		this.overlappingClaim = BenchEnvironment.makeClaim(world, 90, 90, 150, 150, "neighbor");
+		this.separateClaim = BenchEnvironment.makeClaim(world, 200, 200, 250, 250, "neighbor");
+		
+		this.inside = new Location(world, 50, 64, 50);
+		this.insideSubdivision = new Location(world, 10, 64, 10);
+		this.outside = new Location(world, 150, 64, 150);
+		
+		this.owner = BenchEnvironment.player("owner", world);
+		this.trustedPlayer = BenchEnvironment.player("builder5", world);
+		this.stranger = BenchEnvironment.player("stranger", world);
+	}
+	
+	@Benchmark
+	public boolean containsInside()
+	{
+		return this.claim.contains(this.inside, false, false);
+	}
+	
+	@Benchmark
+	public boolean containsOutside()
+	{
+		return this.claim.contains(this.outside, false, false);
+	}
+	
+	@Benchmark
+	public boolean containsExcludingSubdivisions()
+	{
+		return this.claim.contains(this.insideSubdivision, false, true);
+	}
+	
+	@Benchmark
+	public boolean overlapsNeighbor()
+	{
+		return this.claim.overlaps(this.overlappingClaim);
+	}
+	
+	@Benchmark
+	public boolean overlapsNothing()
+	{
+		return this.claim.overlaps(this.separateClaim);
+	}
+	
+	@Benchmark
+	public String allowBuildOwner()
+	{
+		return this.claim.allowBuild(this.owner);
+	}
+	
+	@Benchmark
+	public String allowBuildTrusted()
+	{
+		return this.claim.allowBuild(this.trustedPlayer);
+	}
+	
+	@Benchmark
+	public String allowBuildStranger()
+	{
+		return this.claim.allowBuild(this.stranger);
+	}
+	
+	@Benchmark
+	public String allowBuildInSubdivision()
+	{
+		return this.subdivision.allowBuild(this.trustedPlayer);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+//DataStore.getClaimAt() for locations in claims, between claims, and far from any claim, with and without a cached claim hint
+//and DataStore.getCachedClaimAt() for a player working in the same few claims, or in one unclaimed chunk
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClaimLookupBenchmark 
+{
+	//how many locations each benchmark cycles through, a power of two
+	private final static int LOCATION_COUNT = 4096;
+	
+	@Param({"1000", "10000", "100000"})
+	public int claimCount;
+	
+	private DataStore dataStore;
+	
+	//locations inside claims, along with the claim getClaimAt() finds there and some other claim
+	private Location [] hitLocations = new Location[LOCATION_COUNT];
+	private Claim [] hitClaims = new Claim[LOCATION_COUNT];
+	private Claim [] otherClaims = new Claim[LOCATION_COUNT];
+	
+	//locations between claims, usually in a chunk some claim touches
+	private Location [] nearbyMissLocations = new Location[LOCATION_COUNT];
+	
+	//locations in chunks no claim touches
+	private Location [] wildernessLocations = new Location[LOCATION_COUNT];
+	
+	//locations in one chunk no claim touches
+	private Location [] wildernessChunkLocations = new Location[16];
+	
+	//what a player working in the same few claims, then in the wilderness, would have cached
+	private ClaimHintCache claimHints = new ClaimHintCache(Statistics.playerClaimHints);
+	private ClaimHintCache wildernessHints = new ClaimHintCache(Statistics.playerClaimHints);
+	
+	private int next = 0;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		World world = BenchEnvironment.world("world");
+		GriefPrevention plugin = BenchEnvironment.start(world);
+		ArrayList<Claim> claims = BenchEnvironment.makeClaims(world, this.claimCount, 4, 1);
+		this.dataStore = BenchEnvironment.startDataStore(plugin, claims);
+		
+		Random random = new Random(2);
+		int gridSize = (int)Math.ceil(Math.sqrt(this.claimCount));
+		int gridEdge = BenchEnvironment.getCellCorner(gridSize, gridSize);
+		for(int i = 0; i < LOCATION_COUNT; i++)
+		{
+			ClaimBounds bounds = claims.get(random.nextInt(claims.size())).bounds;
+			int x = bounds.lesserX + random.nextInt(bounds.greaterX - bounds.lesserX + 1);
+			int z = bounds.lesserZ + random.nextInt(bounds.greaterZ - bounds.lesserZ + 1);
+			this.hitLocations[i] = new Location(world, x, 64, z);
+			this.hitClaims[i] = this.dataStore.getClaimAt(this.hitLocations[i], false, null);
+			this.otherClaims[i] = claims.get(random.nextInt(claims.size()));
+			
+			//the last few blocks of each cell are never claimed, see BenchEnvironment.makeClaims()
+			int cellX = BenchEnvironment.getCellCorner(random.nextInt(gridSize), gridSize);
+			int cellZ = BenchEnvironment.getCellCorner(random.nextInt(gridSize), gridSize);
+			int gap = BenchEnvironment.CELL_SIZE - BenchEnvironment.MAX_CLAIM_OFFSET - BenchEnvironment.MAX_CLAIM_WIDTH;
+			this.nearbyMissLocations[i] = new Location(world, cellX + BenchEnvironment.CELL_SIZE - 1 - random.nextInt(gap), 64, cellZ + random.nextInt(BenchEnvironment.CELL_SIZE));
+			
+			this.wildernessLocations[i] = new Location(world, gridEdge + 1000 + random.nextInt(100000), 64, random.nextInt(100000));
+		}
+		
+		int chunkCorner = (gridEdge + 1000) & ~15;
+		for(int i = 0; i < this.wildernessChunkLocations.length; i++)
+		{
+			this.wildernessChunkLocations[i] = new Location(world, chunkCorner + random.nextInt(16), 64, chunkCorner + random.nextInt(16));
+		}
+	}
+	
+	@Benchmark
+	public Claim hit()
+	{
+		int i = this.next++ & (LOCATION_COUNT - 1);
+		return this.dataStore.getClaimAt(this.hitLocations[i], false, null);
+	}
+	
+	@Benchmark
+	public Claim hitWithCorrectHint()
+	{
+		int i = this.next++ & (LOCATION_COUNT - 1);
+		return this.dataStore.getClaimAt(this.hitLocations[i], false, this.hitClaims[i]);
+	}
+	
+	@Benchmark
+	public Claim hitWithWrongHint()
+	{
+		int i = this.next++ & (LOCATION_COUNT - 1);
+		return this.dataStore.getClaimAt(this.hitLocations[i], false, this.otherClaims[i]);
+	}
+	
+	@Benchmark
+	public Claim missNearClaims()
+	{
+		int i = this.next++ & (LOCATION_COUNT - 1);
+		return this.dataStore.getClaimAt(this.nearbyMissLocations[i], false, null);
+	}
+	
+	@Benchmark
+	public Claim missInWilderness()
+	{
+		int i = this.next++ & (LOCATION_COUNT - 1);
+		return this.dataStore.getClaimAt(this.wildernessLocations[i], false, null);
+	}
+	
+	//the hint cache holds four claims, so cycling through four claims always finds the claim there
+	@Benchmark
+	public Claim hitWithHintCache()
+	{
+		int i = this.next++ & 3;
+		return this.dataStore.getCachedClaimAt(this.hitLocations[i], false, this.claimHints);
+	}
+	
+	@Benchmark
+	public Claim missInWildernessWithHintCache()
+	{
+		int i = this.next++ & 15;
+		return this.dataStore.getCachedClaimAt(this.wildernessChunkLocations[i], false, this.wildernessHints);
+	}
+}
@@ -0,0 +1,416 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+//hammers the data store from several threads at once with claim creations, resizes, deletions and lookups, then checks it still makes sense
+//the claims are squares scattered over an area spanning many lock regions (see ClaimLocks), so threads both share regions and don't
+//it runs in rounds.  during a round, every thread picks operations at random, and lookups check that no claim they find has torn bounds,
+//which would show up as a claim that isn't square.  between rounds everything stops, and the driver checks that:
+//  no two claims overlap, and every claim in the claims list is in the data store under its ID
+//  each chunk in the chunk index lists exactly the claims from the claims list whose boundaries touch it, each once
+//  lookups agree with a search through the claims list
+//meanwhile another thread stands in for the server thread, flushing changes and publishing the claim index the way the tasks do
+//run it as a plain program with any of these options as name=value, for example: ClaimStressDriver threads=16 rounds=50
+//  threads, rounds, roundMillis     how many threads change claims, how many rounds, and how long each round lasts
+//  area, claims                     the width of the square area the claims are in, and how many claims there are to start with
+//  minClaimWidth, maxClaimWidth     the range of claim widths
+//  seed                             the random seed.  threads are never in the same order twice, so a run can't be repeated exactly
+//it exits with 2 if any check failed
+public class ClaimStressDriver
+{
+	//how many problems are described, after that they're only counted
+	private final static int PROBLEMS_SHOWN = 20;
+	
+	//options, see above
+	private int threadCount = 8;
+	private int roundCount = 20;
+	private int roundMillis = 500;
+	private int areaWidth = 4096;
+	private int claimCount = 2000;
+	private int minClaimWidth = 5;
+	private int maxClaimWidth = 100;
+	private long seed = 1;
+	
+	private World world;
+	private DataStore dataStore;
+	private int areaLesserCorner;
+	
+	//operation counts for the report
+	private AtomicLong creations = new AtomicLong();
+	private AtomicLong failedCreations = new AtomicLong();
+	private AtomicLong resizes = new AtomicLong();
+	private AtomicLong failedResizes = new AtomicLong();
+	private AtomicLong deletions = new AtomicLong();
+	private AtomicLong lookups = new AtomicLong();
+	
+	private int problemCount = 0;
+	
+	public static void main(String [] args) throws Exception
+	{
+		ClaimStressDriver driver = new ClaimStressDriver();
+		try
+		{
+			driver.parseOptions(args);
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Options are threads, rounds, roundMillis, area, claims, minClaimWidth, maxClaimWidth and seed, as name=value.");
+			System.exit(1);
+		}
+		
+		boolean passed = driver.run();
+		System.exit(passed ? 0 : 2);
+	}
+	
+	private void parseOptions(String [] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			String [] parts = args[i].split("=", 2);
+			if(parts.length != 2) throw new IllegalArgumentException("Expected name=value: " + args[i]);
+			
+			String name = parts[0];
+			String value = parts[1];
+			try
+			{
+				if(name.equals("threads")) this.threadCount = Integer.parseInt(value);
+				else if(name.equals("rounds")) this.roundCount = Integer.parseInt(value);
+				else if(name.equals("roundMillis")) this.roundMillis = Integer.parseInt(value);
+				else if(name.equals("area")) this.areaWidth = Integer.parseInt(value);
+				else if(name.equals("claims")) this.claimCount = Integer.parseInt(value);
+				else if(name.equals("minClaimWidth")) this.minClaimWidth = Integer.parseInt(value);
+				else if(name.equals("maxClaimWidth")) this.maxClaimWidth = Integer.parseInt(value);
+				else if(name.equals("seed")) this.seed = Long.parseLong(value);
+				else throw new IllegalArgumentException("Unknown option: " + name);
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number: " + args[i]);
+			}
+		}
+		
+		if(this.threadCount < 1 || this.roundCount < 1 || this.roundMillis < 1) throw new IllegalArgumentException("Threads, rounds and roundMillis must be at least 1.");
+		if(this.minClaimWidth < 1 || this.maxClaimWidth < this.minClaimWidth) throw new IllegalArgumentException("Claim widths must be at least 1, and maxClaimWidth at least minClaimWidth.");
+		if(this.areaWidth < this.maxClaimWidth * 2) throw new IllegalArgumentException("The area must be at least twice maxClaimWidth.");
+	}
+	
+	private boolean run() throws Exception
+	{
+		this.setup();
+		System.out.println("Starting with " + this.dataStore.claims.size() + " claims in a " + this.areaWidth + " block area, " + this.threadCount + " threads.");
+		
+		for(int round = 1; round <= this.roundCount && this.problemCount == 0; round++)
+		{
+			this.runRound(round);
+			this.checkInvariants();
+			
+			int claimsNow;
+			synchronized(this.dataStore)
+			{
+				claimsNow = this.dataStore.claims.size();
+			}
+			System.out.println(String.format("Round %d: %d claims, %d problems.", round, claimsNow, this.problemCount));
+		}
+		
+		System.out.println(String.format("%d creations (%d failed), %d resizes (%d failed), %d deletions, %d lookups.",
+			this.creations.get(), this.failedCreations.get(), this.resizes.get(), this.failedResizes.get(), this.deletions.get(), this.lookups.get()));
+		System.out.println(this.problemCount == 0 ? "All checks passed." : this.problemCount + " problems found.");
+		return this.problemCount == 0;
+	}
+	
+	private void setup() throws Exception
+	{
+		this.world = BenchEnvironment.world("world");
+		GriefPrevention plugin = BenchEnvironment.start(this.world);
+		plugin.config_claims_automaticClaimsForNewPlayersRadius = -1;
+		
+		this.areaLesserCorner = -this.areaWidth / 2;
+		this.dataStore = BenchEnvironment.startDataStore(plugin, new ArrayList<Claim>());
+		
+		//the starting claims go in one at a time, the same way as during the rounds
+		Random random = new Random(this.seed);
+		for(int i = 0; i < this.claimCount * 4 && this.dataStore.claims.size() < this.claimCount; i++)
+		{
+			this.createClaim(random);
+		}
+		this.checkInvariants();
+	}
+	
+	//runs every thread for a round, plus the stand in for the server thread, and waits for them all to finish
+	private void runRound(int round)
+	{
+		final long deadline = System.currentTimeMillis() + this.roundMillis;
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < this.threadCount; i++)
+		{
+			final Random random = new Random(this.seed + round * 1000L + i);
+			threads.add(new Thread(new Runnable()
+			{
+				public void run()
+				{
+					while(System.currentTimeMillis() < deadline)
+					{
+						ClaimStressDriver.this.randomOperation(random);
+					}
+				}
+			}, "Stress " + i));
+		}
+		
+		threads.add(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				while(System.currentTimeMillis() < deadline)
+				{
+					ClaimStressDriver.this.dataStore.flushChanges();
+					ClaimStressDriver.this.dataStore.publishClaimIndex();
+					try
+					{
+						Thread.sleep(50);
+					}
+					catch(InterruptedException e)
+					{
+						return;
+					}
+				}
+			}
+		}, "Stress server"));
+		
+		for(int i = 0; i < threads.size(); i++)
+		{
+			threads.get(i).start();
+		}
+		
+		for(int i = 0; i < threads.size(); i++)
+		{
+			try
+			{
+				threads.get(i).join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	//lookups are most of what a server does, so they're half the mix
+	private void randomOperation(Random random)
+	{
+		int roll = random.nextInt(100);
+		if(roll < 50) this.lookUpClaim(random);
+		else if(roll < 70) this.createClaim(random);
+		else if(roll < 90) this.resizeClaim(random);
+		else this.deleteClaim(random);
+	}
+	
+	private void createClaim(Random random)
+	{
+		int width = this.randomWidth(random);
+		int lesserX = this.randomCorner(random, width);
+		int lesserZ = this.randomCorner(random, width);
+		
+		CreateClaimResult result = this.dataStore.createClaim(this.world, lesserX, lesserX + width - 1, 0, 0, lesserZ, lesserZ + width - 1, "player" + random.nextInt(50), null);
+		this.creations.incrementAndGet();
+		if(!result.succeeded) this.failedCreations.incrementAndGet();
+	}
+	
+	//moves a claim a little and gives it a new size, keeping it square
+	private void resizeClaim(Random random)
+	{
+		Claim claim = this.randomClaim(random);
+		if(claim == null) return;
+		
+		ClaimBounds bounds = claim.bounds;
+		int width = this.randomWidth(random);
+		int lesserX = Math.max(this.areaLesserCorner, Math.min(this.areaLesserCorner + this.areaWidth - width, bounds.lesserX + random.nextInt(17) - 8));
+		int lesserZ = Math.max(this.areaLesserCorner, Math.min(this.areaLesserCorner + this.areaWidth - width, bounds.lesserZ + random.nextInt(17) - 8));
+		
+		CreateClaimResult result = this.dataStore.resizeClaim(claim, lesserX, lesserX + width - 1, 0, 0, lesserZ, lesserZ + width - 1);
+		this.resizes.incrementAndGet();
+		if(!result.succeeded) this.failedResizes.incrementAndGet();
+	}
+	
+	private void deleteClaim(Random random)
+	{
+		Claim claim = this.randomClaim(random);
+		if(claim == null) return;
+		
+		this.dataStore.deleteClaim(claim);
+		this.deletions.incrementAndGet();
+	}
+	
+	//a lookup which finds a claim that isn't square saw its bounds in the middle of a resize
+	private void lookUpClaim(Random random)
+	{
+		Location location = new Location(this.world, this.randomCorner(random, 1), 64, this.randomCorner(random, 1));
+		Claim claim = this.dataStore.getClaimAt(location, false, null);
+		this.lookups.incrementAndGet();
+		if(claim == null) return;
+		
+		ClaimBounds bounds = claim.bounds;
+		if(bounds.greaterX - bounds.lesserX != bounds.greaterZ - bounds.lesserZ)
+		{
+			this.problem("Lookup found claim " + claim.id + " with torn bounds " + ClaimStressDriver.describe(bounds) + ".");
+		}
+	}
+	
+	//checks everything which should be true once all the threads have stopped, see above
+	private void checkInvariants()
+	{
+		ArrayList<Claim> claims;
+		synchronized(this.dataStore)
+		{
+			claims = new ArrayList<Claim>(this.dataStore.claims);
+		}
+		
+		for(int i = 0; i < claims.size(); i++)
+		{
+			Claim claim = claims.get(i);
+			if(!claim.inDataStore || this.dataStore.getClaim(claim.id) != claim)
+			{
+				this.problem("Claim " + claim.id + " is in the claims list but not in the data store.");
+			}
+			
+			for(int j = i + 1; j < claims.size(); j++)
+			{
+				if(claim.overlaps(claims.get(j)))
+				{
+					this.problem("Claims " + claim.id + " " + ClaimStressDriver.describe(claim.bounds) + " and " + claims.get(j).id + " " + ClaimStressDriver.describe(claims.get(j).bounds) + " overlap.");
+				}
+			}
+		}
+		
+		//which claims should be in each chunk, according to the claims list
+		HashMap<Long, HashSet<Claim>> expectedChunks = new HashMap<Long, HashSet<Claim>>();
+		for(int i = 0; i < claims.size(); i++)
+		{
+			ClaimBounds bounds = claims.get(i).bounds;
+			for(int chunkX = bounds.lesserX >> 4; chunkX <= bounds.greaterX >> 4; chunkX++)
+			{
+				for(int chunkZ = bounds.lesserZ >> 4; chunkZ <= bounds.greaterZ >> 4; chunkZ++)
+				{
+					Long chunkKey = DataStore.getChunkKey(chunkX, chunkZ);
+					HashSet<Claim> claimsInChunk = expectedChunks.get(chunkKey);
+					if(claimsInChunk == null)
+					{
+						claimsInChunk = new HashSet<Claim>();
+						expectedChunks.put(chunkKey, claimsInChunk);
+					}
+					claimsInChunk.add(claims.get(i));
+				}
+			}
+		}
+		
+		//claims never leave the area, so neither should anything in the index
+		int lesserChunk = this.areaLesserCorner >> 4;
+		int greaterChunk = (this.areaLesserCorner + this.areaWidth - 1) >> 4;
+		for(int chunkX = lesserChunk - 1; chunkX <= greaterChunk + 1; chunkX++)
+		{
+			for(int chunkZ = lesserChunk - 1; chunkZ <= greaterChunk + 1; chunkZ++)
+			{
+				HashSet<Claim> expected = expectedChunks.get(DataStore.getChunkKey(chunkX, chunkZ));
+				Claim [] indexed = this.dataStore.getClaimsInChunk(this.world, chunkX, chunkZ);
+				
+				HashSet<Claim> found = new HashSet<Claim>();
+				if(indexed != null)
+				{
+					for(int i = 0; i < indexed.length; i++)
+					{
+						if(!found.add(indexed[i])) this.problem("Chunk " + chunkX + "," + chunkZ + " lists claim " + indexed[i].id + " more than once.");
+					}
+				}
+				
+				if(expected == null) expected = new HashSet<Claim>();
+				if(!found.equals(expected))
+				{
+					this.problem("Chunk " + chunkX + "," + chunkZ + " lists claims " + ClaimStressDriver.describe(found) + " but should list " + ClaimStressDriver.describe(expected) + ".");
+				}
+			}
+		}
+		
+		//lookups against a plain search
+		Random random = new Random(this.seed);
+		for(int i = 0; i < 10000; i++)
+		{
+			Location location = new Location(this.world, this.randomCorner(random, 1), 64, this.randomCorner(random, 1));
+			Claim expected = null;
+			for(int j = 0; j < claims.size() && expected == null; j++)
+			{
+				if(claims.get(j).contains(location, false, false)) expected = claims.get(j);
+			}
+			
+			Claim found = this.dataStore.getClaimAt(location, false, null);
+			if(found != expected)
+			{
+				this.problem("Lookup at " + location.getBlockX() + "," + location.getBlockZ() + " found claim " + (found == null ? null : found.id) + " instead of " + (expected == null ? null : expected.id) + ".");
+			}
+		}
+	}
+	
+	private Claim randomClaim(Random random)
+	{
+		synchronized(this.dataStore)
+		{
+			ArrayList<Claim> claims = this.dataStore.claims;
+			return claims.isEmpty() ? null : claims.get(random.nextInt(claims.size()));
+		}
+	}
+	
+	private int randomWidth(Random random)
+	{
+		return this.minClaimWidth + random.nextInt(this.maxClaimWidth - this.minClaimWidth + 1);
+	}
+	
+	//a lesser corner which keeps a claim of some width inside the area
+	private int randomCorner(Random random, int width)
+	{
+		return this.areaLesserCorner + random.nextInt(this.areaWidth - width + 1);
+	}
+	
+	private synchronized void problem(String description)
+	{
+		this.problemCount++;
+		if(this.problemCount <= PROBLEMS_SHOWN) System.out.println(description);
+	}
+	
+	private static String describe(ClaimBounds bounds)
+	{
+		return "(" + bounds.lesserX + "," + bounds.lesserZ + " to " + bounds.greaterX + "," + bounds.greaterZ + ")";
+	}
+	
+	private static String describe(Collection<Claim> claims)
+	{
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for(Claim claim : claims)
+		{
+			ids.add(claim.id);
+		}
+		Collections.sort(ids);
+		return ids.toString();
+	}
+}
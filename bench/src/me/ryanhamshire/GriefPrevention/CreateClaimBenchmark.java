@@ -0,0 +1,101 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+//DataStore.createClaim(), both when the overlap check finds a conflict and when the new claim is added (and then deleted again)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CreateClaimBenchmark 
+{
+	//how many spots each benchmark cycles through, a power of two
+	private final static int SPOT_COUNT = 4096;
+	
+	//how often the data store's bookkeeping for deleted claims is cleared out, like the flush and index tasks would
+	private final static int HOUSEKEEPING_INTERVAL = 1024;
+	
+	@Param({"1000", "10000", "100000"})
+	public int claimCount;
+	
+	private World world;
+	private DataStore dataStore;
+	
+	//new claim corners which overlap an existing claim, and new claim corners in the unclaimed space between claims
+	private int [][] conflictingSpots = new int[SPOT_COUNT][];
+	private int [][] freeSpots = new int[SPOT_COUNT][];
+	
+	private int next = 0;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		this.world = BenchEnvironment.world("world");
+		GriefPrevention plugin = BenchEnvironment.start(this.world);
+		ArrayList<Claim> claims = BenchEnvironment.makeClaims(this.world, this.claimCount, 0, 1);
+		this.dataStore = BenchEnvironment.startDataStore(plugin, claims);
+		
+		Random random = new Random(3);
+		int gridSize = (int)Math.ceil(Math.sqrt(this.claimCount));
+		for(int i = 0; i < SPOT_COUNT; i++)
+		{
+			//a claim around an existing claim's greater corner
+			ClaimBounds bounds = claims.get(random.nextInt(claims.size())).bounds;
+			this.conflictingSpots[i] = new int [] { bounds.greaterX - 5, bounds.greaterZ - 5, bounds.greaterX + 5, bounds.greaterZ + 5 };
+			
+			//a narrow claim in the unclaimed strip at the edge of a cell, see BenchEnvironment.makeClaims()
+			int cellX = BenchEnvironment.getCellCorner(random.nextInt(gridSize), gridSize);
+			int cellZ = BenchEnvironment.getCellCorner(random.nextInt(gridSize), gridSize);
+			int x = cellX + BenchEnvironment.CELL_SIZE - 10;
+			int z = cellZ + random.nextInt(BenchEnvironment.CELL_SIZE - 10);
+			this.freeSpots[i] = new int [] { x, z, x + 5, z + 9 };
+		}
+	}
+	
+	@Benchmark
+	public CreateClaimResult conflict()
+	{
+		int [] spot = this.conflictingSpots[this.next++ & (SPOT_COUNT - 1)];
+		return this.dataStore.createClaim(this.world, spot[0], spot[2], 0, 0, spot[1], spot[3], "creator", null);
+	}
+	
+	@Benchmark
+	public CreateClaimResult createAndDelete()
+	{
+		int [] spot = this.freeSpots[this.next++ & (SPOT_COUNT - 1)];
+		CreateClaimResult result = this.dataStore.createClaim(this.world, spot[0], spot[2], 0, 0, spot[1], spot[3], "creator", null);
+		this.dataStore.deleteClaim(result.claim);
+		
+		if((this.next & (HOUSEKEEPING_INTERVAL - 1)) == 0)
+		{
+			this.dataStore.flushChanges();
+			this.dataStore.publishClaimIndex();
+		}
+		
+		return result;
+	}
+}
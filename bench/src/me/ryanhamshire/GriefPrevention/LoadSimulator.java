@@ -0,0 +1,592 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.*;
+import org.bukkit.event.block.BlockIgniteEvent.IgniteCause;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+
+//replays floods of made up events against the block, entity and player event handlers, and reports how each handler held up
+//no server is involved: the claims are generated (see buildClaimMap()), the world is a SimWorld, and everything else is BenchEnvironment
+//run it as a plain program with any of these options as name=value, for example: LoadSimulator claims=50000 mix=fluids:1
+//  claims, minClaimWidth, maxClaimWidth     how many claims, and the range of their widths (spread evenly on a log scale, so most are small)
+//  subdivisionPercent, trustPercent         how many claims have a subdivision, and how many trust someone besides their owner to build
+//  players, events, seed                    how many players own claims, how many events are timed, and the random seed
+//  mix                                      how often each kind of event happens, as kind:weight pairs, see EventKind
+//the world's blocks and the players are proxies, so compare simulator runs with each other rather than with a live server
+public class LoadSimulator 
+{
+	//kinds of event floods
+	enum EventKind
+	{
+		build,			//players breaking and placing blocks
+		fluids,			//lava flowing and fire spreading, burning and being lit
+		explosions,		//creepers blowing up near players
+		interact		//players clicking on chests, doors, switches and so on, and trampling crops
+	}
+	
+	//the handlers the simulator calls, in report order
+	enum SimHandler
+	{
+		BlockBreak("BlockEventHandler.onBlockBreak"),
+		BlockPlace("BlockEventHandler.onBlockPlace"),
+		BlockFromTo("BlockEventHandler.onBlockFromTo"),
+		BlockSpread("BlockEventHandler.onBlockSpread"),
+		BlockBurn("BlockEventHandler.onBlockBurn"),
+		BlockIgnite("BlockEventHandler.onBlockIgnite"),
+		EntityExplode("EntityEventHandler.onEntityExplode"),
+		PlayerInteract("PlayerEventHandler.onPlayerInteract");
+		
+		final String handlerName;
+		
+		SimHandler(String handlerName)
+		{
+			this.handlerName = handlerName;
+		}
+	}
+	
+	//an event along with the handler it goes to
+	private static class SimEvent
+	{
+		SimHandler handler;
+		Event event;
+		
+		SimEvent(SimHandler handler, Event event)
+		{
+			this.handler = handler;
+			this.event = event;
+		}
+	}
+	
+	//what happened to the events one handler was given, also used by TraceReplayer
+	static class HandlerStats
+	{
+		long [] latencies = new long[1024];
+		int count = 0;
+		int cancelled = 0;
+		long allocatedBytes = 0;
+		
+		void add(long latency, long allocated, boolean cancelled)
+		{
+			if(this.count == this.latencies.length) this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+			this.latencies[this.count++] = latency;
+			this.allocatedBytes += allocated;
+			if(cancelled) this.cancelled++;
+		}
+	}
+	
+	//options, see above
+	private int claimCount = 20000;
+	private int minClaimWidth = 5;
+	private int maxClaimWidth = 200;
+	private int subdivisionPercent = 10;
+	private int trustPercent = 20;
+	private int playerCount = 200;
+	private int eventCount = 200000;
+	private long seed = 1;
+	private EnumMap<EventKind, Integer> mix = new EnumMap<EventKind, Integer>(EventKind.class);
+	
+	private SimWorld world;
+	private DataStore dataStore;
+	private ArrayList<Claim> claims;
+	private int mapSize;
+	
+	//claim owners first, then a few visitors who don't own anything
+	private ArrayList<Player> players = new ArrayList<Player>();
+	
+	private BlockEventHandler blockEventHandler;
+	private EntityEventHandler entityEventHandler;
+	private PlayerEventHandler playerEventHandler;
+	
+	//measures allocation per thread, where the JVM supports it
+	private com.sun.management.ThreadMXBean threadBean;
+	private long allocationOverhead = 0;
+	
+	public static void main(String [] args) throws Exception
+	{
+		LoadSimulator simulator = new LoadSimulator();
+		try
+		{
+			simulator.parseOptions(args);
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Options are claims, minClaimWidth, maxClaimWidth, subdivisionPercent, trustPercent, players, events, seed and mix, as name=value.");
+			System.exit(1);
+		}
+		
+		simulator.run();
+	}
+	
+	LoadSimulator()
+	{
+		this.mix.put(EventKind.build, 40);
+		this.mix.put(EventKind.fluids, 25);
+		this.mix.put(EventKind.explosions, 5);
+		this.mix.put(EventKind.interact, 30);
+	}
+	
+	private void parseOptions(String [] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			String [] parts = args[i].split("=", 2);
+			if(parts.length != 2) throw new IllegalArgumentException("Expected name=value: " + args[i]);
+			
+			String name = parts[0];
+			String value = parts[1];
+			try
+			{
+				if(name.equals("claims")) this.claimCount = Integer.parseInt(value);
+				else if(name.equals("minClaimWidth")) this.minClaimWidth = Integer.parseInt(value);
+				else if(name.equals("maxClaimWidth")) this.maxClaimWidth = Integer.parseInt(value);
+				else if(name.equals("subdivisionPercent")) this.subdivisionPercent = Integer.parseInt(value);
+				else if(name.equals("trustPercent")) this.trustPercent = Integer.parseInt(value);
+				else if(name.equals("players")) this.playerCount = Integer.parseInt(value);
+				else if(name.equals("events")) this.eventCount = Integer.parseInt(value);
+				else if(name.equals("seed")) this.seed = Long.parseLong(value);
+				else if(name.equals("mix"))
+				{
+					this.mix.clear();
+					String [] pairs = value.split(",");
+					for(int j = 0; j < pairs.length; j++)
+					{
+						String [] pair = pairs[j].split(":");
+						this.mix.put(EventKind.valueOf(pair[0]), pair.length > 1 ? Integer.parseInt(pair[1]) : 1);
+					}
+				}
+				else throw new IllegalArgumentException("Unknown option: " + name);
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number: " + args[i]);
+			}
+		}
+		
+		if(this.claimCount < 1 || this.playerCount < 1 || this.eventCount < 1) throw new IllegalArgumentException("Claims, players and events must be at least 1.");
+		if(this.minClaimWidth < 1 || this.maxClaimWidth < this.minClaimWidth) throw new IllegalArgumentException("Claim widths must be at least 1, and maxClaimWidth at least minClaimWidth.");
+	}
+	
+	private void run() throws Exception
+	{
+		this.setup();
+		
+		//warm up on different events, so the timed run isn't mostly measuring the JIT compiler
+		int warmupCount = Math.min(this.eventCount, 100000);
+		System.out.println("Warming up with " + warmupCount + " events...");
+		this.replay(this.generateEvents(warmupCount, new Random(this.seed + 1)), null);
+		
+		ArrayList<SimEvent> events = this.generateEvents(this.eventCount, new Random(this.seed + 2));
+		EnumMap<SimHandler, HandlerStats> stats = new EnumMap<SimHandler, HandlerStats>(SimHandler.class);
+		for(SimHandler handler : SimHandler.values())
+		{
+			stats.put(handler, new HandlerStats());
+		}
+		
+		System.gc();
+		long gcCountBefore = LoadSimulator.getGarbageCollections(false);
+		long gcTimeBefore = LoadSimulator.getGarbageCollections(true);
+		long startTime = System.nanoTime();
+		this.replay(events, stats);
+		long elapsed = System.nanoTime() - startTime;
+		long gcCount = LoadSimulator.getGarbageCollections(false) - gcCountBefore;
+		long gcTime = LoadSimulator.getGarbageCollections(true) - gcTimeBefore;
+		
+		this.report(stats, elapsed, gcCount, gcTime);
+	}
+	
+	private void setup() throws Exception
+	{
+		this.world = new SimWorld("world");
+		GriefPrevention plugin = BenchEnvironment.start(this.world.getWorld());
+		plugin.config_claims_preventTheft = true;
+		plugin.config_claims_preventButtonsSwitches = true;
+		plugin.config_claims_lockDoors = true;
+		plugin.config_claims_fireCannotCrossClaimBorders = true;
+		plugin.config_claims_firePlacementRequiresTrust = true;
+		
+		//automatic chest claims would keep adding claims to the map as the simulation goes
+		plugin.config_claims_automaticClaimsForNewPlayersRadius = -1;
+		
+		Random random = new Random(this.seed);
+		this.claims = this.buildClaimMap(random);
+		this.dataStore = BenchEnvironment.startDataStore(plugin, this.claims);
+		
+		Material [] handItems = { Material.AIR, Material.AIR, Material.AIR, Material.AIR, Material.AIR, Material.AIR, Material.AIR, Material.FLINT_AND_STEEL, Material.INK_SACK, Material.STONE };
+		int visitorCount = Math.max(1, this.playerCount / 4);
+		for(int i = 0; i < this.playerCount + visitorCount; i++)
+		{
+			String playerName = i < this.playerCount ? "player" + i : "visitor" + (i - this.playerCount);
+			this.players.add(BenchEnvironment.player(playerName, this.world.getWorld(), handItems[random.nextInt(handItems.length)]));
+		}
+		
+		this.blockEventHandler = new BlockEventHandler(this.dataStore);
+		this.entityEventHandler = new EntityEventHandler(this.dataStore);
+		this.playerEventHandler = new PlayerEventHandler(this.dataStore, plugin);
+		
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(threadBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemorySupported())
+		{
+			this.threadBean = (com.sun.management.ThreadMXBean)threadBean;
+			this.threadBean.setThreadAllocatedMemoryEnabled(true);
+			
+			//asking for the count may allocate a little itself
+			long threadID = Thread.currentThread().getId();
+			this.allocationOverhead = Long.MAX_VALUE;
+			for(int i = 0; i < 1000; i++)
+			{
+				long before = this.threadBean.getThreadAllocatedBytes(threadID);
+				this.allocationOverhead = Math.min(this.allocationOverhead, this.threadBean.getThreadAllocatedBytes(threadID) - before);
+			}
+		}
+		
+		System.out.println("Simulating " + this.claimCount + " claims " + this.minClaimWidth + " to " + this.maxClaimWidth + " blocks wide over a " + this.mapSize + " block square, " + this.subdivisionPercent + "% with a subdivision, " + this.trustPercent + "% trusting someone.");
+		System.out.println(this.players.size() + " players, event mix " + this.mix + ".");
+	}
+	
+	//lays claims out on a grid, one per cell at a random spot, with widths spread evenly on a log scale between the minimum and maximum
+	private ArrayList<Claim> buildClaimMap(Random random)
+	{
+		int cellSize = this.maxClaimWidth + BenchEnvironment.MAX_CLAIM_OFFSET + 8;
+		int gridSize = (int)Math.ceil(Math.sqrt(this.claimCount));
+		this.mapSize = gridSize * cellSize;
+		double widthRatio = (double)this.maxClaimWidth / this.minClaimWidth;
+		long nextID = 1;
+		
+		ArrayList<Claim> claims = new ArrayList<Claim>(this.claimCount);
+		for(int i = 0; i < this.claimCount; i++)
+		{
+			int width = (int)(this.minClaimWidth * Math.pow(widthRatio, random.nextDouble()));
+			int depth = (int)(this.minClaimWidth * Math.pow(widthRatio, random.nextDouble()));
+			int lesserX = (i % gridSize) * cellSize - this.mapSize / 2 + random.nextInt(BenchEnvironment.MAX_CLAIM_OFFSET);
+			int lesserZ = (i / gridSize) * cellSize - this.mapSize / 2 + random.nextInt(BenchEnvironment.MAX_CLAIM_OFFSET);
+			String ownerName = "player" + (i % this.playerCount);
+			Claim claim = BenchEnvironment.makeClaim(this.world.getWorld(), lesserX, lesserZ, lesserX + width - 1, lesserZ + depth - 1, ownerName);
+			claim.id = nextID++;
+			
+			if(random.nextInt(100) < this.trustPercent)
+			{
+				claim.setPermission("player" + random.nextInt(this.playerCount), ClaimPermission.Build);
+			}
+			
+			if(random.nextInt(100) < this.subdivisionPercent)
+			{
+				Claim subdivision = BenchEnvironment.makeClaim(this.world.getWorld(), lesserX, lesserZ, lesserX + width / 2, lesserZ + depth / 2, ownerName);
+				subdivision.id = nextID++;
+				subdivision.parent = claim;
+				subdivision.setPermission("public", ClaimPermission.Inventory);
+				claim.children.add(subdivision);
+			}
+			
+			claims.add(claim);
+		}
+		
+		return claims;
+	}
+	
+	private ArrayList<SimEvent> generateEvents(int count, Random random)
+	{
+		int totalWeight = 0;
+		for(int weight : this.mix.values())
+		{
+			totalWeight += weight;
+		}
+		
+		ArrayList<SimEvent> events = new ArrayList<SimEvent>(count);
+		while(events.size() < count)
+		{
+			int roll = random.nextInt(totalWeight);
+			for(Map.Entry<EventKind, Integer> entry : this.mix.entrySet())
+			{
+				roll -= entry.getValue();
+				if(roll >= 0) continue;
+				
+				switch(entry.getKey())
+				{
+					case build: this.addBuildEvent(events, random); break;
+					case fluids: this.addFluidEvent(events, random); break;
+					case explosions: this.addExplosionEvent(events, random); break;
+					case interact: this.addInteractEvent(events, random); break;
+				}
+				break;
+			}
+		}
+		
+		return events;
+	}
+	
+	//picks a spot for an event, usually in or just around a claim, where the handlers have the most to check
+	//returns the X and Z, along with the claim the spot was picked near (or NULL)
+	private Object [] pickSpot(Random random)
+	{
+		if(random.nextInt(100) < 70)
+		{
+			Claim claim = this.claims.get(random.nextInt(this.claims.size()));
+			ClaimBounds bounds = claim.bounds;
+			int margin = 4;
+			int x = bounds.lesserX - margin + random.nextInt(bounds.greaterX - bounds.lesserX + 1 + margin * 2);
+			int z = bounds.lesserZ - margin + random.nextInt(bounds.greaterZ - bounds.lesserZ + 1 + margin * 2);
+			return new Object [] { x, z, claim };
+		}
+		
+		return new Object [] { random.nextInt(this.mapSize) - this.mapSize / 2, random.nextInt(this.mapSize) - this.mapSize / 2, null };
+	}
+	
+	//picks who does something near a claim: often the owner, otherwise anyone
+	private Player pickPlayer(Random random, Claim claim)
+	{
+		if(claim != null && random.nextInt(100) < 45)
+		{
+			String ownerName = claim.getOwnerName();
+			return this.players.get(Integer.parseInt(ownerName.substring("player".length())));
+		}
+		
+		return this.players.get(random.nextInt(this.players.size()));
+	}
+	
+	private void addBuildEvent(ArrayList<SimEvent> events, Random random)
+	{
+		Object [] spot = this.pickSpot(random);
+		int x = (Integer)spot[0];
+		int z = (Integer)spot[1];
+		Player player = this.pickPlayer(random, (Claim)spot[2]);
+		
+		if(random.nextInt(100) < 55)
+		{
+			Block block = this.world.getBlock(x, SimWorld.SURFACE_Y - random.nextInt(3), z);
+			events.add(new SimEvent(SimHandler.BlockBreak, new BlockBreakEvent(block, player)));
+		}
+		else
+		{
+			int y = SimWorld.SURFACE_Y + 1 + random.nextInt(3);
+			Material placed = random.nextInt(100) < 5 ? Material.CHEST : Material.COBBLESTONE;
+			Block block = this.world.getBlock(x, y, z, placed);
+			events.add(new SimEvent(SimHandler.BlockPlace, new BlockPlaceEvent(block, this.world.getState(Material.AIR), this.world.getBlock(x, y - 1, z), new ItemStack(placed), player, true)));
+		}
+	}
+	
+	private void addFluidEvent(ArrayList<SimEvent> events, Random random)
+	{
+		Object [] spot = this.pickSpot(random);
+		int x = (Integer)spot[0];
+		int z = (Integer)spot[1];
+		int y = SimWorld.SURFACE_Y + 1;
+		
+		//a neighboring block, which is sometimes across a claim's edge
+		int toX = x;
+		int toZ = z;
+		if(random.nextBoolean())
+		{
+			toX += random.nextBoolean() ? 1 : -1;
+		}
+		else
+		{
+			toZ += random.nextBoolean() ? 1 : -1;
+		}
+		
+		int roll = random.nextInt(100);
+		if(roll < 40)
+		{
+			events.add(new SimEvent(SimHandler.BlockFromTo, new BlockFromToEvent(this.world.getBlock(x, y, z, Material.LAVA), this.world.getBlock(toX, y, toZ))));
+		}
+		else if(roll < 65)
+		{
+			events.add(new SimEvent(SimHandler.BlockSpread, new BlockSpreadEvent(this.world.getBlock(toX, y, toZ), this.world.getBlock(x, y, z, Material.FIRE), this.world.getState(Material.FIRE))));
+		}
+		else if(roll < 85)
+		{
+			events.add(new SimEvent(SimHandler.BlockBurn, new BlockBurnEvent(this.world.getBlock(x, y, z, Material.WOOD))));
+		}
+		else if(roll < 95)
+		{
+			events.add(new SimEvent(SimHandler.BlockIgnite, new BlockIgniteEvent(this.world.getBlock(x, y, z), IgniteCause.LAVA, null)));
+		}
+		else
+		{
+			Player player = this.pickPlayer(random, (Claim)spot[2]);
+			events.add(new SimEvent(SimHandler.BlockIgnite, new BlockIgniteEvent(this.world.getBlock(x, y, z), IgniteCause.FLINT_AND_STEEL, player)));
+		}
+	}
+	
+	private void addExplosionEvent(ArrayList<SimEvent> events, Random random)
+	{
+		Object [] spot = this.pickSpot(random);
+		int x = (Integer)spot[0];
+		int z = (Integer)spot[1];
+		int y = SimWorld.SURFACE_Y + 1;
+		
+		//the creeper is usually after someone
+		final Player target = random.nextInt(100) < 80 ? this.pickPlayer(random, (Claim)spot[2]) : null;
+		Creeper creeper = BenchEnvironment.proxy(Creeper.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				if(method.getName().equals("getTarget")) return target;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+		
+		//everything solid within three blocks goes
+		ArrayList<Block> blocks = new ArrayList<Block>();
+		for(int dx = -3; dx <= 3; dx++)
+		{
+			for(int dy = -3; dy <= 3; dy++)
+			{
+				for(int dz = -3; dz <= 3; dz++)
+				{
+					if(dx * dx + dy * dy + dz * dz > 9) continue;
+					if(this.world.getMaterial(x + dx, y + dy, z + dz) == Material.AIR) continue;
+					blocks.add(this.world.getBlock(x + dx, y + dy, z + dz));
+				}
+			}
+		}
+		
+		events.add(new SimEvent(SimHandler.EntityExplode, new EntityExplodeEvent(creeper, new Location(this.world.getWorld(), x, y, z), blocks, 3.0f)));
+	}
+	
+	private void addInteractEvent(ArrayList<SimEvent> events, Random random)
+	{
+		Object [] spot = this.pickSpot(random);
+		int x = (Integer)spot[0];
+		int z = (Integer)spot[1];
+		Player player = this.pickPlayer(random, (Claim)spot[2]);
+		
+		//mostly containers and doors, which is what players click on all day
+		Material [] clicked = { Material.CHEST, Material.CHEST, Material.CHEST, Material.CHEST, Material.CHEST, Material.WOODEN_DOOR, Material.WOODEN_DOOR, Material.WOODEN_DOOR, Material.LEVER, Material.LEVER, Material.STONE_BUTTON, Material.STONE_BUTTON, Material.FURNACE, Material.SOIL, Material.SOIL, Material.NOTE_BLOCK, Material.TNT, Material.DRAGON_EGG, Material.STONE, Material.STONE };
+		Material type = clicked[random.nextInt(clicked.length)];
+		
+		Action action;
+		if(type == Material.SOIL) action = Action.PHYSICAL;
+		else if(random.nextInt(100) < 80) action = Action.RIGHT_CLICK_BLOCK;
+		else action = Action.LEFT_CLICK_BLOCK;
+		
+		Block block = this.world.getBlock(x, SimWorld.SURFACE_Y + 1, z, type);
+		events.add(new SimEvent(SimHandler.PlayerInteract, new PlayerInteractEvent(player, action, player.getItemInHand(), block, BlockFace.UP)));
+	}
+	
+	//sends each event to its handler, timing each one when there are stats to collect
+	private void replay(ArrayList<SimEvent> events, EnumMap<SimHandler, HandlerStats> stats)
+	{
+		long threadID = Thread.currentThread().getId();
+		for(int i = 0; i < events.size(); i++)
+		{
+			SimEvent simEvent = events.get(i);
+			if(stats == null)
+			{
+				this.dispatch(simEvent);
+				continue;
+			}
+			
+			long allocatedBefore = this.threadBean != null ? this.threadBean.getThreadAllocatedBytes(threadID) : 0;
+			long startTime = System.nanoTime();
+			this.dispatch(simEvent);
+			long latency = System.nanoTime() - startTime;
+			long allocated = this.threadBean != null ? this.threadBean.getThreadAllocatedBytes(threadID) - allocatedBefore - this.allocationOverhead : 0;
+			
+			boolean cancelled = simEvent.event instanceof org.bukkit.event.Cancellable && ((org.bukkit.event.Cancellable)simEvent.event).isCancelled();
+			stats.get(simEvent.handler).add(latency, Math.max(0, allocated), cancelled);
+		}
+	}
+	
+	private void dispatch(SimEvent simEvent)
+	{
+		switch(simEvent.handler)
+		{
+			case BlockBreak: this.blockEventHandler.onBlockBreak((BlockBreakEvent)simEvent.event); break;
+			case BlockPlace: this.blockEventHandler.onBlockPlace((BlockPlaceEvent)simEvent.event); break;
+			case BlockFromTo: this.blockEventHandler.onBlockFromTo((BlockFromToEvent)simEvent.event); break;
+			case BlockSpread: this.blockEventHandler.onBlockSpread((BlockSpreadEvent)simEvent.event); break;
+			case BlockBurn: this.blockEventHandler.onBlockBurn((BlockBurnEvent)simEvent.event); break;
+			case BlockIgnite: this.blockEventHandler.onBlockIgnite((BlockIgniteEvent)simEvent.event); break;
+			case EntityExplode: this.entityEventHandler.onEntityExplode((EntityExplodeEvent)simEvent.event); break;
+			case PlayerInteract: this.playerEventHandler.onPlayerInteract((PlayerInteractEvent)simEvent.event); break;
+		}
+	}
+	
+	private void report(EnumMap<SimHandler, HandlerStats> stats, long elapsed, long gcCount, long gcTime)
+	{
+		System.out.println();
+		System.out.println(String.format("%-36s %8s %9s %8s %8s %8s %8s %8s %11s", "handler (latency in microseconds)", "events", "cancelled", "p50", "p90", "p99", "p99.9", "max", "bytes/event"));
+		
+		long totalAllocated = 0;
+		for(SimHandler handler : SimHandler.values())
+		{
+			HandlerStats handlerStats = stats.get(handler);
+			if(handlerStats.count == 0) continue;
+			
+			long [] latencies = Arrays.copyOf(handlerStats.latencies, handlerStats.count);
+			Arrays.sort(latencies);
+			totalAllocated += handlerStats.allocatedBytes;
+			
+			System.out.println(String.format("%-36s %8d %9d %8.1f %8.1f %8.1f %8.1f %8.1f %11s",
+				handler.handlerName,
+				handlerStats.count,
+				handlerStats.cancelled,
+				LoadSimulator.percentile(latencies, 0.5) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.9) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.99) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.999) / 1000.0,
+				latencies[latencies.length - 1] / 1000.0,
+				this.threadBean != null ? String.valueOf(handlerStats.allocatedBytes / handlerStats.count) : "n/a"));
+		}
+		
+		double seconds = elapsed / 1000000000.0;
+		System.out.println();
+		System.out.println(String.format("%d events in %.2f s, %.0f events/s.", this.eventCount, seconds, this.eventCount / seconds));
+		if(this.threadBean != null)
+		{
+			System.out.println(String.format("Handlers allocated %.1f MB, %.1f MB/s.", totalAllocated / 1048576.0, totalAllocated / 1048576.0 / seconds));
+		}
+		System.out.println(gcCount + " garbage collections took " + gcTime + " ms.");
+	}
+	
+	//the latency at or below which a fraction of the sorted latencies are
+	static long percentile(long [] sortedLatencies, double fraction)
+	{
+		int index = (int)Math.ceil(fraction * sortedLatencies.length) - 1;
+		return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+	}
+	
+	//total garbage collection count, or total milliseconds spent collecting, since the JVM started
+	private static long getGarbageCollections(boolean time)
+	{
+		long total = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			long value = time ? collector.getCollectionTime() : collector.getCollectionCount();
+			if(value > 0) total += value;
+		}
+		
+		return total;
+	}
+}
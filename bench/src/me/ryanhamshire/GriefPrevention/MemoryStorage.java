@@ -0,0 +1,95 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.bukkit.World;
+
+//storage which hands out claims already in memory and throws away everything it's asked to save
+//every player has default player data, so the data store attaches claim owners' claims to their data as it would for a real server
+//lets the benchmarks measure the data store by itself, see BenchEnvironment.startDataStore()
+class MemoryStorage implements DataStorage
+{
+	private List<Claim> claims;
+	private long nextClaimID = 1;
+	
+	MemoryStorage(List<Claim> claims)
+	{
+		this.claims = claims;
+		for(int i = 0; i < claims.size(); i++)
+		{
+			Claim claim = claims.get(i);
+			this.nextClaimID = Math.max(this.nextClaimID, claim.id + 1);
+			for(int j = 0; j < claim.children.size(); j++)
+			{
+				this.nextClaimID = Math.max(this.nextClaimID, claim.children.get(j).id + 1);
+			}
+		}
+	}
+	
+	public List<Claim> loadClaims(Map<String, World> worlds)
+	{
+		return new ArrayList<Claim>(this.claims);
+	}
+	
+	public long getNextClaimID()
+	{
+		return this.nextClaimID;
+	}
+	
+	public PlayerData loadPlayerData(String playerName)
+	{
+		return new PlayerData();
+	}
+	
+	public void saveChanges(List<Claim> claims, Collection<Claim> changedClaims, Map<String, PlayerData> changedPlayerData, long nextClaimID, boolean closing)
+	{
+	}
+	
+	public void deleteClaim(Claim claim)
+	{
+	}
+	
+	public Future<List<String>> getPlayersLastLoginBefore(Date time)
+	{
+		FutureTask<List<String>> result = new FutureTask<List<String>>(new Callable<List<String>>()
+		{
+			public List<String> call()
+			{
+				return new ArrayList<String>();
+			}
+		});
+		
+		result.run();
+		return result;
+	}
+	
+	public int getPendingWrites()
+	{
+		return 0;
+	}
+	
+	public void close()
+	{
+	}
+}
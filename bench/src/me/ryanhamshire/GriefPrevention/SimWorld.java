@@ -0,0 +1,138 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.reflect.*;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+
+//a flat world for the load simulator, with blocks worked out from their coordinates instead of stored
+//stone up to SURFACE_Y, then a layer with a scattering of chests, doors, levers, lava and fire, then air
+//blocks are proxies like the rest of BenchEnvironment, made fresh for each lookup the way the server makes block objects
+class SimWorld 
+{
+	final static int SURFACE_Y = 60;
+	
+	//what the scattered blocks on the surface layer are, each about one in a hundred
+	private final static Material [] SURFACE_FEATURES = { Material.CHEST, Material.FURNACE, Material.WOODEN_DOOR, Material.TRAP_DOOR, Material.FENCE_GATE, Material.LEVER, Material.STONE_BUTTON, Material.NOTE_BLOCK, Material.SOIL, Material.LAVA, Material.STATIONARY_LAVA, Material.FIRE, Material.TNT, Material.OBSIDIAN };
+	
+	private World world;
+	
+	SimWorld(final String worldName)
+	{
+		final SimWorld simWorld = this;
+		this.world = BenchEnvironment.proxy(World.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getName")) return worldName;
+				if(name.equals("getEnvironment")) return World.Environment.NORMAL;
+				if(name.equals("getMaxHeight")) return 256;
+				if(name.equals("getSeaLevel")) return SURFACE_Y + 4;
+				if(name.equals("getBlockTypeIdAt") && args.length == 3) return simWorld.getMaterial((Integer)args[0], (Integer)args[1], (Integer)args[2]).getId();
+				if(name.equals("getBlockAt") && args.length == 3) return simWorld.getBlock((Integer)args[0], (Integer)args[1], (Integer)args[2]);
+				if(name.equals("getBlockAt") && args.length == 1)
+				{
+					Location location = (Location)args[0];
+					return simWorld.getBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+				}
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	World getWorld()
+	{
+		return this.world;
+	}
+	
+	//what's at a location.  the same coordinates always give the same material
+	Material getMaterial(int x, int y, int z)
+	{
+		if(y < SURFACE_Y) return Material.STONE;
+		if(y == SURFACE_Y) return Material.GRASS;
+		if(y > SURFACE_Y + 1) return Material.AIR;
+		
+		int hash = (x * 0x1F1F1F1F) ^ (z * 0x5BD1E995);
+		hash ^= hash >>> 15;
+		hash *= 0x2C1B3C6D;
+		hash ^= hash >>> 12;
+		int roll = (hash & 0x7FFFFFFF) % 100;
+		if(roll >= SURFACE_FEATURES.length) return Material.AIR;
+		return SURFACE_FEATURES[roll];
+	}
+	
+	Block getBlock(int x, int y, int z)
+	{
+		return this.getBlock(x, y, z, null);
+	}
+	
+	//gets a block, optionally pretending it's something else than the terrain says, like the lava an event is about
+	Block getBlock(final int x, final int y, final int z, final Material type)
+	{
+		final SimWorld simWorld = this;
+		return BenchEnvironment.proxy(Block.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getX")) return x;
+				if(name.equals("getY")) return y;
+				if(name.equals("getZ")) return z;
+				if(name.equals("getWorld")) return simWorld.world;
+				if(name.equals("getLocation")) return new Location(simWorld.world, x, y, z);
+				if(name.equals("getType")) return this.getType();
+				if(name.equals("getTypeId")) return this.getType().getId();
+				if(name.equals("getState")) return simWorld.getState(this.getType());
+				if(name.equals("getRelative") && args.length == 3) return simWorld.getBlock(x + (Integer)args[0], y + (Integer)args[1], z + (Integer)args[2]);
+				if(name.equals("equals")) return args[0] instanceof Block && ((Block)args[0]).getX() == x && ((Block)args[0]).getY() == y && ((Block)args[0]).getZ() == z;
+				if(name.equals("hashCode")) return (x * 31 + y) * 31 + z;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+			
+			private Material getType()
+			{
+				return type != null ? type : simWorld.getMaterial(x, y, z);
+			}
+		});
+	}
+	
+	//gets a block state for a material.  chests are inventory holders, like on a server
+	BlockState getState(final Material type)
+	{
+		InvocationHandler handler = new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				if(method.getName().equals("getType")) return type;
+				if(method.getName().equals("getTypeId")) return type.getId();
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		};
+		
+		if(type == Material.CHEST) return BenchEnvironment.proxy(Chest.class, handler);
+		return BenchEnvironment.proxy(BlockState.class, handler);
+	}
+}
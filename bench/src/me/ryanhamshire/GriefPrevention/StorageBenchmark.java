@@ -0,0 +1,128 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+//loading and saving claims and player data with the data files, either one file per claim or the claim snapshot
+//saves include waiting for the background writer, so they measure getting the data to disk rather than just queueing it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageBenchmark 
+{
+	private final static int PLAYER_COUNT = 1000;
+	
+	@Param({"1000", "10000"})
+	public int claimCount;
+	
+	@Param({"files", "snapshot"})
+	public String claimFormat;
+	
+	private Map<String, World> worlds = new HashMap<String, World>();
+	private ArrayList<Claim> claims;
+	private LinkedHashMap<String, PlayerData> players = new LinkedHashMap<String, PlayerData>();
+	private String [] playerNames = new String[PLAYER_COUNT];
+	
+	//stays open for the single player benchmarks
+	private FlatFileStorage storage;
+	
+	private int next = 0;
+	
+	@Setup
+	public void setup()
+	{
+		World world = BenchEnvironment.world("world");
+		this.worlds.put(world.getName(), world);
+		GriefPrevention plugin = BenchEnvironment.start(world);
+		plugin.config_claims_snapshotEnabled = this.claimFormat.equals("snapshot");
+		
+		this.claims = BenchEnvironment.makeClaims(world, this.claimCount, 4, 1);
+		for(int i = 0; i < this.claims.size(); i++)
+		{
+			Claim claim = this.claims.get(i);
+			claim.inDataStore = true;
+			for(int j = 0; j < claim.children.size(); j++)
+			{
+				claim.children.get(j).inDataStore = true;
+			}
+		}
+		
+		for(int i = 0; i < PLAYER_COUNT; i++)
+		{
+			this.playerNames[i] = "player" + i;
+			PlayerData playerData = new PlayerData();
+			playerData.accruedClaimBlocks = 1000 + i;
+			this.players.put(this.playerNames[i], playerData);
+		}
+		
+		//start from nothing, then write everything once so the load benchmarks have something to read
+		BenchEnvironment.deleteFolder(new File(DataStore.dataLayerFolderPath));
+		this.saveClaims();
+		this.savePlayers();
+		
+		this.storage = new FlatFileStorage();
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		this.storage.close();
+	}
+	
+	@Benchmark
+	public List<Claim> loadClaims() throws Exception
+	{
+		FlatFileStorage storage = new FlatFileStorage();
+		List<Claim> loadedClaims = storage.loadClaims(this.worlds);
+		storage.close();
+		return loadedClaims;
+	}
+	
+	@Benchmark
+	public void saveClaims()
+	{
+		FlatFileStorage storage = new FlatFileStorage();
+		storage.saveChanges(this.claims, this.claims, new HashMap<String, PlayerData>(), 1, true);
+		storage.close();
+	}
+	
+	@Benchmark
+	public void savePlayers()
+	{
+		FlatFileStorage storage = new FlatFileStorage();
+		storage.saveChanges(new ArrayList<Claim>(), new ArrayList<Claim>(), this.players, 1, true);
+		storage.close();
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public PlayerData loadPlayer()
+	{
+		return this.storage.loadPlayerData(this.playerNames[this.next++ % PLAYER_COUNT]);
+	}
+}
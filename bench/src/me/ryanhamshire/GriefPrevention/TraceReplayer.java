@@ -0,0 +1,425 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.*;
+import org.bukkit.event.block.BlockIgniteEvent.IgniteCause;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+
+//replays an event trace recorded with /EventTrace against the claims as they were when recording started
+//each event goes to its handler the way the server sent it, and the handler's decision is checked against the one in the trace
+//the trace is replayed several times, each time from a fresh copy of the claims.  the first pass warms up and the others are timed
+//run it as a plain program: TraceReplayer <trace file> [passes].  it exits with 2 if any decision was different
+//replaying the same trace on two builds shows which is faster, and a mismatch means behavior changed
+//(or the trace missed something, like another plugin cancelling events at the same priority as GriefPrevention)
+public class TraceReplayer 
+{
+	//how many mismatches are described, after that they're only counted
+	private final static int MISMATCHES_SHOWN = 20;
+	
+	private EventTrace trace;
+	private ArrayList<EventTrace.Entry> entries = new ArrayList<EventTrace.Entry>();
+	private ClaimSnapshot claimSnapshot;
+	
+	private TraceWorld [] worlds;
+	private HashMap<String, World> worldsByName = new HashMap<String, World>();
+	private GriefPrevention plugin;
+	
+	//players by name, and the entry which last said what they're holding and what they're allowed to do
+	private HashMap<String, Player> players = new HashMap<String, Player>();
+	private HashMap<String, EventTrace.Entry> playerStates = new HashMap<String, EventTrace.Entry>();
+	private HashMap<String, Player> onlinePlayers = new HashMap<String, Player>();
+	
+	private DataStore dataStore;
+	private BlockEventHandler blockEventHandler;
+	private EntityEventHandler entityEventHandler;
+	private PlayerEventHandler playerEventHandler;
+	
+	private int mismatchCount;
+	
+	public static void main(String [] args) throws Exception
+	{
+		if(args.length < 1)
+		{
+			System.err.println("Usage: TraceReplayer <trace file> [passes]");
+			System.exit(1);
+		}
+		
+		int passes = Math.max(2, args.length > 1 ? Integer.parseInt(args[1]) : 5);
+		TraceReplayer replayer = new TraceReplayer();
+		replayer.load(new File(args[0]));
+		
+		boolean allMatched = true;
+		TreeMap<Byte, LoadSimulator.HandlerStats> stats = new TreeMap<Byte, LoadSimulator.HandlerStats>();
+		long totalHandlerTime = 0;
+		for(int pass = 1; pass <= passes; pass++)
+		{
+			boolean warmup = pass == 1;
+			long handlerTime = replayer.replay(warmup ? null : stats, warmup);
+			if(!warmup) totalHandlerTime += handlerTime;
+			allMatched &= replayer.mismatchCount == 0;
+			System.out.println(String.format("Pass %d%s: %.1f ms in handlers, %d mismatches.", pass, warmup ? " (warmup)" : "", handlerTime / 1000000.0, replayer.mismatchCount));
+		}
+		
+		replayer.report(stats, totalHandlerTime / (passes - 1));
+		System.exit(allMatched ? 0 : 2);
+	}
+	
+	//reads the trace and the claims next to it, and sets up a server with the settings and worlds from the trace
+	private void load(File traceFile) throws IOException
+	{
+		DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)));
+		try
+		{
+			this.trace = EventTrace.readHeader(inStream);
+			while(true)
+			{
+				EventTrace.Entry entry = this.trace.readEntry(inStream);
+				if(entry == null) break;
+				this.entries.add(entry);
+			}
+		}
+		catch(EOFException e)
+		{
+			//the server stopped without stopping the recording
+			System.out.println("The trace ends in the middle of an entry, replaying the " + this.entries.size() + " complete ones.");
+		}
+		finally
+		{
+			inStream.close();
+		}
+		
+		this.claimSnapshot = ClaimSnapshot.read(EventTrace.getClaimsFile(traceFile));
+		
+		this.worlds = new TraceWorld [this.trace.worldNames.length];
+		World [] serverWorlds = new World [this.worlds.length];
+		for(int i = 0; i < this.worlds.length; i++)
+		{
+			this.worlds[i] = new TraceWorld(this.trace.worldNames[i]);
+			serverWorlds[i] = this.worlds[i].getWorld();
+			this.worldsByName.put(this.trace.worldNames[i], serverWorlds[i]);
+		}
+		
+		this.plugin = BenchEnvironment.start(this.onlinePlayers, serverWorlds);
+		this.plugin.config_claims_enabledWorlds.clear();
+		for(int i = 0; i < this.worlds.length; i++)
+		{
+			if(this.trace.claimsEnabledWorlds[i]) this.plugin.config_claims_enabledWorlds.add(serverWorlds[i]);
+			if(this.trace.creativeWorlds[i]) this.plugin.config_claims_enabledCreativeWorlds.add(serverWorlds[i]);
+		}
+		this.plugin.config_claims_preventTheft = this.trace.preventTheft;
+		this.plugin.config_claims_preventButtonsSwitches = this.trace.preventButtonsSwitches;
+		this.plugin.config_claims_lockDoors = this.trace.lockDoors;
+		this.plugin.config_claims_fireCannotCrossClaimBorders = this.trace.fireCannotCrossClaimBorders;
+		this.plugin.config_claims_firePlacementRequiresTrust = this.trace.firePlacementRequiresTrust;
+		this.plugin.config_claims_creationRequiresPermission = this.trace.creationRequiresPermission;
+		this.plugin.config_claims_automaticClaimsForNewPlayersRadius = this.trace.automaticClaimsForNewPlayersRadius;
+		this.plugin.config_claims_claimsExtendIntoGroundDistance = this.trace.claimsExtendIntoGroundDistance;
+		this.plugin.config_claims_depthExtensionStep = this.trace.depthExtensionStep;
+		this.plugin.config_claims_maxDepth = this.trace.maxDepth;
+		
+		long duration = this.entries.isEmpty() ? 0 : this.entries.get(this.entries.size() - 1).time;
+		System.out.println(String.format("Trace from %s: %d entries over %.1f minutes, %d top level claims.", new Date(this.trace.startTime), this.entries.size(), duration / 60000000.0, this.claimSnapshot.records.size()));
+	}
+	
+	//replays the whole trace from the claims in the snapshot, and returns the nanoseconds spent in handlers
+	//decisions are always checked, the first few mismatches are described when describeMismatches is TRUE
+	private long replay(TreeMap<Byte, LoadSimulator.HandlerStats> stats, boolean describeMismatches) throws Exception
+	{
+		ArrayList<Claim> claims = new ArrayList<Claim>();
+		this.claimSnapshot.resolve(this.worldsByName, claims, new ArrayList<ClaimRecord>());
+		this.dataStore = BenchEnvironment.startDataStore(this.plugin, claims);
+		this.blockEventHandler = new BlockEventHandler(this.dataStore);
+		this.entityEventHandler = new EntityEventHandler(this.dataStore);
+		this.playerEventHandler = new PlayerEventHandler(this.dataStore, this.plugin);
+		this.onlinePlayers.clear();
+		this.playerStates.clear();
+		this.mismatchCount = 0;
+		
+		long handlerTime = 0;
+		for(int i = 0; i < this.entries.size(); i++)
+		{
+			EventTrace.Entry entry = this.entries.get(i);
+			if(entry.type == EventTrace.JOIN)
+			{
+				this.onlinePlayers.put(entry.playerName, this.getPlayer(entry));
+				continue;
+			}
+			
+			if(entry.type == EventTrace.QUIT)
+			{
+				this.onlinePlayers.remove(entry.playerName);
+				continue;
+			}
+			
+			TraceWorld world = this.worlds[entry.world];
+			world.clear();
+			Event event = this.makeEvent(entry, world);
+			if((entry.outcome & EventTrace.CANCELLED_BEFORE) != 0) ((Cancellable)event).setCancelled(true);
+			
+			//explosions are judged by which blocks are left, so remember which was which
+			List<Block> blocksBefore = null;
+			if(event instanceof EntityExplodeEvent) blocksBefore = new ArrayList<Block>(((EntityExplodeEvent)event).blockList());
+			
+			long startTime = System.nanoTime();
+			this.dispatch(entry.type, event);
+			long latency = System.nanoTime() - startTime;
+			handlerTime += latency;
+			
+			boolean cancelled = ((Cancellable)event).isCancelled();
+			if(stats != null)
+			{
+				LoadSimulator.HandlerStats handlerStats = stats.get(entry.type);
+				if(handlerStats == null) stats.put(entry.type, handlerStats = new LoadSimulator.HandlerStats());
+				handlerStats.add(latency, 0, cancelled);
+			}
+			
+			String mismatch = null;
+			if(cancelled != ((entry.outcome & EventTrace.CANCELLED) != 0))
+			{
+				mismatch = cancelled ? "cancelled, but wasn't in the trace" : "allowed, but was cancelled in the trace";
+			}
+			else if(blocksBefore != null)
+			{
+				BitSet keptBlocks = new BitSet();
+				HashSet<Block> blocksAfter = new HashSet<Block>(((EntityExplodeEvent)event).blockList());
+				for(int j = 0; j < blocksBefore.size(); j++)
+				{
+					if(blocksAfter.contains(blocksBefore.get(j))) keptBlocks.set(j);
+				}
+				
+				if(!keptBlocks.equals(entry.keptBlocks))
+				{
+					mismatch = "left " + keptBlocks.cardinality() + " of " + blocksBefore.size() + " blocks to blow up, but " + entry.keptBlocks.cardinality() + " in the trace";
+				}
+			}
+			
+			if(mismatch != null)
+			{
+				this.mismatchCount++;
+				if(describeMismatches && this.mismatchCount <= MISMATCHES_SHOWN)
+				{
+					System.out.println(String.format("  entry %d at %.3f s, %s%s at %s(%d,%d,%d): %s.", i, entry.time / 1000000.0, TraceReplayer.getHandlerName(entry.type), entry.playerName != null ? " for " + entry.playerName : "", this.trace.worldNames[entry.world], entry.x, entry.y, entry.z, mismatch));
+				}
+			}
+		}
+		
+		return handlerTime;
+	}
+	
+	//builds the event an entry describes, and sets the blocks the handler will look at
+	private Event makeEvent(EventTrace.Entry entry, TraceWorld world)
+	{
+		int x = entry.x;
+		int y = entry.y;
+		int z = entry.z;
+		Player player = entry.playerName != null ? this.getPlayer(entry) : null;
+		
+		if(entry.blocks != null && entry.type != EventTrace.ENTITY_EXPLODE)
+		{
+			for(int i = 0; i < entry.blocks.length; i += 4)
+			{
+				world.setBlock(x + entry.blocks[i], y + entry.blocks[i + 1], z + entry.blocks[i + 2], entry.blocks[i + 3], false);
+			}
+		}
+		
+		switch(entry.type)
+		{
+			case EventTrace.BLOCK_BREAK:
+				world.setBlock(x, y, z, entry.material, false);
+				return new BlockBreakEvent(world.getBlock(x, y, z), player);
+				
+			case EventTrace.BLOCK_PLACE:
+				world.setBlock(x, y, z, entry.material, false);
+				Material placed = Material.getMaterial(entry.material);
+				return new BlockPlaceEvent(world.getBlock(x, y, z), TraceReplayer.getState(Material.AIR), world.getBlock(x, y - 1, z), new ItemStack(placed != null ? placed : Material.AIR), player, true);
+				
+			case EventTrace.BLOCK_FROM_TO:
+				world.setBlock(x, y, z, entry.material, false);
+				return new BlockFromToEvent(world.getBlock(x, y, z), world.getBlock(x + entry.dx, y + entry.dy, z + entry.dz));
+				
+			case EventTrace.BLOCK_SPREAD:
+				Material newType = Material.getMaterial(entry.material);
+				return new BlockSpreadEvent(world.getBlock(x, y, z), world.getBlock(x + entry.dx, y + entry.dy, z + entry.dz), TraceReplayer.getState(newType != null ? newType : Material.AIR));
+				
+			case EventTrace.BLOCK_BURN:
+				return new BlockBurnEvent(world.getBlock(x, y, z));
+				
+			case EventTrace.BLOCK_IGNITE:
+				return new BlockIgniteEvent(world.getBlock(x, y, z), IgniteCause.values()[entry.cause], player);
+				
+			case EventTrace.ENTITY_EXPLODE:
+				ArrayList<Block> blocks = new ArrayList<Block>(entry.blocks.length / 4);
+				for(int i = 0; i < entry.blocks.length; i += 4)
+				{
+					world.setBlock(x + entry.blocks[i], y + entry.blocks[i + 1], z + entry.blocks[i + 2], entry.blocks[i + 3], false);
+					blocks.add(world.getBlock(x + entry.blocks[i], y + entry.blocks[i + 1], z + entry.blocks[i + 2]));
+				}
+				return new EntityExplodeEvent(TraceReplayer.getCreeper(player), new Location(world.getWorld(), x, y, z), blocks, 3.0f);
+				
+			case EventTrace.PLAYER_INTERACT:
+				world.setBlock(x, y, z, entry.material, entry.inventoryHolder);
+				return new PlayerInteractEvent(player, Action.values()[entry.cause], player.getItemInHand(), world.getBlock(x, y, z), BlockFace.UP);
+		}
+		
+		throw new IllegalStateException("No event for trace entry type " + entry.type + ".");
+	}
+	
+	private void dispatch(byte type, Event event)
+	{
+		switch(type)
+		{
+			case EventTrace.BLOCK_BREAK: this.blockEventHandler.onBlockBreak((BlockBreakEvent)event); break;
+			case EventTrace.BLOCK_PLACE: this.blockEventHandler.onBlockPlace((BlockPlaceEvent)event); break;
+			case EventTrace.BLOCK_FROM_TO: this.blockEventHandler.onBlockFromTo((BlockFromToEvent)event); break;
+			case EventTrace.BLOCK_SPREAD: this.blockEventHandler.onBlockSpread((BlockSpreadEvent)event); break;
+			case EventTrace.BLOCK_BURN: this.blockEventHandler.onBlockBurn((BlockBurnEvent)event); break;
+			case EventTrace.BLOCK_IGNITE: this.blockEventHandler.onBlockIgnite((BlockIgniteEvent)event); break;
+			case EventTrace.ENTITY_EXPLODE: this.entityEventHandler.onEntityExplode((EntityExplodeEvent)event); break;
+			case EventTrace.PLAYER_INTERACT: this.playerEventHandler.onPlayerInteract((PlayerInteractEvent)event); break;
+		}
+	}
+	
+	//gets the player an entry is about, as the entry describes him: what he's holding, his permissions and whether he's ignoring claims
+	private Player getPlayer(EventTrace.Entry entry)
+	{
+		final String playerName = entry.playerName;
+		this.playerStates.put(playerName, entry);
+		this.dataStore.getPlayerData(playerName).ignoreClaims = (entry.playerFlags & EventTrace.IGNORING_CLAIMS) != 0;
+		
+		Player player = this.players.get(playerName);
+		if(player != null) return player;
+		
+		final TraceReplayer replayer = this;
+		player = BenchEnvironment.proxy(Player.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				EventTrace.Entry state = replayer.playerStates.get(playerName);
+				if(name.equals("getName")) return playerName;
+				if(name.equals("isOnline")) return replayer.onlinePlayers.containsKey(playerName);
+				if(name.equals("getWorld")) return replayer.worlds[state.world].getWorld();
+				if(name.equals("getLocation")) return new Location(replayer.worlds[state.world].getWorld(), state.x, state.y, state.z);
+				if(name.equals("getItemInHand"))
+				{
+					Material itemInHand = Material.getMaterial(state.itemInHand);
+					return new ItemStack(itemInHand != null ? itemInHand : Material.AIR);
+				}
+				if(name.equals("hasPermission") && args[0] instanceof String)
+				{
+					String permission = (String)args[0];
+					if(permission.equals("griefprevention.adminclaims")) return (state.playerFlags & EventTrace.ADMIN_CLAIMS) != 0;
+					if(permission.equals("griefprevention.deleteclaims")) return (state.playerFlags & EventTrace.DELETE_CLAIMS) != 0;
+					if(permission.equals("griefprevention.dangerousitems")) return (state.playerFlags & EventTrace.DANGEROUS_ITEMS) != 0;
+					return false;
+				}
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+		
+		this.players.put(playerName, player);
+		return player;
+	}
+	
+	//a creeper going after a player, or after nobody
+	private static Creeper getCreeper(final Player target)
+	{
+		return BenchEnvironment.proxy(Creeper.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				if(method.getName().equals("getTarget")) return target;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	private static BlockState getState(final Material type)
+	{
+		return BenchEnvironment.proxy(BlockState.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				if(method.getName().equals("getType")) return type;
+				if(method.getName().equals("getTypeId")) return type.getId();
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	private static String getHandlerName(byte type)
+	{
+		switch(type)
+		{
+			case EventTrace.BLOCK_BREAK: return "onBlockBreak";
+			case EventTrace.BLOCK_PLACE: return "onBlockPlace";
+			case EventTrace.BLOCK_FROM_TO: return "onBlockFromTo";
+			case EventTrace.BLOCK_SPREAD: return "onBlockSpread";
+			case EventTrace.BLOCK_BURN: return "onBlockBurn";
+			case EventTrace.BLOCK_IGNITE: return "onBlockIgnite";
+			case EventTrace.ENTITY_EXPLODE: return "onEntityExplode";
+			case EventTrace.PLAYER_INTERACT: return "onPlayerInteract";
+		}
+		
+		return "entry type " + type;
+	}
+	
+	//latencies over all the timed passes
+	private void report(TreeMap<Byte, LoadSimulator.HandlerStats> stats, long averageHandlerTime)
+	{
+		System.out.println();
+		System.out.println(String.format("%-20s %9s %9s %8s %8s %8s %8s %8s", "handler (microsec.)", "events", "cancelled", "p50", "p90", "p99", "p99.9", "max"));
+		for(Map.Entry<Byte, LoadSimulator.HandlerStats> handlerEntry : stats.entrySet())
+		{
+			LoadSimulator.HandlerStats handlerStats = handlerEntry.getValue();
+			long [] latencies = Arrays.copyOf(handlerStats.latencies, handlerStats.count);
+			Arrays.sort(latencies);
+			
+			System.out.println(String.format("%-20s %9d %9d %8.1f %8.1f %8.1f %8.1f %8.1f",
+				TraceReplayer.getHandlerName(handlerEntry.getKey()),
+				handlerStats.count,
+				handlerStats.cancelled,
+				LoadSimulator.percentile(latencies, 0.5) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.9) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.99) / 1000.0,
+				LoadSimulator.percentile(latencies, 0.999) / 1000.0,
+				latencies[latencies.length - 1] / 1000.0));
+		}
+		
+		System.out.println();
+		System.out.println(String.format("Average time in handlers per timed pass: %.1f ms.", averageHandlerTime / 1000000.0));
+	}
+}
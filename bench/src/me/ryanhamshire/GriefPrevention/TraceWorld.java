@@ -0,0 +1,145 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.reflect.*;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+
+//a world for replaying event traces, with only the blocks the current trace entry says are there and air everywhere else
+//the replayer clears it and sets the blocks for each entry before handing the event to its handler, see TraceReplayer
+class TraceWorld 
+{
+	private World world;
+	
+	//blocks by position, see getKey()
+	private HashMap<Long, Material> blocks = new HashMap<Long, Material>();
+	
+	//positions of blocks whose state is an inventory holder, like chests and furnaces
+	private HashSet<Long> inventoryHolders = new HashSet<Long>();
+	
+	TraceWorld(final String worldName)
+	{
+		final TraceWorld traceWorld = this;
+		this.world = BenchEnvironment.proxy(World.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getName")) return worldName;
+				if(name.equals("getEnvironment")) return World.Environment.NORMAL;
+				if(name.equals("getMaxHeight")) return 256;
+				if(name.equals("getSeaLevel")) return 64;
+				if(name.equals("getBlockTypeIdAt") && args.length == 3) return traceWorld.getMaterial((Integer)args[0], (Integer)args[1], (Integer)args[2]).getId();
+				if(name.equals("getBlockAt") && args.length == 3) return traceWorld.getBlock((Integer)args[0], (Integer)args[1], (Integer)args[2]);
+				if(name.equals("getBlockAt") && args.length == 1)
+				{
+					Location location = (Location)args[0];
+					return traceWorld.getBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+				}
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	World getWorld()
+	{
+		return this.world;
+	}
+	
+	//turns everything back into air
+	void clear()
+	{
+		this.blocks.clear();
+		this.inventoryHolders.clear();
+	}
+	
+	//sets a block by type ID.  unknown types are left as air
+	void setBlock(int x, int y, int z, int typeId, boolean inventoryHolder)
+	{
+		Material type = Material.getMaterial(typeId);
+		if(type == null) return;
+		
+		long key = TraceWorld.getKey(x, y, z);
+		this.blocks.put(key, type);
+		if(inventoryHolder) this.inventoryHolders.add(key);
+	}
+	
+	Material getMaterial(int x, int y, int z)
+	{
+		Material type = this.blocks.get(TraceWorld.getKey(x, y, z));
+		return type != null ? type : Material.AIR;
+	}
+	
+	//blocks look up their type when asked, like the server's blocks do
+	Block getBlock(final int x, final int y, final int z)
+	{
+		final TraceWorld traceWorld = this;
+		return BenchEnvironment.proxy(Block.class, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				String name = method.getName();
+				if(name.equals("getX")) return x;
+				if(name.equals("getY")) return y;
+				if(name.equals("getZ")) return z;
+				if(name.equals("getWorld")) return traceWorld.world;
+				if(name.equals("getLocation")) return new Location(traceWorld.world, x, y, z);
+				if(name.equals("getType")) return traceWorld.getMaterial(x, y, z);
+				if(name.equals("getTypeId")) return traceWorld.getMaterial(x, y, z).getId();
+				if(name.equals("getState")) return traceWorld.getState(x, y, z);
+				if(name.equals("getRelative") && args.length == 3) return traceWorld.getBlock(x + (Integer)args[0], y + (Integer)args[1], z + (Integer)args[2]);
+				if(name.equals("equals")) return args[0] instanceof Block && ((Block)args[0]).getX() == x && ((Block)args[0]).getY() == y && ((Block)args[0]).getZ() == z;
+				if(name.equals("hashCode")) return (x * 31 + y) * 31 + z;
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	//a block state, which is a chest when the trace says the real one was an inventory holder
+	private BlockState getState(int x, int y, int z)
+	{
+		final Material type = this.getMaterial(x, y, z);
+		InvocationHandler handler = new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object [] args)
+			{
+				if(method.getName().equals("getType")) return type;
+				if(method.getName().equals("getTypeId")) return type.getId();
+				return BenchEnvironment.defaultValue(proxy, method, args);
+			}
+		};
+		
+		if(this.inventoryHolders.contains(TraceWorld.getKey(x, y, z))) return BenchEnvironment.proxy(Chest.class, handler);
+		return BenchEnvironment.proxy(BlockState.class, handler);
+	}
+	
+	//26 bits each for X and Z, which covers the whole world, and 12 for Y
+	private static long getKey(int x, int y, int z)
+	{
+		return (((long)x & 0x3FFFFFF) << 38) | (((long)y & 0xFFF) << 26) | ((long)z & 0x3FFFFFF);
+	}
+}
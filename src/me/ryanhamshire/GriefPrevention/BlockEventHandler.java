@@ -54,10 +54,10 @@ public class BlockEventHandler implements Listener
 {
 	//convenience reference to singleton datastore
 	private DataStore dataStore;
-        //cache last claim for the FromBlockToEvent to opimize lava flow processing
-        private Claim lastBlockFromToEventClaim;
-        //cache for the BlockBurnEvent
-        private Claim lastBlockBurnEventClaim;
+        //claims recent lava flows were in, to optimize lava flow processing
+        private ClaimHintCache fluidClaimHints = new ClaimHintCache(Statistics.fluidClaimHints);
+        //claims recent fires were in, for burning, spreading and lava ignition
+        private ClaimHintCache fireClaimHints = new ClaimHintCache(Statistics.fireClaimHints);
 	
 	//boring typical constructor
 	public BlockEventHandler(DataStore dataStore)
@@ -82,16 +82,16 @@ public class BlockEventHandler implements Listener
 		}
 		
 		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-		Claim claim = this.dataStore.getClaimAt(block.getLocation(), true, playerData.lastClaim);
+		Claim claim = this.dataStore.getCachedClaimAt(block.getLocation(), true, playerData.claimHints);
 		
 		//if there's a claim here
 		if(claim != null)
 		{
 			//if breaking UNDER the claim
-			if(block.getY() < claim.lesserBoundaryCorner.getBlockY())
+			if(block.getY() < claim.bounds.lesserY)
 			{
 				//extend the claim downward beyond the breakage point
-				this.dataStore.extendClaim(claim, claim.getLesserBoundaryCorner().getBlockY() - GriefPrevention.instance.config_claims_claimsExtendIntoGroundDistance);
+				this.dataStore.extendClaim(claim, block.getY() - GriefPrevention.instance.config_claims_depthExtensionStep);
 			}
 		}
 	}
@@ -114,14 +114,14 @@ public class BlockEventHandler implements Listener
 		
 		//if the block is being placed within an existing claim
 		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-		Claim claim = this.dataStore.getClaimAt(block.getLocation(), true, playerData.lastClaim);
+		Claim claim = this.dataStore.getCachedClaimAt(block.getLocation(), true, playerData.claimHints);
 		if(claim != null)
 		{
 			//if the player has permission for the claim and he's placing UNDER the claim
-			if(block.getY() < claim.lesserBoundaryCorner.getBlockY())
+			if(block.getY() < claim.bounds.lesserY)
 			{
 				//extend the claim downward
-				this.dataStore.extendClaim(claim, claim.getLesserBoundaryCorner().getBlockY() - GriefPrevention.instance.config_claims_claimsExtendIntoGroundDistance);
+				this.dataStore.extendClaim(claim, block.getY() - GriefPrevention.instance.config_claims_depthExtensionStep);
 			}
                         //FEATURE: automatically create a claim when a player who has no claims places a chest
 		
@@ -138,7 +138,7 @@ public class BlockEventHandler implements Listener
 			int radius = GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius;
 			
 			//if the player doesn't have any claims yet, automatically create a claim centered at the chest
-			if(playerData.claims.size() == 0)
+			if(playerData.getClaims().isEmpty())
 			{
 				//radius == 0 means protect ONLY the chest
 				if(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius == 0)
@@ -182,7 +182,7 @@ public class BlockEventHandler implements Listener
 			}
 			
 			//check to see if this chest is in a claim, and warn when it isn't
-			if(GriefPrevention.instance.config_claims_preventTheft && this.dataStore.getClaimAt(block.getLocation(), false, playerData.lastClaim) == null)
+			if(GriefPrevention.instance.config_claims_preventTheft && this.dataStore.getCachedClaimAt(block.getLocation(), false, playerData.claimHints) == null)
 			{
 				GriefPrevention.sendMessage(player, ChatColor.DARK_AQUA, "This chest is not protected. Consider expanding an existing claim or creating a new one.");				
 			}
@@ -241,7 +241,7 @@ public class BlockEventHandler implements Listener
                         Player player = event.getPlayer();
                         if (player != null) {
                                 PlayerData playerData = GriefPrevention.instance.dataStore.getPlayerData(player.getName());
-                                Claim claim = dataStore.getClaimAt(event.getBlock().getLocation(), true, playerData.lastClaim);
+                                Claim claim = dataStore.getCachedClaimAt(event.getBlock().getLocation(), true, playerData.claimHints);
                                 // Deny ignition if it player has no build permissions unless it is for a nether portal
                                 if (GriefPrevention.instance.config_claims_firePlacementRequiresTrust && claim == null && !playerData.ignoreClaims && !player.hasPermission("griefprevention.dangerousitems")) {
                                         if (!checkNetherPortal(event.getBlock().getLocation())) {
@@ -264,13 +264,13 @@ public class BlockEventHandler implements Listener
                 // Deny lava ignition across claims
                 if (GriefPrevention.instance.config_claims_fireCannotCrossClaimBorders && event.getCause() == IgniteCause.LAVA) {
                         boolean hasSource = false;
-                        Claim destClaim = dataStore.getClaimAt(event.getBlock().getLocation(), true, null);
+                        Claim destClaim = dataStore.getCachedClaimAt(event.getBlock().getLocation(), true, fireClaimHints);
                 mainLoop: for (int x = -1; x <= 1; ++x) {
                                 for (int y = -5; y <= 1; ++y) {
                                         for (int z = -1; z <= 1; ++z) {
                                                 Block srcBlock = event.getBlock().getRelative(x, y, z);
                                                 if (srcBlock.getType() != Material.LAVA && srcBlock.getType() != Material.STATIONARY_LAVA) continue;
-                                                if (destClaim == null && dataStore.getClaimAt(srcBlock.getLocation(), true, null) != null) continue;
+                                                if (destClaim == null && dataStore.getCachedClaimAt(srcBlock.getLocation(), true, fireClaimHints) != null) continue;
                                                 if (destClaim != null && !destClaim.contains(srcBlock.getLocation(), true, false)) continue;
                                                 hasSource = true;
                                                 break mainLoop;
@@ -293,15 +293,14 @@ public class BlockEventHandler implements Listener
         @EventHandler(priority = EventPriority.HIGH)
         public void onBlockBurn(BlockBurnEvent event) {
                 if (!GriefPrevention.instance.config_claims_fireCannotCrossClaimBorders) return;
-                Claim claim = dataStore.getClaimAt(event.getBlock().getLocation(), true, lastBlockBurnEventClaim);
-                if (claim != null) lastBlockBurnEventClaim = claim;
+                Claim claim = dataStore.getCachedClaimAt(event.getBlock().getLocation(), true, fireClaimHints);
                 for (int x = -1; x <= 1; ++x) {
                         for (int y = -1; y <= 1; ++y) {
                                 for (int z = -1; z <= 1; ++z) {
                                         Block source = event.getBlock().getRelative(x, y, z);
                                         if (source.getType() != Material.FIRE) continue;
                                         if (claim == null) {
-                                                if (dataStore.getClaimAt(source.getLocation(), true, lastBlockBurnEventClaim) == null) return;
+                                                if (dataStore.getCachedClaimAt(source.getLocation(), true, fireClaimHints) == null) return;
                                         } else {
                                                 if (claim.contains(source.getLocation(), true, false)) return;
                                         }
@@ -319,8 +318,8 @@ public class BlockEventHandler implements Listener
                 // Deny fire spread into or out of claims.
                 Block srcBlock = event.getSource();
                 Block dstBlock = event.getBlock();
-                Claim dstClaim = dataStore.getClaimAt(dstBlock.getLocation(), true, null);
-                Claim srcClaim = dataStore.getClaimAt(srcBlock.getLocation(), true, dstClaim);
+                Claim dstClaim = dataStore.getCachedClaimAt(dstBlock.getLocation(), true, fireClaimHints);
+                Claim srcClaim = dataStore.getCachedClaimAt(srcBlock.getLocation(), true, fireClaimHints);
                 // We must not check if the sourceblock is fire
                 // since the event sometimes reports air when fire
                 // spreads.
@@ -343,13 +342,11 @@ public class BlockEventHandler implements Listener
 		Block fromBlock = spreadEvent.getBlock();
                 // Ignore water; water griefing is unlikely and we don't like exploits
                 if (fromBlock.getType() != Material.STATIONARY_LAVA && fromBlock.getType() != Material.LAVA) return;
-		Claim fromClaim = this.dataStore.getClaimAt(fromBlock.getLocation(), false, lastBlockFromToEventClaim);
-                if (fromClaim != null) lastBlockFromToEventClaim = fromClaim;
+		Claim fromClaim = this.dataStore.getCachedClaimAt(fromBlock.getLocation(), false, fluidClaimHints);
 
 		//where to?
 		Block toBlock = spreadEvent.getToBlock();		
-		Claim toClaim = this.dataStore.getClaimAt(toBlock.getLocation(), false, lastBlockFromToEventClaim);
-                if (toClaim != null) lastBlockFromToEventClaim = toClaim;
+		Claim toClaim = this.dataStore.getCachedClaimAt(toBlock.getLocation(), false, fluidClaimHints);
 		
 		//block any spread into the wilderness
 		if(fromClaim != null && toClaim == null)
@@ -372,7 +369,7 @@ public class BlockEventHandler implements Listener
 			}
 			
 			//cancel unless the owner of the spreading block is allowed to build in the receiving claim
-			if(fromOwner == null || fromOwner.getPlayer() == null || toClaim.allowBuild(fromOwner.getPlayer()) != null)
+			if(fromOwner == null || fromOwner.getPlayer() == null || toClaim.checkBuild(fromOwner.getPlayer()) != PermissionResult.Allowed)
 			{
 				spreadEvent.setCancelled(true);
 			}
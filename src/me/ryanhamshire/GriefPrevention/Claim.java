@@ -21,9 +21,9 @@ package me.ryanhamshire.GriefPrevention;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.bukkit.*;
 import org.bukkit.World.Environment;
@@ -36,11 +36,15 @@ import org.bukkit.entity.Player;
 //only claims which have been added to the datastore have any effect
 public class Claim
 {
-	//two locations, which together define the boundaries of the claim
-	//note that the upper Y value is always ignored, because claims ALWAYS extend up to the sky
-	//IF MODIFIED, THE CLAIM DATA FILE'S NAME WILL CHANGE.  ANY MODIFICATIONS MUST BE HANDLED VERY CAREFULLY
-	Location lesserBoundaryCorner;
-	Location greaterBoundaryCorner;
+	//the world and two corners, which together define the boundaries of the claim
+	//kept as plain block coordinates so that boundary checks don't need to create Location instances
+	//the DataStore replaces the bounds instead of changing them, so lookups on other threads read them once, without locking, see ClaimBounds
+	World world;
+	volatile ClaimBounds bounds;
+	
+	//unique ID, assigned by the data store when the claim is added, and NULL until then
+	//it stays the same for as long as the claim exists, even when the claim is resized or extended, and across restarts
+	Long id = null;
 	
 	//modification date.  this comes from the file timestamp during load, and is updated with runtime changes
 	public Date modifiedDate;
@@ -50,16 +54,19 @@ public class Claim
 	public String ownerName;
 	
 	//list of players who (beyond the claim owner) have permission to grant permissions in this claim
-	public ArrayList<String> managers = new ArrayList<String>();
+	//replaced instead of changed, the same as the permissions below, see addManager() and dropManager()
+	public volatile ArrayList<String> managers = new ArrayList<String>();
 	
 	//permissions for this claim, see ClaimPermission class
-	private HashMap<String, ClaimPermission> playerNameToClaimPermissionMap = new HashMap<String, ClaimPermission>();
+	//names are compared without regard to case, so permission checks don't need to lower case the player's name
+	//permission checks happen on other threads too, so changes make a new map and swap it in, and checks never see one half changed
+	private volatile TreeMap<String, ClaimPermission> playerNameToClaimPermissionMap = new TreeMap<String, ClaimPermission>(String.CASE_INSENSITIVE_ORDER);
 	
 	//whether or not this claim is in the data store
 	//if a claim instance isn't in the data store, it isn't "active" - players can't interract with it 
 	//why keep this?  so that claims which have been removed from the data store can be correctly 
 	//ignored even though they may have references floating around
-	public boolean inDataStore = false;
+	public volatile boolean inDataStore = false;
 	
 	//parent claim
 	//only used for claim subdivisions.  top level claims have null here
@@ -67,7 +74,14 @@ public class Claim
 	
 	//children (subdivisions)
 	//note subdivisions themselves never have children
-	public ArrayList<Claim> children = new ArrayList<Claim>();
+	//the DataStore replaces this list instead of changing it, so lookups on other threads can read it without locking
+	public volatile ArrayList<Claim> children = new ArrayList<Claim>();
+	
+	//gets the claim's unique ID, see above
+	public Long getID()
+	{
+		return this.id;
+	}
 	
 	//whether or not this is an administrative claim
 	//administrative claims are created and maintained by players with the griefprevention.adminclaims permission.
@@ -85,13 +99,22 @@ public class Claim
 	
 	//main constructor.  note that only creating a claim instance does nothing - a claim must be added to the data store to be effective
 	Claim(Location lesserBoundaryCorner, Location greaterBoundaryCorner, String ownerName, String [] builderNames, String [] containerNames, String [] accessorNames, String [] managerNames)
+	{
+		this(lesserBoundaryCorner.getWorld(),
+			 lesserBoundaryCorner.getBlockX(), lesserBoundaryCorner.getBlockY(), lesserBoundaryCorner.getBlockZ(),
+			 greaterBoundaryCorner.getBlockX(), greaterBoundaryCorner.getBlockY(), greaterBoundaryCorner.getBlockZ(),
+			 ownerName, builderNames, containerNames, accessorNames, managerNames);
+	}
+	
+	//same as above, but taking the boundaries as block coordinates
+	Claim(World world, int lesserX, int lesserY, int lesserZ, int greaterX, int greaterY, int greaterZ, String ownerName, String [] builderNames, String [] containerNames, String [] accessorNames, String [] managerNames)
 	{
 		//modification date
 		this.modifiedDate = Calendar.getInstance().getTime();
 		
 		//store corners
-		this.lesserBoundaryCorner = lesserBoundaryCorner;
-		this.greaterBoundaryCorner = greaterBoundaryCorner;
+		this.world = world;
+		this.bounds = new ClaimBounds(lesserX, lesserY, lesserZ, greaterX, greaterY, greaterZ);
 		
 		//owner
 		this.ownerName = ownerName;
@@ -137,203 +160,285 @@ public class Claim
 	//measurements.  all measurements are in blocks
 	public int getArea()
 	{
-		int claimWidth = this.greaterBoundaryCorner.getBlockX() - this.lesserBoundaryCorner.getBlockX() + 1;
-		int claimHeight = this.greaterBoundaryCorner.getBlockZ() - this.lesserBoundaryCorner.getBlockZ() + 1;
+		ClaimBounds bounds = this.bounds;
+		int claimWidth = bounds.greaterX - bounds.lesserX + 1;
+		int claimHeight = bounds.greaterZ - bounds.lesserZ + 1;
 		
 		return claimWidth * claimHeight;		
 	}
 	
 	public int getWidth()
 	{
-		return this.greaterBoundaryCorner.getBlockX() - this.lesserBoundaryCorner.getBlockX() + 1;		
+		ClaimBounds bounds = this.bounds;
+		return bounds.greaterX - bounds.lesserX + 1;		
 	}
 	
 	public int getHeight()
 	{
-		return this.greaterBoundaryCorner.getBlockZ() - this.lesserBoundaryCorner.getBlockZ() + 1;		
+		ClaimBounds bounds = this.bounds;
+		return bounds.greaterZ - bounds.lesserZ + 1;		
 	}
 	
 	//distance check for claims, distance in this case is a band around the outside of the claim rather then euclidean distance
 	public boolean isNear(Location location, int howNear)
 	{
-		Claim claim = new Claim
-			(new Location(this.lesserBoundaryCorner.getWorld(), this.lesserBoundaryCorner.getBlockX() - howNear, this.lesserBoundaryCorner.getBlockY(), this.lesserBoundaryCorner.getBlockZ() - howNear),
-			 new Location(this.greaterBoundaryCorner.getWorld(), this.greaterBoundaryCorner.getBlockX() + howNear, this.greaterBoundaryCorner.getBlockY(), this.greaterBoundaryCorner.getBlockZ() + howNear),
-			 "", new String[] {}, new String[] {}, new String[] {}, new String[] {});
+		World world = location.getWorld();
+		if(!world.equals(this.world)) return false;
+		
+		int x = location.getBlockX();
+		int z = location.getBlockZ();
 		
-		return claim.contains(location, false, true);
+		ClaimBounds bounds = this.bounds;
+		return	this.containsHeight(world, bounds, location.getBlockY()) &&
+				x >= bounds.lesserX - howNear &&
+				x <= bounds.greaterX + howNear &&
+				z >= bounds.lesserZ - howNear &&
+				z <= bounds.greaterZ + howNear;
 	}
 	
 	//permissions.  note administrative "public" claims have different rules than other claims
-	//all of these return NULL when a player has permission, or a String error message when the player doesn't have permission
-	public String allowEdit(Player player)
+	//the check methods return PermissionResult.Allowed when a player has permission, or the reason he doesn't
+	//they never build strings, so they're the ones to use when only a yes or no answer is needed
+	public PermissionResult checkEdit(Player player)
 	{
 		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
-                if (GriefPrevention.instance.superusers.contains(player.getName())) return null;
+		if(player == null) return PermissionResult.UnknownPlayer;
+                if (GriefPrevention.instance.superusers.contains(player.getName())) return PermissionResult.Allowed;
 		
 		//special cases...
 		
 		//admin claims need adminclaims permission only.
 		if(this.isAdminClaim())
 		{
-			if(player.hasPermission("griefprevention.adminclaims")) return null;
+			if(player.hasPermission("griefprevention.adminclaims")) return PermissionResult.Allowed;
 		}
 		
 		//anyone with deleteclaims permission can modify non-admin claims at any time
 		else
 		{
-			if(player.hasPermission("griefprevention.deleteclaims")) return null;
+			if(player.hasPermission("griefprevention.deleteclaims")) return PermissionResult.Allowed;
 		}
 
                 //owners can do whatever
                 if(this.ownerName.equals(player.getName()))
                 {
-                        return null;
+                        return PermissionResult.Allowed;
                 }
 
 		//permission inheritance for subdivisions
 		if(this.parent != null)
-			return this.parent.allowBuild(player);
+			return this.parent.checkBuild(player);
 		
-		//error message if all else fails
-		return "Only " + this.getOwnerName() + " can modify this claim.";
+		//denied if all else fails
+		return PermissionResult.NoEditPermission;
 	}
 	
 	//build permission check
-	public String allowBuild(Player player)
+	public PermissionResult checkBuild(Player player)
 	{
 		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
-                if (GriefPrevention.instance.superusers.contains(player.getName())) return null;
+		if(player == null) return PermissionResult.UnknownPlayer;
+                if (GriefPrevention.instance.superusers.contains(player.getName())) return PermissionResult.Allowed;
 		
 		//admin claims can always be modified by admins, no exceptions
 		if(this.isAdminClaim())
 		{
-			if(player.hasPermission("griefprevention.adminclaims")) return null;
+			if(player.hasPermission("griefprevention.adminclaims")) return PermissionResult.Allowed;
 		}
 		
 		//owners can make changes, or admins with ignore claims mode enabled
-		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return null;
+		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return PermissionResult.Allowed;
 		
 		//anyone with explicit build permission can make changes
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName().toLowerCase());
-		if(ClaimPermission.Build == permissionLevel) return null;
+		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName());
+		if(ClaimPermission.Build == permissionLevel) return PermissionResult.Allowed;
 		
 		//also everyone is a member of the "public", so check for public permission
 		permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel) return null;
+		if(ClaimPermission.Build == permissionLevel) return PermissionResult.Allowed;
 		
 		//subdivision permission inheritance
 		if(this.parent != null)
-			return this.parent.allowBuild(player);
+			return this.parent.checkBuild(player);
 		
-		//failure message for all other cases
-		return "You don't have " + this.getOwnerName() + "'s permission to build here.";
+		//denied in all other cases
+		return PermissionResult.NoBuildPermission;
 	}
 	
 	//break permission check
-	public String allowBreak(Player player, Material material)
+	public PermissionResult checkBreak(Player player, Material material)
 	{
-		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
-                if (GriefPrevention.instance.superusers.contains(player.getName())) return null;
-		
 		//build rules apply
-		return this.allowBuild(player);		
+		return this.checkBuild(player);
 	}
 	
 	//access permission check
-	public String allowAccess(Player player)
+	public PermissionResult checkAccess(Player player)
 	{
 		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
-                if (GriefPrevention.instance.superusers.contains(player.getName())) return null;
+		if(player == null) return PermissionResult.UnknownPlayer;
+                if (GriefPrevention.instance.superusers.contains(player.getName())) return PermissionResult.Allowed;
 		
 		//everyone always has access to admin claims
-		if(this.isAdminClaim()) return null;
+		if(this.isAdminClaim()) return PermissionResult.Allowed;
 		
 		//claim owner and admins in ignoreclaims mode have access
-		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return null;
+		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return PermissionResult.Allowed;
 		
 		//look for explicit individual access, inventory, or build permission
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName().toLowerCase());
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel || ClaimPermission.Access == permissionLevel) return null;
+		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName());
+		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel || ClaimPermission.Access == permissionLevel) return PermissionResult.Allowed;
 		
 		//also check for public permission
 		permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel || ClaimPermission.Access == permissionLevel) return null;
+		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel || ClaimPermission.Access == permissionLevel) return PermissionResult.Allowed;
 		
 		//permission inheritance for subdivisions
 		if(this.parent != null)
-			return this.parent.allowAccess(player);
+			return this.parent.checkAccess(player);
 		
-		//catch-all error message for all other cases
-		return "You don't have " + this.getOwnerName() + "'s permission to use that.";
+		//denied in all other cases
+		return PermissionResult.NoAccessPermission;
 	}
 	
 	//inventory permission check
-	public String allowContainers(Player player)
+	public PermissionResult checkContainers(Player player)
 	{		
 		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
-                if (GriefPrevention.instance.superusers.contains(player.getName())) return null;
+		if(player == null) return PermissionResult.UnknownPlayer;
+                if (GriefPrevention.instance.superusers.contains(player.getName())) return PermissionResult.Allowed;
 		
 		//containers are always accessible in admin claims
-		if(this.isAdminClaim()) return null;
+		if(this.isAdminClaim()) return PermissionResult.Allowed;
 		
 		//owner and administrators in ignoreclaims mode have access
-		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return null;
+		if(this.ownerName.equals(player.getName()) || GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) return PermissionResult.Allowed;
 		
 		//check for explicit individual container or build permission 
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName().toLowerCase());
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel) return null;
+		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get(player.getName());
+		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel) return PermissionResult.Allowed;
 		
 		//check for public container or build permission
 		permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel) return null;
+		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel) return PermissionResult.Allowed;
 		
 		//permission inheritance for subdivisions
 		if(this.parent != null)
-			return this.parent.allowContainers(player);
+			return this.parent.checkContainers(player);
 		
-		//error message for all other cases
-		return "You don't have " + this.getOwnerName() + "'s permission to use that.";
+		//denied in all other cases
+		return PermissionResult.NoContainersPermission;
 	}
 	
 	//grant permission check, relatively simple
-	public String allowGrantPermission(Player player)
+	public PermissionResult checkGrantPermission(Player player)
 	{
 		//if we don't know who's asking, always say no (i've been told some mods can make this happen somehow)
-		if(player == null) return "";
+		if(player == null) return PermissionResult.UnknownPlayer;
 
 		//anyone who can modify the claim, or who's explicitly in the managers (/PermissionTrust) list can do this
-		if(this.allowEdit(player) == null || this.managers.contains(player.getName())) return null;
+		if(this.checkEdit(player) == PermissionResult.Allowed || this.managers.contains(player.getName())) return PermissionResult.Allowed;
 		
 		//permission inheritance for subdivisions
 		if(this.parent != null)
-			return this.parent.allowGrantPermission(player);
+			return this.parent.checkGrantPermission(player);
 		
-		//generic error message
-		return "You don't have " + this.getOwnerName() + "'s permission to grant permission here.";
+		//denied in all other cases
+		return PermissionResult.NoGrantPermission;
+	}
+	
+	//turns the result of a permission check into the message shown to the player
+	//returns NULL when the player has permission
+	public String getDenialMessage(PermissionResult result)
+	{
+		switch(result)
+		{
+			case Allowed:
+				return null;
+			case NoEditPermission:
+				return "Only " + this.getOwnerName() + " can modify this claim.";
+			case NoBuildPermission:
+				return "You don't have " + this.getOwnerName() + "'s permission to build here.";
+			case NoAccessPermission:
+			case NoContainersPermission:
+				return "You don't have " + this.getOwnerName() + "'s permission to use that.";
+			case NoGrantPermission:
+				return "You don't have " + this.getOwnerName() + "'s permission to grant permission here.";
+			default:
+				return "";
+		}
+	}
+	
+	//the original permission checks, which return NULL when a player has permission, or a String error message when the player doesn't have permission
+	//the message is only built when permission is denied
+	public String allowEdit(Player player)
+	{
+		return this.getDenialMessage(this.checkEdit(player));
+	}
+	
+	public String allowBuild(Player player)
+	{
+		return this.getDenialMessage(this.checkBuild(player));
+	}
+	
+	public String allowBreak(Player player, Material material)
+	{
+		return this.getDenialMessage(this.checkBreak(player, material));
+	}
+	
+	public String allowAccess(Player player)
+	{
+		return this.getDenialMessage(this.checkAccess(player));
+	}
+	
+	public String allowContainers(Player player)
+	{
+		return this.getDenialMessage(this.checkContainers(player));
+	}
+	
+	public String allowGrantPermission(Player player)
+	{
+		return this.getDenialMessage(this.checkGrantPermission(player));
 	}
 	
 	//grants a permission for a player or the public
-	public void setPermission(String playerName, ClaimPermission permissionLevel)
+	public synchronized void setPermission(String playerName, ClaimPermission permissionLevel)
 	{
-		this.playerNameToClaimPermissionMap.put(playerName.toLowerCase(),  permissionLevel);
+		TreeMap<String, ClaimPermission> newMap = new TreeMap<String, ClaimPermission>(this.playerNameToClaimPermissionMap);
+		newMap.put(playerName.toLowerCase(),  permissionLevel);
+		this.playerNameToClaimPermissionMap = newMap;
 	}
 	
 	//revokes a permission for a player or the public
-	public void dropPermission(String playerName)
+	public synchronized void dropPermission(String playerName)
 	{
-		this.playerNameToClaimPermissionMap.remove(playerName.toLowerCase());
+		TreeMap<String, ClaimPermission> newMap = new TreeMap<String, ClaimPermission>(this.playerNameToClaimPermissionMap);
+		newMap.remove(playerName.toLowerCase());
+		this.playerNameToClaimPermissionMap = newMap;
 	}
 	
 	//clears all permissions (except owner of course)
-	public void clearPermissions()
+	public synchronized void clearPermissions()
 	{
-		this.playerNameToClaimPermissionMap.clear();
+		this.playerNameToClaimPermissionMap = new TreeMap<String, ClaimPermission>(String.CASE_INSENSITIVE_ORDER);
+	}
+	
+	//gives a player permission to grant permissions, see managers above
+	public synchronized void addManager(String playerName)
+	{
+		if(this.managers.contains(playerName)) return;
+		
+		ArrayList<String> newManagers = new ArrayList<String>(this.managers);
+		newManagers.add(playerName);
+		this.managers = newManagers;
+	}
+	
+	//takes that away again
+	public synchronized void dropManager(String playerName)
+	{
+		ArrayList<String> newManagers = new ArrayList<String>(this.managers);
+		newManagers.remove(playerName);
+		this.managers = newManagers;
 	}
 	
 	//gets ALL permissions
@@ -362,23 +467,28 @@ public class Claim
 		}
 		
 		//managers are handled a little differently
-		for(int i = 0; i < this.managers.size(); i++)
-		{
-			managers.add(this.managers.get(i));
-		}
+		managers.addAll(this.managers);
 	}
 	
-	//returns a copy of the location representing lower x, y, z limits
+	//returns a new location representing lower x, y, z limits
 	public Location getLesserBoundaryCorner()
 	{
-		return this.lesserBoundaryCorner.clone();
+		ClaimBounds bounds = this.bounds;
+		return new Location(this.world, bounds.lesserX, bounds.lesserY, bounds.lesserZ);
 	}
 	
-	//returns a copy of the location representing upper x, y, z limits
+	//returns a new location representing upper x, y, z limits
 	//NOTE: remember upper Y will always be ignored, all claims always extend to the sky
 	public Location getGreaterBoundaryCorner()
 	{
-		return this.greaterBoundaryCorner.clone();
+		ClaimBounds bounds = this.bounds;
+		return new Location(this.world, bounds.greaterX, bounds.greaterY, bounds.greaterZ);
+	}
+	
+	//the world this claim is in
+	public World getWorld()
+	{
+		return this.world;
 	}
 	
 	//returns a friendly owner name (for admin claims, returns "an administrator" as the owner)
@@ -397,30 +507,21 @@ public class Claim
 	//ignoreHeight = true means location UNDER the claim will return TRUE
 	//excludeSubdivisions = true means that locations inside subdivisions of the claim will return FALSE
 	public boolean contains(Location location, boolean ignoreHeight, boolean excludeSubdivisions)
+	{
+		return this.contains(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ(), ignoreHeight, excludeSubdivisions);
+	}
+	
+	//same as above, for callers which already have block coordinates
+	public boolean contains(World world, int x, int y, int z, boolean ignoreHeight, boolean excludeSubdivisions)
 	{
 		//not in the same world implies false
-		if(!location.getWorld().equals(this.lesserBoundaryCorner.getWorld())) return false;
+		if(!world.equals(this.world)) return false;
 		
-		int x = location.getBlockX();
-		int y = location.getBlockY();
-		int z = location.getBlockZ();
+		//main check, against one read of the bounds, since a resize on another thread may replace them at any time
+		ClaimBounds bounds = this.bounds;
+		if(!ignoreHeight && !this.containsHeight(world, bounds, y)) return false;
 		
-		//main check
-                if (!ignoreHeight) {
-                        World.Environment env = location.getWorld().getEnvironment();
-                        if (env == World.Environment.NORMAL) {
-                                if (location.getBlockY() < GriefPrevention.instance.config_claims_maxDepth) return false;
-                                if (y < this.lesserBoundaryCorner.getBlockY()) return false;
-                        }
-                        if (env == World.Environment.NETHER) {
-                                if (location.getBlockY() >= 128 - 16) return false;
-                        }
-                }
-		boolean inClaim = //(ignoreHeight || y >= this.lesserBoundaryCorner.getBlockY()) &&
-				x >= this.lesserBoundaryCorner.getBlockX() &&
-				x <= this.greaterBoundaryCorner.getBlockX() &&
-				z >= this.lesserBoundaryCorner.getBlockZ() &&
-				z <= this.greaterBoundaryCorner.getBlockZ();
+		boolean inClaim = bounds.contains(x, z);
 				
 		if(!inClaim) return false;
 				
@@ -430,17 +531,18 @@ public class Claim
 		//a subdivision can reach outside of its parent's boundaries.  so this check is important!
 		if(this.parent != null)
 	    {
-	    	return this.parent.contains(location, ignoreHeight, false);
+	    	return this.parent.contains(world, x, y, z, ignoreHeight, false);
 	    }
 		
 		//code to exclude subdivisions in this check
 		else if(excludeSubdivisions)
 		{
 			//search all subdivisions to see if the location is in any of them
-			for(int i = 0; i < this.children.size(); i++)
+			ArrayList<Claim> children = this.children;
+			for(int i = 0; i < children.size(); i++)
 			{
 				//if we find such a subdivision, return false
-				if(this.children.get(i).contains(location, ignoreHeight, true))
+				if(children.get(i).contains(world, x, y, z, ignoreHeight, true))
 				{
 					return false;
 				}
@@ -451,50 +553,31 @@ public class Claim
 		return true;				
 	}
 	
+	//whether a height is inside the claim's vertical reach, which depends on the kind of world
+	//in normal worlds claims reach down to their lesser corner (and never below the max depth), in the nether they stop below the roof
+	private boolean containsHeight(World world, ClaimBounds bounds, int y)
+	{
+		World.Environment env = world.getEnvironment();
+		if(env == World.Environment.NORMAL)
+		{
+			if(y < GriefPrevention.instance.config_claims_maxDepth) return false;
+			if(y < bounds.lesserY) return false;
+		}
+		if(env == World.Environment.NETHER)
+		{
+			if(y >= 128 - 16) return false;
+		}
+		
+		return true;
+	}
+	
 	//whether or not two claims overlap
 	//used internally to prevent overlaps when creating claims
 	boolean overlaps(Claim otherClaim)
 	{
-		//NOTE:  if trying to understand this makes your head hurt, don't feel bad - it hurts mine too.  
-		//try drawing pictures to visualize test cases.
-		
-		if(!this.lesserBoundaryCorner.getWorld().equals(otherClaim.getLesserBoundaryCorner().getWorld())) return false;
-		
-		//first, check the corners of this claim aren't inside any existing claims
-		if(otherClaim.contains(this.lesserBoundaryCorner, true, false)) return true;
-		if(otherClaim.contains(this.greaterBoundaryCorner, true, false)) return true;
-		if(otherClaim.contains(new Location(this.lesserBoundaryCorner.getWorld(), this.lesserBoundaryCorner.getBlockX(), 0, this.greaterBoundaryCorner.getBlockZ()), true, false)) return true;
-		if(otherClaim.contains(new Location(this.lesserBoundaryCorner.getWorld(), this.greaterBoundaryCorner.getBlockX(), 0, this.lesserBoundaryCorner.getBlockZ()), true, false)) return true;
-		
-		//verify that no claim's lesser boundary point is inside this new claim, to cover the "existing claim is entirely inside new claim" case
-		if(this.contains(otherClaim.getLesserBoundaryCorner(), true, false)) return true;
-		
-		//verify this claim doesn't band across an existing claim, either horizontally or vertically		
-		if(	this.getLesserBoundaryCorner().getBlockZ() <= otherClaim.getGreaterBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockZ() >= otherClaim.getLesserBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockX() < otherClaim.getLesserBoundaryCorner().getBlockX() &&
-			this.getGreaterBoundaryCorner().getBlockX() > otherClaim.getGreaterBoundaryCorner().getBlockX() )
-			return true;
-		
-		if(	this.getGreaterBoundaryCorner().getBlockZ() <= otherClaim.getGreaterBoundaryCorner().getBlockZ() && 
-			this.getGreaterBoundaryCorner().getBlockZ() >= otherClaim.getLesserBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockX() < otherClaim.getLesserBoundaryCorner().getBlockX() &&
-			this.getGreaterBoundaryCorner().getBlockX() > otherClaim.getGreaterBoundaryCorner().getBlockX() )
-			return true;
-		
-		if(	this.getLesserBoundaryCorner().getBlockX() <= otherClaim.getGreaterBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockX() >= otherClaim.getLesserBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockZ() < otherClaim.getLesserBoundaryCorner().getBlockZ() &&
-			this.getGreaterBoundaryCorner().getBlockZ() > otherClaim.getGreaterBoundaryCorner().getBlockZ() )
-			return true;
-			
-		if(	this.getGreaterBoundaryCorner().getBlockX() <= otherClaim.getGreaterBoundaryCorner().getBlockX() && 
-			this.getGreaterBoundaryCorner().getBlockX() >= otherClaim.getLesserBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockZ() < otherClaim.getLesserBoundaryCorner().getBlockZ() &&
-			this.getGreaterBoundaryCorner().getBlockZ() > otherClaim.getGreaterBoundaryCorner().getBlockZ() )
-			return true;
+		if(!this.world.equals(otherClaim.world)) return false;
 		
-		return false;
+		return this.bounds.overlaps(otherClaim.bounds);
 	}
 	
 	//whether more entities may be added to a claim
@@ -510,14 +593,12 @@ public class Claim
 		if(maxEntities == 0) return "This claim isn't big enough for that.  Try enlarging it.";
 		
 		//count current entities (ignoring players)
-		Chunk lesserChunk = this.getLesserBoundaryCorner().getChunk();
-		Chunk greaterChunk = this.getGreaterBoundaryCorner().getChunk();
-		
 		int totalEntities = 0;
-		for(int x = lesserChunk.getX(); x <= greaterChunk.getX(); x++)
-			for(int z = lesserChunk.getZ(); z <= greaterChunk.getZ(); z++)
+		ClaimBounds bounds = this.bounds;
+		for(int x = bounds.lesserX >> 4; x <= bounds.greaterX >> 4; x++)
+			for(int z = bounds.lesserZ >> 4; z <= bounds.greaterZ >> 4; z++)
 			{
-				Chunk chunk = lesserChunk.getWorld().getChunkAt(x, z);
+				Chunk chunk = this.world.getChunkAt(x, z);
 				Entity [] entities = chunk.getEntities();
 				for(int i = 0; i < entities.length; i++)
 				{
@@ -534,17 +615,17 @@ public class Claim
 	//implements a strict ordering of claims, used to keep the claims collection sorted for faster searching
 	boolean greaterThan(Claim otherClaim)
 	{
-		Location thisCorner = this.getLesserBoundaryCorner();
-		Location otherCorner = otherClaim.getLesserBoundaryCorner();
+		ClaimBounds bounds = this.bounds;
+		ClaimBounds otherBounds = otherClaim.bounds;
 		
-		if(thisCorner.getBlockX() > otherCorner.getBlockX()) return true;
+		if(bounds.lesserX > otherBounds.lesserX) return true;
 		
-		if(thisCorner.getBlockX() < otherCorner.getBlockX()) return false;
+		if(bounds.lesserX < otherBounds.lesserX) return false;
 		
-		if(thisCorner.getBlockZ() > otherCorner.getBlockZ()) return true;
+		if(bounds.lesserZ > otherBounds.lesserZ) return true;
 		
-		if(thisCorner.getBlockZ() < otherCorner.getBlockZ()) return false;
+		if(bounds.lesserZ < otherBounds.lesserZ) return false;
 		
-		return thisCorner.getWorld().getName().compareTo(otherCorner.getWorld().getName()) < 0;
+		return this.world.getName().compareTo(otherClaim.world.getName()) < 0;
 	}
 }
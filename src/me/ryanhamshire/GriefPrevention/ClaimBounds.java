@@ -0,0 +1,61 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+//a claim's boundaries, as plain block coordinates.  these never change once made
+//resizing or extending a claim gives it new bounds instead (see Claim.bounds), so a thread which reads a claim's bounds once,
+//without holding any locks, sees either the old boundaries or the new ones, never some of each
+//note that the upper Y value is always ignored, because claims ALWAYS extend up to the sky
+final class ClaimBounds 
+{
+	final int lesserX, lesserY, lesserZ;
+	final int greaterX, greaterY, greaterZ;
+	
+	ClaimBounds(int lesserX, int lesserY, int lesserZ, int greaterX, int greaterY, int greaterZ)
+	{
+		this.lesserX = lesserX;
+		this.lesserY = lesserY;
+		this.lesserZ = lesserZ;
+		this.greaterX = greaterX;
+		this.greaterY = greaterY;
+		this.greaterZ = greaterZ;
+	}
+	
+	//the same boundaries reaching down to a new depth
+	ClaimBounds withDepth(int newDepth)
+	{
+		return new ClaimBounds(this.lesserX, newDepth, this.lesserZ, this.greaterX, newDepth, this.greaterZ);
+	}
+	
+	//whether a block column is inside these boundaries
+	boolean contains(int x, int z)
+	{
+		return x >= this.lesserX && x <= this.greaterX && z >= this.lesserZ && z <= this.greaterZ;
+	}
+	
+	//height doesn't matter because claims always reach the sky, so two claims overlap
+	//exactly when their X ranges and their Z ranges both intersect
+	boolean overlaps(ClaimBounds other)
+	{
+		return	this.lesserX <= other.greaterX &&
+				this.greaterX >= other.lesserX &&
+				this.lesserZ <= other.greaterZ &&
+				this.greaterZ >= other.lesserZ;
+	}
+}
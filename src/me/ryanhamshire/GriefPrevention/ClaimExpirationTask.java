@@ -0,0 +1,150 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+//FEATURE: claims belonging to players who haven't been around in a long time expire, see DataStore.expireClaims()
+
+//runs every tick in the main thread.  every so often it starts a pass over claim owners who've been away long enough,
+//then works through them a few at a time, so that a pass never holds up any one tick for more than a moment
+class ClaimExpirationTask implements Runnable 
+{
+	//the storage's lookup of absent players for the next pass, while it's running
+	private Future<List<String>> absentPlayerNames = null;
+	
+	//players still to be checked in the current pass, or NULL between passes
+	private List<String> playerNames = null;
+	private int nextPlayerIndex = 0;
+	
+	//the first pass starts right after the plugin is enabled
+	private long nextPassTime = 0;
+	
+	//progress of the current pass
+	private long passStartTime;
+	private int passTicks;
+	private int passClaimsExpired;
+	
+	//statistics over all passes
+	private long passesCompleted = 0;
+	private long totalClaimsExpired = 0;
+	private long lastPassMillis = 0;
+	private int lastPassPlayersChecked = 0;
+	
+	@Override
+	public void run()
+	{
+		DataStore dataStore = GriefPrevention.instance.dataStore;
+		
+		if(this.playerNames == null)
+		{
+			//the storage may take a while to find the absent players, so this tick only starts the lookup, and later ticks check on it
+			if(this.absentPlayerNames == null)
+			{
+				if(System.currentTimeMillis() < this.nextPassTime) return;
+				
+				this.absentPlayerNames = dataStore.findAbsentPlayers();
+				this.passStartTime = System.currentTimeMillis();
+				this.passTicks = 0;
+				this.passClaimsExpired = 0;
+			}
+			
+			if(!this.absentPlayerNames.isDone()) return;
+			
+			//if the lookup failed, every claim owner is checked
+			List<String> absentPlayerNames = null;
+			try
+			{
+				absentPlayerNames = this.absentPlayerNames.get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch(ExecutionException e)
+			{
+				GriefPrevention.addLogEntry("Unable to find absent players: " + e.getCause());
+			}
+			this.absentPlayerNames = null;
+			
+			this.playerNames = dataStore.getClaimExpirationCandidates(absentPlayerNames);
+			this.nextPlayerIndex = 0;
+		}
+		
+		//check players until this tick's time is used up
+		this.passTicks++;
+		long deadline = System.nanoTime() + GriefPrevention.instance.config_claims_expirationMillisPerTick * 1000000L;
+		while(this.nextPlayerIndex < this.playerNames.size())
+		{
+			this.passClaimsExpired += dataStore.expireClaims(this.playerNames.get(this.nextPlayerIndex++));
+			if(System.nanoTime() >= deadline) break;
+		}
+		
+		if(this.nextPlayerIndex < this.playerNames.size()) return;
+		
+		//pass complete
+		this.passesCompleted++;
+		this.totalClaimsExpired += this.passClaimsExpired;
+		this.lastPassMillis = System.currentTimeMillis() - this.passStartTime;
+		this.lastPassPlayersChecked = this.playerNames.size();
+		this.playerNames = null;
+		this.nextPassTime = System.currentTimeMillis() + GriefPrevention.instance.config_claims_expirationCheckIntervalMinutes * 60 * 1000L;
+		
+		GriefPrevention.addLogEntry("Checked " + this.lastPassPlayersChecked + " absent players for expired claims over " + this.passTicks + " ticks (" + this.lastPassMillis + "ms), " + this.passClaimsExpired + " claims expired.");
+		this.passClaimsExpired = 0;
+	}
+	
+	boolean isPassInProgress()
+	{
+		return this.playerNames != null;
+	}
+	
+	//players checked so far in the current pass, and how many there are in all
+	int getPassPlayersChecked()
+	{
+		return this.playerNames == null ? 0 : this.nextPlayerIndex;
+	}
+	
+	int getPassPlayerCount()
+	{
+		return this.playerNames == null ? 0 : this.playerNames.size();
+	}
+	
+	long getPassesCompleted()
+	{
+		return this.passesCompleted;
+	}
+	
+	long getTotalClaimsExpired()
+	{
+		return this.totalClaimsExpired + this.passClaimsExpired;
+	}
+	
+	long getLastPassMillis()
+	{
+		return this.lastPassMillis;
+	}
+	
+	int getLastPassPlayersChecked()
+	{
+		return this.lastPassPlayersChecked;
+	}
+}
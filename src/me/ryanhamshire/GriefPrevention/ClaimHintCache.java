@@ -0,0 +1,104 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+//the claims most recently found for one player or one kind of event, see DataStore.getCachedClaimAt()
+//repeated lookups in the same few claims, or in the same unclaimed chunk, are answered without touching the claim index
+//any thread may use it, though it's only worth much to the thread which does most of the lookups
+class ClaimHintCache
+{
+	private final static int SIZE = 4;
+	
+	//most recently found first.  unused entries are NULL and always at the end
+	private final Claim [] claims = new Claim[SIZE];
+	
+	//the last chunk found with no claims in it, good while the data store's chunk index version hasn't changed
+	private World wildernessWorld = null;
+	private int wildernessChunkX;
+	private int wildernessChunkZ;
+	private long wildernessVersion;
+	
+	//where hits and misses are counted, see /GPStats
+	private final Statistics.HintCounters counters;
+	
+	ClaimHintCache(Statistics.HintCounters counters)
+	{
+		this.counters = counters;
+	}
+	
+	//gets a cached claim which the location is in (not counting its subdivisions), or NULL
+	synchronized Claim getClaim(Location location, boolean ignoreHeight)
+	{
+		this.counters.lookups.increment();
+		
+		for(int i = 0; i < SIZE; i++)
+		{
+			Claim claim = this.claims[i];
+			if(claim == null) break;
+			
+			if(claim.inDataStore && claim.contains(location, ignoreHeight, true))
+			{
+				this.counters.claimHits.increment();
+				
+				//keep it first in line for the next lookup
+				if(i > 0)
+				{
+					System.arraycopy(this.claims, 0, this.claims, 1, i);
+					this.claims[0] = claim;
+				}
+				
+				return claim;
+			}
+		}
+		
+		return null;
+	}
+	
+	//whether the location's chunk is known to have no claims in it, as of a version of the data store's chunk index
+	synchronized boolean isWilderness(Location location, long chunkIndexVersion)
+	{
+		if(this.wildernessWorld == null || this.wildernessVersion != chunkIndexVersion) return false;
+		if((location.getBlockX() >> 4) != this.wildernessChunkX || (location.getBlockZ() >> 4) != this.wildernessChunkZ) return false;
+		if(!this.wildernessWorld.equals(location.getWorld())) return false;
+		
+		this.counters.wildernessHits.increment();
+		return true;
+	}
+	
+	//remembers a claim which the index found, pushing out the least recently found one
+	synchronized void addClaim(Claim claim)
+	{
+		int i = 0;
+		while(i < SIZE - 1 && this.claims[i] != null && this.claims[i] != claim) i++;
+		System.arraycopy(this.claims, 0, this.claims, 1, i);
+		this.claims[0] = claim;
+	}
+	
+	//remembers a chunk which the index had no claims for
+	synchronized void setWilderness(Location location, long chunkIndexVersion)
+	{
+		this.wildernessWorld = location.getWorld();
+		this.wildernessChunkX = location.getBlockX() >> 4;
+		this.wildernessChunkZ = location.getBlockZ() >> 4;
+		this.wildernessVersion = chunkIndexVersion;
+	}
+}
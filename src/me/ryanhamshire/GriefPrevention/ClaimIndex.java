@@ -0,0 +1,229 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+
+//a read only copy of the data store's claim index, which any thread can query without locking, see DataStore.getClaimIndex()
+//the data store publishes a new index after each tick's claim changes, so what this returns may be up to a tick old
+//nothing in an index changes once it's published.  a new index shares everything with the old one except the tables along the way to what changed
+public class ClaimIndex 
+{
+	//chunks are grouped into 32 by 32 chunk regions, the same as region files, so a change only copies the regions it touches
+	private final static int REGION_SHIFT = 5;
+	
+	final static ClaimIndex EMPTY = new ClaimIndex(new HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>>(), new HashMap<String, List<ClaimView>>(), 0);
+	
+	//top level claims by world name, then region key, then chunk key (see DataStore.getChunkKey()), under every chunk they touch
+	private final HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>> worldNameToRegionsMap;
+	
+	//top level claims by owner name, admin claims under the empty string
+	private final HashMap<String, List<ClaimView>> ownerNameToClaimsMap;
+	
+	private final int claimCount;
+	
+	private ClaimIndex(HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>> worldNameToRegionsMap, HashMap<String, List<ClaimView>> ownerNameToClaimsMap, int claimCount)
+	{
+		this.worldNameToRegionsMap = worldNameToRegionsMap;
+		this.ownerNameToClaimsMap = ownerNameToClaimsMap;
+		this.claimCount = claimCount;
+	}
+	
+	//gets the claim at a location, which is a subdivision if the location is in one, or NULL if the location isn't claimed
+	public ClaimView getClaimAt(String worldName, int x, int y, int z, boolean ignoreHeight)
+	{
+		ClaimView [] claimsInChunk = this.getClaimsInChunk(worldName, x >> 4, z >> 4);
+		if(claimsInChunk == null) return null;
+		
+		for(int i = 0; i < claimsInChunk.length; i++)
+		{
+			ClaimView claim = claimsInChunk[i];
+			if(!claim.contains(worldName, x, y, z, ignoreHeight, false)) continue;
+			
+			List<ClaimView> subdivisions = claim.getChildren();
+			for(int j = 0; j < subdivisions.size(); j++)
+			{
+				if(subdivisions.get(j).contains(worldName, x, y, z, ignoreHeight, false)) return subdivisions.get(j);
+			}
+			
+			return claim;
+		}
+		
+		return null;
+	}
+	
+	//gets the distinct top level claims which overlap an area, given by its block coordinates
+	//claims reach from their depth up to the sky, so this only looks at X and Z
+	public List<ClaimView> getClaimsInBox(String worldName, int lesserX, int lesserZ, int greaterX, int greaterZ)
+	{
+		ArrayList<ClaimView> claims = new ArrayList<ClaimView>();
+		HashSet<Long> claimIDs = new HashSet<Long>();
+		
+		for(int chunkX = lesserX >> 4; chunkX <= greaterX >> 4; chunkX++)
+		{
+			for(int chunkZ = lesserZ >> 4; chunkZ <= greaterZ >> 4; chunkZ++)
+			{
+				ClaimView [] claimsInChunk = this.getClaimsInChunk(worldName, chunkX, chunkZ);
+				if(claimsInChunk == null) continue;
+				
+				for(int i = 0; i < claimsInChunk.length; i++)
+				{
+					ClaimView claim = claimsInChunk[i];
+					if(claim.getGreaterX() < lesserX || claim.getLesserX() > greaterX || claim.getGreaterZ() < lesserZ || claim.getLesserZ() > greaterZ) continue;
+					
+					//big claims touch many chunks, so skip the ones already found
+					if(claimIDs.add(claim.getID())) claims.add(claim);
+				}
+			}
+		}
+		
+		return claims;
+	}
+	
+	//gets the top level claims owned by a player, or admin claims for the empty string
+	public List<ClaimView> getClaimsForOwner(String ownerName)
+	{
+		List<ClaimView> claims = this.ownerNameToClaimsMap.get(ownerName);
+		if(claims == null) return Collections.emptyList();
+		return Collections.unmodifiableList(claims);
+	}
+	
+	//how many top level claims there are
+	public int getClaimCount()
+	{
+		return this.claimCount;
+	}
+	
+	private ClaimView [] getClaimsInChunk(String worldName, int chunkX, int chunkZ)
+	{
+		HashMap<Long, HashMap<Long, ClaimView []>> regions = this.worldNameToRegionsMap.get(worldName);
+		if(regions == null) return null;
+		
+		HashMap<Long, ClaimView []> chunks = regions.get(DataStore.getChunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+		if(chunks == null) return null;
+		
+		return chunks.get(DataStore.getChunkKey(chunkX, chunkZ));
+	}
+	
+	//builds the next index from this one, without changing this one.  a changed claim is in both lists, with its old and new views
+	ClaimIndex update(Collection<ClaimView> removedClaims, Collection<ClaimView> addedClaims)
+	{
+		//tables which were copied for the new index, and so can be changed until it's published
+		Set<Object> copiedTables = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		
+		HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>> worldNameToRegionsMap = new HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>>(this.worldNameToRegionsMap);
+		HashMap<String, List<ClaimView>> ownerNameToClaimsMap = new HashMap<String, List<ClaimView>>(this.ownerNameToClaimsMap);
+		int claimCount = this.claimCount;
+		
+		for(ClaimView claim : removedClaims)
+		{
+			ClaimIndex.updateChunks(worldNameToRegionsMap, copiedTables, claim, false);
+			
+			List<ClaimView> ownerClaims = ClaimIndex.copyOnWrite(ownerNameToClaimsMap, copiedTables, claim.getOwnerName());
+			ownerClaims.remove(claim);
+			if(ownerClaims.isEmpty()) ownerNameToClaimsMap.remove(claim.getOwnerName());
+			
+			claimCount--;
+		}
+		
+		for(ClaimView claim : addedClaims)
+		{
+			ClaimIndex.updateChunks(worldNameToRegionsMap, copiedTables, claim, true);
+			ClaimIndex.copyOnWrite(ownerNameToClaimsMap, copiedTables, claim.getOwnerName()).add(claim);
+			claimCount++;
+		}
+		
+		return new ClaimIndex(worldNameToRegionsMap, ownerNameToClaimsMap, claimCount);
+	}
+	
+	//adds a claim to or removes it from every chunk it touches
+	private static void updateChunks(HashMap<String, HashMap<Long, HashMap<Long, ClaimView []>>> worldNameToRegionsMap, Set<Object> copiedTables, ClaimView claim, boolean add)
+	{
+		HashMap<Long, HashMap<Long, ClaimView []>> regions = worldNameToRegionsMap.get(claim.getWorldName());
+		if(regions == null)
+		{
+			regions = new HashMap<Long, HashMap<Long, ClaimView []>>();
+		}
+		else if(!copiedTables.contains(regions))
+		{
+			regions = new HashMap<Long, HashMap<Long, ClaimView []>>(regions);
+		}
+		copiedTables.add(regions);
+		worldNameToRegionsMap.put(claim.getWorldName(), regions);
+		
+		for(int chunkX = claim.getLesserX() >> 4; chunkX <= claim.getGreaterX() >> 4; chunkX++)
+		{
+			for(int chunkZ = claim.getLesserZ() >> 4; chunkZ <= claim.getGreaterZ() >> 4; chunkZ++)
+			{
+				Long regionKey = DataStore.getChunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+				HashMap<Long, ClaimView []> chunks = regions.get(regionKey);
+				if(chunks == null)
+				{
+					if(!add) continue;
+					chunks = new HashMap<Long, ClaimView []>();
+				}
+				else if(!copiedTables.contains(chunks))
+				{
+					chunks = new HashMap<Long, ClaimView []>(chunks);
+				}
+				copiedTables.add(chunks);
+				regions.put(regionKey, chunks);
+				
+				//the arrays are small, and replaced rather than changed
+				Long chunkKey = DataStore.getChunkKey(chunkX, chunkZ);
+				ClaimView [] claimsInChunk = chunks.get(chunkKey);
+				if(add)
+				{
+					ClaimView [] newClaimsInChunk = claimsInChunk == null ? new ClaimView [1] : Arrays.copyOf(claimsInChunk, claimsInChunk.length + 1);
+					newClaimsInChunk[newClaimsInChunk.length - 1] = claim;
+					chunks.put(chunkKey, newClaimsInChunk);
+				}
+				else if(claimsInChunk != null)
+				{
+					ArrayList<ClaimView> remaining = new ArrayList<ClaimView>(Arrays.asList(claimsInChunk));
+					remaining.remove(claim);
+					if(remaining.isEmpty())
+						chunks.remove(chunkKey);
+					else
+						chunks.put(chunkKey, remaining.toArray(new ClaimView [remaining.size()]));
+				}
+				
+				if(chunks.isEmpty()) regions.remove(regionKey);
+			}
+		}
+	}
+	
+	//gets an owner's claims list for changing, copying it first if it still belongs to an earlier index
+	private static List<ClaimView> copyOnWrite(HashMap<String, List<ClaimView>> ownerNameToClaimsMap, Set<Object> copiedTables, String ownerName)
+	{
+		List<ClaimView> claims = ownerNameToClaimsMap.get(ownerName);
+		if(claims == null)
+		{
+			claims = new ArrayList<ClaimView>();
+		}
+		else if(!copiedTables.contains(claims))
+		{
+			claims = new ArrayList<ClaimView>(claims);
+		}
+		copiedTables.add(claims);
+		ownerNameToClaimsMap.put(ownerName, claims);
+		
+		return claims;
+	}
+}
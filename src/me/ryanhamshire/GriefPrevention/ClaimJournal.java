@@ -0,0 +1,212 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+//append-only log of claim changes made since the claim snapshot was written, see ClaimSnapshot
+//the file starts with a header naming the snapshot generation it continues from, followed by records
+//each record is its length, the record itself, and a CRC32, so a record torn by a crash is recognized and ignored
+//claims are identified by their IDs, and subdivisions by their parent's ID and their own.  top level claims have 0 for a parent ID
+class ClaimJournal 
+{
+	private final static int MAGIC = 0x47504a4c;  //"GPJL"
+	private final static int VERSION = 1;
+	
+	//record types
+	private final static byte PUT = 1;		//replaces a claim's own fields, or adds the claim.  a top level claim keeps its subdivisions
+	private final static byte DELETE = 2;	//removes a claim, along with its subdivisions
+	
+	static byte [] header(long generation) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+		outStream.writeLong(generation);
+		outStream.close();
+		return bytes.toByteArray();
+	}
+	
+	static byte [] put(long parentID, ClaimRecord record) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		outStream.writeByte(PUT);
+		outStream.writeLong(parentID);
+		outStream.writeLong(record.id);
+		record.write(outStream);
+		outStream.close();
+		return ClaimJournal.frame(bytes.toByteArray());
+	}
+	
+	static byte [] delete(long parentID, long id) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		outStream.writeByte(DELETE);
+		outStream.writeLong(parentID);
+		outStream.writeLong(id);
+		outStream.close();
+		return ClaimJournal.frame(bytes.toByteArray());
+	}
+	
+	private static byte [] frame(byte [] record) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 8);
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		outStream.writeInt(record.length);
+		outStream.write(record);
+		outStream.writeInt((int)crc.getValue());
+		outStream.close();
+		return bytes.toByteArray();
+	}
+	
+	//applies the journal's records to a snapshot, in order
+	//a journal from another generation is ignored, since its changes are already in the snapshot (or were never made to it)
+	//reading stops at the first incomplete or damaged record, which can only be the last one written before a crash
+	//returns TRUE if the journal is exactly an empty journal for the snapshot's generation, FALSE if it should be replaced
+	static boolean replay(File file, ClaimSnapshot snapshot) throws IOException
+	{
+		if(!file.exists()) return false;
+		
+		byte [] data = new byte [(int)file.length()];
+		DataInputStream inStream = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			inStream.readFully(data);
+		}
+		finally
+		{
+			inStream.close();
+		}
+		
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if(buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+		if(buffer.getLong() != snapshot.generation) return false;
+		
+		int appliedCount = 0;
+		boolean tornTail = false;
+		while(buffer.hasRemaining())
+		{
+			if(buffer.remaining() < 4)
+			{
+				tornTail = true;
+				break;
+			}
+			
+			int length = buffer.getInt();
+			if(length < 1 || buffer.remaining() < length + 4)
+			{
+				tornTail = true;
+				break;
+			}
+			
+			byte [] record = new byte [length];
+			buffer.get(record);
+			CRC32 crc = new CRC32();
+			crc.update(record);
+			if((int)crc.getValue() != buffer.getInt())
+			{
+				tornTail = true;
+				break;
+			}
+			
+			try
+			{
+				ClaimJournal.apply(ByteBuffer.wrap(record), snapshot);
+			}
+			catch(RuntimeException e)
+			{
+				throw new IOException("Claim journal record " + appliedCount + " is damaged: " + e);
+			}
+			appliedCount++;
+		}
+		
+		if(tornTail)
+		{
+			GriefPrevention.addLogEntry("The claim journal ends with an incomplete record, which was ignored.");
+		}
+		
+		if(appliedCount > 0)
+		{
+			GriefPrevention.addLogEntry("Replayed " + appliedCount + " claim changes from the claim journal.");
+		}
+		
+		return appliedCount == 0 && !tornTail;
+	}
+	
+	private static void apply(ByteBuffer buffer, ClaimSnapshot snapshot) throws IOException
+	{
+		byte type = buffer.get();
+		
+		if(type == PUT)
+		{
+			long parentID = buffer.getLong();
+			long id = buffer.getLong();
+			ClaimRecord record = ClaimRecord.read(buffer);
+			record.id = id;
+			snapshot.nextClaimID = Math.max(snapshot.nextClaimID, id + 1);
+			
+			if(parentID == 0)
+			{
+				ClaimRecord existing = snapshot.records.get(id);
+				if(existing != null) record.children = existing.children;
+				snapshot.records.put(id, record);
+			}
+			else
+			{
+				ClaimRecord parent = snapshot.records.get(parentID);
+				if(parent == null) return;
+				int index = parent.indexOfChild(id);
+				if(index >= 0)
+					parent.children.set(index, record);
+				else
+					parent.children.add(record);
+			}
+		}
+		
+		else if(type == DELETE)
+		{
+			long parentID = buffer.getLong();
+			long id = buffer.getLong();
+			if(parentID == 0)
+			{
+				snapshot.records.remove(id);
+			}
+			else
+			{
+				ClaimRecord parent = snapshot.records.get(parentID);
+				if(parent == null) return;
+				int index = parent.indexOfChild(id);
+				if(index >= 0) parent.children.remove(index);
+			}
+		}
+		
+		else
+		{
+			throw new IOException("Unknown claim journal record type " + type + ".");
+		}
+	}
+}
\ No newline at end of file
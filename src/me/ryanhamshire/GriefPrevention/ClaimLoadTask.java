@@ -0,0 +1,169 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import org.bukkit.World;
+
+//reads one claim file, see FlatFileStorage.loadClaims()
+//several of these run at once on a thread pool, so this only parses - it doesn't touch the data store or the server
+//returns the top level claim with its subdivisions attached, or NULL if nothing could be read
+class ClaimLoadTask implements Callable<Claim> 
+{
+	private File file;
+	
+	//worlds by name, looked up ahead of time on the main thread
+	private Map<String, World> worlds;
+	
+	ClaimLoadTask(File file, Map<String, World> worlds)
+	{
+		this.file = file;
+		this.worlds = worlds;
+	}
+	
+	@Override
+	public Claim call()
+	{
+		Claim topLevelClaim = null;
+		BufferedReader inStream = null;
+		
+		try
+		{					
+			Date modifiedDate = new Date(this.file.lastModified());
+			
+			inStream = new BufferedReader(new FileReader(this.file.getAbsolutePath()));
+			String line = inStream.readLine();
+			
+			while(line != null)
+			{					
+				//first line is lesser boundary corner location
+				int [] lesserBoundaryCorner = new int [3];
+				World world = this.parseLocation(line, lesserBoundaryCorner);
+				
+				//second line is greater boundary corner location
+				line = inStream.readLine();
+				int [] greaterBoundaryCorner = new int [3];
+				this.parseLocation(line, greaterBoundaryCorner);
+				
+				//third line is owner name
+				line = inStream.readLine();						
+				String ownerName = line;
+				
+				//fourth line is list of builders
+				line = inStream.readLine();
+				String [] builderNames = line.split(";");
+				
+				//fifth line is list of players who can access containers
+				line = inStream.readLine();
+				String [] containerNames = line.split(";");
+				
+				//sixth line is list of players who can use buttons and switches
+				line = inStream.readLine();
+				String [] accessorNames = line.split(";");
+				
+				//seventh line is list of players who can grant permissions
+				line = inStream.readLine();
+				if(line == null) line = "";
+				String [] managerNames = line.split(";");
+				
+				//eighth line is the claim's ID, missing from files written before claims had IDs
+				Long id = null;
+				line = inStream.readLine();
+				if(line != null && !line.contains("=========="))
+				{
+					try
+					{
+						id = Long.parseLong(line);
+					}
+					catch(NumberFormatException e) { }
+				}
+				
+				//skip any remaining extra lines, until the "===" string, indicating the end of this claim or subdivision
+				while(line != null && !line.contains("=========="))
+					line = inStream.readLine();
+				
+				//build a claim instance from those data
+				//if this is the first claim loaded from this file, it's the top level claim
+				if(topLevelClaim == null)
+				{
+					topLevelClaim = new Claim(world, lesserBoundaryCorner[0], lesserBoundaryCorner[1], lesserBoundaryCorner[2], greaterBoundaryCorner[0], greaterBoundaryCorner[1], greaterBoundaryCorner[2], ownerName, builderNames, containerNames, accessorNames, managerNames);
+					topLevelClaim.id = id;
+					topLevelClaim.modifiedDate = modifiedDate;
+				}
+				
+				//otherwise there's already a top level claim, so this must be a subdivision of that top level claim
+				else
+				{
+					Claim subdivision = new Claim(world, lesserBoundaryCorner[0], lesserBoundaryCorner[1], lesserBoundaryCorner[2], greaterBoundaryCorner[0], greaterBoundaryCorner[1], greaterBoundaryCorner[2], "--subdivision--", builderNames, containerNames, accessorNames, managerNames);
+					subdivision.id = id;
+					subdivision.modifiedDate = modifiedDate;
+					subdivision.parent = topLevelClaim;
+					topLevelClaim.children.add(subdivision);
+				}
+				
+				//move up to the first line in the next subdivision
+				line = inStream.readLine();
+			}
+		}
+		
+		//if there's any problem with the file's content, log an error message and keep whatever was read
+		catch(Exception e)
+		{
+			GriefPrevention.addLogEntry("Unable to load data for claim \"" + this.file.getName() + "\": " + e.getMessage());
+		}
+		
+		try
+		{
+			if(inStream != null) inStream.close();					
+		}
+		catch(IOException exception) {}
+		
+		return topLevelClaim;
+	}
+	
+	//same format as DataStore.locationFromString(), but fills in block coordinates instead of creating a Location
+	private World parseLocation(String string, int [] coordinates) throws Exception
+	{
+		//split the input string on the delimiter
+		String [] elements = string.split(";");
+	    
+		//expect four elements - world name, X, Y, and Z, respectively
+		if(elements.length != 4)
+		{
+			throw new Exception("Expected four distinct parts to the location string.");
+		}
+		
+		//identify world the claim is in
+		World world = this.worlds.get(elements[0]);
+		if(world == null)
+		{
+			throw new Exception("World not found: \"" + elements[0] + "\"");
+		}
+		
+		//convert those numerical strings to integer values
+		coordinates[0] = Integer.parseInt(elements[1]);
+		coordinates[1] = Integer.parseInt(elements[2]);
+		coordinates[2] = Integer.parseInt(elements[3]);
+		
+		return world;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bukkit.World;
+
+//striped locks which serialize claim changes per world region, so threads working in different parts of a world don't wait on each other
+//a region is 32x32 chunks.  regions share a fixed number of locks by hash, so two far apart regions may now and then share one too
+//several stripes are always locked in ascending order, which is what keeps two threads locking overlapping areas from deadlocking
+//a thread must NOT lock stripes while it already holds some, see DataStore for which methods take them
+class ClaimLocks 
+{
+	private final static int STRIPE_COUNT = 64;
+	private final static int REGION_SHIFT = 9;
+	
+	private ReentrantLock [] stripes = new ReentrantLock[STRIPE_COUNT];
+	
+	ClaimLocks()
+	{
+		for(int i = 0; i < STRIPE_COUNT; i++)
+		{
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+	
+	//locks every region an area touches, returning the stripes taken for unlock()
+	long lock(World world, int lesserX, int lesserZ, int greaterX, int greaterZ)
+	{
+		long stripeMask = ClaimLocks.getStripeMask(world, lesserX, lesserZ, greaterX, greaterZ);
+		this.lockStripes(stripeMask);
+		return stripeMask;
+	}
+	
+	//locks every region a top level claim touches, plus optionally another area in the same world (like a claim's new boundaries)
+	//the claim's boundaries may change until its regions are locked, so this checks again afterward and locks more if they did
+	long lock(Claim claim, int [] extraArea)
+	{
+		long stripeMask = 0;
+		while(true)
+		{
+			ClaimBounds bounds = claim.bounds;
+			long neededMask = ClaimLocks.getStripeMask(claim.world, bounds.lesserX, bounds.lesserZ, bounds.greaterX, bounds.greaterZ);
+			if(extraArea != null)
+			{
+				neededMask |= ClaimLocks.getStripeMask(claim.world, extraArea[0], extraArea[1], extraArea[2], extraArea[3]);
+			}
+			
+			if((neededMask & ~stripeMask) == 0) return stripeMask;
+			
+			//can't add stripes to the ones already held without breaking the lock order, so start over with all of them
+			this.unlock(stripeMask);
+			stripeMask |= neededMask;
+			this.lockStripes(stripeMask);
+		}
+	}
+	
+	void unlock(long stripeMask)
+	{
+		for(int i = STRIPE_COUNT - 1; i >= 0; i--)
+		{
+			if((stripeMask & (1L << i)) != 0) this.stripes[i].unlock();
+		}
+	}
+	
+	private void lockStripes(long stripeMask)
+	{
+		for(int i = 0; i < STRIPE_COUNT; i++)
+		{
+			if((stripeMask & (1L << i)) != 0) this.stripes[i].lock();
+		}
+	}
+	
+	//finds the stripes for the regions an area touches.  a huge area ends up with every stripe
+	private static long getStripeMask(World world, int lesserX, int lesserZ, int greaterX, int greaterZ)
+	{
+		int worldHash = world.getName().hashCode();
+		long stripeMask = 0;
+		for(int regionX = lesserX >> REGION_SHIFT; regionX <= greaterX >> REGION_SHIFT; regionX++)
+		{
+			for(int regionZ = lesserZ >> REGION_SHIFT; regionZ <= greaterZ >> REGION_SHIFT; regionZ++)
+			{
+				int hash = (worldHash * 31 + regionX) * 0x9E3779B9 + regionZ;
+				hash *= 0x85EBCA6B;
+				stripeMask |= 1L << ((hash >>> 16) & (STRIPE_COUNT - 1));
+				if(stripeMask == -1L) return stripeMask;
+			}
+		}
+		
+		return stripeMask;
+	}
+}
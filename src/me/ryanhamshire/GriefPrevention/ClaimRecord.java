@@ -0,0 +1,232 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.bukkit.World;
+
+//plain copy of one claim's stored fields, independent of whether its world is loaded, see ClaimSnapshot and ClaimJournal
+class ClaimRecord 
+{
+	long id;
+	String worldName;
+	int lesserX, lesserY, lesserZ;
+	int greaterX, greaterY, greaterZ;
+	String ownerName;
+	long modifiedDate;
+	
+	//builders, containers, accessors and managers, in that order
+	String [][] permissions;
+	
+	//subdivisions, for top level claims only
+	ArrayList<ClaimRecord> children = new ArrayList<ClaimRecord>();
+	
+	//copies a claim's own fields, not including its subdivisions
+	static ClaimRecord fromClaim(Claim claim)
+	{
+		ClaimRecord record = new ClaimRecord();
+		record.id = claim.id;
+		record.worldName = claim.world.getName();
+		ClaimBounds bounds = claim.bounds;
+		record.lesserX = bounds.lesserX;
+		record.lesserY = bounds.lesserY;
+		record.lesserZ = bounds.lesserZ;
+		record.greaterX = bounds.greaterX;
+		record.greaterY = bounds.greaterY;
+		record.greaterZ = bounds.greaterZ;
+		record.ownerName = claim.ownerName;
+		record.modifiedDate = claim.modifiedDate.getTime();
+		
+		ArrayList<String> builders = new ArrayList<String>();
+		ArrayList<String> containers = new ArrayList<String>();
+		ArrayList<String> accessors = new ArrayList<String>();
+		ArrayList<String> managers = new ArrayList<String>();
+		claim.getPermissions(builders, containers, accessors, managers);
+		record.permissions = new String [][] {
+			builders.toArray(new String [builders.size()]),
+			containers.toArray(new String [containers.size()]),
+			accessors.toArray(new String [accessors.size()]),
+			managers.toArray(new String [managers.size()]) };
+		
+		return record;
+	}
+	
+	//copies a top level claim along with its subdivisions
+	static ClaimRecord fromTopLevelClaim(Claim claim)
+	{
+		ClaimRecord record = ClaimRecord.fromClaim(claim);
+		ArrayList<Claim> subdivisions = claim.children;
+		for(int i = 0; i < subdivisions.size(); i++)
+		{
+			record.children.add(ClaimRecord.fromClaim(subdivisions.get(i)));
+		}
+		
+		return record;
+	}
+	
+	//builds a claim, and its subdivisions if this is a top level record
+	Claim toClaim(World world)
+	{
+		Claim claim = new Claim(world, this.lesserX, this.lesserY, this.lesserZ, this.greaterX, this.greaterY, this.greaterZ, this.ownerName, this.permissions[0], this.permissions[1], this.permissions[2], this.permissions[3]);
+		claim.id = this.id;
+		claim.modifiedDate = new Date(this.modifiedDate);
+		
+		for(int i = 0; i < this.children.size(); i++)
+		{
+			Claim subdivision = this.children.get(i).toClaim(world);
+			subdivision.parent = claim;
+			claim.children.add(subdivision);
+		}
+		
+		return claim;
+	}
+	
+	//the lesser boundary corner, as it's written in claim files
+	String getKey()
+	{
+		return ClaimRecord.getKey(this.worldName, this.lesserX, this.lesserY, this.lesserZ);
+	}
+	
+	static String getKey(Claim claim)
+	{
+		ClaimBounds bounds = claim.bounds;
+		return ClaimRecord.getKey(claim.world.getName(), bounds.lesserX, bounds.lesserY, bounds.lesserZ);
+	}
+	
+	static String getKey(String worldName, int x, int y, int z)
+	{
+		return worldName + ";" + x + ";" + y + ";" + z;
+	}
+	
+	//finds a subdivision by its ID, returns -1 if there isn't one
+	int indexOfChild(long id)
+	{
+		for(int i = 0; i < this.children.size(); i++)
+		{
+			if(this.children.get(i).id == id) return i;
+		}
+		
+		return -1;
+	}
+	
+	//the text format of a claim file, see FlatFileStorage.writeClaimData()
+	String toClaimFileText() throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		BufferedWriter outStream = new BufferedWriter(writer);
+		
+		this.writeClaimFileText(outStream);
+		for(int i = 0; i < this.children.size(); i++)
+		{
+			this.children.get(i).writeClaimFileText(outStream);
+		}
+		
+		outStream.close();
+		return writer.toString();
+	}
+	
+	private void writeClaimFileText(BufferedWriter outStream) throws IOException
+	{
+		outStream.write(this.getKey());
+		outStream.newLine();
+		outStream.write(ClaimRecord.getKey(this.worldName, this.greaterX, this.greaterY, this.greaterZ));
+		outStream.newLine();
+		outStream.write(this.ownerName);
+		outStream.newLine();
+		for(int i = 0; i < this.permissions.length; i++)
+		{
+			for(int j = 0; j < this.permissions[i].length; j++)
+			{
+				outStream.write(this.permissions[i][j] + ";");
+			}
+			outStream.newLine();
+		}
+		outStream.write(String.valueOf(this.id));
+		outStream.newLine();
+		outStream.write("==========");
+		outStream.newLine();
+	}
+	
+	//self-contained binary form, with names written out in full, not including the ID or subdivisions
+	void write(DataOutputStream outStream) throws IOException
+	{
+		ClaimRecord.writeString(outStream, this.worldName);
+		outStream.writeInt(this.lesserX);
+		outStream.writeInt(this.lesserY);
+		outStream.writeInt(this.lesserZ);
+		outStream.writeInt(this.greaterX);
+		outStream.writeInt(this.greaterY);
+		outStream.writeInt(this.greaterZ);
+		ClaimRecord.writeString(outStream, this.ownerName);
+		outStream.writeLong(this.modifiedDate);
+		
+		for(int i = 0; i < this.permissions.length; i++)
+		{
+			outStream.writeInt(this.permissions[i].length);
+			for(int j = 0; j < this.permissions[i].length; j++)
+			{
+				ClaimRecord.writeString(outStream, this.permissions[i][j]);
+			}
+		}
+	}
+	
+	static ClaimRecord read(ByteBuffer buffer) throws IOException
+	{
+		ClaimRecord record = new ClaimRecord();
+		record.worldName = ClaimRecord.readString(buffer);
+		record.lesserX = buffer.getInt();
+		record.lesserY = buffer.getInt();
+		record.lesserZ = buffer.getInt();
+		record.greaterX = buffer.getInt();
+		record.greaterY = buffer.getInt();
+		record.greaterZ = buffer.getInt();
+		record.ownerName = ClaimRecord.readString(buffer);
+		record.modifiedDate = buffer.getLong();
+		
+		record.permissions = new String [4][];
+		for(int i = 0; i < record.permissions.length; i++)
+		{
+			record.permissions[i] = new String [buffer.getInt()];
+			for(int j = 0; j < record.permissions[i].length; j++)
+			{
+				record.permissions[i][j] = ClaimRecord.readString(buffer);
+			}
+		}
+		
+		return record;
+	}
+	
+	static void writeString(DataOutputStream outStream, String value) throws IOException
+	{
+		byte [] bytes = value.getBytes("UTF-8");
+		outStream.writeInt(bytes.length);
+		outStream.write(bytes);
+	}
+	
+	static String readString(ByteBuffer buffer) throws IOException
+	{
+		byte [] bytes = new byte [buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
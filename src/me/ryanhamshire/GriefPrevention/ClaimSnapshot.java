@@ -0,0 +1,277 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.bukkit.World;
+
+//all claims in one compact binary file, an alternative to one text file per claim (see FlatFileStorage)
+//layout: magic, version, journal generation, world name table, player name table, claims, CRC32 of everything before it
+//each top level claim is followed by its subdivisions.  each claim starts with its ID, boundaries are plain ints and names are indexes into the tables
+//changes made after the snapshot was written are in the journal with the same generation, see ClaimJournal
+class ClaimSnapshot 
+{
+	private final static int MAGIC = 0x47504353;  //"GPCS"
+	private final static int VERSION = 1;
+	
+	//which journal continues from this snapshot
+	long generation = 0;
+	
+	//top level claims with their subdivisions, by ID, in file order
+	LinkedHashMap<Long, ClaimRecord> records = new LinkedHashMap<Long, ClaimRecord>();
+	
+	//one more than the highest claim ID in the snapshot, including subdivisions
+	long nextClaimID = 1;
+	
+	//builds a snapshot of the given top level claims (and their subdivisions), plus claims in worlds which aren't loaded
+	static byte [] write(List<Claim> claims, List<ClaimRecord> unloadedClaims, long generation) throws IOException
+	{
+		ArrayList<ClaimRecord> records = new ArrayList<ClaimRecord>(claims.size() + unloadedClaims.size());
+		for(int i = 0; i < claims.size(); i++)
+		{
+			records.add(ClaimRecord.fromTopLevelClaim(claims.get(i)));
+		}
+		records.addAll(unloadedClaims);
+		
+		//build the name tables
+		LinkedHashMap<String, Integer> worldIndexes = new LinkedHashMap<String, Integer>();
+		LinkedHashMap<String, Integer> nameIndexes = new LinkedHashMap<String, Integer>();
+		for(int i = 0; i < records.size(); i++)
+		{
+			ClaimRecord record = records.get(i);
+			ClaimSnapshot.intern(worldIndexes, record.worldName);
+			ClaimSnapshot.internNames(nameIndexes, record);
+			for(int j = 0; j < record.children.size(); j++)
+			{
+				ClaimSnapshot.internNames(nameIndexes, record.children.get(j));
+			}
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + records.size() * 64);
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+		outStream.writeLong(generation);
+		
+		ClaimSnapshot.writeTable(outStream, worldIndexes);
+		ClaimSnapshot.writeTable(outStream, nameIndexes);
+		
+		outStream.writeInt(records.size());
+		for(int i = 0; i < records.size(); i++)
+		{
+			ClaimRecord record = records.get(i);
+			ClaimSnapshot.writeRecord(outStream, record, worldIndexes, nameIndexes);
+			outStream.writeInt(record.children.size());
+			for(int j = 0; j < record.children.size(); j++)
+			{
+				ClaimSnapshot.writeRecord(outStream, record.children.get(j), worldIndexes, nameIndexes);
+			}
+		}
+		
+		outStream.flush();
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		outStream.writeInt((int)crc.getValue());
+		outStream.close();
+		
+		return bytes.toByteArray();
+	}
+	
+	//reads a snapshot through a memory mapped file
+	//throws if the file is damaged, in which case nothing from it should be trusted
+	static ClaimSnapshot read(File file) throws IOException
+	{
+		ClaimSnapshot snapshot = new ClaimSnapshot();
+		
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			//check the trailing CRC before believing anything else in the file
+			if(buffer.limit() < 12) throw new IOException("Claim snapshot is truncated.");
+			CRC32 crc = new CRC32();
+			byte [] chunk = new byte [65536];
+			ByteBuffer body = buffer.duplicate();
+			body.limit(buffer.limit() - 4);
+			while(body.hasRemaining())
+			{
+				int length = Math.min(chunk.length, body.remaining());
+				body.get(chunk, 0, length);
+				crc.update(chunk, 0, length);
+			}
+			if((int)crc.getValue() != buffer.getInt(buffer.limit() - 4)) throw new IOException("Claim snapshot checksum doesn't match.");
+			
+			if(buffer.getInt() != MAGIC) throw new IOException("Not a claim snapshot.");
+			int version = buffer.getInt();
+			if(version != VERSION) throw new IOException("Unsupported claim snapshot version " + version + ".");
+			snapshot.generation = buffer.getLong();
+			
+			String [] worldNames = ClaimSnapshot.readTable(buffer);
+			String [] names = ClaimSnapshot.readTable(buffer);
+			
+			int claimCount = buffer.getInt();
+			for(int i = 0; i < claimCount; i++)
+			{
+				ClaimRecord record = ClaimSnapshot.readRecord(buffer, worldNames, names);
+				int childCount = buffer.getInt();
+				for(int j = 0; j < childCount; j++)
+				{
+					record.children.add(ClaimSnapshot.readRecord(buffer, worldNames, names));
+				}
+				
+				snapshot.addRecord(record);
+			}
+		}
+		catch(RuntimeException e)
+		{
+			//buffer underflows and bad table indexes
+			throw new IOException("Claim snapshot is damaged: " + e);
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+		
+		return snapshot;
+	}
+	
+	private void addRecord(ClaimRecord record)
+	{
+		this.nextClaimID = Math.max(this.nextClaimID, record.id + 1);
+		for(int i = 0; i < record.children.size(); i++)
+		{
+			this.nextClaimID = Math.max(this.nextClaimID, record.children.get(i).id + 1);
+		}
+		
+		this.records.put(record.id, record);
+	}
+	
+	//turns the records into claims, except those in worlds which aren't loaded, which stay records
+	void resolve(Map<String, World> worlds, List<Claim> claims, List<ClaimRecord> unloadedClaims)
+	{
+		for(ClaimRecord record : this.records.values())
+		{
+			World world = worlds.get(record.worldName);
+			if(world == null)
+			{
+				unloadedClaims.add(record);
+			}
+			else
+			{
+				claims.add(record.toClaim(world));
+			}
+		}
+	}
+	
+	private static void intern(Map<String, Integer> table, String value)
+	{
+		if(!table.containsKey(value)) table.put(value, table.size());
+	}
+	
+	private static void internNames(Map<String, Integer> table, ClaimRecord record)
+	{
+		ClaimSnapshot.intern(table, record.ownerName);
+		for(int i = 0; i < record.permissions.length; i++)
+		{
+			for(int j = 0; j < record.permissions[i].length; j++)
+			{
+				ClaimSnapshot.intern(table, record.permissions[i][j]);
+			}
+		}
+	}
+	
+	private static void writeTable(DataOutputStream outStream, LinkedHashMap<String, Integer> table) throws IOException
+	{
+		outStream.writeInt(table.size());
+		for(String value : table.keySet())
+		{
+			ClaimRecord.writeString(outStream, value);
+		}
+	}
+	
+	private static String [] readTable(ByteBuffer buffer) throws IOException
+	{
+		String [] table = new String [buffer.getInt()];
+		for(int i = 0; i < table.length; i++)
+		{
+			table[i] = ClaimRecord.readString(buffer);
+		}
+		
+		return table;
+	}
+	
+	private static void writeRecord(DataOutputStream outStream, ClaimRecord record, Map<String, Integer> worldIndexes, Map<String, Integer> nameIndexes) throws IOException
+	{
+		outStream.writeLong(record.id);
+		outStream.writeInt(worldIndexes.get(record.worldName));
+		outStream.writeInt(record.lesserX);
+		outStream.writeInt(record.lesserY);
+		outStream.writeInt(record.lesserZ);
+		outStream.writeInt(record.greaterX);
+		outStream.writeInt(record.greaterY);
+		outStream.writeInt(record.greaterZ);
+		outStream.writeInt(nameIndexes.get(record.ownerName));
+		outStream.writeLong(record.modifiedDate);
+		
+		for(int i = 0; i < record.permissions.length; i++)
+		{
+			outStream.writeInt(record.permissions[i].length);
+			for(int j = 0; j < record.permissions[i].length; j++)
+			{
+				outStream.writeInt(nameIndexes.get(record.permissions[i][j]));
+			}
+		}
+	}
+	
+	private static ClaimRecord readRecord(ByteBuffer buffer, String [] worldNames, String [] names) throws IOException
+	{
+		ClaimRecord record = new ClaimRecord();
+		record.id = buffer.getLong();
+		record.worldName = worldNames[buffer.getInt()];
+		record.lesserX = buffer.getInt();
+		record.lesserY = buffer.getInt();
+		record.lesserZ = buffer.getInt();
+		record.greaterX = buffer.getInt();
+		record.greaterY = buffer.getInt();
+		record.greaterZ = buffer.getInt();
+		record.ownerName = names[buffer.getInt()];
+		record.modifiedDate = buffer.getLong();
+		
+		record.permissions = new String [4][];
+		for(int i = 0; i < record.permissions.length; i++)
+		{
+			record.permissions[i] = new String [buffer.getInt()];
+			for(int j = 0; j < record.permissions[i].length; j++)
+			{
+				record.permissions[i][j] = names[buffer.getInt()];
+			}
+		}
+		
+		return record;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+
+import org.bukkit.World;
+
+//a read only copy of a claim, as of when the claim index it belongs to was published (see ClaimIndex)
+//nothing here changes after it's made, so any thread can use it.  changes to the claim show up in a later index, as a new view
+public class ClaimView 
+{
+	private final long id;
+	private final String worldName;
+	private final World.Environment environment;
+	private final int lesserX, lesserY, lesserZ;
+	private final int greaterX, greaterY, greaterZ;
+	
+	//the top level claim's owner, also for subdivisions.  the empty string for admin claims
+	private final String ownerName;
+	private final long modifiedDate;
+	
+	private final List<String> builders;
+	private final List<String> containers;
+	private final List<String> accessors;
+	private final List<String> managers;
+	
+	//NULL for top level claims
+	private final ClaimView parent;
+	
+	//empty for subdivisions
+	private final List<ClaimView> children;
+	
+	//copies a top level claim along with its subdivisions.  bounds, permissions, managers and subdivisions are replaced rather than changed,
+	//so any thread can copy them, see Claim.  the owner is changed in place, but only under the data store's lock, which DataStore.publishClaimIndex() holds while making views
+	ClaimView(Claim claim)
+	{
+		this(claim, null);
+	}
+	
+	private ClaimView(Claim claim, ClaimView parent)
+	{
+		this.id = claim.id;
+		this.worldName = claim.world.getName();
+		this.environment = claim.world.getEnvironment();
+		ClaimBounds bounds = claim.bounds;
+		this.lesserX = bounds.lesserX;
+		this.lesserY = bounds.lesserY;
+		this.lesserZ = bounds.lesserZ;
+		this.greaterX = bounds.greaterX;
+		this.greaterY = bounds.greaterY;
+		this.greaterZ = bounds.greaterZ;
+		this.ownerName = parent != null ? parent.ownerName : claim.ownerName;
+		this.modifiedDate = claim.modifiedDate.getTime();
+		this.parent = parent;
+		
+		ArrayList<String> builders = new ArrayList<String>();
+		ArrayList<String> containers = new ArrayList<String>();
+		ArrayList<String> accessors = new ArrayList<String>();
+		ArrayList<String> managers = new ArrayList<String>();
+		claim.getPermissions(builders, containers, accessors, managers);
+		this.builders = Collections.unmodifiableList(builders);
+		this.containers = Collections.unmodifiableList(containers);
+		this.accessors = Collections.unmodifiableList(accessors);
+		this.managers = Collections.unmodifiableList(managers);
+		
+		ArrayList<Claim> subdivisions = claim.children;
+		if(parent != null || subdivisions.isEmpty())
+		{
+			this.children = Collections.emptyList();
+		}
+		else
+		{
+			ArrayList<ClaimView> children = new ArrayList<ClaimView>(subdivisions.size());
+			for(int i = 0; i < subdivisions.size(); i++)
+			{
+				children.add(new ClaimView(subdivisions.get(i), this));
+			}
+			this.children = Collections.unmodifiableList(children);
+		}
+	}
+	
+	//same as Claim.contains(), but with the boundaries and subdivisions this view was made with
+	public boolean contains(String worldName, int x, int y, int z, boolean ignoreHeight, boolean excludeSubdivisions)
+	{
+		if(!worldName.equals(this.worldName)) return false;
+		
+		if(!ignoreHeight && !this.containsHeight(y)) return false;
+		
+		if(x < this.lesserX || x > this.greaterX || z < this.lesserZ || z > this.greaterZ) return false;
+		
+		//you're only in a subdivision when you're also in its parent claim
+		if(this.parent != null)
+		{
+			return this.parent.contains(worldName, x, y, z, ignoreHeight, false);
+		}
+		
+		else if(excludeSubdivisions)
+		{
+			for(int i = 0; i < this.children.size(); i++)
+			{
+				if(this.children.get(i).contains(worldName, x, y, z, ignoreHeight, true)) return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	//see Claim.containsHeight()
+	private boolean containsHeight(int y)
+	{
+		if(this.environment == World.Environment.NORMAL)
+		{
+			if(y < GriefPrevention.instance.config_claims_maxDepth) return false;
+			if(y < this.lesserY) return false;
+		}
+		if(this.environment == World.Environment.NETHER)
+		{
+			if(y >= 128 - 16) return false;
+		}
+		
+		return true;
+	}
+	
+	public long getID()
+	{
+		return this.id;
+	}
+	
+	public String getWorldName()
+	{
+		return this.worldName;
+	}
+	
+	public int getLesserX()
+	{
+		return this.lesserX;
+	}
+	
+	public int getLesserY()
+	{
+		return this.lesserY;
+	}
+	
+	public int getLesserZ()
+	{
+		return this.lesserZ;
+	}
+	
+	public int getGreaterX()
+	{
+		return this.greaterX;
+	}
+	
+	public int getGreaterY()
+	{
+		return this.greaterY;
+	}
+	
+	public int getGreaterZ()
+	{
+		return this.greaterZ;
+	}
+	
+	public String getOwnerName()
+	{
+		return this.ownerName;
+	}
+	
+	public boolean isAdminClaim()
+	{
+		return this.ownerName.isEmpty();
+	}
+	
+	public Date getModifiedDate()
+	{
+		return new Date(this.modifiedDate);
+	}
+	
+	//players with each kind of explicit permission, see Claim.getPermissions()
+	public List<String> getBuilders()
+	{
+		return this.builders;
+	}
+	
+	public List<String> getContainers()
+	{
+		return this.containers;
+	}
+	
+	public List<String> getAccessors()
+	{
+		return this.accessors;
+	}
+	
+	public List<String> getManagers()
+	{
+		return this.managers;
+	}
+	
+	public ClaimView getParent()
+	{
+		return this.parent;
+	}
+	
+	public List<ClaimView> getChildren()
+	{
+		return this.children;
+	}
+}
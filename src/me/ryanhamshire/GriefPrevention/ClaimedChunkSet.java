@@ -0,0 +1,137 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//set of the chunks in one world which at least one claim touches, by chunk key (see DataStore.getChunkKey())
+//most lookups are for unclaimed chunks, so this answers "no claims here" from a plain long array, without boxing the key or allocating
+//open addressing with linear probing.  contains() may run on any thread without locking, while add() and remove() take turns:
+//entries never move once written, removal leaves a marker behind, and a table is only replaced by a complete new one
+class ClaimedChunkSet 
+{
+	//mark an empty slot and a removed entry.  they're the keys of chunks far outside any world's border, so no claim can touch them
+	private final static long EMPTY = Long.MIN_VALUE;
+	private final static long REMOVED = Long.MIN_VALUE + 1;
+	
+	//kept at most half full of entries and removal markers together, and always a power of two in size
+	private volatile AtomicLongArray keys = ClaimedChunkSet.emptyTable(16);
+	private int size = 0;
+	private int usedSlots = 0;
+	
+	boolean contains(long key)
+	{
+		AtomicLongArray keys = this.keys;
+		int mask = keys.length() - 1;
+		int slot = ClaimedChunkSet.hash(key) & mask;
+		while(true)
+		{
+			long slotKey = keys.get(slot);
+			if(slotKey == key) return true;
+			if(slotKey == EMPTY) return false;
+			slot = (slot + 1) & mask;
+		}
+	}
+	
+	synchronized void add(long key)
+	{
+		if(this.contains(key)) return;
+		
+		//rebuild into a new table when this one fills up, which also clears out removal markers
+		if((this.usedSlots + 1) * 2 > this.keys.length())
+		{
+			int length = 16;
+			while((this.size + 1) * 4 > length) length *= 2;
+			
+			AtomicLongArray oldKeys = this.keys;
+			AtomicLongArray newKeys = ClaimedChunkSet.emptyTable(length);
+			this.usedSlots = 0;
+			for(int i = 0; i < oldKeys.length(); i++)
+			{
+				long oldKey = oldKeys.get(i);
+				if(oldKey != EMPTY && oldKey != REMOVED)
+				{
+					ClaimedChunkSet.insert(newKeys, oldKey);
+					this.usedSlots++;
+				}
+			}
+			this.keys = newKeys;
+		}
+		
+		if(ClaimedChunkSet.insert(this.keys, key)) this.usedSlots++;
+		this.size++;
+	}
+	
+	//puts a key in the first free slot on its probe path, returns TRUE if that slot was never used before
+	private static boolean insert(AtomicLongArray keys, long key)
+	{
+		int mask = keys.length() - 1;
+		int slot = ClaimedChunkSet.hash(key) & mask;
+		while(true)
+		{
+			long slotKey = keys.get(slot);
+			if(slotKey == EMPTY || slotKey == REMOVED)
+			{
+				keys.set(slot, key);
+				return slotKey == EMPTY;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+	
+	synchronized void remove(long key)
+	{
+		AtomicLongArray keys = this.keys;
+		int mask = keys.length() - 1;
+		int slot = ClaimedChunkSet.hash(key) & mask;
+		while(true)
+		{
+			long slotKey = keys.get(slot);
+			if(slotKey == EMPTY) return;
+			if(slotKey == key)
+			{
+				keys.set(slot, REMOVED);
+				this.size--;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+	
+	synchronized int size()
+	{
+		return this.size;
+	}
+	
+	//chunk keys are very regular, so mix the bits before using them as a slot number
+	private static int hash(long key)
+	{
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+	
+	private static AtomicLongArray emptyTable(int length)
+	{
+		AtomicLongArray table = new AtomicLongArray(length);
+		for(int i = 0; i < length; i++)
+		{
+			table.set(i, EMPTY);
+		}
+		return table;
+	}
+}
@@ -25,5 +25,6 @@ public class CreateClaimResult
 	
 	//when succeeded, this is a reference to the new claim
 	//when failed, this is a reference to the pre-existing, conflicting claim
+	//or NULL when the claim being resized, or the parent of a new subdivision, was deleted in the meantime
 	public Claim claim;
 }
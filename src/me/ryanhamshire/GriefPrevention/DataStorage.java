@@ -0,0 +1,63 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+import java.util.concurrent.Future;
+
+import org.bukkit.World;
+
+//where claims and player data are kept between server runs, see FlatFileStorage and DatabaseStorage
+//the data store keeps everything in memory and tells its storage what changed.  all of these are called on the server thread,
+//so implementations copy what they need right away and do their slow work on their own threads
+interface DataStorage
+{
+	//loads all top level claims with their subdivisions, all with their IDs (see Claim.id)
+	//when two claims overlap, the one earlier in the list wins, and the other is deleted through deleteClaim()
+	//entries may be NULL for claims which couldn't be read.  claims in worlds which aren't loaded stay in storage as they are
+	//claims stored before they had IDs get them here, and the storage saves them under those IDs
+	List<Claim> loadClaims(Map<String, World> worlds) throws Exception;
+	
+	//one more than the highest claim ID ever handed out, as far as storage knows, see saveChanges().  only valid after loadClaims()
+	//this is never lower than one more than any claim ID in storage, including claims in worlds which aren't loaded
+	long getNextClaimID();
+	
+	//loads one player's data, or returns NULL if there isn't any
+	PlayerData loadPlayerData(String playerName);
+	
+	//saves a batch of changes since the last call
+	//claims are all the top level claims in the data store, changedClaims are the top level claims and subdivisions which changed
+	//a changed claim which isn't inDataStore anymore was deleted, see deleteClaim()
+	//nextClaimID is the data store's next claim ID.  the storage keeps it with the batch, so IDs of deleted claims aren't handed out again after a restart
+	//closing = TRUE when this is the last batch before close(), so anything put off until later must be written now
+	void saveChanges(List<Claim> claims, Collection<Claim> changedClaims, Map<String, PlayerData> changedPlayerData, long nextClaimID, boolean closing);
+	
+	//called as a claim is deleted.  a subdivision's parent is still set, but it's already out of the parent's children
+	void deleteClaim(Claim claim);
+	
+	//looks up the names of players whose last login was before a time, without making the caller wait
+	//the result is NULL if the storage can't tell without reading every player's data.  it may be a little behind recent logins
+	Future<List<String>> getPlayersLastLoginBefore(Date time);
+	
+	//how much has been handed off but not written yet, in whatever unit the storage writes in.  only for /GPStats, so it may be a little stale
+	int getPendingWrites();
+	
+	//writes anything outstanding and releases files and connections
+	void close();
+}
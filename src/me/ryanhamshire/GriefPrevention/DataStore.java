@@ -19,234 +19,398 @@
 package me.ryanhamshire.GriefPrevention;
 
 import java.io.*;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bukkit.*;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 //singleton class which manages all GriefPrevention data (except for config options)
+//claims may be looked up and changed from any thread.  lookups don't lock anything, and changes lock the regions they touch (see ClaimLocks),
+//so changes in different parts of a world can happen at the same time.  everything else here is guarded by the DataStore's monitor,
+//which is always taken AFTER region locks, never before
 public class DataStore 
 {
-	//in-memory cache for player data
-	private HashMap<String, PlayerData> playerNameToPlayerDataMap = new HashMap<String, PlayerData>();
+	//in-memory cache for player data, in least to most recently used order
+	//online players' data always stays in memory, other players' data is dropped when the cache grows past its configured size
+	private LinkedHashMap<String, PlayerData> playerNameToPlayerDataMap = new LinkedHashMap<String, PlayerData>(16, 0.75f, true);
 	
-	//in-memory cache for claim data
+	//players whose data must stay in memory, see setPlayerOnline()
+	private HashSet<String> onlinePlayerNames = new HashSet<String>();
+	
+	//player data cache statistics
+	private long playerDataCacheHits = 0;
+	private long playerDataCacheMisses = 0;
+	private long playerDataCacheEvictions = 0;
+	
+	//in-memory cache for claim data, sorted.  only touch it while synchronized on the DataStore
 	public ArrayList<Claim> claims = new ArrayList<Claim>();
 	
+	//top level claims and subdivisions by ID, see Claim.id
+	private HashMap<Long, Claim> idToClaimMap = new HashMap<Long, Claim>();
+	
+	//the ID the next new claim gets.  IDs are never handed out twice while the server is running
+	private long nextClaimID = 1;
+	
+	//spatial index for top level claims, by world name and then by chunk key (see getChunkKey())
+	//every chunk a claim's boundaries touch maps to that claim, so a lookup only has to consider the few claims near a location
+	//the arrays are replaced rather than changed, so lookups can read them without locking.  changes hold the chunk's region lock
+	private ConcurrentHashMap<String, ConcurrentHashMap<Long, Claim []>> worldNameToChunkClaimsMap = new ConcurrentHashMap<String, ConcurrentHashMap<Long, Claim []>>();
+	
+	//the chunks in each world which have an entry in the index above, so lookups in unclaimed chunks end without boxing a key
+	private ConcurrentHashMap<String, ClaimedChunkSet> worldNameToClaimedChunksMap = new ConcurrentHashMap<String, ClaimedChunkSet>();
+	
+	//counts the times an unclaimed chunk got a claim, so cached unclaimed chunks can tell they're out of date, see ClaimHintCache
+	private AtomicLong chunkIndexVersion = new AtomicLong();
+	
+	//serializes claim changes per world region
+	private ClaimLocks claimLocks = new ClaimLocks();
+	
+	//top level claims by owner name, so finding a player's claims doesn't mean looking at every claim
+	//administrative claims are listed under the empty string
+	private HashMap<String, ArrayList<Claim>> ownerNameToClaimsMap = new HashMap<String, ArrayList<Claim>>();
+	
+	//read only copy of the claim indexes above, for other threads, see getClaimIndex()
+	private volatile ClaimIndex claimIndex = ClaimIndex.EMPTY;
+	
+	//top level claims which changed since the claim index was last published, and each claim's view in the published index by ID
+	private LinkedHashSet<Claim> claimIndexChanges = new LinkedHashSet<Claim>();
+	private HashMap<Long, ClaimView> publishedClaimViews = new HashMap<Long, ClaimView>();
+	
 	//path information, for where stuff stored on disk is well...  stored
-	private final static String dataLayerFolderPath = "plugins" + File.separator + "GriefPreventionData";
-	private final static String playerDataFolderPath = dataLayerFolderPath + File.separator + "PlayerData";
-	private final static String claimDataFolderPath = dataLayerFolderPath + File.separator + "ClaimData";
+	final static String dataLayerFolderPath = "plugins" + File.separator + "GriefPreventionData";
 	final static String configFilePath = dataLayerFolderPath + File.separator + "config.yml";
 	
-	//initialization!
-	DataStore()
+	//records which have changed since the last flush, see flushChanges()
+	//saving the same record again before then doesn't cost anything extra
+	private LinkedHashSet<Claim> dirtyClaims = new LinkedHashSet<Claim>();
+	private LinkedHashMap<String, PlayerData> dirtyPlayerData = new LinkedHashMap<String, PlayerData>();
+	
+	//where claims and player data are kept between server runs
+	private DataStorage storage;
+	
+	//initialization!  throws if claims can't be loaded, see DataStore(DataStorage)
+	DataStore() throws Exception
+	{
+		this(DataStore.openStorage());
+	}
+	
+	//loads everything from a particular storage.  the benchmarks use this to start from claims in memory
+	//if the claims can't be loaded, the storage is closed and the exception is passed on, since running without them would leave every claim unprotected
+	DataStore(DataStorage storage) throws Exception
 	{
-		//ensure data folders exist
-		new File(playerDataFolderPath).mkdirs();
-		new File(claimDataFolderPath).mkdirs();
+		this.storage = storage;
 		
-		//load claims data into memory		
-		File claimDataFolder = new File(claimDataFolderPath);
-		File [] files = claimDataFolder.listFiles();
+		//world lookups happen here on the main thread, the storage only sees this map
+		long phaseStart = System.currentTimeMillis();
+		HashMap<String, World> worlds = new HashMap<String, World>();
+		List<World> serverWorlds = GriefPrevention.instance.getServer().getWorlds();
+		for(int i = 0; i < serverWorlds.size(); i++)
+		{
+			worlds.put(serverWorlds.get(i).getName(), serverWorlds.get(i));
+		}
 		
+		//load claims data into memory
+		List<Claim> loadedClaims;
+		try
+		{
+			loadedClaims = this.storage.loadClaims(worlds);
+		}
+		catch(Exception e)
+		{
+			this.storage.close();
+			throw e;
+		}
+		
+		long parseTime = System.currentTimeMillis() - phaseStart;
+		this.nextClaimID = Math.max(this.nextClaimID, this.storage.getNextClaimID());
+		
+		//add claims to the spatial index one at a time, dropping any which conflict with a claim already added
+		//each check only looks at the claims indexed in the same chunk, so this is linear in the number of claims
+		phaseStart = System.currentTimeMillis();
 		int loadedClaimCount = 0;
+		for(int i = 0; i < loadedClaims.size(); i++)
+		{
+			Claim topLevelClaim = loadedClaims.get(i);
+			if(topLevelClaim == null) continue;
+			
+			//search for another claim overlapping this one
+			Claim conflictClaim = this.getClaimAt(topLevelClaim.getLesserBoundaryCorner(), true, null);
+			
+			//if there is such a claim, delete this one from storage and move on to the next
+			if(conflictClaim != null)
+			{
+				this.storage.deleteClaim(topLevelClaim);
+				continue;
+			}
+			
+			//otherwise, add this claim to the claims collection
+			this.claims.add(topLevelClaim);
+			this.addToChunkIndex(topLevelClaim, DataStore.getChunkArea(topLevelClaim), null);
+			this.addToOwnerIndex(topLevelClaim);
+			this.addToIDIndex(topLevelClaim);
+			topLevelClaim.inDataStore = true;
+			for(int j = 0; j < topLevelClaim.children.size(); j++)
+			{
+				topLevelClaim.children.get(j).inDataStore = true;
+			}
+			
+			loadedClaimCount++;
+		}
 		
-		for(int i = 0; i < files.length; i++)
-		{			
-			if(files[i].isFile())  //avoids folders
+		//subdivisions go in the ID index after all the top level claims, since top level claims are stored by ID and have to keep theirs
+		for(int i = 0; i < this.claims.size(); i++)
+		{
+			Claim topLevelClaim = this.claims.get(i);
+			for(int j = 0; j < topLevelClaim.children.size(); j++)
 			{
-				BufferedReader inStream = null;
-				try
-				{					
-					Claim topLevelClaim = null;
-					
-					inStream = new BufferedReader(new FileReader(files[i].getAbsolutePath()));
-					String line = inStream.readLine();
-					
-					while(line != null)
-					{					
-						//first line is lesser boundary corner location
-						Location lesserBoundaryCorner = this.locationFromString(line);
-						
-						//second line is greater boundary corner location
-						line = inStream.readLine();
-						Location greaterBoundaryCorner = this.locationFromString(line);
-						
-						//third line is owner name
-						line = inStream.readLine();						
-						String ownerName = line;
-						
-						//fourth line is list of builders
-						line = inStream.readLine();
-						String [] builderNames = line.split(";");
-						
-						//fifth line is list of players who can access containers
-						line = inStream.readLine();
-						String [] containerNames = line.split(";");
-						
-						//sixth line is list of players who can use buttons and switches
-						line = inStream.readLine();
-						String [] accessorNames = line.split(";");
-						
-						//seventh line is list of players who can grant permissions
-						line = inStream.readLine();
-						if(line == null) line = "";
-						String [] managerNames = line.split(";");
-						
-						//skip any remaining extra lines, until the "===" string, indicating the end of this claim or subdivision
-						line = inStream.readLine();
-						while(line != null && !line.contains("=========="))
-							line = inStream.readLine();
-						
-						//build a claim instance from those data
-						//if this is the first claim loaded from this file, it's the top level claim
-						if(topLevelClaim == null)
-						{
-							//instantiate
-							topLevelClaim = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, ownerName, builderNames, containerNames, accessorNames, managerNames);
-							
-							//search for another claim overlapping this one
-							Claim conflictClaim = this.getClaimAt(topLevelClaim.lesserBoundaryCorner, true, null);
-							
-							//if there is such a claim, delete this file and move on to the next
-							if(conflictClaim != null)
-							{
-								inStream.close();
-								files[i].delete();
-								line = null;
-								continue;
-							}
-							
-							//otherwise, add this claim to the claims collection
-							else
-							{
-								topLevelClaim.modifiedDate = new Date(files[i].lastModified());
-								int j = 0;
-								while(j < this.claims.size() && !this.claims.get(j).greaterThan(topLevelClaim)) j++;
-								if(j < this.claims.size())
-									this.claims.add(j, topLevelClaim);
-								else
-									this.claims.add(this.claims.size(), topLevelClaim);
-								topLevelClaim.inDataStore = true;								
-							}
-						}
-						
-						//otherwise there's already a top level claim, so this must be a subdivision of that top level claim
-						else
-						{
-							Claim subdivision = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, "--subdivision--", builderNames, containerNames, accessorNames, managerNames);
-							
-							//make sure there are no other subdivisions overlapping this one
-							
-							subdivision.modifiedDate = new Date(files[i].lastModified());
-							subdivision.parent = topLevelClaim;
-							topLevelClaim.children.add(subdivision);
-							subdivision.inDataStore = true;
-						}
-						
-						//move up to the first line in the next subdivision
-						line = inStream.readLine();
-					}
-					
-					inStream.close();
-					  
-					loadedClaimCount++;
-				}
-				
-				//if there's any problem with the file's content, log an error message and skip it
-				catch(Exception e)
-				{
-                                        GriefPrevention.addLogEntry("Unable to load data for claim \"" + files[i].getName() + "\": " + e.getMessage());
-				}
-				
-				try
-				{
-					if(inStream != null) inStream.close();					
-				}
-				catch(IOException exception) {}
+				this.addToIDIndex(topLevelClaim.children.get(j));
 			}
 		}
+		long conflictTime = System.currentTimeMillis() - phaseStart;
+		
+		//sort once, rather than keeping the list sorted while loading
+		phaseStart = System.currentTimeMillis();
+		Collections.sort(this.claims, new Comparator<Claim>()
+		{
+			public int compare(Claim claim1, Claim claim2)
+			{
+				if(claim1.greaterThan(claim2)) return 1;
+				if(claim2.greaterThan(claim1)) return -1;
+				return 0;
+			}
+		});
+		long sortTime = System.currentTimeMillis() - phaseStart;
 		
 		GriefPrevention.addLogEntry(loadedClaimCount + " total claims loaded.");
 		
-		//make a list of players who own claims
-		Vector<String> playerNames = new Vector<String>();
-		for(int i = 0; i < this.claims.size(); i++)
+		//count players who own claims, ignoring admin claims
+		int ownerCount = this.ownerNameToClaimsMap.size();
+		if(this.ownerNameToClaimsMap.containsKey("")) ownerCount--;
+		GriefPrevention.addLogEntry(ownerCount + " players have staked claims.");
+		
+		//expired claims are cleaned up a little at a time from here on, see ClaimExpirationTask
+		
+		GriefPrevention.addLogEntry("Claim loading took " + parseTime + "ms to read claims, " + conflictTime + "ms to check for conflicts, and " + sortTime + "ms to sort.");
+		
+		//anyone already online (after a reload) keeps his data in memory
+		Player [] players = GriefPrevention.instance.getServer().getOnlinePlayers();
+		for(int i = 0; i < players.length; i++)
 		{
-			Claim claim = this.claims.get(i);
-			
-			//ignore admin claims
-			if(claim.isAdminClaim()) continue;
-			
-			if(!playerNames.contains(claim.ownerName))
-				playerNames.add(claim.ownerName);
+			this.onlinePlayerNames.add(players[i].getName());
+		}
+		
+		//the first claim index for other threads has everything
+		this.claimIndexChanges.addAll(this.claims);
+		this.publishClaimIndex();
+		
+		//write out anything changed by removing conflicting claims
+		this.flushChanges();
+		
+		//collect garbage, since lots of stuff was loaded into memory and then tossed out
+		System.gc();
+	}
+	
+	//starts looking for players who've been away long enough that their claims might have expired, see ClaimExpirationTask
+	//that's at least a week, or the configured expiration time if that's shorter.  pass the result to getClaimExpirationCandidates()
+	Future<List<String>> findAbsentPlayers()
+	{
+		Calendar expirationCutoff = Calendar.getInstance();
+		expirationCutoff.add(Calendar.DATE, -7);
+		if(GriefPrevention.instance.config_claims_expirationDays > 0 && GriefPrevention.instance.config_claims_expirationDays < 7)
+		{
+			expirationCutoff = Calendar.getInstance();
+			expirationCutoff.add(Calendar.DATE, -GriefPrevention.instance.config_claims_expirationDays);
 		}
 		
-		GriefPrevention.addLogEntry(playerNames.size() + " players have staked claims.");
+		return this.storage.getPlayersLastLoginBefore(expirationCutoff.getTime());
+	}
+	
+	//gets the names of players who might have expired claims: claim owners among the absent players, or all claim owners if that's NULL
+	//players who logged in since the absent players were looked up are caught by expireClaims(), which checks each player's last login
+	synchronized List<String> getClaimExpirationCandidates(List<String> absentPlayerNames)
+	{
+		ArrayList<String> playerNames = new ArrayList<String>(this.ownerNameToClaimsMap.keySet());
+		playerNames.remove("");
 		
-		//load each of these players and determine whether his claims should be cleaned up
-		for(int i = 0; i < playerNames.size(); i++)
+		//when the storage can find those players quickly, only they need to be checked
+		if(absentPlayerNames != null)
 		{
-			String playerName = playerNames.get(i);
-			
-			PlayerData playerData = this.getPlayerData(playerName);
-			
-			int areaOfDefaultClaim = 0;
+			playerNames.retainAll(new HashSet<String>(absentPlayerNames));
+		}
+		
+		return playerNames;
+	}
+	
+	//deletes a player's claims if they've expired, returning how many were deleted
+	//a lone new player claim expires after a week away, and all claims expire after the configured number of days away
+	//NOT synchronized, since deleting claims takes region locks
+	int expireClaims(String playerName)
+	{
+		boolean wasCached;
+		PlayerData playerData;
+		Claim onlyClaim = null;
+		synchronized(this)
+		{
+			//online players are obviously still around
+			if(this.onlinePlayerNames.contains(playerName)) return 0;
 			
-			//determine area of the default chest claim
-			if(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius >= 0)
+			wasCached = this.playerNameToPlayerDataMap.containsKey(playerName);
+			playerData = this.getPlayerData(playerName);
+			if(playerData.claims.size() == 1) onlyClaim = playerData.claims.get(0);
+		}
+		int claimsBefore = this.getClaimsForOwner(playerName).size();
+		
+		int areaOfDefaultClaim = 0;
+		
+		//determine area of the default chest claim
+		if(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius >= 0)
+		{
+			areaOfDefaultClaim = (int)Math.pow(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius * 2 + 1, 2);  
+		}
+		
+		//figure out how long the player has been away
+		Calendar sevenDaysAgo = Calendar.getInstance();
+		sevenDaysAgo.add(Calendar.DATE, -7);
+		boolean claimsExpired = sevenDaysAgo.getTime().after(playerData.lastLogin);
+		
+		//if only one claim, and the player hasn't played in a week
+		if(claimsExpired && onlyClaim != null)
+		{
+			//if that's a chest claim, delete it
+			if(onlyClaim.getArea() <= areaOfDefaultClaim)
 			{
-				areaOfDefaultClaim = (int)Math.pow(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius * 2 + 1, 2);  
+				this.deleteClaim(onlyClaim);
+				GriefPrevention.addLogEntry(" " + playerName + "'s new player claim expired.");
 			}
+		}
+		
+		if(GriefPrevention.instance.config_claims_expirationDays > 0)
+		{
+			Calendar earliestPermissibleLastLogin = Calendar.getInstance();
+			earliestPermissibleLastLogin.add(Calendar.DATE, -GriefPrevention.instance.config_claims_expirationDays);
 			
-			//figure out how long the player has been away
-			Calendar sevenDaysAgo = Calendar.getInstance();
-			sevenDaysAgo.add(Calendar.DATE, -7);
-			boolean claimsExpired = sevenDaysAgo.getTime().after(playerData.lastLogin);
-			
-			//if only one claim, and the player hasn't played in a week
-			if(claimsExpired && playerData.claims.size() == 1)
+			if(earliestPermissibleLastLogin.getTime().after(playerData.lastLogin))
 			{
-				Claim claim = playerData.claims.get(0);
-				//if that's a chest claim, delete it
-				if(claim.getArea() <= areaOfDefaultClaim)
-				{
-					this.deleteClaim(claim);
-					GriefPrevention.addLogEntry(" " + playerName + "'s new player claim expired.");
-				}
+				this.deleteClaimsForPlayer(playerName, true);
+				GriefPrevention.addLogEntry(" All of " + playerName + "'s claims have expired.");
 			}
-			
-			if(GriefPrevention.instance.config_claims_expirationDays > 0)
+		}
+		
+		//toss that player data out of the cache, unless it was there anyway, it's not needed in memory right now
+		if(!wasCached) this.clearCachedPlayerData(playerName);
+		
+		return claimsBefore - this.getClaimsForOwner(playerName).size();
+	}
+	
+	//picks the configured storage, falling back to files if the database can't be opened
+	private static DataStorage openStorage()
+	{
+		if(GriefPrevention.instance.config_databaseEnabled)
+		{
+			try
 			{
-				Calendar earliestPermissibleLastLogin = Calendar.getInstance();
-				earliestPermissibleLastLogin.add(Calendar.DATE, -GriefPrevention.instance.config_claims_expirationDays);
-				
-				if(earliestPermissibleLastLogin.getTime().after(playerData.lastLogin))
-				{
-					this.deleteClaimsForPlayer(playerName, true);
-					GriefPrevention.addLogEntry(" All of " + playerName + "'s claims have expired.");
-				}
+				return new DatabaseStorage();
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.addLogEntry("Unable to open the database, using data files instead: " + e.getMessage());
 			}
-			
-			//toss that player data out of the cache, it's not needed in memory right now
-			this.clearCachedPlayerData(playerName);
 		}
 		
-		//collect garbage, since lots of stuff was loaded into memory and then tossed out
-		System.gc();
+		return new FlatFileStorage();
+	}
+	
+	//hands all changes since the last flush to the background writer
+	//runs on the server thread (see DataFlushTask)
+	synchronized void flushChanges()
+	{
+		this.flushChanges(false);
+	}
+	
+	//closing = TRUE for the last flush before the storage is closed
+	private synchronized void flushChanges(boolean closing)
+	{
+		this.storage.saveChanges(this.claims, this.dirtyClaims, this.dirtyPlayerData, this.nextClaimID, closing);
+		this.dirtyClaims.clear();
+		this.dirtyPlayerData.clear();
+		
+		//player data which was waiting to be saved can be dropped from memory now
+		this.trimPlayerDataCache();
+	}
+	
+	//writes everything out and closes the storage.  called when the plugin is disabled
+	synchronized void close()
+	{
+		this.flushChanges(true);
+		this.storage.close();
 	}
 	
 	//removes cached player data from memory
-	void clearCachedPlayerData(String playerName)
+	synchronized void clearCachedPlayerData(String playerName)
 	{
 		this.playerNameToPlayerDataMap.remove(playerName);
 	}
 	
+	//online players' data is never dropped from the cache, see PlayerEventHandler.onPlayerJoin() and onPlayerQuit()
+	synchronized void setPlayerOnline(String playerName, boolean online)
+	{
+		if(online)
+		{
+			this.onlinePlayerNames.add(playerName);
+		}
+		else
+		{
+			this.onlinePlayerNames.remove(playerName);
+		}
+	}
+	
+	//drops least recently used player data until the cache is back to its configured size
+	//skips online players, and players with changes which haven't been handed to the writer yet
+	private void trimPlayerDataCache()
+	{
+		int maxSize = GriefPrevention.instance.config_playerDataCacheSize;
+		if(this.playerNameToPlayerDataMap.size() <= maxSize) return;
+		
+		Iterator<Map.Entry<String, PlayerData>> iterator = this.playerNameToPlayerDataMap.entrySet().iterator();
+		while(this.playerNameToPlayerDataMap.size() > maxSize && iterator.hasNext())
+		{
+			String playerName = iterator.next().getKey();
+			if(this.onlinePlayerNames.contains(playerName) || this.dirtyPlayerData.containsKey(playerName)) continue;
+			
+			iterator.remove();
+			this.playerDataCacheEvictions++;
+		}
+	}
+	
+	synchronized long getPlayerDataCacheHits()
+	{
+		return this.playerDataCacheHits;
+	}
+	
+	synchronized long getPlayerDataCacheMisses()
+	{
+		return this.playerDataCacheMisses;
+	}
+	
+	synchronized long getPlayerDataCacheEvictions()
+	{
+		return this.playerDataCacheEvictions;
+	}
+	
+	synchronized int getPlayerDataCacheSize()
+	{
+		return this.playerNameToPlayerDataMap.size();
+	}
+	
+	int getPendingWrites()
+	{
+		return this.storage.getPendingWrites();
+	}
+	
 	public void changeClaimOwner(Claim claim, String newOwnerName) throws Exception
 	{
 		//if it's a subdivision, throw an exception
@@ -257,81 +421,281 @@ public class DataStore
 		
 		//otherwise update information
 		
-		//determine current claim owner
-		PlayerData ownerData = null;
-		if(!claim.isAdminClaim())
+		long stripeMask = this.claimLocks.lock(claim, null);
+		try
 		{
-			ownerData = this.getPlayerData(claim.ownerName);
+			synchronized(this)
+			{
+				//determine current claim owner
+				String ownerName = claim.ownerName;
+				PlayerData ownerData = null;
+				if(!claim.isAdminClaim())
+				{
+					ownerData = this.getPlayerData(ownerName);
+				}
+				
+				//determine new owner
+				PlayerData newOwnerData = this.getPlayerData(newOwnerName);
+				
+				//transfer
+				this.removeFromOwnerIndex(claim);
+				claim.ownerName = newOwnerName;
+				this.addToOwnerIndex(claim);
+				this.saveClaim(claim);
+				
+				//adjust blocks and other records
+				if(ownerData != null)
+				{
+					ownerData.removeClaim(claim);
+					ownerData.bonusClaimBlocks -= claim.getArea();
+					this.savePlayerData(ownerName, ownerData);
+				}
+				
+				newOwnerData.addClaim(claim);
+				newOwnerData.bonusClaimBlocks += claim.getArea();
+				this.savePlayerData(newOwnerName, newOwnerData);
+			}
 		}
-		
-		//determine new owner
-		PlayerData newOwnerData = this.getPlayerData(newOwnerName);
-		
-		//transfer
-		claim.ownerName = newOwnerName;
-		this.saveClaim(claim);
-		
-		//adjust blocks and other records
-		if(ownerData != null)
+		finally
 		{
-			ownerData.claims.remove(claim);
-			ownerData.bonusClaimBlocks -= claim.getArea();
-			this.savePlayerData(claim.ownerName, ownerData);
+			this.claimLocks.unlock(stripeMask);
 		}
-		
-		newOwnerData.claims.add(claim);
-		newOwnerData.bonusClaimBlocks += claim.getArea();
-		this.savePlayerData(newOwnerName, newOwnerData);
 	}
 
 	//adds a claim to the datastore, making it an effective claim
-	void addClaim(Claim newClaim)
+	//the caller must hold the region locks for the claim (or its parent claim), see createClaim()
+	private void addClaim(Claim newClaim)
 	{
-		//subdivisions are easy
+		//subdivisions are easy.  the children list is replaced rather than changed, since lookups read it without locking
 		if(newClaim.parent != null)
 		{
-			newClaim.parent.children.add(newClaim);
+			ArrayList<Claim> children = new ArrayList<Claim>(newClaim.parent.children);
+			children.add(newClaim);
+			synchronized(this)
+			{
+				this.addToIDIndex(newClaim);
+			}
+			newClaim.parent.children = children;
 			newClaim.inDataStore = true;
 			this.saveClaim(newClaim);
 			return;
 		}
 		
 		//add it and mark it as added
+		synchronized(this)
+		{
+			this.insertIntoClaimsList(newClaim);
+			this.addToOwnerIndex(newClaim);
+			this.addToIDIndex(newClaim);
+		}
+		this.addToChunkIndex(newClaim, DataStore.getChunkArea(newClaim), null);
+		newClaim.inDataStore = true;
+		
+		synchronized(this)
+		{
+			//except for administrative claims (which have no owner), update the owner's playerData with the new claim
+			if(!newClaim.isAdminClaim())
+			{
+				PlayerData ownerData = this.getPlayerData(newClaim.getOwnerName());
+				ownerData.addClaim(newClaim);
+				this.savePlayerData(newClaim.getOwnerName(), ownerData);
+			}
+			
+			//make sure the claim is saved to disk
+			this.saveClaim(newClaim);
+		}
+	}
+	
+	//adds a top level claim to the claims list, keeping the list sorted.  like the other indexes below, only while synchronized
+	private void insertIntoClaimsList(Claim claim)
+	{
 		int j = 0;
-		while(j < this.claims.size() && !this.claims.get(j).greaterThan(newClaim)) j++;
+		while(j < this.claims.size() && !this.claims.get(j).greaterThan(claim)) j++;
 		if(j < this.claims.size())
-			this.claims.add(j, newClaim);
+			this.claims.add(j, claim);
 		else
-			this.claims.add(this.claims.size(), newClaim);
-		newClaim.inDataStore = true;
+			this.claims.add(this.claims.size(), claim);
+	}
+	
+	//adds a top level claim to the owner index
+	private void addToOwnerIndex(Claim claim)
+	{
+		ArrayList<Claim> ownerClaims = this.ownerNameToClaimsMap.get(claim.ownerName);
+		if(ownerClaims == null)
+		{
+			ownerClaims = new ArrayList<Claim>();
+			this.ownerNameToClaimsMap.put(claim.ownerName, ownerClaims);
+		}
+		
+		ownerClaims.add(claim);
+	}
+	
+	//removes a top level claim from the owner index, must happen before the claim's owner changes
+	private void removeFromOwnerIndex(Claim claim)
+	{
+		ArrayList<Claim> ownerClaims = this.ownerNameToClaimsMap.get(claim.ownerName);
+		if(ownerClaims == null) return;
 		
-		//except for administrative claims (which have no owner), update the owner's playerData with the new claim
-		if(!newClaim.isAdminClaim())
+		ownerClaims.remove(claim);
+		if(ownerClaims.isEmpty())
+		{
+			this.ownerNameToClaimsMap.remove(claim.ownerName);
+		}
+	}
+	
+	//adds a claim to the ID index, first giving it a new ID if it doesn't have one
+	//a loaded subdivision with an ID which is already taken (which takes a hand edited file) also gets a new one, and is saved under it
+	private void addToIDIndex(Claim claim)
+	{
+		if(claim.id != null && this.idToClaimMap.containsKey(claim.id))
 		{
-			PlayerData ownerData = this.getPlayerData(newClaim.getOwnerName());
-			ownerData.claims.add(newClaim);
-			this.savePlayerData(newClaim.getOwnerName(), ownerData);
+			GriefPrevention.addLogEntry("Claim ID " + claim.id + " is used more than once, giving one of those claims a new ID.");
+			claim.id = null;
+			this.saveClaim(claim);
 		}
 		
-		//make sure the claim is saved to disk
-		this.saveClaim(newClaim);
+		if(claim.id == null) claim.id = this.nextClaimID++;
+		this.idToClaimMap.put(claim.id, claim);
 	}
 	
-	//turns a location into a string, useful in data files and data file names
-	private String locationStringDelimiter = ";";	
-	private String locationToString(Location location)
+	//gets a top level claim or subdivision by its ID, or NULL if there's no such claim
+	public synchronized Claim getClaim(long id)
 	{
-		StringBuilder stringBuilder = new StringBuilder(location.getWorld().getName());
-		stringBuilder.append(locationStringDelimiter);
-		stringBuilder.append(location.getBlockX());
-		stringBuilder.append(locationStringDelimiter);
-		stringBuilder.append(location.getBlockY());
-		stringBuilder.append(locationStringDelimiter);
-		stringBuilder.append(location.getBlockZ());
+		return this.idToClaimMap.get(id);
+	}
+	
+	//gets the top level claims owned by a player.  the returned list is a copy, since the index may change on another thread
+	synchronized List<Claim> getClaimsForOwner(String ownerName)
+	{
+		ArrayList<Claim> ownerClaims = this.ownerNameToClaimsMap.get(ownerName);
+		if(ownerClaims == null) return Collections.<Claim>emptyList();
+		return new ArrayList<Claim>(ownerClaims);
+	}
+	
+	//builds a single number which identifies a chunk within its world, used as the key for the claims index
+	static long getChunkKey(int chunkX, int chunkZ)
+	{
+		return ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+	
+	//gets the chunks a top level claim's boundaries touch, as lesser chunk X, lesser chunk Z, greater chunk X and greater chunk Z
+	private static int [] getChunkArea(Claim claim)
+	{
+		ClaimBounds bounds = claim.bounds;
+		return new int [] { bounds.lesserX >> 4, bounds.lesserZ >> 4, bounds.greaterX >> 4, bounds.greaterZ >> 4 };
+	}
+	
+	//checks whether a chunk is in a chunk area, see getChunkArea().  NULL is an empty area
+	private static boolean inChunkArea(int [] chunkArea, int chunkX, int chunkZ)
+	{
+		return chunkArea != null && chunkX >= chunkArea[0] && chunkZ >= chunkArea[1] && chunkX <= chunkArea[2] && chunkZ <= chunkArea[3];
+	}
+	
+	//gets the chunk index for a world, making it the first time a claim is added there
+	private ConcurrentHashMap<Long, Claim []> getChunkClaimsMap(String worldName)
+	{
+		ConcurrentHashMap<Long, Claim []> chunkKeyToClaimsMap = this.worldNameToChunkClaimsMap.get(worldName);
+		if(chunkKeyToClaimsMap == null)
+		{
+			//the chunk set goes in first, since lookups check it first
+			this.worldNameToClaimedChunksMap.putIfAbsent(worldName, new ClaimedChunkSet());
+			this.worldNameToChunkClaimsMap.putIfAbsent(worldName, new ConcurrentHashMap<Long, Claim []>());
+			chunkKeyToClaimsMap = this.worldNameToChunkClaimsMap.get(worldName);
+		}
 		
-		return stringBuilder.toString();
+		return chunkKeyToClaimsMap;
 	}
 	
+	//adds a top level claim to the chunk index, under every chunk in an area except those in skipArea (which may be NULL)
+	//the caller must hold the region locks for the area
+	private void addToChunkIndex(Claim claim, int [] chunkArea, int [] skipArea)
+	{
+		String worldName = claim.world.getName();
+		ConcurrentHashMap<Long, Claim []> chunkKeyToClaimsMap = this.getChunkClaimsMap(worldName);
+		ClaimedChunkSet claimedChunks = this.worldNameToClaimedChunksMap.get(worldName);
+		
+		for(int chunkX = chunkArea[0]; chunkX <= chunkArea[2]; chunkX++)
+		{
+			for(int chunkZ = chunkArea[1]; chunkZ <= chunkArea[3]; chunkZ++)
+			{
+				if(DataStore.inChunkArea(skipArea, chunkX, chunkZ)) continue;
+				
+				Long chunkKey = getChunkKey(chunkX, chunkZ);
+				Claim [] claimsInChunk = chunkKeyToClaimsMap.get(chunkKey);
+				if(claimsInChunk == null)
+				{
+					chunkKeyToClaimsMap.put(chunkKey, new Claim [] { claim });
+					claimedChunks.add(chunkKey);
+					this.chunkIndexVersion.incrementAndGet();
+				}
+				else
+				{
+					Claim [] newClaimsInChunk = Arrays.copyOf(claimsInChunk, claimsInChunk.length + 1);
+					newClaimsInChunk[claimsInChunk.length] = claim;
+					chunkKeyToClaimsMap.put(chunkKey, newClaimsInChunk);
+				}
+			}
+		}
+	}
+	
+	//removes a top level claim from the chunk index, from every chunk in an area except those in skipArea (which may be NULL)
+	//the caller must hold the region locks for the area
+	private void removeFromChunkIndex(Claim claim, int [] chunkArea, int [] skipArea)
+	{
+		String worldName = claim.world.getName();
+		ConcurrentHashMap<Long, Claim []> chunkKeyToClaimsMap = this.worldNameToChunkClaimsMap.get(worldName);
+		if(chunkKeyToClaimsMap == null) return;
+		ClaimedChunkSet claimedChunks = this.worldNameToClaimedChunksMap.get(worldName);
+		
+		for(int chunkX = chunkArea[0]; chunkX <= chunkArea[2]; chunkX++)
+		{
+			for(int chunkZ = chunkArea[1]; chunkZ <= chunkArea[3]; chunkZ++)
+			{
+				if(DataStore.inChunkArea(skipArea, chunkX, chunkZ)) continue;
+				
+				Long chunkKey = getChunkKey(chunkX, chunkZ);
+				Claim [] claimsInChunk = chunkKeyToClaimsMap.get(chunkKey);
+				if(claimsInChunk == null) continue;
+				
+				int index = 0;
+				while(index < claimsInChunk.length && claimsInChunk[index] != claim) index++;
+				if(index == claimsInChunk.length) continue;
+				
+				if(claimsInChunk.length == 1)
+				{
+					//the chunk set goes first, since lookups check it first
+					claimedChunks.remove(chunkKey);
+					chunkKeyToClaimsMap.remove(chunkKey);
+				}
+				else
+				{
+					Claim [] newClaimsInChunk = new Claim [claimsInChunk.length - 1];
+					System.arraycopy(claimsInChunk, 0, newClaimsInChunk, 0, index);
+					System.arraycopy(claimsInChunk, index + 1, newClaimsInChunk, index, newClaimsInChunk.length - index);
+					chunkKeyToClaimsMap.put(chunkKey, newClaimsInChunk);
+				}
+			}
+		}
+	}
+	
+	//gets the top level claims which touch a chunk, or NULL when there are none
+	//the returned array belongs to the index and must not be modified.  any thread may call this without locking
+	Claim [] getClaimsInChunk(World world, int chunkX, int chunkZ)
+	{
+		//most chunks aren't claimed at all
+		ClaimedChunkSet claimedChunks = this.worldNameToClaimedChunksMap.get(world.getName());
+		long chunkKey = getChunkKey(chunkX, chunkZ);
+		if(claimedChunks == null || !claimedChunks.contains(chunkKey)) return null;
+		
+		//the chunk may have been emptied in the meantime
+		ConcurrentHashMap<Long, Claim []> chunkKeyToClaimsMap = this.worldNameToChunkClaimsMap.get(world.getName());
+		if(chunkKeyToClaimsMap == null) return null;
+		return chunkKeyToClaimsMap.get(chunkKey);
+	}
+	
+	//location strings are the world name and block coordinates, separated by this
+	private String locationStringDelimiter = ";";
+	
 	//turns a location string back into a location
 	private Location locationFromString(String string) throws Exception
 	{
@@ -364,288 +728,196 @@ public class DataStore
                 return new Location(world, x, y, z);
 	}	
 
-	//does the work of actually writing a claim to file
+	//marks a claim to be saved on the next flush, see flushChanges()
+	//timed outside the lock, so time spent waiting for another thread counts, as it does for the other timed methods
 	public void saveClaim(Claim claim)
 	{
-		//subdivisions don't save to their own files, but instead live in their parent claim's file
-		//so any attempt to save a subdivision will save its parent (and thus the subdivision)
-		if(claim.parent != null)
+		long startTime = Statistics.saveClaim.start();
+		try
 		{
-			this.saveClaim(claim.parent);
-			return;
+			this.markClaimChanged(claim);
 		}
+		finally
+		{
+			Statistics.saveClaim.end(startTime);
+		}
+	}
+	
+	private synchronized void markClaimChanged(Claim claim)
+	{
+		//subdivisions are saved by themselves.  storage which keeps them in their parent claim's file saves the parent instead
+		this.dirtyClaims.add(claim);
 		
-		//otherwise get a unique identifier for the claim which will be used to name the file on disk
-		String claimID = this.getClaimID(claim);
-		
-		BufferedWriter outStream = null;
+		//the claim index has a view of each top level claim, which includes its subdivisions
+		this.claimIndexChanges.add(claim.parent != null ? claim.parent : claim);
+	}
+	
+	//gets a read only copy of the claims, which any thread may query without locking
+	//it's published once per tick, so it may not have changes made during the current tick yet
+	public ClaimIndex getClaimIndex()
+	{
+		return this.claimIndex;
+	}
+	
+	//publishes a new claim index with the claims which changed since the last one, see ClaimIndexTask
+	synchronized void publishClaimIndex()
+	{
+		if(this.claimIndexChanges.isEmpty()) return;
 		
-		try
+		ArrayList<ClaimView> removedClaims = new ArrayList<ClaimView>();
+		ArrayList<ClaimView> addedClaims = new ArrayList<ClaimView>();
+		for(Claim claim : this.claimIndexChanges)
 		{
-			//open the claim's file						
-			File claimFile = new File(claimDataFolderPath + File.separator + claimID);
-			claimFile.createNewFile();
-			outStream = new BufferedWriter(new FileWriter(claimFile));
+			ClaimView oldView = this.publishedClaimViews.remove(claim.id);
+			if(oldView != null) removedClaims.add(oldView);
 			
-			this.writeClaimData(claim, outStream);
-			
-			for(int i = 0; i < claim.children.size(); i++)
+			//deleted claims just go away
+			if(claim.inDataStore)
 			{
-				//see below for details of writing data to file
-				this.writeClaimData(claim.children.get(i), outStream);
+				ClaimView newView = new ClaimView(claim);
+				this.publishedClaimViews.put(claim.id, newView);
+				addedClaims.add(newView);
 			}
-		}		
-		
-		//if any problem, log it
-		catch(Exception e)
-		{
-			GriefPrevention.addLogEntry("PopulationDensity: Unexpected exception saving data for claim \"" + claimID + "\": " + e.getMessage());
 		}
+		this.claimIndexChanges.clear();
 		
-		//close the file
-		try
-		{
-			if(outStream != null) outStream.close();
-		}
-		catch(IOException exception) {}
+		this.claimIndex = this.claimIndex.update(removedClaims, addedClaims);
 	}
 	
-	//actually writes claim data to an output stream
-	private void writeClaimData(Claim claim, BufferedWriter outStream) throws IOException
+	//retrieves player data from memory or storage, as necessary
+	//if the player has never been on the server before, this will return a fresh player data with default values
+	public PlayerData getPlayerData(String playerName)
 	{
-		String claimID = this.getClaimID(claim);
-		
-		//first line is lesser boundary corner location
-		outStream.write(claimID);
-		outStream.newLine();
-		
-		//second line is greater boundary corner location
-		outStream.write(this.locationToString(claim.getGreaterBoundaryCorner()));
-		outStream.newLine();
-		
-		//third line is owner name
-		outStream.write(claim.ownerName);
-		outStream.newLine();
-		
-		ArrayList<String> builders = new ArrayList<String>();
-		ArrayList<String> containers = new ArrayList<String>();
-		ArrayList<String> accessors = new ArrayList<String>();
-		ArrayList<String> managers = new ArrayList<String>();
-		
-		claim.getPermissions(builders, containers, accessors, managers);
-		
-		//fourth line is list of players with build permission
-		for(int i = 0; i < builders.size(); i++)
+		long startTime = Statistics.getPlayerData.start();
+		try
 		{
-			outStream.write(builders.get(i) + ";");
+			return this.findPlayerData(playerName);
 		}
-		outStream.newLine();
-		
-		//fifth line is list of players with container permission
-		for(int i = 0; i < containers.size(); i++)
+		finally
 		{
-			outStream.write(containers.get(i) + ";");
+			Statistics.getPlayerData.end(startTime);
 		}
-		outStream.newLine();
+	}
+	
+	private synchronized PlayerData findPlayerData(String playerName)
+	{
+		//first, look in memory
+		PlayerData playerData = this.playerNameToPlayerDataMap.get(playerName);
 		
-		//sixth line is list of players with access permission
-		for(int i = 0; i < accessors.size(); i++)
+		//changes which haven't been flushed yet are newer than anything on disk
+		if(playerData == null)
 		{
-			outStream.write(accessors.get(i) + ";");
+			playerData = this.dirtyPlayerData.get(playerName);
+			if(playerData != null) this.playerNameToPlayerDataMap.put(playerName, playerData);
 		}
-		outStream.newLine();
 		
-		//seventh line is list of players who may grant permissions for others
-		for(int i = 0; i < managers.size(); i++)
+		if(playerData != null)
 		{
-			outStream.write(managers.get(i) + ";");
+			this.playerDataCacheHits++;
 		}
-		outStream.newLine();
-		
-		//cap each claim with "=========="
-		outStream.write("==========");
-		outStream.newLine();
-	}
-	
-	//retrieves player data from memory or file, as necessary
-	//if the player has never been on the server before, this will return a fresh player data with default values
-	public PlayerData getPlayerData(String playerName)
-	{
-		//first, look in memory
-		PlayerData playerData = this.playerNameToPlayerDataMap.get(playerName);
 		
 		//if not there, look on disk
-		if(playerData == null)
+		else
 		{
-			File playerFile = new File(playerDataFolderPath + File.separator + playerName);
-					
-			playerData = new PlayerData();
+			this.playerDataCacheMisses++;
 			
-			//if it doesn't exist as a file
-			if(!playerFile.exists())
+			playerData = this.storage.loadPlayerData(playerName);
+			
+			//if the player has never been on the server before, save defaults
+			if(playerData == null)
 			{
-				//create a file with defaults
+				playerData = new PlayerData();
 				this.savePlayerData(playerName, playerData);
 			}
 			
-			//otherwise, read the file
+			//otherwise, find all the claims belonging to this player and note them for future reference
 			else
-			{			
-				BufferedReader inStream = null;
-				try
-				{					
-					inStream = new BufferedReader(new FileReader(playerFile.getAbsolutePath()));
-					
-					//first line is last login timestamp
-					String lastLoginTimestampString = inStream.readLine();
-					
-					//convert that to a date and store it
-                                        DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");					
-					try
-					{
-						playerData.lastLogin = dateFormat.parse(lastLoginTimestampString);
-					}
-					catch(ParseException parseException)
-					{
-						GriefPrevention.addLogEntry("Unable to load last login for \"" + playerFile.getName() + "\".");
-						playerData.lastLogin = null;
-					}
-					
-					//second line is accrued claim blocks
-					String accruedBlocksString = inStream.readLine();
-					
-					//convert that to a number and store it
-					playerData.accruedClaimBlocks = Integer.parseInt(accruedBlocksString);
-					
-					//third line is any bonus claim blocks granted by administrators
-					String bonusBlocksString = inStream.readLine();					
-					
-					//convert that to a number and store it										
-					playerData.bonusClaimBlocks = Integer.parseInt(bonusBlocksString);
-					
-					//fourth line is a double-semicolon-delimited list of claims, which is currently ignored
-					//String claimsString = inStream.readLine();
-					inStream.readLine();
-					/*
-                                          if(claimsString != null && claimsString.length() > 0)
-                                          {
-                                          String [] claimsStrings = claimsString.split(";;");
-                                          boolean missingClaim = false;
-						
-                                          //search for each claim mentioned in the file
-                                          for(int i = 0; i < claimsStrings.length; i++)
-                                          {
-                                          String claimID = claimsStrings[i];
-                                          if(claimID != null)
-                                          {
-                                          Claim claim = this.getClaimAt(this.locationFromString(claimID), true, null);
-								
-                                          //if the referenced claim exists, add it to the player data instance for later reference
-                                          if(claim != null)
-                                          {
-                                          playerData.claims.add(claim);
-                                          }
-								
-                                          //if the claim doesn't seem to exist anymore, plan to drop the reference from the file
-                                          else
-                                          {
-                                          missingClaim = true;
-                                          }
-                                          }
-                                          }
-						
-                                          //if any referenced claims no longer exist, write the player data back to file to eliminate those references
-                                          if(missingClaim)
-                                          {
-                                          this.savePlayerData(playerName, playerData);
-                                          }
-                                          }
-					*/
-					
-					//find all the claims belonging to this player and note them for future reference
-					for(int i = 0; i < this.claims.size(); i++)
-					{
-						Claim claim = this.claims.get(i);
-						if(claim.ownerName.equals(playerName))
-						{
-							playerData.claims.add(claim);
-						}
-					}
-					
-					inStream.close();
-				}
-					
-				//if there's any problem with the file's content, log an error message
-				catch(Exception e)
-				{
-                                        GriefPrevention.addLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());			 
-				}
-				
-				try
-				{
-					if(inStream != null) inStream.close();
-				}
-				catch(IOException exception) {}
+			{
+				playerData.addClaims(this.getClaimsForOwner(playerName));
 			}
 			
-			//shove that new player data into the hash map cache
+			//shove that new player data into the hash map cache, making room if necessary
 			this.playerNameToPlayerDataMap.put(playerName, playerData);
+			this.trimPlayerDataCache();
 		}
 		
-		//try the hash map again.  if it's STILL not there, we have a bug to fix
-		return this.playerNameToPlayerDataMap.get(playerName);
+		return playerData;
 	}
 	
 	//deletes a claim or subdivision
 	public void deleteClaim(Claim claim)
 	{
-		//subdivisions are simple - just remove them from their parent claim and save that claim
-		if(claim.parent != null)
-		{
-			Claim parentClaim = claim.parent;
-			parentClaim.children.remove(claim);
-			this.saveClaim(parentClaim);
-			return;
-		}
-		
-		//otherwise, need to update the data store and ensure the claim's file is deleted		
-		String claimID = this.getClaimID(claim);
+		//a claim which was never added doesn't have an ID yet, and there's nothing to delete
+		if(claim.id == null) return;
 		
-		//remove from memory
-		for(int i = 0; i < this.claims.size(); i++)
+		long stripeMask = this.claimLocks.lock(claim.parent != null ? claim.parent : claim, null);
+		try
 		{
-			if(this.getClaimID(this.claims.get(i)).equals(claimID))
+			//subdivisions are simple - just remove them from their parent claim and save that claim
+			if(claim.parent != null)
 			{
-				this.claims.remove(i);
+				Claim parentClaim = claim.parent;
+				ArrayList<Claim> children = new ArrayList<Claim>(parentClaim.children);
+				children.remove(claim);
+				parentClaim.children = children;
 				claim.inDataStore = false;
-				for(int j = 0; j < claim.children.size(); j++)
+				synchronized(this)
 				{
-					claim.children.get(j).inDataStore = false;
+					if(this.idToClaimMap.get(claim.id) == claim) this.idToClaimMap.remove(claim.id);
+					this.dirtyClaims.remove(claim);
+					this.storage.deleteClaim(claim);
+					this.saveClaim(parentClaim);
 				}
-				break;
+				return;
 			}
-		}
-		
-		//remove from disk
-		File claimFile = new File(claimDataFolderPath + File.separator + claimID);
-		if(claimFile.exists() && !claimFile.delete())
-		{
-			GriefPrevention.addLogEntry("Error: Unable to delete claim file \"" + claimFile.getAbsolutePath() + "\".");
-		}
-		
-		//update player data, except for administrative claims, which have no owner
-		if(!claim.isAdminClaim())
-		{
-			PlayerData ownerData = this.getPlayerData(claim.getOwnerName());
-			for(int i = 0; i < ownerData.claims.size(); i++)
+			
+			//otherwise, need to update the data store and ensure the claim's file is deleted
+			//remove from memory
+			boolean removed = false;
+			synchronized(this)
 			{
-				if(this.getClaimID(ownerData.claims.get(i)).equals(claimID))
+				if(this.idToClaimMap.get(claim.id) == claim)
 				{
-					ownerData.claims.remove(i);
-					break;
+					this.idToClaimMap.remove(claim.id);
+					this.claims.remove(claim);
+					this.removeFromOwnerIndex(claim);
+					for(Claim subdivision : claim.children)
+					{
+						this.idToClaimMap.remove(subdivision.id);
+					}
+					removed = true;
 				}
 			}
-			this.savePlayerData(claim.getOwnerName(), ownerData);
+			
+			if(removed)
+			{
+				this.removeFromChunkIndex(claim, DataStore.getChunkArea(claim), null);
+				claim.inDataStore = false;
+				for(Claim subdivision : claim.children)
+				{
+					subdivision.inDataStore = false;
+				}
+			}
+			
+			synchronized(this)
+			{
+				//remove from disk, on the next flush
+				this.dirtyClaims.remove(claim);
+				this.storage.deleteClaim(claim);
+				this.claimIndexChanges.add(claim);
+				
+				//update player data, except for administrative claims, which have no owner
+				if(!claim.isAdminClaim())
+				{
+					PlayerData ownerData = this.getPlayerData(claim.getOwnerName());
+					ownerData.removeClaim(claim);
+					this.savePlayerData(claim.getOwnerName(), ownerData);
+				}
+			}
+		}
+		finally
+		{
+			this.claimLocks.unlock(stripeMask);
 		}
 	}
 	
@@ -654,31 +926,80 @@ public class DataStore
 	//cachedClaim can be NULL, but will help performance if you have a reasonable guess about which claim the location is in
 	public Claim getClaimAt(Location location, boolean ignoreHeight, Claim cachedClaim)
 	{
-		//check cachedClaim guess first.  if it's in the datastore and the location is inside it, we're done
-		if(cachedClaim != null && cachedClaim.inDataStore && cachedClaim.contains(location, ignoreHeight, true)) return cachedClaim;
-		
-		//the claims list is ordered by greater boundary corner
-		//create a temporary "fake" claim in memory for comparison purposes		
-		Claim tempClaim = new Claim();
-		tempClaim.lesserBoundaryCorner = location;
-		
-		//otherwise, search all existing claims until we find the right claim
-		for(int i = 0; i < this.claims.size(); i++)
+		long startTime = Statistics.getClaimAt.start();
+		try
+		{
+			//check cachedClaim guess first.  if it's in the datastore and the location is inside it, we're done
+			if(cachedClaim != null)
+			{
+				Statistics.cachedClaimHints.lookups.increment();
+				if(cachedClaim.inDataStore && cachedClaim.contains(location, ignoreHeight, true))
+				{
+					Statistics.cachedClaimHints.claimHits.increment();
+					return cachedClaim;
+				}
+			}
+			
+			//otherwise, only the top level claims which touch the location's chunk need to be considered
+			Claim [] claimsInChunk = this.getClaimsInChunk(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+			if(claimsInChunk == null) return null;
+			
+			return this.findClaimAt(location, ignoreHeight, claimsInChunk);
+		}
+		finally
+		{
+			Statistics.getClaimAt.end(startTime);
+		}
+	}
+	
+	//same as above, but answers repeated lookups from a cache of recent results where it can, and keeps that cache up to date
+	//handlers keep one per player or per kind of event, see ClaimHintCache
+	Claim getCachedClaimAt(Location location, boolean ignoreHeight, ClaimHintCache hints)
+	{
+		long startTime = Statistics.getClaimAt.start();
+		try
 		{
-			Claim claim = this.claims.get(i);
+			//read before the index, so a claim added meanwhile makes the cached unclaimed chunk stale rather than hiding
+			long chunkIndexVersion = this.chunkIndexVersion.get();
 			
-			//if we reach a claim which is greater than the temp claim created above, there's definitely no claim
-			//in the collection which includes our location
-			if(claim.greaterThan(tempClaim)) return null;
+			Claim claim = hints.getClaim(location, ignoreHeight);
+			if(claim != null) return claim;
+			
+			if(hints.isWilderness(location, chunkIndexVersion)) return null;
+			
+			Claim [] claimsInChunk = this.getClaimsInChunk(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+			if(claimsInChunk == null)
+			{
+				hints.setWilderness(location, chunkIndexVersion);
+				return null;
+			}
+			
+			claim = this.findClaimAt(location, ignoreHeight, claimsInChunk);
+			if(claim != null) hints.addClaim(claim);
+			return claim;
+		}
+		finally
+		{
+			Statistics.getClaimAt.end(startTime);
+		}
+	}
+	
+	//finds the claim at a location among the top level claims which touch its chunk
+	private Claim findClaimAt(Location location, boolean ignoreHeight, Claim [] claimsInChunk)
+	{
+		for(int i = 0; i < claimsInChunk.length; i++)
+		{
+			Claim claim = claimsInChunk[i];
 			
 			//find a top level claim
 			if(claim.contains(location, ignoreHeight, false))
 			{
 				//when we find a top level claim, if the location is in one of its subdivisions,
 				//return the SUBDIVISION, not the top level claim
-				for(int j = 0; j < claim.children.size(); j++)
+				ArrayList<Claim> children = claim.children;
+				for(int j = 0; j < children.size(); j++)
 				{
-					Claim subdivision = claim.children.get(j);
+					Claim subdivision = children.get(j);
 					if(subdivision.contains(location, ignoreHeight, false)) return subdivision;
 				}						
 					
@@ -741,8 +1062,9 @@ public class DataStore
 		
 		//create a new claim instance (but don't save it, yet)
 		Claim newClaim = new Claim(
-			new Location(world, smallx, smally, smallz),
-			new Location(world, bigx, bigy, bigz),
+			world,
+			smallx, smally, smallz,
+			bigx, bigy, bigz,
 			ownerName,
 			new String [] {}, 
 			new String [] {},
@@ -751,33 +1073,61 @@ public class DataStore
 		
 		newClaim.parent = parent;
 		
-		//ensure this new claim won't overlap any existing claims
-		ArrayList<Claim> claimsToCheck;
-		if(newClaim.parent != null)
+		//nothing else may change claims in the area between the overlap check and adding the claim
+		//any claim which could overlap the new claim shares a region with it, so locking the new claim's regions is enough
+		long stripeMask;
+		if(parent != null)
 		{
-			claimsToCheck = newClaim.parent.children;			
+			stripeMask = this.claimLocks.lock(parent, null);
 		}
 		else
 		{
-			claimsToCheck = this.claims;
+			stripeMask = this.claimLocks.lock(world, smallx, smallz, bigx, bigz);
 		}
-
-		for(int i = 0; i < claimsToCheck.size(); i++)
+		
+		try
 		{
-			Claim otherClaim = claimsToCheck.get(i);
-			
-			//if we find an existing claim which will be overlapped
-			if(otherClaim.overlaps(newClaim))
+			//a subdivision's parent may have been deleted while this waited for the locks
+			if(parent != null && !parent.inDataStore)
 			{
-				//result = fail, return conflicting claim
 				result.succeeded = false;
-				result.claim = otherClaim;
+				result.claim = null;
 				return result;
 			}
+			
+			//ensure this new claim won't overlap any existing claims
+			//for top level claims, the chunk index narrows that down to the claims near the new claim
+			ArrayList<Claim> claimsToCheck;
+			if(newClaim.parent != null)
+			{
+				claimsToCheck = newClaim.parent.children;			
+			}
+			else
+			{
+				claimsToCheck = this.getClaimsNear(newClaim.world, newClaim.bounds);
+			}
+	
+			for(int i = 0; i < claimsToCheck.size(); i++)
+			{
+				Claim otherClaim = claimsToCheck.get(i);
+				
+				//if we find an existing claim which will be overlapped
+				if(otherClaim.overlaps(newClaim))
+				{
+					//result = fail, return conflicting claim
+					result.succeeded = false;
+					result.claim = otherClaim;
+					return result;
+				}
+			}
+			
+			//otherwise add this new claim to the data store to make it effective
+			this.addClaim(newClaim);
+		}
+		finally
+		{
+			this.claimLocks.unlock(stripeMask);
 		}
-		
-		//otherwise add this new claim to the data store to make it effective
-		this.addClaim(newClaim);
 		
 		//then return success along with reference to new claim
 		result.succeeded = true;
@@ -785,104 +1135,110 @@ public class DataStore
 		return result;
 	}
 	
-	//saves changes to player data.  MUST be called after you're done making changes, otherwise a reload will lose them
-	public void savePlayerData(String playerName, PlayerData playerData)
+	//gets the distinct top level claims which share at least one chunk with some boundaries
+	private ArrayList<Claim> getClaimsNear(World world, ClaimBounds bounds)
 	{
-		//never save data for the "administrative" account.  an empty string for claim owner indicates an administrative claim
-		if(playerName.length() == 0) return;
+		ArrayList<Claim> nearbyClaims = new ArrayList<Claim>();
 		
-		BufferedWriter outStream = null;
-		try
+		int lesserChunkX = bounds.lesserX >> 4;
+		int lesserChunkZ = bounds.lesserZ >> 4;
+		int greaterChunkX = bounds.greaterX >> 4;
+		int greaterChunkZ = bounds.greaterZ >> 4;
+		
+		for(int chunkX = lesserChunkX; chunkX <= greaterChunkX; chunkX++)
 		{
-			//open the player's file
-			File playerDataFile = new File(playerDataFolderPath + File.separator + playerName);
-			playerDataFile.createNewFile();
-			outStream = new BufferedWriter(new FileWriter(playerDataFile));
-			
-			//first line is last login timestamp
-			if(playerData.lastLogin == null)playerData.lastLogin = new Date();
-			DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
-			outStream.write(dateFormat.format(playerData.lastLogin));
-			outStream.newLine();
-			
-			//second line is accrued claim blocks
-			outStream.write(String.valueOf(playerData.accruedClaimBlocks));
-			outStream.newLine();			
-			
-			//third line is bonus claim blocks
-			outStream.write(String.valueOf(playerData.bonusClaimBlocks));
-			outStream.newLine();						
-			
-			//fourth line is a double-semicolon-delimited list of claims
-			if(playerData.claims.size() > 0)
+			for(int chunkZ = lesserChunkZ; chunkZ <= greaterChunkZ; chunkZ++)
 			{
-				outStream.write(this.locationToString(playerData.claims.get(0).getLesserBoundaryCorner()));
-				for(int i = 1; i < playerData.claims.size(); i++)
+				Claim [] claimsInChunk = this.getClaimsInChunk(world, chunkX, chunkZ);
+				if(claimsInChunk == null) continue;
+				
+				for(int i = 0; i < claimsInChunk.length; i++)
 				{
-					outStream.write(";;" + this.locationToString(playerData.claims.get(i).getLesserBoundaryCorner()));
+					//big claims touch many chunks, so skip the ones already found
+					Claim nearbyClaim = claimsInChunk[i];
+					if(!nearbyClaims.contains(nearbyClaim))
+					{
+						nearbyClaims.add(nearbyClaim);
+					}
 				}
 			}
-			outStream.newLine();
-		}		
-		
-		//if any problem, log it
-		catch(Exception e)
-		{
-			GriefPrevention.addLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + playerName + "\": " + e.getMessage());
 		}
 		
+		return nearbyClaims;
+	}
+	
+	//saves changes to player data.  MUST be called after you're done making changes, otherwise a reload will lose them
+	//the data is written to file on the next flush, see flushChanges()
+	public void savePlayerData(String playerName, PlayerData playerData)
+	{
+		long startTime = Statistics.savePlayerData.start();
 		try
 		{
-			//close the file
-			if(outStream != null)
-			{
-				outStream.close();
-			}
+			this.markPlayerDataChanged(playerName, playerData);
+		}
+		finally
+		{
+			Statistics.savePlayerData.end(startTime);
 		}
-		catch(IOException exception){}
 	}
 	
-	//gets a unique identifier for a claim
-	private String getClaimID(Claim claim)
+	private synchronized void markPlayerDataChanged(String playerName, PlayerData playerData)
 	{
-		return this.locationToString(claim.getLesserBoundaryCorner());
+		//never save data for the "administrative" account.  an empty string for claim owner indicates an administrative claim
+		if(playerName.length() == 0) return;
+		
+		if(playerData.lastLogin == null) playerData.lastLogin = new Date();
+		
+		this.dirtyPlayerData.put(playerName, playerData);
 	}
-
+	
 	//extends a claim to a new depth
 	//respects the max depth config variable
+	//this runs whenever someone digs or builds under a claim, so it only touches what depends on the depth
 	public void extendClaim(Claim claim, int newDepth) 
 	{
 		if(newDepth < GriefPrevention.instance.config_claims_maxDepth) newDepth = GriefPrevention.instance.config_claims_maxDepth;
 		
 		if(claim.parent != null) claim = claim.parent;
 		
-		//delete the claim
-		this.deleteClaim(claim);
-		
-		//re-create it at the new depth
-		claim.lesserBoundaryCorner.setY(newDepth);
-		claim.greaterBoundaryCorner.setY(newDepth);
+		//claims never get shallower this way
+		if(newDepth >= claim.bounds.lesserY) return;
 		
-		//make all subdivisions reach to the same depth
-		for(int i = 0; i < claim.children.size(); i++)
+		long stripeMask = this.claimLocks.lock(claim, null);
+		try
 		{
-			claim.children.get(i).lesserBoundaryCorner.setY(newDepth);
-			claim.children.get(i).greaterBoundaryCorner.setY(newDepth);
+			//someone else may have extended it further, or deleted it, while this waited for the lock
+			if(!claim.inDataStore || newDepth >= claim.bounds.lesserY) return;
+			
+			//the chunk index, claims list order, claim area and claim IDs don't depend on the depth, so they don't change
+			claim.bounds = claim.bounds.withDepth(newDepth);
+			
+			//make all subdivisions reach to the same depth
+			ArrayList<Claim> children = claim.children;
+			for(int i = 0; i < children.size(); i++)
+			{
+				children.get(i).bounds = children.get(i).bounds.withDepth(newDepth);
+				this.saveClaim(children.get(i));
+			}
+			
+			this.saveClaim(claim);
+		}
+		finally
+		{
+			this.claimLocks.unlock(stripeMask);
 		}
-		
-		//save changes
-		this.addClaim(claim);
 	}
 
 	//deletes all claims owned by a player
 	public void deleteClaimsForPlayer(String playerName, boolean deleteCreativeClaims)
 	{
 		//make a list of the player's claims
+		List<Claim> ownerClaims = this.getClaimsForOwner(playerName);
 		ArrayList<Claim> claimsToDelete = new ArrayList<Claim>();
-		for(int i = 0; i < this.claims.size(); i++)
+		for(int i = 0; i < ownerClaims.size(); i++)
 		{
-			Claim claim = this.claims.get(i);
-			if(claim.ownerName.equals(playerName) && (deleteCreativeClaims || !GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner())))
+			Claim claim = ownerClaims.get(i);
+			if(deleteCreativeClaims || !GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
 				claimsToDelete.add(claim);
 		}
 		
@@ -894,57 +1250,118 @@ public class DataStore
 	}
 
 	//tries to resize a claim
-	//see CreateClaim() for details on return value
+	//see CreateClaim() for details on return value.  on success, the returned claim is the same claim, with its new boundaries
 	public CreateClaimResult resizeClaim(Claim claim, int newx1, int newx2, int newy1, int newy2, int newz1, int newz2)
 	{
-		//remove old claim
-		this.deleteClaim(claim);					
+		CreateClaimResult result = new CreateClaimResult();
 		
-		//try to create this new claim, ignoring the original when checking for overlap
-		CreateClaimResult result = this.createClaim(claim.getLesserBoundaryCorner().getWorld(), newx1, newx2, newy1, newy2, newz1, newz2, claim.ownerName, claim.parent);
+		ClaimBounds newBounds = new ClaimBounds(
+			Math.min(newx1, newx2), Math.min(newy1, newy2), Math.min(newz1, newz2),
+			Math.max(newx1, newx2), Math.max(newy1, newy2), Math.max(newz1, newz2));
 		
-		//if succeeded
-		if(result.succeeded)
+		//lock both the old and the new boundaries, since the claim leaves one and enters the other
+		//a subdivision stays inside its parent claim, so the parent's regions cover it
+		long stripeMask;
+		if(claim.parent != null)
 		{
-			//copy permissions from old claim
-			ArrayList<String> builders = new ArrayList<String>();
-			ArrayList<String> containers = new ArrayList<String>();
-			ArrayList<String> accessors = new ArrayList<String>();
-			ArrayList<String> managers = new ArrayList<String>();
-			claim.getPermissions(builders, containers, accessors, managers);
-			
-			for(int i = 0; i < builders.size(); i++)
-				result.claim.setPermission(builders.get(i), ClaimPermission.Build);
-			
-			for(int i = 0; i < containers.size(); i++)
-				result.claim.setPermission(containers.get(i), ClaimPermission.Inventory);
-			
-			for(int i = 0; i < accessors.size(); i++)
-				result.claim.setPermission(accessors.get(i), ClaimPermission.Access);
+			stripeMask = this.claimLocks.lock(claim.parent, null);
+		}
+		else
+		{
+			stripeMask = this.claimLocks.lock(claim, new int [] { newBounds.lesserX, newBounds.lesserZ, newBounds.greaterX, newBounds.greaterZ });
+		}
+		
+		try
+		{
+			//the claim may have been deleted while this waited for the locks, and resizing it would put it back
+			if(!claim.inDataStore)
+			{
+				result.succeeded = false;
+				result.claim = null;
+				return result;
+			}
 			
-			for(int i = 0; i < managers.size(); i++)
+			//ensure the new boundaries won't overlap any other claims, ignoring the claim being resized
+			ArrayList<Claim> claimsToCheck;
+			if(claim.parent != null)
 			{
-				result.claim.managers.add(managers.get(i));
+				claimsToCheck = claim.parent.children;
+			}
+			else
+			{
+				claimsToCheck = this.getClaimsNear(claim.world, newBounds);
 			}
 			
-			//copy subdivisions from old claim
-			for(int i = 0; i < claim.children.size(); i++)
+			for(int i = 0; i < claimsToCheck.size(); i++)
 			{
-				Claim subdivision = claim.children.get(i);
-				subdivision.parent = result.claim;
-				result.claim.children.add(subdivision);
+				Claim otherClaim = claimsToCheck.get(i);
+				if(otherClaim != claim && otherClaim.world.equals(claim.world) && otherClaim.bounds.overlaps(newBounds))
+				{
+					//result = fail, return conflicting claim
+					result.succeeded = false;
+					result.claim = otherClaim;
+					return result;
+				}
 			}
 			
-			//save those changes
-			this.saveClaim(result.claim);
+			//nothing in the way, so move the boundaries
+			this.setClaimBoundaries(claim, newBounds);
 		}
-		
-		else
+		finally
 		{
-			//put original claim back
-			this.addClaim(claim);
+			this.claimLocks.unlock(stripeMask);
 		}
 		
+		result.succeeded = true;
+		result.claim = claim;
 		return result;
 	}
+	
+	//changes a claim's boundaries in place, keeping indexes, claim block accounting and the claim's file up to date
+	//doesn't check for overlaps, callers have to do that first.  the caller must hold the region locks for the old and new boundaries
+	private void setClaimBoundaries(Claim claim, ClaimBounds newBounds)
+	{
+		//subdivisions only live in memory and in their parent's file
+		if(claim.parent != null)
+		{
+			claim.bounds = newBounds;
+			this.saveClaim(claim);
+			return;
+		}
+		
+		//the owner's data is loaded before the boundaries change.  loading counts the area of the owner's claims,
+		//so loading it afterward would count the new area, and the adjustment below would count the change twice
+		PlayerData ownerData = claim.isAdminClaim() ? null : this.getPlayerData(claim.ownerName);
+		
+		int oldArea = claim.getArea();
+		int [] oldChunkArea = DataStore.getChunkArea(claim);
+		
+		//the claims list is sorted by boundaries, so it comes out while they change
+		synchronized(this)
+		{
+			this.claims.remove(claim);
+			
+			//all at once, so a lookup on another thread sees the old boundaries or the new ones, see ClaimBounds
+			claim.bounds = newBounds;
+			
+			this.insertIntoClaimsList(claim);
+		}
+		
+		//the chunk index only changes at the edges, so lookups in chunks the claim covers both before and after always find it
+		int [] newChunkArea = DataStore.getChunkArea(claim);
+		this.addToChunkIndex(claim, newChunkArea, oldChunkArea);
+		this.removeFromChunkIndex(claim, oldChunkArea, newChunkArea);
+		
+		synchronized(this)
+		{
+			//update the owner's claim block accounting
+			if(ownerData != null && claim.getArea() != oldArea)
+			{
+				ownerData.adjustClaimedArea(claim.getArea() - oldArea);
+			}
+			
+			this.saveClaim(claim);
+		}
+	}
+	
 }
@@ -0,0 +1,240 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.util.*;
+
+//background thread which writes data files for the data store, so the server thread never waits on the disk
+//work arrives in batches of file contents, keyed by file.  a NULL content means the file should be deleted
+//when a file is changed again before it's been written, only the newest contents are written
+//it also appends to the claim journal and swaps in new claim snapshots, see ClaimJournal and JournalWork
+class DataWriterThread extends Thread 
+{
+	//changes waiting to be written, in the order they were first queued
+	private LinkedHashMap<File, byte []> pendingChanges = new LinkedHashMap<File, byte []>();
+	
+	//journal appends and compactions waiting to be written
+	private JournalWork pendingJournalWork = new JournalWork();
+	
+	//the batch currently being written, if any
+	private LinkedHashMap<File, byte []> writingChanges = null;
+	
+	private boolean closed = false;
+	
+	DataWriterThread()
+	{
+		super("GriefPrevention Data Writer");
+		this.setDaemon(true);
+	}
+	
+	//queues a batch of changes for writing
+	synchronized void queue(Map<File, byte []> changes)
+	{
+		if(changes.isEmpty()) return;
+		
+		//a newer change to the same file replaces the older one
+		for(Map.Entry<File, byte []> change : changes.entrySet())
+		{
+			this.pendingChanges.put(change.getKey(), change.getValue());
+		}
+		
+		this.notifyAll();
+	}
+	
+	//queues journal records, which are appended in the order they're queued
+	synchronized void queueJournalRecords(File journalFile, byte [] records)
+	{
+		this.pendingJournalWork.append(journalFile, records);
+		this.notifyAll();
+	}
+	
+	//queues a new claim snapshot, which replaces the journal once it's safely written
+	synchronized void queueCompaction(File snapshotFile, byte [] snapshot, File journalFile, byte [] journalHeader)
+	{
+		this.pendingJournalWork.compact(snapshotFile, snapshot, journalFile, journalHeader);
+		this.notifyAll();
+	}
+	
+	//gets the contents a file will have once queued changes are written
+	//returns NULL if there's nothing queued for the file, or if it's going to be deleted
+	synchronized byte [] getPendingContents(File file)
+	{
+		if(this.pendingChanges.containsKey(file)) return this.pendingChanges.get(file);
+		if(this.writingChanges != null) return this.writingChanges.get(file);
+		return null;
+	}
+	
+	//how many files are queued or being written, plus one for any journal work
+	synchronized int getPendingCount()
+	{
+		int count = this.pendingChanges.size();
+		if(this.writingChanges != null) count += this.writingChanges.size();
+		if(!this.pendingJournalWork.isEmpty()) count++;
+		return count;
+	}
+	
+	//waits until everything queued so far has been written to disk
+	synchronized void flush()
+	{
+		while(!this.pendingChanges.isEmpty() || !this.pendingJournalWork.isEmpty() || this.writingChanges != null)
+		{
+			//if the thread has died, write what's left from here
+			if(!this.isAlive())
+			{
+				LinkedHashMap<File, byte []> batch = this.pendingChanges;
+				JournalWork journalWork = this.pendingJournalWork;
+				this.pendingChanges = new LinkedHashMap<File, byte []>();
+				this.pendingJournalWork = new JournalWork();
+				this.writingChanges = null;
+				this.writeBatch(batch);
+				journalWork.write();
+				return;
+			}
+			
+			try
+			{
+				this.wait(1000);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	//writes anything outstanding and stops the thread
+	void close()
+	{
+		this.flush();
+		
+		synchronized(this)
+		{
+			this.closed = true;
+			this.notifyAll();
+		}
+		
+		try
+		{
+			this.join(5000);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while(true)
+		{
+			LinkedHashMap<File, byte []> batch;
+			JournalWork journalWork;
+			
+			//wait for work
+			synchronized(this)
+			{
+				while(this.pendingChanges.isEmpty() && this.pendingJournalWork.isEmpty() && !this.closed)
+				{
+					try
+					{
+						this.wait();
+					}
+					catch(InterruptedException e) { }
+				}
+				
+				if(this.pendingChanges.isEmpty() && this.pendingJournalWork.isEmpty()) return;
+				
+				batch = this.pendingChanges;
+				journalWork = this.pendingJournalWork;
+				this.pendingChanges = new LinkedHashMap<File, byte []>();
+				this.pendingJournalWork = new JournalWork();
+				this.writingChanges = batch;
+			}
+			
+			this.writeBatch(batch);
+			journalWork.write();
+			
+			synchronized(this)
+			{
+				this.writingChanges = null;
+				this.notifyAll();
+			}
+		}
+	}
+	
+	private void writeBatch(Map<File, byte []> batch)
+	{
+		for(Map.Entry<File, byte []> change : batch.entrySet())
+		{
+			File file = change.getKey();
+			byte [] contents = change.getValue();
+			
+			try
+			{
+				if(contents == null)
+				{
+					if(file.exists() && !file.delete())
+					{
+						GriefPrevention.addLogEntry("Error: Unable to delete data file \"" + file.getAbsolutePath() + "\".");
+					}
+				}
+				else
+				{
+					DataWriterThread.writeFile(file, contents);
+				}
+			}
+			
+			//if any problem, log it and move on to the next file
+			catch(Exception e)
+			{
+				GriefPrevention.addLogEntry("Unexpected exception writing data file \"" + file.getAbsolutePath() + "\": " + e.getMessage());
+			}
+		}
+	}
+	
+	//writes to a temporary file first, then swaps it in
+	//so a crash in the middle of a write never leaves a half written data file behind
+	static void writeFile(File file, byte [] contents) throws IOException
+	{
+		File tempFile = new File(file.getPath() + FlatFileStorage.tempFileSuffix);
+		
+		OutputStream outStream = new FileOutputStream(tempFile);
+		try
+		{
+			outStream.write(contents);
+		}
+		finally
+		{
+			outStream.close();
+		}
+		
+		//some platforms won't rename over an existing file
+		if(!tempFile.renameTo(file))
+		{
+			file.delete();
+			if(!tempFile.renameTo(file))
+			{
+				throw new IOException("Unable to replace file with \"" + tempFile.getAbsolutePath() + "\"");
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.*;
+
+//one flush's worth of database changes, written in a single transaction, see DatabaseStorage
+//everything here is a copy made on the server thread, so the writer never looks at live claims or player data
+class DatabaseBatch 
+{
+	//top level claims to remove along with their subdivisions, by ID
+	ArrayList<Long> deletedClaimIDs = new ArrayList<Long>();
+	
+	//subdivisions to remove, by ID
+	ArrayList<Long> deletedSubdivisionIDs = new ArrayList<Long>();
+	
+	//top level claims to write along with all their subdivisions, replacing whatever subdivisions were stored before
+	ArrayList<ClaimRecord> claims = new ArrayList<ClaimRecord>();
+	
+	//subdivisions to write by themselves, and their parents' IDs
+	ArrayList<ClaimRecord> subdivisions = new ArrayList<ClaimRecord>();
+	ArrayList<Long> subdivisionParentIDs = new ArrayList<Long>();
+	
+	//player data to write, by player name
+	LinkedHashMap<String, PlayerData> playerData = new LinkedHashMap<String, PlayerData>();
+	
+	//the data store's next claim ID, or 0 if it hasn't changed, see DataStorage.saveChanges()
+	long nextClaimID = 0;
+	
+	//TRUE when this batch is the import of data files into a new database, or stands in for it when there were none to import
+	boolean dataFilesImported = false;
+	
+	boolean isEmpty()
+	{
+		return this.deletedClaimIDs.isEmpty() && this.deletedSubdivisionIDs.isEmpty() && this.claims.isEmpty() && this.subdivisions.isEmpty() && this.playerData.isEmpty() && this.nextClaimID == 0 && !this.dataFilesImported;
+	}
+}
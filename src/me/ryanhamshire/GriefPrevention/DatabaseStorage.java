@@ -0,0 +1,618 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.World;
+
+//keeps claims and player data in an embedded SQLite database, see DataStorage
+//there's nothing to install or run - the driver comes with CraftBukkit, and the whole database is one file in the data folder
+//each flush becomes one transaction of batched prepared statements, run on a background thread with its own connection
+//reads on the server thread use a second connection, and write-ahead logging keeps them from waiting on writes
+class DatabaseStorage implements DataStorage
+{
+	private final static String databaseFilePath = DataStore.dataLayerFolderPath + File.separator + "griefprevention.db";
+	
+	//a claim's ID is the same as Claim.id, and it's unique across top level claims and subdivisions
+	//subdivisions have their top level claim's ID as their parent_id, top level claims have 0
+	//permissions are lists of names, each followed by a semicolon, the same as in claim files
+	//settings holds single values by name: next_claim_id, see getNextClaimID(), and data_files_imported, see loadClaims()
+	private final static String [] schema = 
+	{
+		"CREATE TABLE IF NOT EXISTS claims (id INTEGER PRIMARY KEY, parent_id INTEGER NOT NULL, world TEXT NOT NULL, " +
+			"lesser_x INTEGER, lesser_y INTEGER, lesser_z INTEGER, greater_x INTEGER, greater_y INTEGER, greater_z INTEGER, " +
+			"owner TEXT NOT NULL, modified INTEGER, builders TEXT, containers TEXT, accessors TEXT, managers TEXT)",
+		"CREATE INDEX IF NOT EXISTS claims_parent_id ON claims (parent_id)",
+		"CREATE TABLE IF NOT EXISTS players (name TEXT PRIMARY KEY, last_login INTEGER, accrued_blocks INTEGER, bonus_blocks INTEGER)",
+		"CREATE INDEX IF NOT EXISTS players_last_login ON players (last_login)",
+		"CREATE TABLE IF NOT EXISTS settings (name TEXT PRIMARY KEY, value INTEGER)"
+	};
+	
+	//kept in the database's user_version, so a later schema can tell which one a database has
+	private final static int schemaVersion = 1;
+	
+	//claim columns besides the IDs
+	private final static String claimColumns = "world, lesser_x, lesser_y, lesser_z, greater_x, greater_y, greater_z, owner, modified, builders, containers, accessors, managers";
+	
+	//only used on the writer thread, except while loading claims before anything is queued
+	//queries which run on the writer, like getPlayersLastLoginBefore(), use this connection too
+	private Connection writeConnection;
+	private PreparedStatement deleteClaimStatement;
+	private PreparedStatement deleteSubdivisionsStatement;
+	private PreparedStatement insertClaimStatement;
+	private PreparedStatement insertPlayerStatement;
+	private PreparedStatement updateSettingStatement;
+	private PreparedStatement selectPlayersLastLoginBeforeStatement;
+	
+	//only used on the server thread
+	private Connection readConnection;
+	private PreparedStatement selectPlayerStatement;
+	private PreparedStatement selectSettingStatement;
+	
+	//runs batches one at a time, in the order they're made
+	private ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "GriefPrevention Database Writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	//deletions since the last batch, which go out with the next one
+	private DatabaseBatch pendingBatch = new DatabaseBatch();
+	
+	//player data which has been handed to the writer but isn't committed yet
+	//it's newer than what's in the database, so it's what loadPlayerData() returns
+	private HashMap<String, PlayerData> uncommittedPlayerData = new HashMap<String, PlayerData>();
+	
+	//batches handed to the writer which it hasn't finished with yet
+	private AtomicInteger pendingBatchCount = new AtomicInteger();
+	
+	//see getNextClaimID()
+	private long nextClaimID = 1;
+	
+	//the data store's next claim ID as of the last batch, which is ahead of the claims table when the newest claims were deleted
+	private long savedNextClaimID = 0;
+	
+	DatabaseStorage() throws Exception
+	{
+		Class.forName("org.sqlite.JDBC");
+		
+		new File(DataStore.dataLayerFolderPath).mkdirs();
+		String url = "jdbc:sqlite:" + new File(databaseFilePath).getAbsolutePath();
+		
+		this.writeConnection = DriverManager.getConnection(url);
+		Statement statement = this.writeConnection.createStatement();
+		try
+		{
+			statement.execute("PRAGMA journal_mode=WAL");
+			
+			for(int i = 0; i < schema.length; i++)
+			{
+				statement.executeUpdate(schema[i]);
+			}
+			statement.executeUpdate("PRAGMA user_version = " + schemaVersion);
+		}
+		finally
+		{
+			statement.close();
+		}
+		
+		this.writeConnection.setAutoCommit(false);
+		this.deleteClaimStatement = this.writeConnection.prepareStatement("DELETE FROM claims WHERE id = ?");
+		this.deleteSubdivisionsStatement = this.writeConnection.prepareStatement("DELETE FROM claims WHERE parent_id = ?");
+		this.insertClaimStatement = this.writeConnection.prepareStatement("INSERT OR REPLACE INTO claims (id, parent_id, " + claimColumns + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		this.insertPlayerStatement = this.writeConnection.prepareStatement("INSERT OR REPLACE INTO players (name, last_login, accrued_blocks, bonus_blocks) VALUES (?, ?, ?, ?)");
+		this.updateSettingStatement = this.writeConnection.prepareStatement("INSERT OR REPLACE INTO settings (name, value) VALUES (?, ?)");
+		this.selectPlayersLastLoginBeforeStatement = this.writeConnection.prepareStatement("SELECT name FROM players WHERE last_login < ?");
+		
+		this.readConnection = DriverManager.getConnection(url);
+		this.selectPlayerStatement = this.readConnection.prepareStatement("SELECT last_login, accrued_blocks, bonus_blocks FROM players WHERE name = ?");
+		this.selectSettingStatement = this.readConnection.prepareStatement("SELECT value FROM settings WHERE name = ?");
+		
+		GriefPrevention.addLogEntry("Using the database at \"" + new File(databaseFilePath).getAbsolutePath() + "\".");
+	}
+	
+	//loads all claims in loaded worlds.  claims in other worlds just stay in the database
+	//the first time, any data files are imported.  data_files_imported is written in the same transaction as the import,
+	//so an import which fails leaves it unset and is tried again on the next start
+	public List<Claim> loadClaims(Map<String, World> worlds) throws Exception
+	{
+		if(this.readSetting("data_files_imported") == null)
+		{
+			if(FlatFileStorage.hasData())
+			{
+				this.importDataFiles(worlds);
+			}
+			else
+			{
+				DatabaseBatch batch = new DatabaseBatch();
+				batch.dataFilesImported = true;
+				this.writeBatch(batch);
+			}
+		}
+		
+		Long savedNextClaimID = this.readSetting("next_claim_id");
+		if(savedNextClaimID != null)
+		{
+			this.savedNextClaimID = savedNextClaimID;
+			this.nextClaimID = Math.max(this.nextClaimID, this.savedNextClaimID);
+		}
+		
+		LinkedHashMap<Long, ClaimRecord> records = new LinkedHashMap<Long, ClaimRecord>();
+		ArrayList<ClaimRecord> subdivisions = new ArrayList<ClaimRecord>();
+		ArrayList<Long> subdivisionParentIDs = new ArrayList<Long>();
+		
+		Statement statement = this.readConnection.createStatement();
+		try
+		{
+			ResultSet results = statement.executeQuery("SELECT id, parent_id, " + claimColumns + " FROM claims ORDER BY id");
+			while(results.next())
+			{
+				ClaimRecord record = new ClaimRecord();
+				record.id = results.getLong(1);
+				record.worldName = results.getString(3);
+				record.lesserX = results.getInt(4);
+				record.lesserY = results.getInt(5);
+				record.lesserZ = results.getInt(6);
+				record.greaterX = results.getInt(7);
+				record.greaterY = results.getInt(8);
+				record.greaterZ = results.getInt(9);
+				record.ownerName = results.getString(10);
+				record.modifiedDate = results.getLong(11);
+				record.permissions = new String [][] {
+					DatabaseStorage.splitNames(results.getString(12)),
+					DatabaseStorage.splitNames(results.getString(13)),
+					DatabaseStorage.splitNames(results.getString(14)),
+					DatabaseStorage.splitNames(results.getString(15)) };
+				
+				//every row counts, including claims in worlds which aren't loaded
+				this.nextClaimID = Math.max(this.nextClaimID, record.id + 1);
+				
+				long parentID = results.getLong(2);
+				if(parentID == 0)
+				{
+					records.put(record.id, record);
+				}
+				else
+				{
+					subdivisions.add(record);
+					subdivisionParentIDs.add(parentID);
+				}
+			}
+			results.close();
+		}
+		finally
+		{
+			statement.close();
+		}
+		
+		//subdivisions whose parent is gone are left out
+		for(int i = 0; i < subdivisions.size(); i++)
+		{
+			ClaimRecord parent = records.get(subdivisionParentIDs.get(i));
+			if(parent != null) parent.children.add(subdivisions.get(i));
+		}
+		
+		ArrayList<Claim> claims = new ArrayList<Claim>(records.size());
+		for(ClaimRecord record : records.values())
+		{
+			World world = worlds.get(record.worldName);
+			if(world != null) claims.add(record.toClaim(world));
+		}
+		
+		return claims;
+	}
+	
+	public long getNextClaimID()
+	{
+		return this.nextClaimID;
+	}
+	
+	//returns a value from the settings table, or NULL if it isn't there
+	private Long readSetting(String name) throws SQLException
+	{
+		this.selectSettingStatement.setString(1, name);
+		ResultSet results = this.selectSettingStatement.executeQuery();
+		try
+		{
+			if(!results.next()) return null;
+			return results.getLong(1);
+		}
+		finally
+		{
+			results.close();
+		}
+	}
+	
+	//copies everything from data files into a new database, reading the files without changing them, see FlatFileStorage(boolean)
+	//claims keep the IDs they have in the files.  claims from files older than IDs get new ones in the database only
+	private void importDataFiles(Map<String, World> worlds) throws Exception
+	{
+		GriefPrevention.addLogEntry("Copying claims and player data from data files into the new database...");
+		
+		FlatFileStorage dataFiles = new FlatFileStorage(true);
+		try
+		{
+			DatabaseBatch batch = new DatabaseBatch();
+			
+			List<Claim> claims = dataFiles.loadClaims(worlds);
+			for(int i = 0; i < claims.size(); i++)
+			{
+				if(claims.get(i) != null) batch.claims.add(ClaimRecord.fromTopLevelClaim(claims.get(i)));
+			}
+			batch.claims.addAll(dataFiles.getUnloadedClaims());
+			batch.nextClaimID = dataFiles.getNextClaimID();
+			batch.dataFilesImported = true;
+			
+			List<String> playerNames = dataFiles.getPlayerNames();
+			for(int i = 0; i < playerNames.size(); i++)
+			{
+				PlayerData playerData = dataFiles.loadPlayerData(playerNames.get(i));
+				if(playerData == null) continue;
+				if(playerData.lastLogin == null) playerData.lastLogin = new Date();
+				batch.playerData.put(playerNames.get(i), playerData);
+			}
+			
+			this.writeBatch(batch);
+			GriefPrevention.addLogEntry("Copied " + batch.claims.size() + " claims and data for " + batch.playerData.size() + " players into the database.");
+		}
+		finally
+		{
+			dataFiles.close();
+		}
+	}
+	
+	//reads a player's data, from what's waiting to be written if there is any
+	public PlayerData loadPlayerData(String playerName)
+	{
+		synchronized(this.uncommittedPlayerData)
+		{
+			PlayerData uncommitted = this.uncommittedPlayerData.get(playerName);
+			if(uncommitted != null) return DatabaseStorage.copyPlayerData(uncommitted);
+		}
+		
+		try
+		{
+			this.selectPlayerStatement.setString(1, playerName);
+			ResultSet results = this.selectPlayerStatement.executeQuery();
+			try
+			{
+				if(!results.next()) return null;
+				
+				PlayerData playerData = new PlayerData();
+				playerData.lastLogin = new Date(results.getLong(1));
+				playerData.accruedClaimBlocks = results.getInt(2);
+				playerData.bonusClaimBlocks = results.getInt(3);
+				return playerData;
+			}
+			finally
+			{
+				results.close();
+			}
+		}
+		
+		//defaults, which aren't saved unless they change, so the stored data isn't overwritten because of a failed read
+		catch(SQLException e)
+		{
+			GriefPrevention.addLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());
+			return new PlayerData();
+		}
+	}
+	
+	//copies the changes into a batch and hands it to the writer
+	public void saveChanges(List<Claim> claims, Collection<Claim> changedClaims, Map<String, PlayerData> changedPlayerData, long nextClaimID, boolean closing)
+	{
+		final DatabaseBatch batch = this.pendingBatch;
+		this.pendingBatch = new DatabaseBatch();
+		
+		if(nextClaimID != this.savedNextClaimID)
+		{
+			batch.nextClaimID = nextClaimID;
+			this.savedNextClaimID = nextClaimID;
+		}
+		
+		for(Claim claim : changedClaims)
+		{
+			//deleted claims were already dealt with in deleteClaim()
+			if(!claim.inDataStore) continue;
+			
+			if(claim.parent == null)
+			{
+				batch.claims.add(ClaimRecord.fromTopLevelClaim(claim));
+			}
+			
+			//a subdivision is written with its parent when they both changed
+			else if(!changedClaims.contains(claim.parent))
+			{
+				batch.subdivisions.add(ClaimRecord.fromClaim(claim));
+				batch.subdivisionParentIDs.add(claim.parent.id);
+			}
+		}
+		
+		for(Map.Entry<String, PlayerData> entry : changedPlayerData.entrySet())
+		{
+			batch.playerData.put(entry.getKey(), DatabaseStorage.copyPlayerData(entry.getValue()));
+		}
+		
+		if(batch.isEmpty()) return;
+		
+		synchronized(this.uncommittedPlayerData)
+		{
+			this.uncommittedPlayerData.putAll(batch.playerData);
+		}
+		
+		this.pendingBatchCount.incrementAndGet();
+		this.writer.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					DatabaseStorage.this.writeBatch(batch);
+				}
+				catch(SQLException e)
+				{
+					GriefPrevention.addLogEntry("Unexpected exception writing to the database: " + e.getMessage());
+				}
+				finally
+				{
+					DatabaseStorage.this.pendingBatchCount.decrementAndGet();
+				}
+				
+				//anything saved again since this batch was made stays, since it's newer
+				synchronized(DatabaseStorage.this.uncommittedPlayerData)
+				{
+					for(Map.Entry<String, PlayerData> entry : batch.playerData.entrySet())
+					{
+						if(DatabaseStorage.this.uncommittedPlayerData.get(entry.getKey()) == entry.getValue())
+						{
+							DatabaseStorage.this.uncommittedPlayerData.remove(entry.getKey());
+						}
+					}
+				}
+			}
+		});
+	}
+	
+	//writes a batch in one transaction.  deletions go first, since everything else is the latest version of what it writes
+	private void writeBatch(DatabaseBatch batch) throws SQLException
+	{
+		try
+		{
+			for(int i = 0; i < batch.deletedClaimIDs.size(); i++)
+			{
+				this.deleteClaimStatement.setLong(1, batch.deletedClaimIDs.get(i));
+				this.deleteClaimStatement.addBatch();
+				this.deleteSubdivisionsStatement.setLong(1, batch.deletedClaimIDs.get(i));
+				this.deleteSubdivisionsStatement.addBatch();
+			}
+			
+			for(int i = 0; i < batch.deletedSubdivisionIDs.size(); i++)
+			{
+				this.deleteClaimStatement.setLong(1, batch.deletedSubdivisionIDs.get(i));
+				this.deleteClaimStatement.addBatch();
+			}
+			
+			for(int i = 0; i < batch.claims.size(); i++)
+			{
+				ClaimRecord record = batch.claims.get(i);
+				
+				this.deleteSubdivisionsStatement.setLong(1, record.id);
+				this.deleteSubdivisionsStatement.addBatch();
+				
+				this.addClaimRow(0, record);
+				for(int j = 0; j < record.children.size(); j++)
+				{
+					this.addClaimRow(record.id, record.children.get(j));
+				}
+			}
+			
+			for(int i = 0; i < batch.subdivisions.size(); i++)
+			{
+				this.addClaimRow(batch.subdivisionParentIDs.get(i), batch.subdivisions.get(i));
+			}
+			
+			for(Map.Entry<String, PlayerData> entry : batch.playerData.entrySet())
+			{
+				PlayerData playerData = entry.getValue();
+				this.insertPlayerStatement.setString(1, entry.getKey());
+				this.insertPlayerStatement.setLong(2, playerData.lastLogin.getTime());
+				this.insertPlayerStatement.setInt(3, playerData.accruedClaimBlocks);
+				this.insertPlayerStatement.setInt(4, playerData.bonusClaimBlocks);
+				this.insertPlayerStatement.addBatch();
+			}
+			
+			if(batch.nextClaimID != 0)
+			{
+				this.updateSettingStatement.setString(1, "next_claim_id");
+				this.updateSettingStatement.setLong(2, batch.nextClaimID);
+				this.updateSettingStatement.addBatch();
+			}
+			
+			//the value is when the import happened, which is only for people looking at the database
+			if(batch.dataFilesImported)
+			{
+				this.updateSettingStatement.setString(1, "data_files_imported");
+				this.updateSettingStatement.setLong(2, System.currentTimeMillis());
+				this.updateSettingStatement.addBatch();
+			}
+			
+			this.deleteClaimStatement.executeBatch();
+			this.deleteSubdivisionsStatement.executeBatch();
+			this.insertClaimStatement.executeBatch();
+			this.insertPlayerStatement.executeBatch();
+			this.updateSettingStatement.executeBatch();
+			this.writeConnection.commit();
+		}
+		catch(SQLException e)
+		{
+			this.deleteClaimStatement.clearBatch();
+			this.deleteSubdivisionsStatement.clearBatch();
+			this.insertClaimStatement.clearBatch();
+			this.insertPlayerStatement.clearBatch();
+			this.updateSettingStatement.clearBatch();
+			this.writeConnection.rollback();
+			throw e;
+		}
+	}
+	
+	private void addClaimRow(long parentID, ClaimRecord record) throws SQLException
+	{
+		this.insertClaimStatement.setLong(1, record.id);
+		this.insertClaimStatement.setLong(2, parentID);
+		this.insertClaimStatement.setString(3, record.worldName);
+		this.insertClaimStatement.setInt(4, record.lesserX);
+		this.insertClaimStatement.setInt(5, record.lesserY);
+		this.insertClaimStatement.setInt(6, record.lesserZ);
+		this.insertClaimStatement.setInt(7, record.greaterX);
+		this.insertClaimStatement.setInt(8, record.greaterY);
+		this.insertClaimStatement.setInt(9, record.greaterZ);
+		this.insertClaimStatement.setString(10, record.ownerName);
+		this.insertClaimStatement.setLong(11, record.modifiedDate);
+		for(int i = 0; i < record.permissions.length; i++)
+		{
+			this.insertClaimStatement.setString(12 + i, DatabaseStorage.joinNames(record.permissions[i]));
+		}
+		this.insertClaimStatement.addBatch();
+	}
+	
+	//rows are removed with the next batch.  a top level claim takes its subdivisions with it
+	public void deleteClaim(Claim claim)
+	{
+		if(claim.parent == null)
+		{
+			this.pendingBatch.deletedClaimIDs.add(claim.id);
+		}
+		else
+		{
+			this.pendingBatch.deletedSubdivisionIDs.add(claim.id);
+		}
+	}
+	
+	//batches waiting for the writer thread
+	public int getPendingWrites()
+	{
+		return this.pendingBatchCount.get();
+	}
+	
+	//uses the last login index.  the query runs on the writer thread, after anything already queued, so nobody waits for the database
+	//the write connection doesn't commit by itself, so the read transaction is ended right away to keep it from holding up checkpoints
+	public Future<List<String>> getPlayersLastLoginBefore(final Date time)
+	{
+		return this.writer.submit(new Callable<List<String>>()
+		{
+			public List<String> call()
+			{
+				ArrayList<String> playerNames = new ArrayList<String>();
+				try
+				{
+					DatabaseStorage.this.selectPlayersLastLoginBeforeStatement.setLong(1, time.getTime());
+					ResultSet results = DatabaseStorage.this.selectPlayersLastLoginBeforeStatement.executeQuery();
+					try
+					{
+						while(results.next())
+						{
+							playerNames.add(results.getString(1));
+						}
+					}
+					finally
+					{
+						results.close();
+						DatabaseStorage.this.writeConnection.rollback();
+					}
+				}
+				catch(SQLException e)
+				{
+					GriefPrevention.addLogEntry("Unable to look up players by last login: " + e.getMessage());
+					return null;
+				}
+				
+				return playerNames;
+			}
+		});
+	}
+	
+	//waits for the writer to finish, then closes the connections
+	public void close()
+	{
+		this.writer.shutdown();
+		try
+		{
+			if(!this.writer.awaitTermination(30, TimeUnit.SECONDS))
+			{
+				GriefPrevention.addLogEntry("Error: Timed out waiting for database writes to finish.");
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		try
+		{
+			this.readConnection.close();
+			this.writeConnection.close();
+		}
+		catch(SQLException e)
+		{
+			GriefPrevention.addLogEntry("Unexpected exception closing the database: " + e.getMessage());
+		}
+	}
+	
+	//copies the fields which are stored, so later changes to the original don't show up in a batch
+	private static PlayerData copyPlayerData(PlayerData playerData)
+	{
+		PlayerData copy = new PlayerData();
+		copy.lastLogin = playerData.lastLogin;
+		copy.accruedClaimBlocks = playerData.accruedClaimBlocks;
+		copy.bonusClaimBlocks = playerData.bonusClaimBlocks;
+		return copy;
+	}
+	
+	private static String joinNames(String [] names)
+	{
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < names.length; i++)
+		{
+			builder.append(names[i]).append(';');
+		}
+		
+		return builder.toString();
+	}
+	
+	private static String [] splitNames(String names)
+	{
+		if(names == null) return new String [0];
+		return names.split(";");
+	}
+}
@@ -64,6 +64,9 @@ class EntityEventHandler implements Listener
 	//convenience reference for the singleton datastore
 	private DataStore dataStore;
 	
+	//the claims recent explosions were in, see ClaimHintCache
+	private ClaimHintCache explosionClaimHints = new ClaimHintCache(Statistics.explosionClaimHints);
+	
 	public EntityEventHandler(DataStore dataStore)
 	{
 		this.dataStore = dataStore;
@@ -235,14 +238,11 @@ class EntityEventHandler implements Listener
                         Creeper creeper = (Creeper)event.getEntity();
                         if (creeper.getTarget() != null & creeper.getTarget() instanceof Player) {
                                 Player player = (Player)creeper.getTarget();
-                                PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-                                Claim lastClaim = playerData.lastClaim;
                                 for (Iterator<Block> iter = event.blockList().iterator(); iter.hasNext(); ) {
                                         Block block = iter.next();
-                                        Claim claim = dataStore.getClaimAt(block.getLocation(), false, lastClaim);
+                                        Claim claim = dataStore.getCachedClaimAt(block.getLocation(), false, explosionClaimHints);
                                         if (claim != null) {
-                                                lastClaim = claim;
-                                                if (claim.allowBuild(player) != null) {
+                                                if (claim.checkBuild(player) != PermissionResult.Allowed) {
                                                         iter.remove();
                                                 }
                                         }
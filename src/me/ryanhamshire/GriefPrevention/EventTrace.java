@@ -0,0 +1,339 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+//a recording of the events GriefPrevention makes decisions about, along with the decisions, for replaying offline (see EventTraceRecorder)
+//layout: magic, version, start time, the settings the handlers look at, world table, then entries until the end of the file
+//each entry is a type, microseconds since the previous entry, and the fields for its type.  most numbers are variable length, see writeVarInt()
+//players are referred to by index.  the first time one comes up he gets the next index, and his name follows it
+//the claims as they were when recording started are in a claim snapshot next to the trace, see getClaimsFile()
+class EventTrace 
+{
+	private final static int MAGIC = 0x47504554;  //"GPET"
+	private final static int VERSION = 1;
+	
+	//entry types
+	final static byte JOIN = 1;				//a player is online, either already when recording started or from now on
+	final static byte QUIT = 2;
+	final static byte BLOCK_BREAK = 3;
+	final static byte BLOCK_PLACE = 4;
+	final static byte BLOCK_FROM_TO = 5;
+	final static byte BLOCK_SPREAD = 6;
+	final static byte BLOCK_BURN = 7;
+	final static byte BLOCK_IGNITE = 8;
+	final static byte ENTITY_EXPLODE = 9;	//creeper explosions only, nothing else is up to GriefPrevention
+	final static byte PLAYER_INTERACT = 10;
+	
+	//outcome bits
+	final static int CANCELLED_BEFORE = 1;	//the event was already cancelled when GriefPrevention got it
+	final static int CANCELLED = 2;			//the event was cancelled when GriefPrevention was done with it
+	
+	//player flags, what the handlers ask about a player besides his name
+	final static int IGNORING_CLAIMS = 1;
+	final static int ADMIN_CLAIMS = 2;		//has griefprevention.adminclaims
+	final static int DELETE_CLAIMS = 4;		//has griefprevention.deleteclaims
+	final static int DANGEROUS_ITEMS = 8;	//has griefprevention.dangerousitems
+	
+	//settings when recording started
+	long startTime;
+	boolean preventTheft;
+	boolean preventButtonsSwitches;
+	boolean lockDoors;
+	boolean fireCannotCrossClaimBorders;
+	boolean firePlacementRequiresTrust;
+	boolean creationRequiresPermission;
+	int automaticClaimsForNewPlayersRadius;
+	int claimsExtendIntoGroundDistance;
+	int depthExtensionStep;
+	int maxDepth;
+	
+	//worlds by index, and whether claims and creative rules are enabled in each
+	String [] worldNames;
+	boolean [] claimsEnabledWorlds;
+	boolean [] creativeWorlds;
+	
+	//player names read so far, index 0 is nobody
+	private ArrayList<String> names = new ArrayList<String>();
+	
+	//microseconds since recording started, as of the last entry read
+	private long time = 0;
+	
+	//one entry as readEntry() returns it.  only the fields for the entry's type are set
+	static class Entry
+	{
+		byte type;
+		long time;					//microseconds since recording started
+		String playerName;			//NULL when there's no player
+		int playerFlags;
+		int itemInHand;				//type ID
+		int world;					//index into worldNames
+		int x, y, z;
+		int material;				//type ID of the block the event is about
+		int dx, dy, dz;				//where the other block is (to block, spread source) relative to x, y, z
+		int cause;					//ignite cause or interact action, by ordinal
+		boolean inventoryHolder;	//whether a clicked block's state is an inventory holder
+		int [] blocks;				//nearby blocks the handler looks at, or the exploded blocks, four ints each: dx, dy, dz, type ID
+		int outcome;
+		BitSet keptBlocks;			//for explosions, which of the blocks were still in the list afterwards
+	}
+	
+	static File getClaimsFile(File traceFile)
+	{
+		return new File(traceFile.getPath() + ".claims");
+	}
+	
+	//writes the header, with the settings and worlds already filled in
+	void writeHeader(DataOutputStream outStream) throws IOException
+	{
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+		outStream.writeLong(this.startTime);
+		
+		int settings = 0;
+		if(this.preventTheft) settings |= 1;
+		if(this.preventButtonsSwitches) settings |= 2;
+		if(this.lockDoors) settings |= 4;
+		if(this.fireCannotCrossClaimBorders) settings |= 8;
+		if(this.firePlacementRequiresTrust) settings |= 16;
+		if(this.creationRequiresPermission) settings |= 32;
+		outStream.writeByte(settings);
+		outStream.writeInt(this.automaticClaimsForNewPlayersRadius);
+		outStream.writeInt(this.claimsExtendIntoGroundDistance);
+		outStream.writeInt(this.depthExtensionStep);
+		outStream.writeInt(this.maxDepth);
+		
+		EventTrace.writeVarInt(outStream, this.worldNames.length);
+		for(int i = 0; i < this.worldNames.length; i++)
+		{
+			outStream.writeUTF(this.worldNames[i]);
+			outStream.writeByte((this.claimsEnabledWorlds[i] ? 1 : 0) | (this.creativeWorlds[i] ? 2 : 0));
+		}
+	}
+	
+	static EventTrace readHeader(DataInputStream inStream) throws IOException
+	{
+		if(inStream.readInt() != MAGIC) throw new IOException("Not an event trace.");
+		int version = inStream.readInt();
+		if(version != VERSION) throw new IOException("Unsupported event trace version " + version + ".");
+		
+		EventTrace trace = new EventTrace();
+		trace.startTime = inStream.readLong();
+		
+		int settings = inStream.readByte();
+		trace.preventTheft = (settings & 1) != 0;
+		trace.preventButtonsSwitches = (settings & 2) != 0;
+		trace.lockDoors = (settings & 4) != 0;
+		trace.fireCannotCrossClaimBorders = (settings & 8) != 0;
+		trace.firePlacementRequiresTrust = (settings & 16) != 0;
+		trace.creationRequiresPermission = (settings & 32) != 0;
+		trace.automaticClaimsForNewPlayersRadius = inStream.readInt();
+		trace.claimsExtendIntoGroundDistance = inStream.readInt();
+		trace.depthExtensionStep = inStream.readInt();
+		trace.maxDepth = inStream.readInt();
+		
+		int worldCount = EventTrace.readVarInt(inStream);
+		trace.worldNames = new String [worldCount];
+		trace.claimsEnabledWorlds = new boolean [worldCount];
+		trace.creativeWorlds = new boolean [worldCount];
+		for(int i = 0; i < worldCount; i++)
+		{
+			trace.worldNames[i] = inStream.readUTF();
+			int flags = inStream.readByte();
+			trace.claimsEnabledWorlds[i] = (flags & 1) != 0;
+			trace.creativeWorlds[i] = (flags & 2) != 0;
+		}
+		
+		trace.names.add(null);
+		return trace;
+	}
+	
+	//reads the next entry, or returns NULL at the end of the trace
+	Entry readEntry(DataInputStream inStream) throws IOException
+	{
+		int type = inStream.read();
+		if(type == -1) return null;
+		
+		this.time += EventTrace.readVarLong(inStream);
+		Entry entry = new Entry();
+		entry.type = (byte)type;
+		entry.time = this.time;
+		
+		switch(entry.type)
+		{
+			case JOIN:
+				this.readPlayer(inStream, entry);
+				break;
+				
+			case QUIT:
+				entry.playerName = this.readName(inStream);
+				break;
+				
+			case BLOCK_BREAK:
+			case BLOCK_PLACE:
+				this.readPlayer(inStream, entry);
+				EventTrace.readPosition(inStream, entry);
+				entry.material = EventTrace.readVarInt(inStream);
+				break;
+				
+			case BLOCK_FROM_TO:
+			case BLOCK_SPREAD:
+				EventTrace.readPosition(inStream, entry);
+				entry.material = EventTrace.readVarInt(inStream);
+				entry.dx = EventTrace.readSignedVarInt(inStream);
+				entry.dy = EventTrace.readSignedVarInt(inStream);
+				entry.dz = EventTrace.readSignedVarInt(inStream);
+				break;
+				
+			case BLOCK_BURN:
+				EventTrace.readPosition(inStream, entry);
+				entry.blocks = EventTrace.readBlocks(inStream);
+				break;
+				
+			case BLOCK_IGNITE:
+				EventTrace.readPosition(inStream, entry);
+				entry.cause = inStream.readByte();
+				this.readPlayer(inStream, entry);
+				entry.blocks = EventTrace.readBlocks(inStream);
+				break;
+				
+			case ENTITY_EXPLODE:
+				EventTrace.readPosition(inStream, entry);
+				this.readPlayer(inStream, entry);
+				entry.blocks = EventTrace.readBlocks(inStream);
+				break;
+				
+			case PLAYER_INTERACT:
+				this.readPlayer(inStream, entry);
+				EventTrace.readPosition(inStream, entry);
+				entry.cause = inStream.readByte();
+				entry.material = EventTrace.readVarInt(inStream);
+				entry.inventoryHolder = inStream.readBoolean();
+				break;
+				
+			default:
+				throw new IOException("Unknown event trace entry type " + type + ".");
+		}
+		
+		if(entry.type != JOIN && entry.type != QUIT)
+		{
+			entry.outcome = inStream.readByte();
+		}
+		
+		if(entry.type == ENTITY_EXPLODE)
+		{
+			byte [] kept = new byte [(entry.blocks.length / 4 + 7) / 8];
+			inStream.readFully(kept);
+			entry.keptBlocks = new BitSet();
+			for(int i = 0; i < entry.blocks.length / 4; i++)
+			{
+				if((kept[i / 8] & (1 << (i % 8))) != 0) entry.keptBlocks.set(i);
+			}
+		}
+		
+		return entry;
+	}
+	
+	//a player reference is a name index, then flags and item in hand type ID for anyone but nobody
+	private void readPlayer(DataInputStream inStream, Entry entry) throws IOException
+	{
+		entry.playerName = this.readName(inStream);
+		if(entry.playerName == null) return;
+		
+		entry.playerFlags = inStream.readByte();
+		entry.itemInHand = EventTrace.readVarInt(inStream);
+	}
+	
+	private String readName(DataInputStream inStream) throws IOException
+	{
+		int index = EventTrace.readVarInt(inStream);
+		if(index == this.names.size()) this.names.add(inStream.readUTF());
+		if(index > this.names.size()) throw new IOException("Event trace refers to player " + index + " before naming him.");
+		return this.names.get(index);
+	}
+	
+	private static void readPosition(DataInputStream inStream, Entry entry) throws IOException
+	{
+		entry.world = EventTrace.readVarInt(inStream);
+		entry.x = EventTrace.readSignedVarInt(inStream);
+		entry.y = EventTrace.readSignedVarInt(inStream);
+		entry.z = EventTrace.readSignedVarInt(inStream);
+	}
+	
+	private static int [] readBlocks(DataInputStream inStream) throws IOException
+	{
+		int [] blocks = new int [EventTrace.readVarInt(inStream) * 4];
+		for(int i = 0; i < blocks.length; i += 4)
+		{
+			blocks[i] = EventTrace.readSignedVarInt(inStream);
+			blocks[i + 1] = EventTrace.readSignedVarInt(inStream);
+			blocks[i + 2] = EventTrace.readSignedVarInt(inStream);
+			blocks[i + 3] = EventTrace.readVarInt(inStream);
+		}
+		
+		return blocks;
+	}
+	
+	//non-negative numbers, seven bits per byte, low bits first.  small numbers take one byte
+	static void writeVarInt(DataOutputStream outStream, long value) throws IOException
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			outStream.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		
+		outStream.writeByte((int)value);
+	}
+	
+	static int readVarInt(DataInputStream inStream) throws IOException
+	{
+		long value = EventTrace.readVarLong(inStream);
+		if(value > Integer.MAX_VALUE) throw new IOException("Event trace number out of range.");
+		return (int)value;
+	}
+	
+	static long readVarLong(DataInputStream inStream) throws IOException
+	{
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7)
+		{
+			int b = inStream.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		
+		throw new IOException("Event trace number is too long.");
+	}
+	
+	//numbers which may be negative, like coordinates, folded so that small negative numbers are small too
+	static void writeSignedVarInt(DataOutputStream outStream, int value) throws IOException
+	{
+		EventTrace.writeVarInt(outStream, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+	
+	static int readSignedVarInt(DataInputStream inStream) throws IOException
+	{
+		long value = EventTrace.readVarLong(inStream);
+		return (int)(value >>> 1) ^ -(int)(value & 1);
+	}
+}
@@ -0,0 +1,628 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.*;
+import org.bukkit.event.block.BlockIgniteEvent.IgniteCause;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+//records the events GriefPrevention makes decisions about into an event trace, see EventTrace and /EventTrace
+//each event is seen twice: once just before GriefPrevention's handler (one priority lower), and once just after it (one priority higher)
+//so the trace has the event as GriefPrevention got it and the decision it made.  other plugins listening at the same priorities can blur that
+//nothing is registered unless a recording is running
+class EventTraceRecorder implements Listener
+{
+	//entries are collected here and handed to the writer in pieces about this size
+	private final static int CHUNK_SIZE = 64 * 1024;
+	
+	private File traceFile;
+	private EventTrace trace;
+	private long startNanos;
+	private long lastEntryTime = 0;
+	
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+	private DataOutputStream outStream = new DataOutputStream(this.buffer);
+	
+	//player name indexes handed out so far, see writePlayerName()
+	private HashMap<String, Integer> nameIndexes = new HashMap<String, Integer>();
+	
+	//world indexes, in header order
+	private HashMap<String, Integer> worldIndexes = new HashMap<String, Integer>();
+	
+	//the event seen by the last "before" handler, and what it looked like then
+	private Object pendingEvent;
+	private boolean pendingCancelled;
+	private ArrayList<Block> pendingBlocks;
+	
+	private int entryCount = 0;
+	private volatile IOException writeError = null;
+	
+	//appends to the files off the server thread, in order
+	private ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "GriefPrevention Event Trace Writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	//starts recording into a new trace in the data folder, along with a snapshot of the claims as they are now
+	static EventTraceRecorder start(GriefPrevention plugin) throws IOException
+	{
+		File folder = new File(DataStore.dataLayerFolderPath + File.separator + "EventTraces");
+		folder.mkdirs();
+		DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
+		File traceFile = new File(folder, dateFormat.format(new Date()) + ".trace");
+		
+		EventTraceRecorder recorder = new EventTraceRecorder();
+		recorder.traceFile = traceFile;
+		recorder.trace = new EventTrace();
+		recorder.trace.startTime = System.currentTimeMillis();
+		recorder.trace.preventTheft = plugin.config_claims_preventTheft;
+		recorder.trace.preventButtonsSwitches = plugin.config_claims_preventButtonsSwitches;
+		recorder.trace.lockDoors = plugin.config_claims_lockDoors;
+		recorder.trace.fireCannotCrossClaimBorders = plugin.config_claims_fireCannotCrossClaimBorders;
+		recorder.trace.firePlacementRequiresTrust = plugin.config_claims_firePlacementRequiresTrust;
+		recorder.trace.creationRequiresPermission = plugin.config_claims_creationRequiresPermission;
+		recorder.trace.automaticClaimsForNewPlayersRadius = plugin.config_claims_automaticClaimsForNewPlayersRadius;
+		recorder.trace.claimsExtendIntoGroundDistance = plugin.config_claims_claimsExtendIntoGroundDistance;
+		recorder.trace.depthExtensionStep = plugin.config_claims_depthExtensionStep;
+		recorder.trace.maxDepth = plugin.config_claims_maxDepth;
+		
+		List<World> worlds = plugin.getServer().getWorlds();
+		recorder.trace.worldNames = new String [worlds.size()];
+		recorder.trace.claimsEnabledWorlds = new boolean [worlds.size()];
+		recorder.trace.creativeWorlds = new boolean [worlds.size()];
+		for(int i = 0; i < worlds.size(); i++)
+		{
+			World world = worlds.get(i);
+			recorder.trace.worldNames[i] = world.getName();
+			recorder.trace.claimsEnabledWorlds[i] = plugin.claimsEnabledForWorld(world);
+			recorder.trace.creativeWorlds[i] = plugin.config_claims_enabledCreativeWorlds.contains(world);
+			recorder.worldIndexes.put(world.getName(), i);
+		}
+		
+		//the claims the recorded decisions were made against
+		final byte [] claims;
+		synchronized(plugin.dataStore)
+		{
+			claims = ClaimSnapshot.write(plugin.dataStore.claims, new ArrayList<ClaimRecord>(), 0);
+		}
+		final File claimsFile = EventTrace.getClaimsFile(traceFile);
+		recorder.writer.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					FileOutputStream fileStream = new FileOutputStream(claimsFile);
+					try
+					{
+						fileStream.write(claims);
+					}
+					finally
+					{
+						fileStream.close();
+					}
+				}
+				catch(IOException e)
+				{
+					GriefPrevention.addLogEntry("Unable to write the claims for event trace " + claimsFile.getName() + ": " + e.getMessage());
+				}
+			}
+		});
+		
+		recorder.startNanos = System.nanoTime();
+		recorder.trace.writeHeader(recorder.outStream);
+		
+		//everyone online now is online from the start of the trace
+		Player [] players = plugin.getServer().getOnlinePlayers();
+		for(int i = 0; i < players.length; i++)
+		{
+			recorder.writeJoin(players[i]);
+		}
+		
+		plugin.getServer().getPluginManager().registerEvents(recorder, plugin);
+		return recorder;
+	}
+	
+	//stops listening and writes out the rest of the trace, waiting for the writer to finish
+	void stop()
+	{
+		HandlerList.unregisterAll(this);
+		this.handOff();
+		this.writer.shutdown();
+		try
+		{
+			if(!this.writer.awaitTermination(30, TimeUnit.SECONDS))
+			{
+				GriefPrevention.addLogEntry("Error: Timed out waiting for event trace " + this.traceFile.getName() + " to be written.");
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		if(this.writeError != null)
+		{
+			GriefPrevention.addLogEntry("Unable to write event trace " + this.traceFile.getName() + ": " + this.writeError.getMessage());
+		}
+	}
+	
+	File getTraceFile()
+	{
+		return this.traceFile;
+	}
+	
+	int getEntryCount()
+	{
+		return this.entryCount;
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerJoin(PlayerJoinEvent event)
+	{
+		this.writeJoin(event.getPlayer());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event)
+	{
+		this.startEntry(EventTrace.QUIT);
+		this.writePlayerName(event.getPlayer().getName());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockBreak(BlockBreakEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockBreak(BlockBreakEvent event)
+	{
+		//GriefPrevention ignores cancelled block breaks, so there's no decision to record
+		if(this.wasCancelledBefore(event)) return;
+		
+		Block block = event.getBlock();
+		this.startEntry(EventTrace.BLOCK_BREAK);
+		this.writePlayer(event.getPlayer());
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		this.writeNumber(block.getTypeId());
+		this.writeOutcome(false, event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockPlace(BlockPlaceEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockPlace(BlockPlaceEvent event)
+	{
+		if(this.wasCancelledBefore(event)) return;
+		
+		Block block = event.getBlock();
+		this.startEntry(EventTrace.BLOCK_PLACE);
+		this.writePlayer(event.getPlayer());
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		this.writeNumber(block.getTypeId());
+		this.writeOutcome(false, event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockFromTo(BlockFromToEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockFromTo(BlockFromToEvent event)
+	{
+		if(this.wasCancelledBefore(event)) return;
+		
+		//only lava is up to GriefPrevention, and water flows constantly
+		Block fromBlock = event.getBlock();
+		Material fromType = fromBlock.getType();
+		if(fromType != Material.LAVA && fromType != Material.STATIONARY_LAVA) return;
+		
+		Block toBlock = event.getToBlock();
+		this.startEntry(EventTrace.BLOCK_FROM_TO);
+		this.writePosition(fromBlock.getWorld(), fromBlock.getX(), fromBlock.getY(), fromBlock.getZ());
+		this.writeNumber(fromType.getId());
+		this.writeOffset(toBlock.getX() - fromBlock.getX(), toBlock.getY() - fromBlock.getY(), toBlock.getZ() - fromBlock.getZ());
+		this.writeOutcome(false, event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockSpread(BlockSpreadEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockSpread(BlockSpreadEvent event)
+	{
+		Block block = event.getBlock();
+		Block source = event.getSource();
+		this.startEntry(EventTrace.BLOCK_SPREAD);
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		this.writeNumber(event.getNewState().getType().getId());
+		this.writeOffset(source.getX() - block.getX(), source.getY() - block.getY(), source.getZ() - block.getZ());
+		this.writeOutcome(this.wasCancelledBefore(event), event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockBurn(BlockBurnEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockBurn(BlockBurnEvent event)
+	{
+		Block block = event.getBlock();
+		this.startEntry(EventTrace.BLOCK_BURN);
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		
+		//the handler looks for fire all around the burning block
+		this.writeNearbyBlocks(block, -1, 1, -1, 1, Material.FIRE, null);
+		this.writeOutcome(this.wasCancelledBefore(event), event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforeBlockIgnite(BlockIgniteEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onBlockIgnite(BlockIgniteEvent event)
+	{
+		Block block = event.getBlock();
+		IgniteCause cause = event.getCause();
+		Player player = event.getPlayer();
+		
+		this.startEntry(EventTrace.BLOCK_IGNITE);
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		this.writeByte(cause.ordinal());
+		this.writePlayer(player);
+		
+		//for lava the handler looks for a source in and below the block, and for lighters it looks for a nether portal frame
+		if(cause == IgniteCause.LAVA)
+		{
+			this.writeNearbyBlocks(block, -1, 1, -5, 1, Material.LAVA, Material.STATIONARY_LAVA);
+		}
+		else if(player != null && (cause == IgniteCause.FLINT_AND_STEEL || cause == IgniteCause.FIREBALL))
+		{
+			this.writeNearbyBlocks(block, -2, 2, -1, 3, Material.OBSIDIAN, null);
+		}
+		else
+		{
+			this.writeNumber(0);
+		}
+		
+		this.writeOutcome(this.wasCancelledBefore(event), event.isCancelled());
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.LOW)
+	public void beforeEntityExplode(EntityExplodeEvent event)
+	{
+		if(!(event.getEntity() instanceof Creeper)) return;
+		
+		this.setPending(event, event.isCancelled());
+		this.pendingBlocks = new ArrayList<Block>(event.blockList());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGH)
+	public void onEntityExplode(EntityExplodeEvent event)
+	{
+		Entity entity = event.getEntity();
+		if(!(entity instanceof Creeper)) return;
+		
+		List<Block> blocksBefore = event == this.pendingEvent ? this.pendingBlocks : event.blockList();
+		boolean cancelledBefore = this.wasCancelledBefore(event);
+		this.pendingBlocks = null;
+		
+		Location location = event.getLocation();
+		Entity target = ((Creeper)entity).getTarget();
+		this.startEntry(EventTrace.ENTITY_EXPLODE);
+		this.writePosition(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+		this.writePlayer(target instanceof Player ? (Player)target : null);
+		
+		this.writeNumber(blocksBefore.size());
+		for(int i = 0; i < blocksBefore.size(); i++)
+		{
+			Block block = blocksBefore.get(i);
+			this.writeOffset(block.getX() - location.getBlockX(), block.getY() - location.getBlockY(), block.getZ() - location.getBlockZ());
+			this.writeNumber(block.getTypeId());
+		}
+		
+		this.writeOutcome(cancelledBefore, event.isCancelled());
+		
+		//one bit per block, set for those which are still going to blow up
+		HashSet<Block> blocksAfter = new HashSet<Block>(event.blockList());
+		byte [] kept = new byte [(blocksBefore.size() + 7) / 8];
+		for(int i = 0; i < blocksBefore.size(); i++)
+		{
+			if(blocksAfter.contains(blocksBefore.get(i))) kept[i / 8] |= 1 << (i % 8);
+		}
+		this.writeBytes(kept);
+		this.endEntry();
+	}
+	
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void beforePlayerInteract(PlayerInteractEvent event)
+	{
+		this.setPending(event, event.isCancelled());
+	}
+	
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onPlayerInteract(PlayerInteractEvent event)
+	{
+		if(this.wasCancelledBefore(event)) return;
+		
+		Block block = event.getClickedBlock();
+		if(block == null) return;
+		
+		this.startEntry(EventTrace.PLAYER_INTERACT);
+		this.writePlayer(event.getPlayer());
+		this.writePosition(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		this.writeByte(event.getAction().ordinal());
+		this.writeNumber(block.getTypeId());
+		
+		//only right clicks look at the block's state, which can be slow to get
+		this.writeByte(event.getAction() == Action.RIGHT_CLICK_BLOCK && block.getState() instanceof InventoryHolder ? 1 : 0);
+		this.writeOutcome(false, event.isCancelled());
+		this.endEntry();
+	}
+	
+	private void setPending(Object event, boolean cancelled)
+	{
+		this.pendingEvent = event;
+		this.pendingCancelled = cancelled;
+	}
+	
+	//whether an event was cancelled when the "before" handler saw it.  events which skipped that handler count as not cancelled
+	private boolean wasCancelledBefore(Object event)
+	{
+		boolean cancelled = event == this.pendingEvent && this.pendingCancelled;
+		this.pendingEvent = null;
+		return cancelled;
+	}
+	
+	private void writeJoin(Player player)
+	{
+		this.startEntry(EventTrace.JOIN);
+		this.writePlayer(player);
+		this.endEntry();
+	}
+	
+	//every entry starts with its type and the time since the last one
+	private void startEntry(byte type)
+	{
+		long time = (System.nanoTime() - this.startNanos) / 1000;
+		this.writeByte(type);
+		this.writeNumber(Math.max(0, time - this.lastEntryTime));
+		this.lastEntryTime = Math.max(time, this.lastEntryTime);
+	}
+	
+	//hands the entries collected so far to the writer once there are enough of them
+	private void endEntry()
+	{
+		this.entryCount++;
+		if(this.buffer.size() >= CHUNK_SIZE)
+		{
+			this.handOff();
+		}
+	}
+	
+	//player name index, then flags and item in hand.  NULL is index 0 and nothing else
+	private void writePlayer(Player player)
+	{
+		if(player == null)
+		{
+			this.writeNumber(0);
+			return;
+		}
+		
+		this.writePlayerName(player.getName());
+		
+		int flags = 0;
+		if(GriefPrevention.instance.dataStore.getPlayerData(player.getName()).ignoreClaims) flags |= EventTrace.IGNORING_CLAIMS;
+		if(player.hasPermission("griefprevention.adminclaims")) flags |= EventTrace.ADMIN_CLAIMS;
+		if(player.hasPermission("griefprevention.deleteclaims")) flags |= EventTrace.DELETE_CLAIMS;
+		if(player.hasPermission("griefprevention.dangerousitems")) flags |= EventTrace.DANGEROUS_ITEMS;
+		this.writeByte(flags);
+		
+		ItemStack itemInHand = player.getItemInHand();
+		this.writeNumber(itemInHand == null ? 0 : itemInHand.getType().getId());
+	}
+	
+	//writes a name's index.  the first time a name comes up it gets the next index, and the name itself follows
+	private void writePlayerName(String playerName)
+	{
+		Integer index = this.nameIndexes.get(playerName);
+		if(index != null)
+		{
+			this.writeNumber(index);
+			return;
+		}
+		
+		index = this.nameIndexes.size() + 1;
+		this.nameIndexes.put(playerName, index);
+		this.writeNumber(index);
+		try
+		{
+			this.outStream.writeUTF(playerName);
+		}
+		catch(IOException e) { }
+	}
+	
+	private void writePosition(World world, int x, int y, int z)
+	{
+		Integer worldIndex = this.worldIndexes.get(world.getName());
+		this.writeNumber(worldIndex == null ? 0 : worldIndex);
+		this.writeOffset(x, y, z);
+	}
+	
+	private void writeOffset(int dx, int dy, int dz)
+	{
+		try
+		{
+			EventTrace.writeSignedVarInt(this.outStream, dx);
+			EventTrace.writeSignedVarInt(this.outStream, dy);
+			EventTrace.writeSignedVarInt(this.outStream, dz);
+		}
+		catch(IOException e) { }  //can't happen writing to memory
+	}
+	
+	//the blocks of one or two types in a box around a block, with Y going from minY to maxY and X and Z from min to max
+	private void writeNearbyBlocks(Block block, int min, int max, int minY, int maxY, Material type, Material otherType)
+	{
+		World world = block.getWorld();
+		int typeId = type.getId();
+		int otherTypeId = otherType == null ? -1 : otherType.getId();
+		
+		ArrayList<int []> found = new ArrayList<int []>();
+		for(int dx = min; dx <= max; dx++)
+		{
+			for(int dy = minY; dy <= maxY; dy++)
+			{
+				for(int dz = min; dz <= max; dz++)
+				{
+					int foundTypeId = world.getBlockTypeIdAt(block.getX() + dx, block.getY() + dy, block.getZ() + dz);
+					if(foundTypeId == typeId || foundTypeId == otherTypeId)
+					{
+						found.add(new int [] { dx, dy, dz, foundTypeId });
+					}
+				}
+			}
+		}
+		
+		this.writeNumber(found.size());
+		for(int i = 0; i < found.size(); i++)
+		{
+			int [] foundBlock = found.get(i);
+			this.writeOffset(foundBlock[0], foundBlock[1], foundBlock[2]);
+			this.writeNumber(foundBlock[3]);
+		}
+	}
+	
+	private void writeOutcome(boolean cancelledBefore, boolean cancelled)
+	{
+		this.writeByte((cancelledBefore ? EventTrace.CANCELLED_BEFORE : 0) | (cancelled ? EventTrace.CANCELLED : 0));
+	}
+	
+	private void writeNumber(long value)
+	{
+		try
+		{
+			EventTrace.writeVarInt(this.outStream, value);
+		}
+		catch(IOException e) { }
+	}
+	
+	private void writeByte(int value)
+	{
+		try
+		{
+			this.outStream.writeByte(value);
+		}
+		catch(IOException e) { }
+	}
+	
+	private void writeBytes(byte [] bytes)
+	{
+		try
+		{
+			this.outStream.write(bytes);
+		}
+		catch(IOException e) { }
+	}
+	
+	//hands everything collected so far to the writer
+	private void handOff()
+	{
+		if(this.buffer.size() == 0) return;
+		
+		final byte [] bytes = this.buffer.toByteArray();
+		this.buffer.reset();
+		final File traceFile = this.traceFile;
+		final EventTraceRecorder recorder = this;
+		this.writer.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					FileOutputStream fileStream = new FileOutputStream(traceFile, true);
+					try
+					{
+						fileStream.write(bytes);
+					}
+					finally
+					{
+						fileStream.close();
+					}
+				}
+				catch(IOException e)
+				{
+					recorder.writeError = e;
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,880 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.bukkit.World;
+
+//keeps claims and player data in plain text files, one per claim and one per player, see DataStorage
+//claim files are named after the claim's ID, player files after the player's name
+//optionally, all claims go in a single snapshot file instead, with a journal of changes in between (see ClaimSnapshot and ClaimJournal)
+class FlatFileStorage implements DataStorage
+{
+	//path information, for where stuff stored on disk is well...  stored
+	private final static String playerDataFolderPath = DataStore.dataLayerFolderPath + File.separator + "PlayerData";
+	private final static String claimDataFolderPath = DataStore.dataLayerFolderPath + File.separator + "ClaimData";
+	
+	//files are written under this suffix and then renamed, see DataWriterThread
+	final static String tempFileSuffix = ".tmp";
+	
+	//file changes waiting for the next batch of changes, mostly deletions
+	private LinkedHashMap<File, byte []> pendingFileChanges = new LinkedHashMap<File, byte []>();
+	
+	//see getNextClaimID()
+	private long nextClaimID = 1;
+	
+	//the data store's next claim ID as of the last batch, kept in its own file since claims with the highest IDs may have been deleted
+	//this is only ever ahead of the claims on disk, so if it's lost, IDs come from the claims as before
+	private File nextClaimIDFile = new File(DataStore.dataLayerFolderPath + File.separator + "nextclaimid");
+	private long savedNextClaimID = 0;
+	
+	//writes data files in the background
+	private DataWriterThread dataWriter = new DataWriterThread();
+	
+	//optional single file storage for all claims, see ClaimSnapshot
+	//when enabled, claims aren't written to claim files but to this file, at most every few seconds (see config)
+	private final static String claimSnapshotFilePath = DataStore.dataLayerFolderPath + File.separator + "claims.snapshot";
+	private File claimSnapshotFile = new File(claimSnapshotFilePath);
+	private boolean claimSnapshotEnabled = GriefPrevention.instance.config_claims_snapshotEnabled;
+	private boolean claimSnapshotDirty = false;
+	private long lastClaimSnapshotTime = 0;
+	
+	//claims from the snapshot in worlds which aren't loaded, written back out unchanged with each snapshot
+	private ArrayList<ClaimRecord> unloadedSnapshotClaims = new ArrayList<ClaimRecord>();
+	
+	//optional journal of claim changes since the last snapshot, see ClaimJournal
+	//when enabled, each batch appends what changed, and the snapshot interval becomes how often the journal is compacted
+	private File claimJournalFile = new File(DataStore.dataLayerFolderPath + File.separator + "claims.journal");
+	private boolean claimJournalEnabled = this.claimSnapshotEnabled && GriefPrevention.instance.config_claims_journalEnabled;
+	private long claimJournalGeneration = 0;
+	
+	//journal records for changes which happened since the last batch, in order
+	private ByteArrayOutputStream pendingJournalRecords = new ByteArrayOutputStream();
+	
+	//every player's last login, so expiration doesn't have to read every player file, see LastLoginIndex
+	//the file goes out with a batch of player files at most once a minute, and at shutdown, so after a crash it may be a little behind them
+	//that's fine, since expiration checks each candidate's own player file, and players with no entry at all are found when it's read
+	private final static long LAST_LOGIN_INDEX_INTERVAL_MILLIS = 60 * 1000L;
+	private File lastLoginIndexFile = new File(DataStore.dataLayerFolderPath + File.separator + "lastlogin.index");
+	private LastLoginIndex lastLoginIndex;
+	private boolean lastLoginIndexDirty = false;
+	private long lastLoginIndexWriteTime = 0;
+	
+	//read only storage only loads, see FlatFileStorage(boolean)
+	private final boolean readOnly;
+	
+	FlatFileStorage()
+	{
+		this(false);
+	}
+	
+	//readOnly = TRUE for reading the files without changing anything on disk, as when importing them into a database
+	//read only storage doesn't start the writer or read the last login index, leaves temp files and claim files from before IDs alone,
+	//and doesn't export a snapshot which is turned off.  only loadClaims(), getUnloadedClaims(), getPlayerNames(), loadPlayerData() and close() may be used
+	FlatFileStorage(boolean readOnly)
+	{
+		this.readOnly = readOnly;
+		if(readOnly) return;
+		
+		//ensure data folders exist
+		new File(playerDataFolderPath).mkdirs();
+		new File(claimDataFolderPath).mkdirs();
+		
+		//start the background writer
+		this.dataWriter.start();
+		
+		this.loadLastLoginIndex();
+	}
+	
+	//reads the last login index, or rebuilds it from the player files when it's missing or damaged
+	//player files which aren't in the index yet, because they were first written after the index was, are read and added
+	private void loadLastLoginIndex()
+	{
+		boolean rebuilding = true;
+		if(this.lastLoginIndexFile.exists())
+		{
+			try
+			{
+				this.lastLoginIndex = LastLoginIndex.read(this.lastLoginIndexFile);
+				rebuilding = false;
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unable to read the last login index, rebuilding it: " + e.getMessage());
+			}
+		}
+		
+		if(rebuilding) this.lastLoginIndex = new LastLoginIndex();
+		
+		int playerFilesRead = 0;
+		List<String> playerNames = this.getPlayerNames();
+		for(int i = 0; i < playerNames.size(); i++)
+		{
+			String playerName = playerNames.get(i);
+			if(this.lastLoginIndex.contains(playerName)) continue;
+			
+			playerFilesRead++;
+			PlayerData playerData = this.loadPlayerData(playerName);
+			if(playerData != null && playerData.lastLogin != null)
+			{
+				this.lastLoginIndex.update(playerName, playerData.lastLogin.getTime());
+			}
+		}
+		
+		if(rebuilding)
+		{
+			GriefPrevention.addLogEntry("Rebuilt the last login index from " + playerFilesRead + " player files.");
+		}
+		else if(playerFilesRead > 0)
+		{
+			GriefPrevention.addLogEntry("Added " + playerFilesRead + " player files to the last login index.");
+		}
+		
+		//written with the first batch, so a rebuild or any additions aren't repeated on the next start
+		this.lastLoginIndexDirty = rebuilding || playerFilesRead > 0;
+	}
+	
+	//loads claims from the snapshot if there is one, otherwise from the claim files
+	//when the snapshot is turned off but one exists, its claims are loaded and exported back to claim files
+	//a snapshot which can't be read is an error rather than a reason to load the claim files, see below
+	public List<Claim> loadClaims(Map<String, World> worlds) throws IOException
+	{
+		this.loadNextClaimID();
+		
+		ArrayList<Claim> loadedClaims = null;
+		if(this.claimSnapshotFile.exists())
+		{
+			try
+			{
+				//bring the snapshot up to date with the journal, then build claims from it
+				ClaimSnapshot snapshot = ClaimSnapshot.read(this.claimSnapshotFile);
+				boolean journalClean = ClaimJournal.replay(this.claimJournalFile, snapshot);
+				this.claimJournalGeneration = snapshot.generation;
+				this.nextClaimID = Math.max(this.nextClaimID, snapshot.nextClaimID);
+				
+				loadedClaims = new ArrayList<Claim>();
+				snapshot.resolve(worlds, loadedClaims, this.unloadedSnapshotClaims);
+				
+				//anything in the journal gets folded into a new snapshot right away, which also starts a clean journal
+				if(this.claimJournalEnabled && !journalClean) this.claimSnapshotDirty = true;
+				
+				//with the journal turned off, a leftover journal is folded in once and then removed
+				//the new snapshot gets the next generation so the journal can't be applied to it twice
+				if(!this.claimJournalEnabled && this.claimJournalFile.exists())
+				{
+					this.claimJournalGeneration++;
+					this.claimSnapshotDirty = true;
+					this.pendingFileChanges.put(this.claimJournalFile, null);
+				}
+				
+				GriefPrevention.addLogEntry("Read " + loadedClaims.size() + " claims from the claim snapshot.");
+				
+				if(!this.claimSnapshotEnabled && !this.readOnly)
+				{
+					this.exportClaimSnapshot(loadedClaims);
+				}
+			}
+			//the claim files stop being updated once there's a snapshot, so they may be months behind it
+			//loading them would quietly bring back old claims, and the next flush would replace the snapshot, the only copy of the newer ones
+			//so nothing is loaded and the snapshot is left where it is, for the server owner to restore or move aside
+			catch(IOException e)
+			{
+				throw new IOException("Unable to load claim snapshot \"" + this.claimSnapshotFile.getAbsolutePath() + "\": " + e.getMessage() +
+					"  It hasn't been changed.  To start from the claim files instead, which may be out of date, move it out of the data folder.", e);
+			}
+		}
+		
+		if(loadedClaims == null)
+		{
+			loadedClaims = this.loadClaimFiles(worlds);
+			
+			//importing into a new snapshot
+			this.claimSnapshotDirty = this.claimSnapshotEnabled;
+		}
+		
+		return loadedClaims;
+	}
+	
+	//reads every claim file in parallel, returning top level claims (or NULL for files which couldn't be read) in the same order as the files
+	private ArrayList<Claim> loadClaimFiles(Map<String, World> worlds)
+	{
+		File claimDataFolder = new File(claimDataFolderPath);
+		File [] files = claimDataFolder.listFiles();
+		ArrayList<File> claimFiles = new ArrayList<File>();
+		if(files == null) files = new File [0];
+		
+		for(int i = 0; i < files.length; i++)
+		{
+			//a leftover temp file means the server went down in the middle of a write, and the original file is still intact
+			if(files[i].getName().endsWith(tempFileSuffix))
+			{
+				if(!this.readOnly) files[i].delete();
+				continue;
+			}
+			
+			if(files[i].isFile())  //avoids folders
+			{
+				claimFiles.add(files[i]);
+			}
+		}
+		
+		//claim files are independent of each other, so parse them in parallel
+		ArrayList<Claim> loadedClaims = new ArrayList<Claim>();
+		ExecutorService loaderPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			ArrayList<Future<Claim>> results = new ArrayList<Future<Claim>>();
+			for(int i = 0; i < claimFiles.size(); i++)
+			{
+				results.add(loaderPool.submit(new ClaimLoadTask(claimFiles.get(i), worlds)));
+			}
+			
+			//collect results in file order, so the same claim wins any conflict as it would when loading one by one
+			for(int i = 0; i < results.size(); i++)
+			{
+				try
+				{
+					loadedClaims.add(results.get(i).get());
+				}
+				catch(ExecutionException e)
+				{
+					GriefPrevention.addLogEntry("Unable to load data for claim \"" + claimFiles.get(i).getName() + "\": " + e.getCause());
+					loadedClaims.add(null);
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			loaderPool.shutdownNow();
+		}
+		
+		//a claim's ID is its file's name, except in files from before claims had IDs, which are named after the lesser corner
+		ArrayList<File> olderFiles = new ArrayList<File>();
+		for(int i = 0; i < loadedClaims.size(); i++)
+		{
+			Long id = FlatFileStorage.parseClaimID(claimFiles.get(i).getName());
+			if(id != null) this.nextClaimID = Math.max(this.nextClaimID, id + 1);
+			
+			Claim claim = loadedClaims.get(i);
+			if(claim == null) continue;
+			
+			claim.id = id;
+			if(id == null) olderFiles.add(claimFiles.get(i));
+			for(int j = 0; j < claim.children.size(); j++)
+			{
+				Long childID = claim.children.get(j).id;
+				if(childID != null) this.nextClaimID = Math.max(this.nextClaimID, childID + 1);
+			}
+		}
+		
+		//give IDs to any claims which don't have them, and write them to new files
+		//the new files are written before the old ones are deleted, so a claim is never without a file
+		int numberedCount = 0;
+		for(int i = 0; i < loadedClaims.size(); i++)
+		{
+			Claim claim = loadedClaims.get(i);
+			if(claim == null) continue;
+			
+			boolean numbered = false;
+			if(claim.id == null)
+			{
+				claim.id = this.nextClaimID++;
+				numbered = true;
+			}
+			for(int j = 0; j < claim.children.size(); j++)
+			{
+				if(claim.children.get(j).id == null)
+				{
+					claim.children.get(j).id = this.nextClaimID++;
+					numbered = true;
+				}
+			}
+			if(!numbered) continue;
+			
+			try
+			{
+				this.pendingFileChanges.put(FlatFileStorage.getClaimFile(claim.id), this.serializeClaim(claim).getBytes());
+				numberedCount++;
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unexpected exception saving data for claim " + claim.id + ": " + e.getMessage());
+			}
+		}
+		
+		for(int i = 0; i < olderFiles.size(); i++)
+		{
+			this.pendingFileChanges.put(olderFiles.get(i), null);
+		}
+		
+		if(numberedCount > 0)
+		{
+			GriefPrevention.addLogEntry("Gave IDs to " + numberedCount + " claims from older claim files.");
+		}
+		
+		return loadedClaims;
+	}
+	
+	//claim files are named after the claim's ID
+	private static File getClaimFile(long id)
+	{
+		return new File(claimDataFolderPath + File.separator + id);
+	}
+	
+	//gets the ID from a claim file's name, or NULL if the file is from before claims had IDs
+	private static Long parseClaimID(String fileName)
+	{
+		try
+		{
+			return Long.parseLong(fileName);
+		}
+		catch(NumberFormatException e)
+		{
+			return null;
+		}
+	}
+	
+	public long getNextClaimID()
+	{
+		return this.nextClaimID;
+	}
+	
+	private void loadNextClaimID()
+	{
+		if(!this.nextClaimIDFile.exists()) return;
+		
+		try
+		{
+			BufferedReader inStream = new BufferedReader(new FileReader(this.nextClaimIDFile));
+			try
+			{
+				this.savedNextClaimID = Long.parseLong(inStream.readLine());
+				this.nextClaimID = Math.max(this.nextClaimID, this.savedNextClaimID);
+			}
+			finally
+			{
+				inStream.close();
+			}
+		}
+		catch(Exception e)
+		{
+			GriefPrevention.addLogEntry("Unable to read the next claim ID, using the highest claim ID instead: " + e.getMessage());
+		}
+	}
+	
+	//writes every claim from the snapshot back out to claim files, replacing whatever claim files were there
+	//then sets the snapshot aside, so it won't be loaded again
+	private void exportClaimSnapshot(List<Claim> loadedClaims)
+	{
+		File [] files = new File(claimDataFolderPath).listFiles();
+		for(int i = 0; i < files.length; i++)
+		{
+			if(files[i].isFile()) this.pendingFileChanges.put(files[i], null);
+		}
+		
+		LinkedHashMap<File, byte []> changes = new LinkedHashMap<File, byte []>();
+		for(int i = 0; i < loadedClaims.size(); i++)
+		{
+			Claim claim = loadedClaims.get(i);
+			try
+			{
+				changes.put(FlatFileStorage.getClaimFile(claim.id), this.serializeClaim(claim).getBytes());
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unable to export a claim from the claim snapshot: " + e.getMessage());
+			}
+		}
+		
+		//claims in worlds which aren't loaded right now are written straight from their snapshot records
+		for(int i = 0; i < this.unloadedSnapshotClaims.size(); i++)
+		{
+			try
+			{
+				ClaimRecord record = this.unloadedSnapshotClaims.get(i);
+				changes.put(FlatFileStorage.getClaimFile(record.id), record.toClaimFileText().getBytes());
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unable to export a claim from the claim snapshot: " + e.getMessage());
+			}
+		}
+		this.unloadedSnapshotClaims.clear();
+		
+		this.queueChanges(changes);
+		this.dataWriter.flush();
+		
+		File exportedFile = new File(this.claimSnapshotFile.getPath() + ".exported");
+		exportedFile.delete();
+		if(!this.claimSnapshotFile.renameTo(exportedFile))
+		{
+			GriefPrevention.addLogEntry("Error: Unable to rename the claim snapshot after exporting it.  Please delete \"" + this.claimSnapshotFile.getAbsolutePath() + "\".");
+		}
+		
+		//the journal's changes were part of what was exported
+		this.claimJournalFile.delete();
+		this.claimSnapshotDirty = false;
+		
+		GriefPrevention.addLogEntry("Exported the claim snapshot to claim files.");
+	}
+	
+	//hands a batch of changes to the background writer
+	public void saveChanges(List<Claim> claims, Collection<Claim> changedClaims, Map<String, PlayerData> changedPlayerData, long nextClaimID, boolean closing)
+	{
+		LinkedHashMap<File, byte []> changes = new LinkedHashMap<File, byte []>();
+		
+		//first in the batch, so it's never behind the claims which go out with it
+		if(nextClaimID != this.savedNextClaimID)
+		{
+			changes.put(this.nextClaimIDFile, (nextClaimID + "\n").getBytes());
+			this.savedNextClaimID = nextClaimID;
+		}
+		
+		if(this.claimSnapshotEnabled)
+		{
+			this.saveClaimSnapshot(changes, claims, changedClaims, closing);
+		}
+		
+		else
+		{
+			//subdivisions are written as part of their parent's file
+			LinkedHashSet<Claim> changedTopLevelClaims = new LinkedHashSet<Claim>();
+			for(Claim claim : changedClaims)
+			{
+				changedTopLevelClaims.add(claim.parent != null ? claim.parent : claim);
+			}
+			
+			for(Claim claim : changedTopLevelClaims)
+			{
+				//deleted claims were already dealt with in deleteClaim()
+				if(!claim.inDataStore) continue;
+				
+				try
+				{
+					changes.put(FlatFileStorage.getClaimFile(claim.id), this.serializeClaim(claim).getBytes());
+				}
+				catch(Exception e)
+				{
+					GriefPrevention.addLogEntry("Unexpected exception saving data for claim " + claim.id + ": " + e.getMessage());
+				}
+			}
+		}
+		
+		for(Map.Entry<String, PlayerData> entry : changedPlayerData.entrySet())
+		{
+			//this is how logins get into the index, since PlayerEventHandler.onPlayerJoin() saves the new login time
+			this.lastLoginIndex.update(entry.getKey(), entry.getValue().lastLogin.getTime());
+			this.lastLoginIndexDirty = true;
+			
+			try
+			{
+				changes.put(new File(playerDataFolderPath + File.separator + entry.getKey()), this.serializePlayerData(entry.getValue()).getBytes());
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.addLogEntry("Unexpected exception saving data for player \"" + entry.getKey() + "\": " + e.getMessage());
+			}
+		}
+		
+		//after the player files in the same batch, so the index on disk is never ahead of them
+		if(this.lastLoginIndexDirty && (closing || System.currentTimeMillis() - this.lastLoginIndexWriteTime >= LAST_LOGIN_INDEX_INTERVAL_MILLIS))
+		{
+			this.queueLastLoginIndex(changes);
+		}
+		
+		this.queueChanges(changes);
+	}
+	
+	private void queueLastLoginIndex(Map<File, byte []> changes)
+	{
+		try
+		{
+			changes.put(this.lastLoginIndexFile, this.lastLoginIndex.toBytes());
+			this.lastLoginIndexDirty = false;
+			this.lastLoginIndexWriteTime = System.currentTimeMillis();
+		}
+		catch(IOException e)
+		{
+			GriefPrevention.addLogEntry("Unexpected exception writing the last login index: " + e.getMessage());
+		}
+	}
+	
+	//queues file contents along with any pending deletions
+	private void queueChanges(LinkedHashMap<File, byte []> changes)
+	{
+		//these go last, so a claim which moved to a new file is written before its old file is deleted
+		//a file which was deleted and then written again since the last batch just gets the new contents
+		for(Map.Entry<File, byte []> entry : this.pendingFileChanges.entrySet())
+		{
+			if(!changes.containsKey(entry.getKey()))
+			{
+				changes.put(entry.getKey(), entry.getValue());
+			}
+		}
+		this.pendingFileChanges.clear();
+		
+		this.dataWriter.queue(changes);
+	}
+	
+	//with the snapshot enabled, changed claims are only written as part of the next snapshot
+	//with the journal enabled too, they're appended to the journal now, and the snapshot is written later to compact the journal
+	private void saveClaimSnapshot(Map<File, byte []> changes, List<Claim> claims, Collection<Claim> changedClaims, boolean writeSnapshot)
+	{
+		if(this.claimJournalEnabled)
+		{
+			//top level claims first, since a subdivision's record needs its parent to exist
+			try
+			{
+				for(Claim claim : changedClaims)
+				{
+					if(claim.inDataStore && claim.parent == null) this.pendingJournalRecords.write(ClaimJournal.put(0, ClaimRecord.fromClaim(claim)));
+				}
+				for(Claim claim : changedClaims)
+				{
+					if(claim.inDataStore && claim.parent != null) this.pendingJournalRecords.write(ClaimJournal.put(claim.parent.id, ClaimRecord.fromClaim(claim)));
+				}
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unexpected exception writing the claim journal: " + e.getMessage());
+			}
+			
+			if(this.pendingJournalRecords.size() > 0)
+			{
+				this.claimSnapshotDirty = true;
+				this.dataWriter.queueJournalRecords(this.claimJournalFile, this.pendingJournalRecords.toByteArray());
+				this.pendingJournalRecords.reset();
+			}
+		}
+		
+		else if(!changedClaims.isEmpty())
+		{
+			this.claimSnapshotDirty = true;
+		}
+		
+		if(!this.claimSnapshotDirty) return;
+		if(!writeSnapshot && System.currentTimeMillis() - this.lastClaimSnapshotTime < GriefPrevention.instance.config_claims_snapshotIntervalSeconds * 1000L) return;
+		
+		try
+		{
+			if(this.claimJournalEnabled)
+			{
+				//the new snapshot starts a new journal generation.  the writer swaps both in after everything queued before them
+				this.claimJournalGeneration++;
+				this.dataWriter.queueCompaction(this.claimSnapshotFile, ClaimSnapshot.write(claims, this.unloadedSnapshotClaims, this.claimJournalGeneration), this.claimJournalFile, ClaimJournal.header(this.claimJournalGeneration));
+			}
+			else
+			{
+				changes.put(this.claimSnapshotFile, ClaimSnapshot.write(claims, this.unloadedSnapshotClaims, this.claimJournalGeneration));
+			}
+			
+			this.claimSnapshotDirty = false;
+			this.lastClaimSnapshotTime = System.currentTimeMillis();
+		}
+		catch(IOException e)
+		{
+			GriefPrevention.addLogEntry("Unexpected exception writing the claim snapshot: " + e.getMessage());
+		}
+	}
+	
+	//the claim journal notes deletions as they happen, since the claims involved are gone by the next batch
+	//claim files are deleted on the next batch, except subdivisions, which are written with their parent's file
+	public void deleteClaim(Claim claim)
+	{
+		if(this.claimSnapshotEnabled)
+		{
+			this.claimSnapshotDirty = true;
+			if(!this.claimJournalEnabled) return;
+			
+			try
+			{
+				this.pendingJournalRecords.write(ClaimJournal.delete(claim.parent == null ? 0 : claim.parent.id, claim.id));
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.addLogEntry("Unexpected exception writing the claim journal: " + e.getMessage());
+			}
+		}
+		
+		else if(claim.parent == null)
+		{
+			this.pendingFileChanges.put(FlatFileStorage.getClaimFile(claim.id), null);
+		}
+	}
+	
+	//the index is in memory, so the answer is ready right away
+	public Future<List<String>> getPlayersLastLoginBefore(final Date time)
+	{
+		FutureTask<List<String>> result = new FutureTask<List<String>>(new Callable<List<String>>()
+		{
+			public List<String> call()
+			{
+				return FlatFileStorage.this.lastLoginIndex.getPlayersLastLoginBefore(time.getTime());
+			}
+		});
+		
+		result.run();
+		return result;
+	}
+	
+	//files waiting for the writer thread
+	public int getPendingWrites()
+	{
+		return this.dataWriter.getPendingCount();
+	}
+	
+	//whether there's anything stored in files, see DatabaseStorage's import
+	static boolean hasData()
+	{
+		String [] claimFiles = new File(claimDataFolderPath).list();
+		String [] playerFiles = new File(playerDataFolderPath).list();
+		return (claimFiles != null && claimFiles.length > 0) || (playerFiles != null && playerFiles.length > 0) || new File(claimSnapshotFilePath).exists();
+	}
+	
+	//claims from the snapshot in worlds which aren't loaded, see DatabaseStorage's import
+	List<ClaimRecord> getUnloadedClaims()
+	{
+		return this.unloadedSnapshotClaims;
+	}
+	
+	//names of all players with data files, see DatabaseStorage's import
+	List<String> getPlayerNames()
+	{
+		ArrayList<String> playerNames = new ArrayList<String>();
+		File [] files = new File(playerDataFolderPath).listFiles();
+		if(files == null) return playerNames;
+		
+		for(int i = 0; i < files.length; i++)
+		{
+			if(files[i].isFile() && !files[i].getName().endsWith(tempFileSuffix))
+			{
+				playerNames.add(files[i].getName());
+			}
+		}
+		
+		return playerNames;
+	}
+	
+	//builds the contents of a claim's file, which includes all its subdivisions
+	private String serializeClaim(Claim claim) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		BufferedWriter outStream = new BufferedWriter(writer);
+		
+		this.writeClaimData(claim, outStream);
+		
+		ArrayList<Claim> subdivisions = claim.children;
+		for(int i = 0; i < subdivisions.size(); i++)
+		{
+			//see below for details of writing data to file
+			this.writeClaimData(subdivisions.get(i), outStream);
+		}
+		
+		outStream.close();
+		return writer.toString();
+	}
+	
+	//actually writes claim data to an output stream
+	private void writeClaimData(Claim claim, BufferedWriter outStream) throws IOException
+	{
+		//first line is lesser boundary corner location
+		ClaimBounds bounds = claim.bounds;
+		outStream.write(ClaimRecord.getKey(claim.world.getName(), bounds.lesserX, bounds.lesserY, bounds.lesserZ));
+		outStream.newLine();
+		
+		//second line is greater boundary corner location
+		outStream.write(ClaimRecord.getKey(claim.world.getName(), bounds.greaterX, bounds.greaterY, bounds.greaterZ));
+		outStream.newLine();
+		
+		//third line is owner name
+		outStream.write(claim.ownerName);
+		outStream.newLine();
+		
+		ArrayList<String> builders = new ArrayList<String>();
+		ArrayList<String> containers = new ArrayList<String>();
+		ArrayList<String> accessors = new ArrayList<String>();
+		ArrayList<String> managers = new ArrayList<String>();
+		
+		claim.getPermissions(builders, containers, accessors, managers);
+		
+		//fourth line is list of players with build permission
+		for(int i = 0; i < builders.size(); i++)
+		{
+			outStream.write(builders.get(i) + ";");
+		}
+		outStream.newLine();
+		
+		//fifth line is list of players with container permission
+		for(int i = 0; i < containers.size(); i++)
+		{
+			outStream.write(containers.get(i) + ";");
+		}
+		outStream.newLine();
+		
+		//sixth line is list of players with access permission
+		for(int i = 0; i < accessors.size(); i++)
+		{
+			outStream.write(accessors.get(i) + ";");
+		}
+		outStream.newLine();
+		
+		//seventh line is list of players who may grant permissions for others
+		for(int i = 0; i < managers.size(); i++)
+		{
+			outStream.write(managers.get(i) + ";");
+		}
+		outStream.newLine();
+		
+		//eighth line is the claim's ID
+		outStream.write(String.valueOf(claim.id));
+		outStream.newLine();
+		
+		//cap each claim with "=========="
+		outStream.write("==========");
+		outStream.newLine();
+	}
+	
+	//reads a player's data file, or returns NULL if the player doesn't have one
+	public PlayerData loadPlayerData(String playerName)
+	{
+		File playerFile = new File(playerDataFolderPath + File.separator + playerName);
+		
+		//changes which have been handed to the writer but not written yet are newer than the file
+		byte [] pendingContents = this.dataWriter.getPendingContents(playerFile);
+		
+		if(pendingContents == null && !playerFile.exists()) return null;
+		
+		PlayerData playerData = new PlayerData();
+		BufferedReader inStream = null;
+		try
+		{					
+			if(pendingContents != null)
+				inStream = new BufferedReader(new StringReader(new String(pendingContents)));
+			else
+				inStream = new BufferedReader(new FileReader(playerFile.getAbsolutePath()));
+			
+			//first line is last login timestamp
+			String lastLoginTimestampString = inStream.readLine();
+			
+			//convert that to a date and store it
+			DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");					
+			try
+			{
+				playerData.lastLogin = dateFormat.parse(lastLoginTimestampString);
+			}
+			catch(ParseException parseException)
+			{
+				GriefPrevention.addLogEntry("Unable to load last login for \"" + playerFile.getName() + "\".");
+				playerData.lastLogin = null;
+			}
+			
+			//second line is accrued claim blocks
+			String accruedBlocksString = inStream.readLine();
+			
+			//convert that to a number and store it
+			playerData.accruedClaimBlocks = Integer.parseInt(accruedBlocksString);
+			
+			//third line is any bonus claim blocks granted by administrators
+			String bonusBlocksString = inStream.readLine();					
+			
+			//convert that to a number and store it										
+			playerData.bonusClaimBlocks = Integer.parseInt(bonusBlocksString);
+			
+			//fourth line is a double-semicolon-delimited list of claims, which is currently ignored
+			inStream.readLine();
+			
+			inStream.close();
+		}
+			
+		//if there's any problem with the file's content, log an error message
+		catch(Exception e)
+		{
+			GriefPrevention.addLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());			 
+		}
+		
+		try
+		{
+			if(inStream != null) inStream.close();
+		}
+		catch(IOException exception) {}
+		
+		return playerData;
+	}
+	
+	//builds the contents of a player's data file
+	private String serializePlayerData(PlayerData playerData) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		BufferedWriter outStream = new BufferedWriter(writer);
+		
+		//first line is last login timestamp
+		DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
+		outStream.write(dateFormat.format(playerData.lastLogin));
+		outStream.newLine();
+		
+		//second line is accrued claim blocks
+		outStream.write(String.valueOf(playerData.accruedClaimBlocks));
+		outStream.newLine();			
+		
+		//third line is bonus claim blocks
+		outStream.write(String.valueOf(playerData.bonusClaimBlocks));
+		outStream.newLine();						
+		
+		//fourth line is a double-semicolon-delimited list of claim IDs
+		if(playerData.claims.size() > 0)
+		{
+			outStream.write(String.valueOf(playerData.claims.get(0).id));
+			for(int i = 1; i < playerData.claims.size(); i++)
+			{
+				outStream.write(";;" + playerData.claims.get(i).id);
+			}
+		}
+		outStream.newLine();
+		
+		outStream.close();
+		return writer.toString();
+	}
+	
+	//writes anything outstanding, including the last login index, and stops the background writer
+	public void close()
+	{
+		if(this.readOnly) return;
+		
+		LinkedHashMap<File, byte []> changes = new LinkedHashMap<File, byte []>();
+		if(this.lastLoginIndexDirty) this.queueLastLoginIndex(changes);
+		
+		this.queueChanges(changes);
+		this.dataWriter.close();
+	}
+}
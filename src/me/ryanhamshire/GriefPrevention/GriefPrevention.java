@@ -56,6 +56,12 @@ public class GriefPrevention extends JavaPlugin {
 	//this handles data storage, like player and region data
 	public DataStore dataStore;
 	
+	//finds and deletes expired claims in the background, kept for its statistics
+	ClaimExpirationTask claimExpirationTask;
+	
+	//the event trace being recorded, if any, see /EventTrace
+	EventTraceRecorder eventTraceRecorder;
+	
 	//configuration variables, loaded/saved from a config.yml
 	public ArrayList<World> config_claims_enabledWorlds;			//list of worlds where players can create GriefPrevention claims
 	public ArrayList<World> config_claims_enabledCreativeWorlds;	//list of worlds where additional creative mode anti-grief rules apply
@@ -68,10 +74,13 @@ public class GriefPrevention extends JavaPlugin {
 	public int config_claims_maxAccruedBlocks;						//the limit on accrued blocks (over time).  doesn't limit purchased or admin-gifted blocks 
 	public int config_claims_maxDepth;								//limit on how deep claims can go
 	public int config_claims_expirationDays;						//how many days of inactivity before a player loses his claims
+	public int config_claims_expirationCheckIntervalMinutes;		//how often claim owners are checked for expired claims
+	public int config_claims_expirationMillisPerTick;				//how much of each tick checking for expired claims may take
 	
 	public int config_claims_automaticClaimsForNewPlayersRadius;	//how big automatic new player claims (when they place a chest) should be.  0 to disable
 	public boolean config_claims_creationRequiresPermission;		//whether creating claims with the shovel requires a permission
 	public int config_claims_claimsExtendIntoGroundDistance;		//how far below the shoveled block a new claim will reach
+	public int config_claims_depthExtensionStep;					//how far below a block dug or placed under a claim the claim will be extended
 	public int config_claims_minSize;								//minimum width and height for non-admin claims
         public boolean config_claims_firePlacementRequiresTrust; //players can only place fire (or lava) in claims with trust if set to true
         public boolean config_claims_fireCannotCrossClaimBorders; //prevent fire spread (or lava flow) from crossing claim borders
@@ -79,6 +88,16 @@ public class GriefPrevention extends JavaPlugin {
 	
 	public int config_claims_trappedCooldownHours;					//number of hours between uses of the /trapped command
 	
+	public int config_playerDataCacheSize;							//how many offline players' data to keep in memory
+	
+	public boolean config_claims_snapshotEnabled;					//whether claims are stored in one binary snapshot file instead of one file per claim
+	public int config_claims_snapshotIntervalSeconds;				//how often a changed claim snapshot is written
+	public boolean config_claims_journalEnabled;					//whether claim changes are journaled between snapshots
+	public boolean config_databaseEnabled;							//whether claims and player data are kept in a database file instead of data files
+	
+	public boolean config_statistics_enabled;						//whether event handlers and data store calls are timed, see /GPStats
+	public int config_statistics_logIntervalMinutes;				//how often the busiest operations are logged.  set to zero to disable logging.
+	
 	public double config_economy_claimBlocksPurchaseCost;			//cost to purchase a claim block.  set to zero to disable purchase.
 	public double config_economy_claimBlocksSellValue;				//return on a sold claim block.  set to zero to disable sale.
 	
@@ -179,15 +198,28 @@ public class GriefPrevention extends JavaPlugin {
 		this.config_claims_maxAccruedBlocks = config.getInt("GriefPrevention.Claims.MaxAccruedBlocks", 80000);
 		this.config_claims_automaticClaimsForNewPlayersRadius = config.getInt("GriefPrevention.Claims.AutomaticNewPlayerClaimsRadius", 4);
 		this.config_claims_claimsExtendIntoGroundDistance = config.getInt("GriefPrevention.Claims.ExtendIntoGroundDistance", 5);
+		this.config_claims_depthExtensionStep = config.getInt("GriefPrevention.Claims.DepthExtensionStep", 16);
+		if(this.config_claims_depthExtensionStep < this.config_claims_claimsExtendIntoGroundDistance) this.config_claims_depthExtensionStep = this.config_claims_claimsExtendIntoGroundDistance;
 		this.config_claims_creationRequiresPermission = config.getBoolean("GriefPrevention.Claims.CreationRequiresPermission", false);
 		this.config_claims_minSize = config.getInt("GriefPrevention.Claims.MinimumSize", 10);
 		this.config_claims_maxDepth = config.getInt("GriefPrevention.Claims.MaximumDepth", 0);
 		this.config_claims_expirationDays = config.getInt("GriefPrevention.Claims.IdleLimitDays", 0);
+		this.config_claims_expirationCheckIntervalMinutes = config.getInt("GriefPrevention.Claims.ExpirationCheckIntervalMinutes", 60);
+		this.config_claims_expirationMillisPerTick = config.getInt("GriefPrevention.Claims.ExpirationCheckMillisecondsPerTick", 2);
 		this.config_claims_trappedCooldownHours = config.getInt("GriefPrevention.Claims.TrappedCommandCooldownHours", 8);
                 this.config_claims_firePlacementRequiresTrust = config.getBoolean("GriefPrevention.Claims.FirePlacementRequiresTrust", true);
                 this.config_claims_fireCannotCrossClaimBorders = config.getBoolean("GriefPrevention.Claims.FireCannotCrossClaimBorders", true);
                 this.config_claims_lockDoors = config.getBoolean("GriefPrevention.Claims.LockDoors", false);
 		
+		this.config_playerDataCacheSize = config.getInt("GriefPrevention.PlayerDataCacheSize", 1000);
+		this.config_claims_snapshotEnabled = config.getBoolean("GriefPrevention.Storage.ClaimSnapshot.Enabled", false);
+		this.config_claims_snapshotIntervalSeconds = config.getInt("GriefPrevention.Storage.ClaimSnapshot.IntervalSeconds", 60);
+		this.config_claims_journalEnabled = config.getBoolean("GriefPrevention.Storage.ClaimSnapshot.Journal", true);
+		this.config_databaseEnabled = config.getBoolean("GriefPrevention.Storage.Database.Enabled", false);
+		
+		this.config_statistics_enabled = config.getBoolean("GriefPrevention.Statistics.Enabled", true);
+		this.config_statistics_logIntervalMinutes = config.getInt("GriefPrevention.Statistics.LogIntervalMinutes", 60);
+		
 		this.config_economy_claimBlocksPurchaseCost = config.getDouble("GriefPrevention.Economy.ClaimBlocksPurchaseCost", 0);
 		this.config_economy_claimBlocksSellValue = config.getDouble("GriefPrevention.Economy.ClaimBlocksSellValue", 0);
 
@@ -200,15 +232,27 @@ public class GriefPrevention extends JavaPlugin {
 		config.set("GriefPrevention.Claims.MaxAccruedBlocks", this.config_claims_maxAccruedBlocks);
 		config.set("GriefPrevention.Claims.AutomaticNewPlayerClaimsRadius", this.config_claims_automaticClaimsForNewPlayersRadius);
 		config.set("GriefPrevention.Claims.ExtendIntoGroundDistance", this.config_claims_claimsExtendIntoGroundDistance);
+		config.set("GriefPrevention.Claims.DepthExtensionStep", this.config_claims_depthExtensionStep);
 		config.set("GriefPrevention.Claims.CreationRequiresPermission", this.config_claims_creationRequiresPermission);
 		config.set("GriefPrevention.Claims.MinimumSize", this.config_claims_minSize);
 		config.set("GriefPrevention.Claims.MaximumDepth", this.config_claims_maxDepth);
 		config.set("GriefPrevention.Claims.IdleLimitDays", this.config_claims_expirationDays);
+		config.set("GriefPrevention.Claims.ExpirationCheckIntervalMinutes", this.config_claims_expirationCheckIntervalMinutes);
+		config.set("GriefPrevention.Claims.ExpirationCheckMillisecondsPerTick", this.config_claims_expirationMillisPerTick);
 		config.set("GriefPrevention.Claims.TrappedCommandCooldownHours", this.config_claims_trappedCooldownHours);
                 config.set("GriefPrevention.Claims.FirePlacementRequiresTrust", config_claims_firePlacementRequiresTrust);
                 config.set("GriefPrevention.Claims.FireCannotCrossClaimBorders", config_claims_fireCannotCrossClaimBorders);
                 config.set("GriefPrevention.Claims.LockDoors", config_claims_lockDoors);
                 
+		config.set("GriefPrevention.PlayerDataCacheSize", this.config_playerDataCacheSize);
+		config.set("GriefPrevention.Storage.ClaimSnapshot.Enabled", this.config_claims_snapshotEnabled);
+		config.set("GriefPrevention.Storage.ClaimSnapshot.IntervalSeconds", this.config_claims_snapshotIntervalSeconds);
+		config.set("GriefPrevention.Storage.ClaimSnapshot.Journal", this.config_claims_journalEnabled);
+		config.set("GriefPrevention.Storage.Database.Enabled", this.config_databaseEnabled);
+		
+		config.set("GriefPrevention.Statistics.Enabled", this.config_statistics_enabled);
+		config.set("GriefPrevention.Statistics.LogIntervalMinutes", this.config_statistics_logIntervalMinutes);
+		
 		config.set("GriefPrevention.Economy.ClaimBlocksPurchaseCost", this.config_economy_claimBlocksPurchaseCost);
 		config.set("GriefPrevention.Economy.ClaimBlocksSellValue", this.config_economy_claimBlocksSellValue);
 
@@ -221,8 +265,31 @@ public class GriefPrevention extends JavaPlugin {
 			addLogEntry("Unable to write to the configuration file at \"" + DataStore.configFilePath + "\"");
 		}
 		
+		//timing is switched on or off before anything is timed
+		Statistics.enabled = this.config_statistics_enabled;
+		
 		//when datastore initializes, it loads player and claim data, and posts some stats to the log
-		this.dataStore = new DataStore();
+		//without the claims nothing would be protected, so if they can't be loaded the plugin turns itself off instead of running without them
+		try
+		{
+			this.dataStore = new DataStore();
+		}
+		catch(Exception e)
+		{
+			addLogEntry("Error: Unable to load claims, so GriefPrevention is disabling itself to keep from running with no claims: " + e.getMessage());
+			this.getServer().getPluginManager().disablePlugin(this);
+			return;
+		}
+		
+		//changed data is written to disk in the background, start the recurring per second event which hands it off
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new DataFlushTask(), 20L, 20L);
+		
+		//claim changes are published for other threads once every tick, see DataStore.getClaimIndex()
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new ClaimIndexTask(), 1L, 1L);
+		
+		//expired claims are found and deleted a little at a time, every tick
+		this.claimExpirationTask = new ClaimExpirationTask();
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.claimExpirationTask, 1L, 1L);
 		
 		//unless claim block accrual is disabled, start the recurring per 5 minute event to give claim blocks to online players
 		//20L ~ 1 second
@@ -232,20 +299,27 @@ public class GriefPrevention extends JavaPlugin {
 			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, task, 20L * 60 * 5, 20L * 60 * 5);
 		}
 		
-		//register for events
+		//unless statistics or their logging are disabled, log the busiest operations now and then
+		if(this.config_statistics_enabled && this.config_statistics_logIntervalMinutes > 0)
+		{
+			long interval = 20L * 60 * this.config_statistics_logIntervalMinutes;
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new StatisticsLogTask(), interval, interval);
+		}
+		
+		//register for events, timing each handler unless statistics are disabled
 		PluginManager pluginManager = this.getServer().getPluginManager();
 		
 		//player events
 		PlayerEventHandler playerEventHandler = new PlayerEventHandler(this.dataStore, this);
-		pluginManager.registerEvents(playerEventHandler, this);
+		Statistics.registerEvents(pluginManager, playerEventHandler, this);
 		
 		//block events
 		BlockEventHandler blockEventHandler = new BlockEventHandler(this.dataStore);
-		pluginManager.registerEvents(blockEventHandler, this);
+		Statistics.registerEvents(pluginManager, blockEventHandler, this);
 				
 		//entity events
 		EntityEventHandler entityEventHandler = new EntityEventHandler(this.dataStore);
-		pluginManager.registerEvents(entityEventHandler, this);
+		Statistics.registerEvents(pluginManager, entityEventHandler, this);
 		
 		//if economy is enabled
 		if(this.config_economy_claimBlocksPurchaseCost > 0 || this.config_economy_claimBlocksSellValue > 0) {
@@ -291,7 +365,7 @@ public class GriefPrevention extends JavaPlugin {
                                 player.sendMessage("" + ChatColor.RED + "You must stand inside a claim.");
                                 return true;
                         }
-                        player.sendMessage("Depth: " + claim.lesserBoundaryCorner.getBlockY());
+                        player.sendMessage("Depth: " + claim.bounds.lesserY);
                         return true;
                 }
 		
@@ -340,7 +414,7 @@ public class GriefPrevention extends JavaPlugin {
 			
 			//count claims
 			PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-			int originalClaimCount = playerData.claims.size();
+			int originalClaimCount = playerData.getClaims().size();
 			
 			//check count
 			if(originalClaimCount == 0)
@@ -488,7 +562,7 @@ public class GriefPrevention extends JavaPlugin {
 			OfflinePlayer otherPlayer = null;
 			if(args[0].equals("all"))				
 			{
-				if(claim == null || claim.allowEdit(player) == null)
+				if(claim == null || claim.checkEdit(player) == PermissionResult.Allowed)
 				{
 					clearPermissions = true;
 				}
@@ -517,10 +591,10 @@ public class GriefPrevention extends JavaPlugin {
 			//if no claim here, apply changes to all his claims
 			if(claim == null)
 			{
-				PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-				for(int i = 0; i < playerData.claims.size(); i++)
+				List<Claim> playerClaims = this.dataStore.getPlayerData(player.getName()).getClaims();
+				for(int i = 0; i < playerClaims.size(); i++)
 				{
-					claim = playerData.claims.get(i);
+					claim = playerClaims.get(i);
 					
 					//if untrusting "all" drop all permissions
 					if(clearPermissions)
@@ -532,7 +606,7 @@ public class GriefPrevention extends JavaPlugin {
 					else
 					{
 						claim.dropPermission(args[0]);
-						claim.managers.remove(args[0]);
+						claim.dropManager(args[0]);
 					}
 					
 					//save changes
@@ -557,7 +631,7 @@ public class GriefPrevention extends JavaPlugin {
 			}			
 			
 			//otherwise, apply changes to only this claim
-			else if(claim.allowGrantPermission(player) != null)
+			else if(claim.checkGrantPermission(player) != PermissionResult.Allowed)
 			{
 				GriefPrevention.sendMessage(player, TextMode.Err, "You don't have " + claim.getOwnerName() + "'s permission to manage permissions here.");
 			}
@@ -574,9 +648,9 @@ public class GriefPrevention extends JavaPlugin {
 				else
 				{
 					claim.dropPermission(args[0]);
-					if(claim.allowEdit(player) == null)
+					if(claim.checkEdit(player) == PermissionResult.Allowed)
 					{
-						claim.managers.remove(args[0]);
+						claim.dropManager(args[0]);
 						
 						//beautify for output
 						if(args[0].equals("public"))
@@ -925,7 +999,7 @@ public class GriefPrevention extends JavaPlugin {
 			//FEATURE: empower players who get "stuck" in an area where they don't have permission to build to save themselves
 			
 			PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-			Claim claim = this.dataStore.getClaimAt(player.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getCachedClaimAt(player.getLocation(), false, playerData.claimHints);
 			
 			//if another /trapped is pending, ignore this slash command
 			if(playerData.pendingTrapped)
@@ -934,7 +1008,7 @@ public class GriefPrevention extends JavaPlugin {
 			}
 			
 			//if the player isn't in a claim or has permission to build, tell him to man up
-			if(claim == null || claim.allowBuild(player) == null)
+			if(claim == null || claim.checkBuild(player) == PermissionResult.Allowed)
 			{
 				GriefPrevention.sendMessage(player, TextMode.Err, "You can build here. Save yourself.");
 				return true;
@@ -966,9 +1040,128 @@ public class GriefPrevention extends JavaPlugin {
 			return true;
 		}
 		
+		//eventtrace start [minutes], or eventtrace stop
+		else if(cmd.getName().equalsIgnoreCase("eventtrace"))
+		{
+			if(args.length < 1) return false;
+			
+			if(args[0].equalsIgnoreCase("start"))
+			{
+				if(this.eventTraceRecorder != null)
+				{
+					GriefPrevention.sendMessage(sender, TextMode.Err, "Already recording to " + this.eventTraceRecorder.getTraceFile().getName() + ".");
+					return true;
+				}
+				
+				int minutes = 60;
+				if(args.length > 1)
+				{
+					try
+					{
+						minutes = Integer.parseInt(args[1]);
+					}
+					catch(NumberFormatException numberFormatException)
+					{
+						return false;  //causes usage to be displayed
+					}
+				}
+				
+				try
+				{
+					this.eventTraceRecorder = EventTraceRecorder.start(this);
+				}
+				catch(IOException exception)
+				{
+					GriefPrevention.sendMessage(sender, TextMode.Err, "Unable to start an event trace: " + exception.getMessage());
+					return true;
+				}
+				
+				//stop on time unless someone stops it (and maybe starts another) first
+				final EventTraceRecorder recorder = this.eventTraceRecorder;
+				this.getServer().getScheduler().scheduleSyncDelayedTask(this, new Runnable()
+				{
+					public void run()
+					{
+						if(GriefPrevention.instance.eventTraceRecorder == recorder)
+						{
+							GriefPrevention.instance.stopEventTrace();
+						}
+					}
+				}, 20L * 60 * minutes);
+				
+				GriefPrevention.sendMessage(sender, TextMode.Success, "Recording an event trace to " + recorder.getTraceFile().getName() + " for " + minutes + " minutes.");
+				GriefPrevention.addLogEntry(sender.getName() + " started event trace " + recorder.getTraceFile().getName() + ".");
+				return true;
+			}
+			
+			else if(args[0].equalsIgnoreCase("stop"))
+			{
+				if(this.eventTraceRecorder == null)
+				{
+					GriefPrevention.sendMessage(sender, TextMode.Err, "No event trace is being recorded.");
+					return true;
+				}
+				
+				EventTraceRecorder recorder = this.eventTraceRecorder;
+				this.stopEventTrace();
+				GriefPrevention.sendMessage(sender, TextMode.Success, "Recorded " + recorder.getEntryCount() + " events to " + recorder.getTraceFile().getName() + ".");
+				return true;
+			}
+			
+			return false;
+		}
+		
+		//gpstats [all|reset]
+		else if(cmd.getName().equalsIgnoreCase("gpstats"))
+		{
+			if(!Statistics.enabled)
+			{
+				GriefPrevention.sendMessage(sender, TextMode.Err, "Statistics are disabled in the config file.");
+				return true;
+			}
+			
+			int limit = 10;
+			if(args.length > 0)
+			{
+				if(args[0].equalsIgnoreCase("reset"))
+				{
+					Statistics.reset();
+					GriefPrevention.sendMessage(sender, TextMode.Success, "Statistics reset.");
+					return true;
+				}
+				
+				else if(args[0].equalsIgnoreCase("all"))
+				{
+					limit = Integer.MAX_VALUE;
+				}
+				
+				else
+				{
+					return false;
+				}
+			}
+			
+			List<String> lines = Statistics.getReport(limit);
+			for(String line : lines)
+			{
+				GriefPrevention.sendMessage(sender, TextMode.Info, line);
+			}
+			
+			return true;
+		}
+		
 		return false; 
 	}
 	
+	//stops the event trace being recorded, see /EventTrace
+	void stopEventTrace()
+	{
+		EventTraceRecorder recorder = this.eventTraceRecorder;
+		this.eventTraceRecorder = null;
+		recorder.stop();
+		GriefPrevention.addLogEntry("Event trace " + recorder.getTraceFile().getName() + " stopped after " + recorder.getEntryCount() + " events.");
+	}
+	
 	public static String getfriendlyLocationString(Location location) 
 	{
 		return location.getWorld().getName() + "(" + location.getBlockX() + "," + location.getBlockY() + "," + location.getBlockZ() + ")";
@@ -989,7 +1182,7 @@ public class GriefPrevention extends JavaPlugin {
 		}
 		
 		//verify ownership
-		else if(claim.allowEdit(player) != null)
+		else if(claim.checkEdit(player) != PermissionResult.Allowed)
 		{
 			GriefPrevention.sendMessage(player, TextMode.Err, "This isn't your claim.");
 		}
@@ -1046,16 +1239,12 @@ public class GriefPrevention extends JavaPlugin {
 		ArrayList<Claim> targetClaims = new ArrayList<Claim>();
 		if(claim == null)
 		{
-			PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-			for(int i = 0; i < playerData.claims.size(); i++)
-			{
-				targetClaims.add(playerData.claims.get(i));
-			}
+			targetClaims.addAll(this.dataStore.getPlayerData(player.getName()).getClaims());
 		}
 		else
 		{
 			//check permission here
-			if(claim.allowGrantPermission(player) != null)
+			if(claim.checkGrantPermission(player) != PermissionResult.Allowed)
 			{
 				GriefPrevention.sendMessage(player, TextMode.Err, "You don't have " + claim.getOwnerName() + "'s permission to grant permissions here.");
 				return;
@@ -1113,10 +1302,7 @@ public class GriefPrevention extends JavaPlugin {
 			Claim currentClaim = targetClaims.get(i);
 			if(permissionLevel == null)
 			{
-				if(!currentClaim.managers.contains(recipientName))
-				{
-					currentClaim.managers.add(recipientName);
-				}
+				currentClaim.addManager(recipientName);
 			}
 			else
 			{				
@@ -1181,6 +1367,17 @@ public class GriefPrevention extends JavaPlugin {
 
 	public void onDisable()
 	{ 
+		if(this.eventTraceRecorder != null)
+		{
+			this.stopEventTrace();
+		}
+		
+		//make sure every change is on disk before the server goes down
+		if(this.dataStore != null)
+		{
+			this.dataStore.close();
+		}
+		
 		addLogEntry("GriefPrevention disabled.");
 	}
 	
@@ -1203,7 +1400,8 @@ public class GriefPrevention extends JavaPlugin {
 			//if there's a claim here, keep looking
 			if(claim != null)
 			{
-				candidateLocation = new Location(claim.lesserBoundaryCorner.getWorld(), claim.lesserBoundaryCorner.getBlockX() - 1, claim.lesserBoundaryCorner.getBlockY(), claim.lesserBoundaryCorner.getBlockZ() - 1);
+				ClaimBounds bounds = claim.bounds;
+				candidateLocation = new Location(claim.world, bounds.lesserX - 1, bounds.lesserY, bounds.lesserZ - 1);
 				continue;
 			}
 			
@@ -1243,7 +1441,7 @@ public class GriefPrevention extends JavaPlugin {
 	public String allowBuild(Player player, Location location)
 	{
 		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-		Claim claim = this.dataStore.getClaimAt(location, false, playerData.lastClaim);
+		Claim claim = this.dataStore.getCachedClaimAt(location, false, playerData.claimHints);
 		
 		//wilderness rules
 		if(claim == null)
@@ -1260,9 +1458,6 @@ public class GriefPrevention extends JavaPlugin {
 			//but it's fine in survival mode
 			else
 			{
-				//cache the claim for later reference
-				playerData.lastClaim = claim;
-			
 				return null;
 			}
 		}
@@ -1274,7 +1469,7 @@ public class GriefPrevention extends JavaPlugin {
 	public String allowBreak(Player player, Location location)
 	{
 		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-		Claim claim = this.dataStore.getClaimAt(location, false, playerData.lastClaim);
+		Claim claim = this.dataStore.getCachedClaimAt(location, false, playerData.claimHints);
 		
 		//wilderness rules
 		if(claim == null)
@@ -1291,9 +1486,6 @@ public class GriefPrevention extends JavaPlugin {
 			//but it's fine in survival mode
 			else
 			{
-				//cache the claim for later reference
-				playerData.lastClaim = claim;
-			
 				return null;
 			}
 		}
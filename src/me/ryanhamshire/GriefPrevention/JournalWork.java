@@ -0,0 +1,119 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+
+//claim journal work waiting for the data writer thread, see DataWriterThread
+//keeps the order the journal depends on: records queued before a compaction, then the new snapshot and a fresh journal, then records queued after it
+//if the new snapshot can't be written, the old snapshot and journal stay in use, and every record still gets appended to that journal
+class JournalWork 
+{
+	private File journalFile = null;
+	private ByteArrayOutputStream recordsBeforeCompaction = new ByteArrayOutputStream();
+	private File snapshotFile = null;
+	private byte [] snapshot = null;
+	private byte [] journalHeader = null;
+	private ByteArrayOutputStream recordsAfterCompaction = new ByteArrayOutputStream();
+	
+	boolean isEmpty()
+	{
+		return this.recordsBeforeCompaction.size() == 0 && this.snapshot == null;
+	}
+	
+	void append(File journalFile, byte [] records)
+	{
+		this.journalFile = journalFile;
+		if(this.snapshot == null)
+		{
+			this.recordsBeforeCompaction.write(records, 0, records.length);
+		}
+		else
+		{
+			this.recordsAfterCompaction.write(records, 0, records.length);
+		}
+	}
+	
+	void compact(File snapshotFile, byte [] snapshot, File journalFile, byte [] journalHeader)
+	{
+		//a newer snapshot replaces a pending one, and everything queued so far comes before it
+		if(this.snapshot != null)
+		{
+			byte [] records = this.recordsAfterCompaction.toByteArray();
+			this.recordsBeforeCompaction.write(records, 0, records.length);
+			this.recordsAfterCompaction.reset();
+		}
+		
+		this.journalFile = journalFile;
+		this.snapshotFile = snapshotFile;
+		this.snapshot = snapshot;
+		this.journalHeader = journalHeader;
+	}
+	
+	//runs on the data writer thread
+	void write()
+	{
+		if(this.isEmpty()) return;
+		
+		try
+		{
+			if(this.recordsBeforeCompaction.size() > 0)
+			{
+				JournalWork.appendToFile(this.journalFile, this.recordsBeforeCompaction.toByteArray());
+			}
+			
+			if(this.snapshot != null)
+			{
+				DataWriterThread.writeFile(this.snapshotFile, this.snapshot);
+				DataWriterThread.writeFile(this.journalFile, this.journalHeader);
+			}
+		}
+		catch(IOException e)
+		{
+			GriefPrevention.addLogEntry("Unexpected exception writing the claim snapshot or journal, keeping the previous snapshot and journal: " + e.getMessage());
+		}
+		
+		try
+		{
+			if(this.recordsAfterCompaction.size() > 0)
+			{
+				JournalWork.appendToFile(this.journalFile, this.recordsAfterCompaction.toByteArray());
+			}
+		}
+		catch(IOException e)
+		{
+			GriefPrevention.addLogEntry("Unexpected exception writing the claim journal: " + e.getMessage());
+		}
+	}
+	
+	//appends and waits for the disk, so a whole group of records is durable with a single sync
+	private static void appendToFile(File file, byte [] data) throws IOException
+	{
+		FileOutputStream outStream = new FileOutputStream(file, true);
+		try
+		{
+			outStream.write(data);
+			outStream.getFD().sync();
+		}
+		finally
+		{
+			outStream.close();
+		}
+	}
+}
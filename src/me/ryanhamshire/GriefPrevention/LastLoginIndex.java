@@ -0,0 +1,146 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+//every player's last login time, kept in one small file so that finding players who've been away doesn't mean reading every player file
+//layout: magic, version, entry count, then each entry's last login and player name, sorted by last login, then a CRC32 of everything before it
+//only touched from the main thread, see FlatFileStorage
+class LastLoginIndex 
+{
+	private final static int MAGIC = 0x47504c4c;  //"GPLL"
+	private final static int VERSION = 1;
+	
+	//last login by player name, and player names by last login
+	private HashMap<String, Long> playerNameToLastLoginMap = new HashMap<String, Long>();
+	private TreeMap<Long, ArrayList<String>> lastLoginToPlayerNamesMap = new TreeMap<Long, ArrayList<String>>();
+	
+	void update(String playerName, long lastLogin)
+	{
+		Long oldLastLogin = this.playerNameToLastLoginMap.put(playerName, lastLogin);
+		if(oldLastLogin != null)
+		{
+			if(oldLastLogin.longValue() == lastLogin) return;
+			
+			ArrayList<String> playerNames = this.lastLoginToPlayerNamesMap.get(oldLastLogin);
+			playerNames.remove(playerName);
+			if(playerNames.isEmpty())
+			{
+				this.lastLoginToPlayerNamesMap.remove(oldLastLogin);
+			}
+		}
+		
+		ArrayList<String> playerNames = this.lastLoginToPlayerNamesMap.get(lastLogin);
+		if(playerNames == null)
+		{
+			playerNames = new ArrayList<String>(1);
+			this.lastLoginToPlayerNamesMap.put(lastLogin, playerNames);
+		}
+		
+		playerNames.add(playerName);
+	}
+	
+	//names of players whose last login was before a time, earliest first
+	List<String> getPlayersLastLoginBefore(long time)
+	{
+		ArrayList<String> result = new ArrayList<String>();
+		for(ArrayList<String> playerNames : this.lastLoginToPlayerNamesMap.headMap(time).values())
+		{
+			result.addAll(playerNames);
+		}
+		
+		return result;
+	}
+	
+	boolean contains(String playerName)
+	{
+		return this.playerNameToLastLoginMap.containsKey(playerName);
+	}
+	
+	int size()
+	{
+		return this.playerNameToLastLoginMap.size();
+	}
+	
+	byte [] toBytes() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(24 + this.playerNameToLastLoginMap.size() * 24);
+		CRC32 checksum = new CRC32();
+		DataOutputStream outStream = new DataOutputStream(new CheckedOutputStream(bytes, checksum));
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+		outStream.writeInt(this.playerNameToLastLoginMap.size());
+		
+		for(Map.Entry<Long, ArrayList<String>> entry : this.lastLoginToPlayerNamesMap.entrySet())
+		{
+			ArrayList<String> playerNames = entry.getValue();
+			for(int i = 0; i < playerNames.size(); i++)
+			{
+				outStream.writeLong(entry.getKey());
+				outStream.writeUTF(playerNames.get(i));
+			}
+		}
+		
+		outStream.flush();
+		new DataOutputStream(bytes).writeLong(checksum.getValue());
+		outStream.close();
+		return bytes.toByteArray();
+	}
+	
+	//throws if the file is truncated or doesn't match its checksum, so a damaged index is rebuilt rather than trusted
+	static LastLoginIndex read(File file) throws IOException
+	{
+		LastLoginIndex index = new LastLoginIndex();
+		CRC32 checksum = new CRC32();
+		InputStream fileStream = new BufferedInputStream(new FileInputStream(file));
+		DataInputStream inStream = new DataInputStream(new CheckedInputStream(fileStream, checksum));
+		try
+		{
+			if(inStream.readInt() != MAGIC) throw new IOException("Not a last login index.");
+			int version = inStream.readInt();
+			if(version != VERSION) throw new IOException("Unsupported last login index version " + version + ".");
+			
+			int count = inStream.readInt();
+			for(int i = 0; i < count; i++)
+			{
+				long lastLogin = inStream.readLong();
+				index.update(inStream.readUTF(), lastLogin);
+			}
+			
+			long expectedChecksum = checksum.getValue();
+			if(new DataInputStream(fileStream).readLong() != expectedChecksum) throw new IOException("Last login index checksum doesn't match.");
+			if(fileStream.read() != -1) throw new IOException("Unexpected data after the last login index.");
+		}
+		catch(EOFException e)
+		{
+			throw new IOException("Last login index is truncated.");
+		}
+		finally
+		{
+			inStream.close();
+		}
+		
+		return index;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//call count and latency histogram for one operation, see Statistics
+//counters are split into a few stripes picked by thread, so an async thread timing the same operation doesn't fight the server thread over one cache line
+//latencies are counted in buckets, four per power of two, so a percentile is never off by more than a quarter
+class OperationStats
+{
+	private final static int STRIPES = 4;
+	
+	//bucket index is (highest bit * 4) + the next two bits, which stays under 256 for any long
+	private final static int BUCKETS = 256;
+	
+	//each stripe keeps its total and maximum after its buckets
+	private final static int TOTAL = BUCKETS;
+	private final static int MAXIMUM = BUCKETS + 1;
+	
+	//the name shown in /GPStats, like "BlockEventHandler.onBlockBreak"
+	final String name;
+	
+	private final AtomicLongArray [] stripes = new AtomicLongArray[STRIPES];
+	
+	OperationStats(String name)
+	{
+		this.name = name;
+		for(int i = 0; i < STRIPES; i++)
+		{
+			this.stripes[i] = new AtomicLongArray(BUCKETS + 2);
+		}
+	}
+	
+	//call before the operation and pass the result to end() after it
+	//returns zero when statistics are disabled, which end() ignores
+	long start()
+	{
+		if(!Statistics.enabled) return 0;
+		
+		return System.nanoTime();
+	}
+	
+	void end(long startTime)
+	{
+		if(startTime == 0) return;
+		
+		long nanos = System.nanoTime() - startTime;
+		if(nanos < 0) nanos = 0;
+		
+		AtomicLongArray stripe = this.stripes[(int)Thread.currentThread().getId() & (STRIPES - 1)];
+		stripe.incrementAndGet(OperationStats.getBucket(nanos));
+		stripe.addAndGet(TOTAL, nanos);
+		
+		long maximum = stripe.get(MAXIMUM);
+		while(nanos > maximum && !stripe.compareAndSet(MAXIMUM, maximum, nanos))
+		{
+			maximum = stripe.get(MAXIMUM);
+		}
+	}
+	
+	//sums the stripes.  calls which finish meanwhile may or may not be included
+	Snapshot getSnapshot()
+	{
+		Snapshot snapshot = new Snapshot(this.name);
+		for(int i = 0; i < STRIPES; i++)
+		{
+			AtomicLongArray stripe = this.stripes[i];
+			for(int bucket = 0; bucket < BUCKETS; bucket++)
+			{
+				long count = stripe.get(bucket);
+				snapshot.buckets[bucket] += count;
+				snapshot.calls += count;
+			}
+			
+			snapshot.totalNanos += stripe.get(TOTAL);
+			snapshot.maximumNanos = Math.max(snapshot.maximumNanos, stripe.get(MAXIMUM));
+		}
+		
+		return snapshot;
+	}
+	
+	void reset()
+	{
+		for(int i = 0; i < STRIPES; i++)
+		{
+			AtomicLongArray stripe = this.stripes[i];
+			for(int j = 0; j < BUCKETS + 2; j++)
+			{
+				stripe.set(j, 0);
+			}
+		}
+	}
+	
+	static int getBucket(long nanos)
+	{
+		if(nanos < 4) return (int)nanos;
+		
+		int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+		return highestBit * 4 + (int)((nanos >>> (highestBit - 2)) & 3);
+	}
+	
+	//the largest latency which falls into a bucket
+	static long getBucketLimit(int bucket)
+	{
+		if(bucket < 4) return bucket;
+		
+		int highestBit = bucket / 4;
+		return ((4L + bucket % 4 + 1) << (highestBit - 2)) - 1;
+	}
+	
+	//an operation's counters at one point in time
+	static class Snapshot
+	{
+		final String name;
+		final long [] buckets = new long[BUCKETS];
+		long calls;
+		long totalNanos;
+		long maximumNanos;
+		
+		Snapshot(String name)
+		{
+			this.name = name;
+		}
+		
+		//the latency which the given fraction of calls didn't exceed, rounded up to its bucket's limit
+		long getPercentileNanos(double fraction)
+		{
+			long target = (long)Math.ceil(this.calls * fraction);
+			if(target < 1) target = 1;
+			
+			long seen = 0;
+			for(int bucket = 0; bucket < BUCKETS; bucket++)
+			{
+				seen += this.buckets[bucket];
+				if(seen >= target)
+				{
+					return Math.min(OperationStats.getBucketLimit(bucket), this.maximumNanos);
+				}
+			}
+			
+			return this.maximumNanos;
+		}
+	}
+}
@@ -18,17 +18,25 @@
 
 package me.ryanhamshire.GriefPrevention;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Vector;
+import java.util.List;
 
 import org.bukkit.Location;
 
 //holds all of GriefPrevention's player-tied data
 public class PlayerData 
 {
-	//the player's claims
-	public Vector<Claim> claims = new Vector<Claim>();
+	//the player's claims.  only touched while synchronized on the DataStore, and only changed through addClaim() and removeClaim()
+	ArrayList<Claim> claims = new ArrayList<Claim>();
+	
+	//read only copy of the claims list, replaced whenever the list changes so it's safe to hand out, see getClaims()
+	private volatile List<Claim> claimsSnapshot = Collections.emptyList();
+	
+	//total area of the player's claims, kept up to date as claims are added and removed
+	private int claimedArea = 0;
 	
 	//how many claim blocks the player has earned via play time
 	public int accruedClaimBlocks = GriefPrevention.instance.config_claims_initialBlocks;
@@ -73,8 +81,8 @@ public class PlayerData
 	//ignore claims mode
 	public boolean ignoreClaims = false;
 	
-	//the last claim this player was in, that we know of
-	public Claim lastClaim = null;
+	//the claims this player's last few lookups found, see DataStore.getCachedClaimAt()
+	ClaimHintCache claimHints = new ClaimHintCache(Statistics.playerClaimHints);
 	
 	//safety confirmation for deleting multi-subdivision claims
 	public boolean warnedAboutMajorDeletion = false;
@@ -93,13 +101,49 @@ public class PlayerData
 	//the number of claim blocks a player has available for claiming land
 	public int getRemainingClaimBlocks()
 	{
-		int remainingBlocks = this.accruedClaimBlocks + this.bonusClaimBlocks;
-		for(int i = 0; i < this.claims.size(); i++)
+		return this.accruedClaimBlocks + this.bonusClaimBlocks - this.claimedArea;
+	}
+	
+	//the player's claims, as a read only list which won't change after it's returned
+	public List<Claim> getClaims()
+	{
+		return this.claimsSnapshot;
+	}
+	
+	void addClaim(Claim claim)
+	{
+		this.claims.add(claim);
+		this.claimedArea += claim.getArea();
+		this.publishClaims();
+	}
+	
+	void addClaims(List<Claim> claims)
+	{
+		for(int i = 0; i < claims.size(); i++)
 		{
-			Claim claim = this.claims.get(i);
-			remainingBlocks -= claim.getArea();
+			this.claims.add(claims.get(i));
+			this.claimedArea += claims.get(i).getArea();
 		}
-		
-		return remainingBlocks;
+		this.publishClaims();
+	}
+	
+	void removeClaim(Claim claim)
+	{
+		if(this.claims.remove(claim))
+		{
+			this.claimedArea -= claim.getArea();
+			this.publishClaims();
+		}
+	}
+	
+	//called when one of the player's claims changes size
+	void adjustClaimedArea(int change)
+	{
+		this.claimedArea += change;
+	}
+	
+	private void publishClaims()
+	{
+		this.claimsSnapshot = Collections.unmodifiableList(new ArrayList<Claim>(this.claims));
 	}
 }
\ No newline at end of file
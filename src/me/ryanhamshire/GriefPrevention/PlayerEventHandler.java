@@ -130,6 +130,9 @@ class PlayerEventHandler implements Listener
 	{
 		String playerName = event.getPlayer().getName();
 		
+		//keep his data in memory while he's online
+		this.dataStore.setPlayerOnline(playerName, true);
+		
 		//note login time
 		PlayerData playerData = this.dataStore.getPlayerData(playerName);
 		playerData.lastLogin = new Date();
@@ -145,6 +148,9 @@ class PlayerEventHandler implements Listener
 		
 		//remember logout time
 		playerData.lastLogout = Calendar.getInstance().getTimeInMillis();
+		
+		//his data may be dropped from memory now
+		this.dataStore.setPlayerOnline(playerName, false);
 	}
 	
 	//when a player drops an item
@@ -172,7 +178,7 @@ class PlayerEventHandler implements Listener
 		{
 			//if the entity is in a claim
                         PlayerData data = this.dataStore.getPlayerData(player.getName());
-			Claim claim = this.dataStore.getClaimAt(entity.getLocation(), false, data.lastClaim);
+			Claim claim = this.dataStore.getCachedClaimAt(entity.getLocation(), false, data.claimHints);
 			if(claim != null)
 			{
 				//for storage and powered minecarts, apply container rules (this is a potential theft)
@@ -200,7 +206,7 @@ class PlayerEventHandler implements Listener
 				//if the entity is an animal, apply container rules
 				else if(entity instanceof Animals)
 				{
-					if(claim.allowContainers(player) != null)
+					if(claim.checkContainers(player) != PermissionResult.Allowed)
 					{
 						GriefPrevention.sendMessage(player, TextMode.Err, "That animal belongs to " + claim.getOwnerName() + ".");
 						event.setCancelled(true);
@@ -211,7 +217,7 @@ class PlayerEventHandler implements Listener
                         ItemFrame itemFrame = (ItemFrame)entity;
                         if (itemFrame.getItem().getType() != Material.AIR) {
                                 PlayerData playerData = dataStore.getPlayerData(player.getName());
-                                Claim claim = dataStore.getClaimAt(itemFrame.getLocation(), false, playerData.lastClaim);
+                                Claim claim = dataStore.getCachedClaimAt(itemFrame.getLocation(), false, playerData.claimHints);
                                 if (claim != null) {
                                         String noContainerReason = claim.allowBuild(player);
                                         if (noContainerReason != null) {
@@ -222,8 +228,8 @@ class PlayerEventHandler implements Listener
                         }
                 } else if (entity instanceof Villager) { // if the entity is a villager, apply container rules
                         PlayerData data = this.dataStore.getPlayerData(player.getName());
-			Claim claim = this.dataStore.getClaimAt(entity.getLocation(), false, data.lastClaim);
-                        if (claim != null && claim.allowContainers(player) != null) {
+			Claim claim = this.dataStore.getCachedClaimAt(entity.getLocation(), false, data.claimHints);
+                        if (claim != null && claim.checkContainers(player) != PermissionResult.Allowed) {
                                 GriefPrevention.sendMessage(player, TextMode.Err, "This villager belongs to " + claim.getOwnerName() + ".");
                                 event.setCancelled(true);
                         }
@@ -259,7 +265,7 @@ class PlayerEventHandler implements Listener
 		if(claim != null)
 		{
 			//if the player doesn't have access in that claim, tell him so and prevent him from sleeping in the bed
-			if(claim.allowAccess(player) != null)
+			if(claim.checkAccess(player) != PermissionResult.Allowed)
 			{
 				bedEvent.setCancelled(true);
 				GriefPrevention.sendMessage(player, TextMode.Err, claim.getOwnerName() + " hasn't given you permission to sleep here.");
@@ -286,7 +292,7 @@ class PlayerEventHandler implements Listener
                 if (GriefPrevention.instance.config_claims_firePlacementRequiresTrust) {
                         // deny placement of lava outside a claim with build permissions
                         PlayerData playerData = dataStore.getPlayerData(player.getName());
-                        Claim claim = dataStore.getClaimAt(block.getLocation(), true, playerData.lastClaim);
+                        Claim claim = dataStore.getCachedClaimAt(block.getLocation(), true, playerData.claimHints);
                         if (bucketEvent.getBucket() == Material.LAVA_BUCKET && claim == null && !playerData.ignoreClaims && !player.hasPermission("griefprevention.dangerousitems")) {
                                 // The absence of a claim is enough because we already
                                 // know that the player has build perms
@@ -470,12 +476,17 @@ class PlayerEventHandler implements Listener
                                 //if resizing someone else's claim, make a log entry
                                 if(!playerData.claimResizing.ownerName.equals(playerName))
                                 {
-                                        GriefPrevention.addLogEntry(playerName + " resized " + playerData.claimResizing.getOwnerName() + "'s claim at " + GriefPrevention.getfriendlyLocationString(playerData.claimResizing.lesserBoundaryCorner) + ".");
+                                        GriefPrevention.addLogEntry(playerName + " resized " + playerData.claimResizing.getOwnerName() + "'s claim at " + GriefPrevention.getfriendlyLocationString(playerData.claimResizing.getLesserBoundaryCorner()) + ".");
                                 }
                                 //clean up
                                 playerData.claimResizing = null;
                                 playerData.lastShovelLocation = null;
                         }
+                        else if(result.claim == null)
+                        {
+                                GriefPrevention.sendMessage(player, TextMode.Err, "That claim was deleted.");
+                                playerData.claimResizing = null;
+                        }
                         else
                         {
                                 //inform player
@@ -487,7 +498,7 @@ class PlayerEventHandler implements Listener
                         return;
                 }
                 //otherwise, since not currently resizing a claim, must be starting a resize, creating a new claim, or creating a subdivision
-                Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), true /*ignore height*/, playerData.lastClaim);			
+                Claim claim = this.dataStore.getCachedClaimAt(clickedBlock.getLocation(), true /*ignore height*/, playerData.claimHints);			
                 //if within an existing claim, he's not creating a new one
                 if(claim != null)
                 {
@@ -540,7 +551,14 @@ class PlayerEventHandler implements Listener
                                                         "--subdivision--",  //owner name is not used for subdivisions
                                                         playerData.claimSubdividing);
                                                 //if it didn't succeed, tell the player why
-                                                if(!result.succeeded)
+                                                if(!result.succeeded && result.claim == null)
+                                                {
+                                                        GriefPrevention.sendMessage(player, TextMode.Err, "That claim was deleted.");
+                                                        playerData.lastShovelLocation = null;
+                                                        playerData.claimSubdividing = null;
+                                                        return;
+                                                }
+                                                else if(!result.succeeded)
                                                 {
                                                         GriefPrevention.sendMessage(player, TextMode.Err, "Your selected area overlaps another subdivision.");
                                                         Visualization visualization = Visualization.FromClaim(result.claim, clickedBlock.getY(), VisualizationType.ErrorClaim);
@@ -712,7 +730,7 @@ class PlayerEventHandler implements Listener
                 //apply access rules for doors
                 else if (GriefPrevention.instance.config_claims_lockDoors && (clickedBlockType == Material.TRAP_DOOR || clickedBlockType == Material.WOODEN_DOOR || clickedBlockType == Material.FENCE_GATE)) {
                         PlayerData data = this.dataStore.getPlayerData(player.getName());
-                        Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, data.lastClaim);
+                        Claim claim = this.dataStore.getCachedClaimAt(clickedBlock.getLocation(), false, data.claimHints);
                         if (claim != null) {
                                 String noAccessReason = claim.allowAccess(player);
                                 if (noAccessReason != null) {
@@ -792,7 +810,7 @@ class PlayerEventHandler implements Listener
 			
 				//enforce limit on total number of entities in this claim
 				PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-				Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+				Claim claim = this.dataStore.getCachedClaimAt(clickedBlock.getLocation(), false, playerData.claimHints);
 				if(claim == null) return;
 				
 				String noEntitiesReason = claim.allowMoreEntities();
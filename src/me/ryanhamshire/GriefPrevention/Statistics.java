@@ -0,0 +1,291 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+//call counts and latencies for the event handlers and the busiest data store methods, see /GPStats
+//cheap enough to leave on: a timed call costs two clock reads and a few uncontended atomic adds
+class Statistics
+{
+	//whether anything is measured, see GriefPrevention.Statistics.Enabled in the config
+	static volatile boolean enabled = true;
+	
+	//everything which has been timed, in registration order
+	private static final List<OperationStats> operations = new CopyOnWriteArrayList<OperationStats>();
+	
+	static final OperationStats getClaimAt = Statistics.register("DataStore.getClaimAt");
+	static final OperationStats getPlayerData = Statistics.register("DataStore.getPlayerData");
+	static final OperationStats saveClaim = Statistics.register("DataStore.saveClaim");
+	static final OperationStats savePlayerData = Statistics.register("DataStore.savePlayerData");
+	
+	//claim lookups answered from cached claims, by who did the lookup, see ClaimHintCache
+	private static final List<HintCounters> hintCounters = new CopyOnWriteArrayList<HintCounters>();
+	static final HintCounters playerClaimHints = Statistics.registerHints("players");
+	static final HintCounters fluidClaimHints = Statistics.registerHints("fluids");
+	static final HintCounters fireClaimHints = Statistics.registerHints("fire");
+	static final HintCounters explosionClaimHints = Statistics.registerHints("explosions");
+	
+	//lookups which came with a single cached claim, like extensions make
+	static final HintCounters cachedClaimHints = Statistics.registerHints("other");
+	
+	//when the counters were last reset
+	private static volatile long resetTime = System.currentTimeMillis();
+	
+	static OperationStats register(String name)
+	{
+		OperationStats stats = new OperationStats(name);
+		operations.add(stats);
+		return stats;
+	}
+	
+	static HintCounters registerHints(String name)
+	{
+		HintCounters counters = new HintCounters(name);
+		hintCounters.add(counters);
+		return counters;
+	}
+	
+	//registers a listener's event handlers like PluginManager.registerEvents() does, but times each call
+	static void registerEvents(PluginManager pluginManager, Listener listener, Plugin plugin)
+	{
+		if(!Statistics.enabled)
+		{
+			pluginManager.registerEvents(listener, plugin);
+			return;
+		}
+		
+		Method [] methods = listener.getClass().getDeclaredMethods();
+		for(int i = 0; i < methods.length; i++)
+		{
+			final Method method = methods[i];
+			EventHandler eventHandler = method.getAnnotation(EventHandler.class);
+			if(eventHandler == null) continue;
+			
+			Class<?> [] parameterTypes = method.getParameterTypes();
+			if(parameterTypes.length != 1 || !Event.class.isAssignableFrom(parameterTypes[0])) continue;
+			
+			final Class<? extends Event> eventClass = parameterTypes[0].asSubclass(Event.class);
+			final OperationStats stats = Statistics.register(listener.getClass().getSimpleName() + "." + method.getName());
+			method.setAccessible(true);
+			
+			EventExecutor executor = new EventExecutor()
+			{
+				@Override
+				public void execute(Listener listener, Event event) throws EventException
+				{
+					//handler lists are shared with superclasses, so this may see events the method doesn't take
+					if(!eventClass.isInstance(event)) return;
+					
+					long startTime = stats.start();
+					try
+					{
+						method.invoke(listener, event);
+					}
+					catch(InvocationTargetException exception)
+					{
+						throw new EventException(exception.getCause());
+					}
+					catch(Exception exception)
+					{
+						throw new EventException(exception);
+					}
+					finally
+					{
+						stats.end(startTime);
+					}
+				}
+			};
+			
+			pluginManager.registerEvent(eventClass, listener, eventHandler.priority(), executor, plugin, eventHandler.ignoreCancelled());
+		}
+	}
+	
+	static void reset()
+	{
+		for(OperationStats stats : operations)
+		{
+			stats.reset();
+		}
+		
+		for(HintCounters counters : hintCounters)
+		{
+			counters.lookups.reset();
+			counters.claimHits.reset();
+			counters.wildernessHits.reset();
+		}
+		
+		resetTime = System.currentTimeMillis();
+	}
+	
+	//one line per operation which has been called, busiest (by total time) first, and at most limit of them
+	//then a few lines about the caches, the background writer and claim expiration
+	static List<String> getReport(int limit)
+	{
+		List<String> lines = new ArrayList<String>();
+		
+		long minutes = (System.currentTimeMillis() - resetTime) / (1000 * 60);
+		lines.add("Over the last " + (minutes / 60) + "h " + (minutes % 60) + "m:");
+		
+		List<OperationStats.Snapshot> snapshots = new ArrayList<OperationStats.Snapshot>();
+		for(OperationStats stats : operations)
+		{
+			OperationStats.Snapshot snapshot = stats.getSnapshot();
+			if(snapshot.calls > 0) snapshots.add(snapshot);
+		}
+		
+		Collections.sort(snapshots, new Comparator<OperationStats.Snapshot>()
+		{
+			@Override
+			public int compare(OperationStats.Snapshot first, OperationStats.Snapshot second)
+			{
+				if(first.totalNanos == second.totalNanos) return 0;
+				return first.totalNanos > second.totalNanos ? -1 : 1;
+			}
+		});
+		
+		for(int i = 0; i < snapshots.size() && i < limit; i++)
+		{
+			OperationStats.Snapshot snapshot = snapshots.get(i);
+			lines.add(snapshot.name + ": " + snapshot.calls + " calls, " +
+					formatNanos(snapshot.getPercentileNanos(.5)) + "/" +
+					formatNanos(snapshot.getPercentileNanos(.99)) + "/" +
+					formatNanos(snapshot.maximumNanos) + " p50/p99/max, " +
+					formatNanos(snapshot.totalNanos) + " total");
+		}
+		
+		if(snapshots.size() > limit)
+		{
+			lines.add("(" + (snapshots.size() - limit) + " more)");
+		}
+		
+		StringBuilder hintLine = new StringBuilder();
+		for(HintCounters counters : hintCounters)
+		{
+			long lookups = counters.lookups.get();
+			if(lookups == 0) continue;
+			
+			if(hintLine.length() > 0) hintLine.append("; ");
+			hintLine.append(counters.name + " " + formatHitRate(counters.claimHits.get() + counters.wildernessHits.get(), lookups));
+			
+			long wildernessHits = counters.wildernessHits.get();
+			if(wildernessHits > 0) hintLine.append(String.format(" (%.1f%% wilderness)", wildernessHits * 100.0 / lookups));
+		}
+		
+		lines.add("Claim hints: " + (hintLine.length() > 0 ? hintLine.toString() : "no lookups") + ".");
+		
+		GriefPrevention plugin = GriefPrevention.instance;
+		DataStore dataStore = plugin.dataStore;
+		if(dataStore != null)
+		{
+			long hits = dataStore.getPlayerDataCacheHits();
+			long misses = dataStore.getPlayerDataCacheMisses();
+			lines.add("Player data cache since startup: " + formatHitRate(hits, hits + misses) + ", " + dataStore.getPlayerDataCacheSize() + " cached, " + dataStore.getPlayerDataCacheEvictions() + " evicted.");
+			lines.add("Waiting to be written: " + dataStore.getPendingWrites() + ".");
+		}
+		
+		ClaimExpirationTask expirationTask = plugin.claimExpirationTask;
+		if(expirationTask != null && expirationTask.getPassesCompleted() > 0)
+		{
+			lines.add("Claim expiration since startup: " + expirationTask.getPassesCompleted() + " passes, " + expirationTask.getTotalClaimsExpired() + " claims expired, last pass took " + expirationTask.getLastPassMillis() + "ms.");
+		}
+		
+		return lines;
+	}
+	
+	private static String formatHitRate(long hits, long lookups)
+	{
+		if(lookups == 0) return "no lookups";
+		
+		return String.format("%.1f%% hits of %d lookups", hits * 100.0 / lookups, lookups);
+	}
+	
+	private static String formatNanos(long nanos)
+	{
+		if(nanos < 1000000L) return String.format("%.1fus", nanos / 1000.0);
+		if(nanos < 1000000000L) return String.format("%.1fms", nanos / 1000000.0);
+		return String.format("%.1fs", nanos / 1000000000.0);
+	}
+	
+	//lookups through one kind of claim hint, and how many were answered by a cached claim or a cached unclaimed chunk
+	static class HintCounters
+	{
+		final String name;
+		final StripedCounter lookups = new StripedCounter();
+		final StripedCounter claimHits = new StripedCounter();
+		final StripedCounter wildernessHits = new StripedCounter();
+		
+		HintCounters(String name)
+		{
+			this.name = name;
+		}
+	}
+	
+	//a counter split into stripes picked by thread, like java 8's LongAdder
+	static class StripedCounter
+	{
+		private final static int STRIPES = 4;
+		
+		//each stripe gets its own 64 byte cache line
+		private final static int SPACING = 8;
+		
+		private final AtomicLongArray counts = new AtomicLongArray(STRIPES * SPACING);
+		
+		void increment()
+		{
+			if(!Statistics.enabled) return;
+			
+			this.counts.incrementAndGet(((int)Thread.currentThread().getId() & (STRIPES - 1)) * SPACING);
+		}
+		
+		long get()
+		{
+			long total = 0;
+			for(int i = 0; i < STRIPES; i++)
+			{
+				total += this.counts.get(i * SPACING);
+			}
+			
+			return total;
+		}
+		
+		void reset()
+		{
+			for(int i = 0; i < STRIPES; i++)
+			{
+				this.counts.set(i * SPACING, 0);
+			}
+		}
+	}
+}
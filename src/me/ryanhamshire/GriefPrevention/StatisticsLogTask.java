@@ -0,0 +1,35 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.List;
+
+//runs every few minutes (see GriefPrevention.Statistics.LogIntervalMinutes) in the main thread, logs the busiest operations, see Statistics
+class StatisticsLogTask implements Runnable 
+{
+	@Override
+	public void run()
+	{
+		List<String> lines = Statistics.getReport(5);
+		for(String line : lines)
+		{
+			GriefPrevention.addLogEntry("Stats: " + line);
+		}
+	}
+}
@@ -19,12 +19,13 @@
 package me.ryanhamshire.GriefPrevention;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 
 //represents a visualization sent to a player
@@ -35,6 +36,7 @@ public class Visualization
 	public ArrayList<VisualizationElement> elements = new ArrayList<VisualizationElement>();
 	
 	//sends a visualization to a player
+	//the markers are moved to the ground off the main thread, see VisualizationPlacementTask.  only copying the chunks they're in happens here
 	public static void Apply(Player player, Visualization visualization)
 	{
 		PlayerData playerData = GriefPrevention.instance.dataStore.getPlayerData(player.getName());
@@ -45,10 +47,42 @@ public class Visualization
 			Visualization.Revert(player);
 		}
 		
-		//if he's online, create a task to send him the visualization in about half a second
+		//if he's online, create a task to place the markers, which sends him the visualization in about half a second
 		if(player.isOnline())
 		{
-			GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, new VisualizationApplicationTask(player, playerData, visualization), 10L);
+			//he can only see markers in loaded chunks within view distance, so the rest are dropped rather than loading chunks for them
+			World world = player.getWorld();
+			Location playerLocation = player.getLocation();
+			int playerChunkX = playerLocation.getBlockX() >> 4;
+			int playerChunkZ = playerLocation.getBlockZ() >> 4;
+			int viewDistance = GriefPrevention.instance.getServer().getViewDistance();
+			
+			//each chunk with markers in it is copied once.  NULL means it isn't loaded
+			HashMap<Long, ChunkSnapshot> snapshots = new HashMap<Long, ChunkSnapshot>();
+			ArrayList<VisualizationElement> visibleElements = new ArrayList<VisualizationElement>();
+			for(int i = 0; i < visualization.elements.size(); i++)
+			{
+				VisualizationElement element = visualization.elements.get(i);
+				if(!world.equals(element.location.getWorld())) continue;
+				
+				int chunkX = element.location.getBlockX() >> 4;
+				int chunkZ = element.location.getBlockZ() >> 4;
+				if(Math.abs(chunkX - playerChunkX) > viewDistance || Math.abs(chunkZ - playerChunkZ) > viewDistance) continue;
+				
+				Long chunkKey = DataStore.getChunkKey(chunkX, chunkZ);
+				if(!snapshots.containsKey(chunkKey))
+				{
+					snapshots.put(chunkKey, world.isChunkLoaded(chunkX, chunkZ) ? world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false) : null);
+				}
+				
+				if(snapshots.get(chunkKey) == null) continue;
+				
+				visibleElements.add(element);
+			}
+			
+			visualization.elements = visibleElements;
+			
+			GriefPrevention.instance.getServer().getScheduler().runTaskAsynchronously(GriefPrevention.instance, new VisualizationPlacementTask(player, playerData, visualization, snapshots, world.getMaxHeight()));
 		}
 	}
 	
@@ -66,7 +100,12 @@ public class Visualization
 				for(int i = 0; i < visualization.elements.size(); i++)
 				{
 					VisualizationElement element = visualization.elements.get(i);
-					Block block = element.location.getBlock();
+					
+					//his client drops chunks the server unloads, so there's nothing to revert there, and no reason to load them
+					Location location = element.location;
+					if(!location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) continue;
+					
+					Block block = location.getBlock();
 					player.sendBlockChange(element.location, block.getType(), block.getData());
 				}
 			}
@@ -88,9 +127,10 @@ public class Visualization
 		Visualization visualization = new Visualization();
 		
 		//add subdivisions first
-		for(int i = 0; i < claim.children.size(); i++)
+		ArrayList<Claim> subdivisions = claim.children;
+		for(int i = 0; i < subdivisions.size(); i++)
 		{
-			visualization.addClaimElements(claim.children.get(i), height, VisualizationType.Subdivision);
+			visualization.addClaimElements(subdivisions.get(i), height, VisualizationType.Subdivision);
 		}
 		
 		//add top level last so that it takes precedence (it shows on top when the child claim boundaries overlap with its boundaries)
@@ -101,6 +141,7 @@ public class Visualization
 	
 	//adds a claim's visualization to the current visualization
 	//handy for combining several visualizations together, as when visualization a top level claim with several subdivisions inside
+	//markers start out at the given height, and are moved to the ground when the visualization is applied.  nothing here reads the world
 	private void addClaimElements(Claim claim, int height, VisualizationType visualizationType)
 	{
 		Location smallXsmallZ = claim.getLesserBoundaryCorner();
@@ -134,75 +175,83 @@ public class Visualization
 		}
 		
 		//bottom left corner
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx, height, smallz), cornerMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx + 1, height, smallz), accentMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx, height, smallz + 1), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx, height, smallz), cornerMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx + 1, height, smallz), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx, height, smallz + 1), accentMaterial, (byte)0));
 		
 		//bottom right corner
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx, height, smallz), cornerMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx - 1, height, smallz), accentMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx, height, smallz + 1), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx, height, smallz), cornerMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx - 1, height, smallz), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx, height, smallz + 1), accentMaterial, (byte)0));
 		
 		//top right corner
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx, height, bigz), cornerMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx - 1, height, bigz), accentMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx, height, bigz - 1), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx, height, bigz), cornerMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx - 1, height, bigz), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, bigx, height, bigz - 1), accentMaterial, (byte)0));
 		
 		//top left corner
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx, height, bigz), cornerMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx + 1, height, bigz), accentMaterial, (byte)0));
-		this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx, height, bigz - 1), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx, height, bigz), cornerMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx + 1, height, bigz), accentMaterial, (byte)0));
+		this.elements.add(new VisualizationElement(new Location(world, smallx, height, bigz - 1), accentMaterial, (byte)0));
 		
 		//top line		
 		for(int x = smallx + 10; x < bigx - 10; x += 10)
 		{
-			this.elements.add(new VisualizationElement(getVisibleLocation(world, x, height, bigz), accentMaterial, (byte)0));
+			this.elements.add(new VisualizationElement(new Location(world, x, height, bigz), accentMaterial, (byte)0));
 		}
 		
 		//bottom line
 		for(int x = smallx + 10; x < bigx - 10; x += 10)
 		{
-			this.elements.add(new VisualizationElement(getVisibleLocation(world, x, height, smallz), accentMaterial, (byte)0));
+			this.elements.add(new VisualizationElement(new Location(world, x, height, smallz), accentMaterial, (byte)0));
 		}
 		
 		//left line
 		for(int z = smallz + 10; z < bigz - 10; z += 10)
 		{
-			this.elements.add(new VisualizationElement(getVisibleLocation(world, smallx, height, z), accentMaterial, (byte)0));
+			this.elements.add(new VisualizationElement(new Location(world, smallx, height, z), accentMaterial, (byte)0));
 		}
 		
 		//right line
 		for(int z = smallz + 10; z < bigz - 10; z += 10)
 		{
-			this.elements.add(new VisualizationElement(getVisibleLocation(world, bigx, height, z), accentMaterial, (byte)0));
+			this.elements.add(new VisualizationElement(new Location(world, bigx, height, z), accentMaterial, (byte)0));
 		}
 	}
 	
-	//finds a block the player can probably see.  this is how visualizations "cling" to the ground or ceiling
-	private static Location getVisibleLocation(World world, int x, int y, int z)
+	//finds the height of a block the player can probably see.  this is how visualizations "cling" to the ground or ceiling
+	//x and z are within the snapshot's chunk.  any thread may call this
+	static int getVisibleY(ChunkSnapshot snapshot, int x, int y, int z, int maxHeight)
 	{
-		Block block = world.getBlockAt(x,  y, z);
-		BlockFace direction = (isTransparent(block)) ? BlockFace.DOWN : BlockFace.UP;
+		int direction = isTransparent(getTypeId(snapshot, x, y, z, maxHeight)) ? -1 : 1;
 				
-		while(	block.getY() >= 1 && 
-				block.getY() < world.getMaxHeight() - 1 &&
-				(!isTransparent(block.getRelative(BlockFace.UP)) || isTransparent(block)))
+		while(	y >= 1 && 
+				y < maxHeight - 1 &&
+				(!isTransparent(getTypeId(snapshot, x, y + 1, z, maxHeight)) || isTransparent(getTypeId(snapshot, x, y, z, maxHeight))))
 		{
-			block = block.getRelative(direction);
+			y += direction;
 		}
 		
-		return block.getLocation();
+		return y;
+	}
+	
+	//blocks above and below the world are air
+	private static int getTypeId(ChunkSnapshot snapshot, int x, int y, int z, int maxHeight)
+	{
+		if(y < 0 || y >= maxHeight) return 0;
+		
+		return snapshot.getBlockTypeId(x, y, z);
 	}
 	
 	//helper method for above.  allows visualization blocks to sit underneath partly transparent blocks like grass and fence
-	private static boolean isTransparent(Block block)
+	private static boolean isTransparent(int typeId)
 	{
-		return (	block.getType() == Material.AIR ||
-					block.getType() == Material.LONG_GRASS ||
-					block.getType() == Material.FENCE ||
-					block.getType() == Material.LEAVES ||
-					block.getType() == Material.RED_ROSE ||
-					block.getType() == Material.CHEST ||
-					block.getType() == Material.YELLOW_FLOWER );
+		return (	typeId == Material.AIR.getId() ||
+					typeId == Material.LONG_GRASS.getId() ||
+					typeId == Material.FENCE.getId() ||
+					typeId == Material.LEAVES.getId() ||
+					typeId == Material.RED_ROSE.getId() ||
+					typeId == Material.CHEST.getId() ||
+					typeId == Material.YELLOW_FLOWER.getId() );
 	}
 }
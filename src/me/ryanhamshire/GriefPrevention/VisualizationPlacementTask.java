@@ -0,0 +1,64 @@
+/*
+  GriefPrevention Server Plugin for Minecraft
+  Copyright (C) 2012 Ryan Hamshire
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.Map;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+//runs off the main thread, moves a visualization's markers to blocks the player can probably see, then hands it back to the main thread to send
+//reads only the chunk snapshots taken by Visualization.Apply(), so huge claims don't keep the main thread walking blocks
+class VisualizationPlacementTask implements Runnable 
+{
+	private Player player;
+	private PlayerData playerData;
+	private Visualization visualization;
+	private Map<Long, ChunkSnapshot> snapshots;
+	private int maxHeight;
+	
+	public VisualizationPlacementTask(Player player, PlayerData playerData, Visualization visualization, Map<Long, ChunkSnapshot> snapshots, int maxHeight)
+	{
+		this.player = player;
+		this.playerData = playerData;
+		this.visualization = visualization;
+		this.snapshots = snapshots;
+		this.maxHeight = maxHeight;
+	}
+	
+	@Override
+	public void run()
+	{
+		for(int i = 0; i < this.visualization.elements.size(); i++)
+		{
+			VisualizationElement element = this.visualization.elements.get(i);
+			Location location = element.location;
+			int x = location.getBlockX();
+			int z = location.getBlockZ();
+			
+			ChunkSnapshot snapshot = this.snapshots.get(DataStore.getChunkKey(x >> 4, z >> 4));
+			int y = Visualization.getVisibleY(snapshot, x & 15, location.getBlockY(), z & 15, this.maxHeight);
+			element.location = new Location(location.getWorld(), x, y, z);
+		}
+		
+		//send him the visualization in about half a second, which gives his client time to finish with whatever he clicked
+		GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, new VisualizationApplicationTask(this.player, this.playerData, this.visualization), 10L);
+	}
+}